@@ -0,0 +1,350 @@
+package ca.wise;
+
+import java.util.Arrays;
+
+/**
+ * An immutable set of logical processors.
+ *
+ * The set is stored as an array of 64 bit words so it can hold any number of
+ * processors. Queries, including comparisons between two masks, never allocate.
+ * Masks that differ only by trailing empty words are equal.
+ */
+public final class CpuMask {
+
+    /**
+     * A mask that doesn't contain any processors.
+     */
+    public static final CpuMask EMPTY = new CpuMask(new long[0]);
+
+    private final long[] words;
+
+    /**
+     * @param words The words of the mask, must not have trailing zero words and must not be shared.
+     */
+    private CpuMask(long[] words) {
+        this.words = words;
+    }
+
+    /**
+     * Create a mask that contains the given processors.
+     */
+    public static CpuMask of(int... cpus) {
+        Builder builder = new Builder();
+        for (int cpu : cpus)
+            builder.set(cpu);
+        return builder.build();
+    }
+
+    /**
+     * Create a mask that contains a range of processors.
+     * @param from The first processor in the range.
+     * @param to The processor after the last processor in the range.
+     */
+    public static CpuMask range(int from, int to) {
+        return new Builder().set(from, to).build();
+    }
+
+    /**
+     * Create a mask from words where bit {@code i} of word {@code j} is processor {@code j * 64 + i}.
+     */
+    public static CpuMask fromWords(long... words) {
+        return create(Arrays.copyOf(words, words.length));
+    }
+
+    /**
+     * Parse a Linux CPU list, ex. {@code 0-3,8,10-11}. Invalid entries are ignored.
+     */
+    public static CpuMask parse(String list) {
+        Builder builder = new Builder();
+        for (String part : list.trim().split(",")) {
+            part = part.trim();
+            if (part.isEmpty())
+                continue;
+            int dash = part.indexOf('-');
+            try {
+                if (dash < 0)
+                    builder.set(Integer.parseInt(part));
+                else
+                    builder.set(Integer.parseInt(part.substring(0, dash)), Integer.parseInt(part.substring(dash + 1)) + 1);
+            }
+            catch (NumberFormatException e) { }
+        }
+        return builder.build();
+    }
+
+    private static CpuMask create(long[] words) {
+        int length = words.length;
+        while (length > 0 && words[length - 1] == 0)
+            length--;
+        if (length == 0)
+            return EMPTY;
+        return new CpuMask(length == words.length ? words : Arrays.copyOf(words, length));
+    }
+
+    /**
+     * Is a processor in the mask.
+     */
+    public boolean get(int cpu) {
+        int word = cpu >>> 6;
+        return cpu >= 0 && word < words.length && (words[word] & (1L << cpu)) != 0;
+    }
+
+    /**
+     * Is the mask empty.
+     */
+    public boolean isEmpty() {
+        return words.length == 0;
+    }
+
+    /**
+     * The number of processors in the mask.
+     */
+    public int cardinality() {
+        int retval = 0;
+        for (long word : words)
+            retval += Long.bitCount(word);
+        return retval;
+    }
+
+    /**
+     * Does the mask contain any of the processors in another mask.
+     */
+    public boolean intersects(CpuMask other) {
+        int length = Math.min(words.length, other.words.length);
+        for (int i = 0; i < length; i++) {
+            if ((words[i] & other.words[i]) != 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * The number of processors that are in both this mask and another mask.
+     */
+    public int intersectionCount(CpuMask other) {
+        int length = Math.min(words.length, other.words.length);
+        int retval = 0;
+        for (int i = 0; i < length; i++)
+            retval += Long.bitCount(words[i] & other.words[i]);
+        return retval;
+    }
+
+    /**
+     * Does the mask contain every processor in another mask.
+     */
+    public boolean containsAll(CpuMask other) {
+        if (other.words.length > words.length)
+            return false;
+        for (int i = 0; i < other.words.length; i++) {
+            if ((other.words[i] & ~words[i]) != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * The lowest processor in the mask, or -1 if the mask is empty.
+     */
+    public int lowestSetBit() {
+        return nextSetBit(0);
+    }
+
+    /**
+     * The highest processor in the mask, or -1 if the mask is empty.
+     */
+    public int highestSetBit() {
+        if (words.length == 0)
+            return -1;
+        int last = words.length - 1;
+        return last * Long.SIZE + (Long.SIZE - 1 - Long.numberOfLeadingZeros(words[last]));
+    }
+
+    /**
+     * Find the next processor in the mask, ex. {@code for (int i = mask.nextSetBit(0); i >= 0; i = mask.nextSetBit(i + 1))}.
+     * @param from The processor to start searching at.
+     * @return The next processor at or after {@code from}, or -1 if there are none.
+     */
+    public int nextSetBit(int from) {
+        if (from < 0)
+            from = 0;
+        int index = from >>> 6;
+        if (index >= words.length)
+            return -1;
+        long word = words[index] & (-1L << from);
+        while (true) {
+            if (word != 0)
+                return index * Long.SIZE + Long.numberOfTrailingZeros(word);
+            if (++index == words.length)
+                return -1;
+            word = words[index];
+        }
+    }
+
+    /**
+     * The number of 64 bit words needed to hold the mask.
+     */
+    public int wordCount() {
+        return words.length;
+    }
+
+    /**
+     * Get a word of the mask, processors {@code index * 64} to {@code index * 64 + 63}.
+     * Words past the end of the mask are 0.
+     */
+    public long word(int index) {
+        return index < words.length ? words[index] : 0;
+    }
+
+    /**
+     * Create a mask that also contains a processor.
+     */
+    public CpuMask with(int cpu) {
+        if (get(cpu))
+            return this;
+        return new Builder(this).set(cpu).build();
+    }
+
+    /**
+     * Create a mask that doesn't contain a processor.
+     */
+    public CpuMask without(int cpu) {
+        if (!get(cpu))
+            return this;
+        return new Builder(this).clear(cpu).build();
+    }
+
+    /**
+     * Create a mask of the processors that are in both this mask and another mask.
+     */
+    public CpuMask and(CpuMask other) {
+        long[] retval = new long[Math.min(words.length, other.words.length)];
+        for (int i = 0; i < retval.length; i++)
+            retval[i] = words[i] & other.words[i];
+        return create(retval);
+    }
+
+    /**
+     * Create a mask of the processors that are in either this mask or another mask.
+     */
+    public CpuMask or(CpuMask other) {
+        long[] retval = Arrays.copyOf(words, Math.max(words.length, other.words.length));
+        for (int i = 0; i < other.words.length; i++)
+            retval[i] |= other.words[i];
+        return create(retval);
+    }
+
+    /**
+     * Create a mask of the processors that are in this mask but not in another mask.
+     */
+    public CpuMask andNot(CpuMask other) {
+        long[] retval = Arrays.copyOf(words, words.length);
+        int length = Math.min(words.length, other.words.length);
+        for (int i = 0; i < length; i++)
+            retval[i] &= ~other.words[i];
+        return create(retval);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof CpuMask))
+            return false;
+        return Arrays.equals(words, ((CpuMask)obj).words);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(words);
+    }
+
+    /**
+     * Format the mask as a Linux CPU list, ex. {@code 0-3,8,10-11}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        int start = nextSetBit(0);
+        while (start >= 0) {
+            int end = start;
+            while (get(end + 1))
+                end++;
+            if (builder.length() > 0)
+                builder.append(',');
+            builder.append(start);
+            if (end > start)
+                builder.append('-').append(end);
+            start = nextSetBit(end + 1);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Builds a mask one processor at a time without allocating a new mask for each change.
+     */
+    public static final class Builder {
+        private long[] words;
+
+        public Builder() {
+            words = new long[1];
+        }
+
+        /**
+         * Start with the processors in an existing mask.
+         */
+        public Builder(CpuMask mask) {
+            words = Arrays.copyOf(mask.words, Math.max(1, mask.words.length));
+        }
+
+        /**
+         * Add a processor.
+         */
+        public Builder set(int cpu) {
+            if (cpu >= 0) {
+                ensure(cpu);
+                words[cpu >>> 6] |= 1L << cpu;
+            }
+            return this;
+        }
+
+        /**
+         * Add a range of processors.
+         * @param from The first processor in the range.
+         * @param to The processor after the last processor in the range.
+         */
+        public Builder set(int from, int to) {
+            for (int i = Math.max(0, from); i < to; i++)
+                set(i);
+            return this;
+        }
+
+        /**
+         * Remove a processor.
+         */
+        public Builder clear(int cpu) {
+            if (cpu >= 0 && (cpu >>> 6) < words.length)
+                words[cpu >>> 6] &= ~(1L << cpu);
+            return this;
+        }
+
+        /**
+         * Is a processor in the mask being built.
+         */
+        public boolean get(int cpu) {
+            return cpu >= 0 && (cpu >>> 6) < words.length && (words[cpu >>> 6] & (1L << cpu)) != 0;
+        }
+
+        /**
+         * Create the mask. The builder can continue to be used.
+         */
+        public CpuMask build() {
+            return create(Arrays.copyOf(words, words.length));
+        }
+
+        private void ensure(int cpu) {
+            int word = cpu >>> 6;
+            if (word >= words.length)
+                words = Arrays.copyOf(words, Math.max(word + 1, words.length * 2));
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package ca.wise;
 
-import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Consumer;
@@ -135,9 +134,9 @@ public class SharedBlock {
      * @param details The already loaded configuration details.
      * @param cores A bitmask of the cores that should be marked reserved.
      */
-    public void reserveBlock(SharedMemoryDetails details, BigInteger cores) {
+    public void reserveBlock(SharedMemoryDetails details, CpuMask cores) {
         for (int i = 0; i < details.cpus.size(); i++) {
-            if (cores.testBit(i))
+            if (cores.get(i))
                 details.cpus.get(i).options |= CPU_OPTION_RESERVE;
             else
                 details.cpus.get(i).options &= ~CPU_OPTION_RESERVE;
@@ -212,15 +211,15 @@ public class SharedBlock {
         public short cpuSkip;
         public byte jobCount;
         
-        public BigInteger getUsedMask() {
-            BigInteger retval = BigInteger.ZERO;
+        public CpuMask getUsedMask() {
+            CpuMask.Builder retval = new CpuMask.Builder();
             
             for (int i = 0; i < cpus.size(); i++) {
                 if (cpus.get(i).pids.size() > 0)
-                    retval = retval.setBit(i);
+                    retval.set(i);
             }
             
-            return retval;
+            return retval.build();
         }
     }
     
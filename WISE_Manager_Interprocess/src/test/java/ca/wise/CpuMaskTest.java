@@ -0,0 +1,98 @@
+package ca.wise;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CpuMaskTest {
+
+    @Test
+    public void parseAndFormatRoundTrip() {
+        for (String list : new String[] { "0", "0-3", "0-3,8,10-11", "63-64", "0,64,128", "60-70,127-130" }) {
+            CpuMask mask = CpuMask.parse(list);
+            assertEquals(list, mask.toString());
+            assertEquals(mask, CpuMask.parse(mask.toString()));
+        }
+    }
+
+    @Test
+    public void parseIgnoresInvalidEntries() {
+        assertEquals("1,3-4", CpuMask.parse(" 1, ,x,3-4,5-y ").toString());
+        assertSame(CpuMask.EMPTY, CpuMask.parse(""));
+        assertEquals("", CpuMask.EMPTY.toString());
+    }
+
+    @Test
+    public void parseMatchesBuilders() {
+        CpuMask mask = CpuMask.parse("2-5,64,100-101");
+        assertEquals(CpuMask.of(2, 3, 4, 5, 64, 100, 101), mask);
+        assertEquals(CpuMask.range(2, 6).or(CpuMask.of(64)).or(CpuMask.range(100, 102)), mask);
+        assertEquals(7, mask.cardinality());
+    }
+
+    @Test
+    public void nextSetBitAcrossWords() {
+        CpuMask mask = CpuMask.of(3, 63, 64, 127, 130);
+        assertEquals(3, mask.nextSetBit(0));
+        assertEquals(63, mask.nextSetBit(4));
+        assertEquals(64, mask.nextSetBit(64));
+        assertEquals(127, mask.nextSetBit(65));
+        assertEquals(130, mask.nextSetBit(128));
+        assertEquals(-1, mask.nextSetBit(131));
+        assertEquals(-1, mask.nextSetBit(1000));
+        assertEquals(3, mask.nextSetBit(-5));
+        //an empty word between set words
+        CpuMask sparse = CpuMask.of(1, 200);
+        assertEquals(200, sparse.nextSetBit(2));
+    }
+
+    @Test
+    public void highestAndLowestSetBitAcrossWords() {
+        assertEquals(63, CpuMask.of(0, 63).highestSetBit());
+        assertEquals(64, CpuMask.of(0, 64).highestSetBit());
+        assertEquals(127, CpuMask.of(127).highestSetBit());
+        assertEquals(130, CpuMask.of(5, 130).highestSetBit());
+        assertEquals(127, CpuMask.of(127).lowestSetBit());
+        assertEquals(-1, CpuMask.EMPTY.highestSetBit());
+        assertEquals(-1, CpuMask.EMPTY.lowestSetBit());
+    }
+
+    @Test
+    public void trailingZeroWordsAreEqual() {
+        CpuMask one = CpuMask.fromWords(1L);
+        CpuMask padded = CpuMask.fromWords(1L, 0L, 0L);
+        assertEquals(one, padded);
+        assertEquals(one.hashCode(), padded.hashCode());
+        assertEquals(1, padded.wordCount());
+        assertEquals(0, padded.word(2));
+        assertSame(CpuMask.EMPTY, CpuMask.fromWords(0L, 0L));
+        assertNotEquals(one, CpuMask.fromWords(1L, 1L));
+    }
+
+    @Test
+    public void removingTheHighestProcessorShrinksTheMask() {
+        CpuMask mask = CpuMask.of(1, 130);
+        CpuMask removed = mask.without(130);
+        assertEquals(CpuMask.of(1), removed);
+        assertEquals(1, removed.wordCount());
+        assertEquals(CpuMask.EMPTY, CpuMask.of(64).andNot(CpuMask.of(64)));
+        assertEquals(CpuMask.of(1), mask.and(CpuMask.of(1)));
+        assertSame(mask, mask.without(2));
+    }
+
+    @Test
+    public void setOperationsAcrossWords() {
+        CpuMask a = CpuMask.parse("0-3,64-67");
+        CpuMask b = CpuMask.parse("2-5,66");
+        assertTrue(a.intersects(b));
+        assertEquals(3, a.intersectionCount(b));
+        assertTrue(a.containsAll(CpuMask.of(1, 65)));
+        assertFalse(a.containsAll(b));
+        assertFalse(a.get(128));
+        assertFalse(a.get(-1));
+    }
+}
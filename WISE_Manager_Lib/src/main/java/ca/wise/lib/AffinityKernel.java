@@ -3,6 +3,7 @@ package ca.wise.lib;
 import com.sun.jna.ptr.LongByReference;
 
 import ca.hss.platform.OperatingSystem;
+import ca.wise.CpuMask;
 import ca.wise.lib.linux.AffinityKernelLinux;
 import ca.wise.lib.windows.AffinityKernelWindows;
 
@@ -11,11 +12,16 @@ public final class AffinityKernel {
 	private static AffinityKernelWindows _windowsInstance = null;
 	private static AffinityKernelLinux _linuxInstance = null;
 	
-	private long mask;
+	/**
+	 * The largest number of processors that an affinity can be set for, the size of a Linux {@code cpu_set_t}.
+	 */
+	private static final int MAX_PROCESSORS = 1024;
+	
+	private CpuMask.Builder mask;
 	private long pid;
 	
 	private AffinityKernel() {
-		mask = 0;
+		mask = new CpuMask.Builder();
 	}
 	
 	static {
@@ -38,34 +44,85 @@ public final class AffinityKernel {
 		return kernel;
 	}
 	
+	/**
+	 * Set the affinity of the calling thread instead of a process. Processes that are
+	 * started from the thread inherit its affinity, along with all of their threads.
+	 * Only supported on Linux, save the affinity with {@link #saveThread()}.
+	 */
+	public static AffinityKernel setThreadAffinity() {
+		return setProcessorAffinity(0);
+	}
+	
+	/**
+	 * Restore the affinity of the calling thread after it was changed with {@link #saveThread()}.
+	 * @param previous The affinity returned by {@link #saveThread()}, nothing is done if it is null.
+	 */
+	public static void restoreThreadAffinity(CpuMask previous) {
+		if (previous != null && _linuxInstance != null)
+			_linuxInstance.SetProcessAffinityMask(0, previous);
+	}
+	
 	public AffinityKernel withProcessor(int index) {
-		mask |= (1L << index);
+		mask.set(index);
 		return this;
 	}
 	
 	public AffinityKernel withProcessors(int...index) {
 		for (int i : index) {
-			mask |= (1L << i);
+			mask.set(i);
+		}
+		return this;
+	}
+	
+	public AffinityKernel withProcessors(CpuMask processors) {
+		for (int i = processors.nextSetBit(0); i >= 0; i = processors.nextSetBit(i + 1)) {
+			mask.set(i);
 		}
 		return this;
 	}
 	
+	/**
+	 * Use every processor except one.
+	 */
 	public AffinityKernel withoutProcessor(int index) {
-		mask = ~(1L << index);
-		if (mask < 0)
-			mask = -mask;
+		mask = new CpuMask.Builder()
+				.set(0, MAX_PROCESSORS)
+				.clear(index);
 		return this;
 	}
 	
+	/**
+	 * Set the affinity of the calling thread.
+	 * @return The previous affinity of the thread, or null if the affinity wasn't changed.
+	 */
+	public CpuMask saveThread() {
+		CpuMask requested = mask.build();
+		if (requested.isEmpty() || _linuxInstance == null)
+			return null;
+		try {
+			CpuMask value = requested.and(_linuxInstance.GetSystemAffinityMask());
+			CpuMask previous = _linuxInstance.GetProcessAffinityMask(0);
+			if (!value.isEmpty() && previous != null && _linuxInstance.SetProcessAffinityMask(0, value))
+				return previous;
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+	
 	public void save() {
-		if (mask > 0 || mask == -1) {
-			LongByReference process = new LongByReference();
-			LongByReference system = new LongByReference();
+		CpuMask requested = mask.build();
+		if (!requested.isEmpty()) {
 			if (_windowsInstance != null) {
 				try {
+					LongByReference process = new LongByReference();
+					LongByReference system = new LongByReference();
+					//Windows affinity masks only cover the processors in a single processor group
 					if (_windowsInstance.GetProcessAffinityMask(pid, process, system)) {
-						mask = mask & system.getValue();
-						_windowsInstance.SetProcessAffinityMask(pid, mask);
+						long value = requested.word(0) & system.getValue();
+						if (value != 0)
+							_windowsInstance.SetProcessAffinityMask(pid, value);
 					}
 				}
 				catch (Exception e) {
@@ -74,10 +131,9 @@ public final class AffinityKernel {
 			}
 			else if (_linuxInstance != null) {
 				try {
-					if (_linuxInstance.GetProcessAffinityMask(pid, process, system)) {
-						mask = mask & system.getValue();
-						_linuxInstance.SetProcessAffinityMask(pid, mask);
-					}
+					CpuMask value = requested.and(_linuxInstance.GetSystemAffinityMask());
+					if (!value.isEmpty())
+						_linuxInstance.SetProcessAffinityMask(pid, value);
 				}
 				catch (Exception e) {
 					e.printStackTrace();
@@ -1,16 +1,23 @@
 package ca.wise.lib;
 
-import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.annotation.concurrent.Immutable;
 
+import ca.wise.CpuMask;
 import lombok.Getter;
 
 /**
  * Stores details on which CPU group and which physical cores
  * within the group a running job is using.
+ *
+ * Blocks are made of whole physical cores so hyperthreads of the same core
+ * are never shared between jobs, and each block is packed into as few last
+ * level cache domains as possible.
  */
 @Immutable
 public class CPUUsage {
@@ -18,7 +25,7 @@ public class CPUUsage {
     /**
      * A CPU usage instance that is not using any cores.
      */
-    public static final CPUUsage ZERO = new CPUUsage(-1, BigInteger.ZERO, 0);
+    public static final CPUUsage ZERO = new CPUUsage(-1, CpuMask.EMPTY, 0);
     
     /**
      * Which NUMA node the job is restricted to. Will be -1 if it isn't restricted.
@@ -29,51 +36,69 @@ public class CPUUsage {
      * The cores of either the system if {@link #numaNode} is -1 or the NUMA node
      * if {@link #numaNode} is >0 that the job is running on.
      */
-    @Getter protected final BigInteger runningCores;
+    @Getter protected final CpuMask runningCores;
+    
+    /**
+     * One logical processor from each physical core in {@link #runningCores}.
+     */
+    @Getter protected final CpuMask primaryThreads;
     
     /**
      * The maximum number of cores that the job can run on.
      */
     @Getter protected final int maxCores;
     
-    public CPUUsage(int numaNode, BigInteger runningCores, int maxCores) {
+    public CPUUsage(int numaNode, CpuMask runningCores, int maxCores) {
+        this(numaNode, runningCores, runningCores, maxCores);
+    }
+    
+    public CPUUsage(int numaNode, CpuMask runningCores, CpuMask primaryThreads, int maxCores) {
         this.numaNode = numaNode;
         this.runningCores = runningCores;
+        this.primaryThreads = primaryThreads;
         this.maxCores = maxCores;
     }
     
+    /**
+     * Get the processors that a job should run on.
+     * @param hyperthreads Should the job use every hyperthread of its cores or only one thread per core.
+     */
+    public CpuMask getProcessors(boolean hyperthreads) {
+        return hyperthreads ? runningCores : primaryThreads;
+    }
+    
     /**
      * Create a list of blocks that jobs can be run on.
      * @param numaLock Should jobs only run on a single NUMA node.
      * @param jobCount The number of simultaneous jobs that should run, either on each NUMA node or in total.
      */
     public static List<CPUUsage> computeAvailableBlocks(boolean numaLock, int jobCount, int skipCount) {
-        return computeAvailableBlocks(numaLock, jobCount, skipCount, new CPUInfo());
+        return computeAvailableBlocks(numaLock, jobCount, skipCount, CpuTopology.get());
     }
     
-    static List<CPUUsage> computeAvailableBlocks(boolean numaLock, int jobCount, int skipCount, CPUInfo info) {
+    static List<CPUUsage> computeAvailableBlocks(boolean numaLock, int jobCount, int skipCount, CpuTopology topology) {
         List<CPUUsage> retval = new ArrayList<>();
         //make sure the number of jobs is valid, default to 1
         if (jobCount < 1)
             jobCount = 1;
         
-        //run all jobs across all CPUs
-        long blocks = 1;
-        //unless NUMA locking is enabled then lock them to individual nodes
-        if (numaLock)
-            blocks = info.numaCount();
-        int offset = 0;
-        for (int block = 0; block < blocks; block++) {
-            long totalSize;
-            //if NUMA locking is enabled get the number of cores in the current node
-            if (numaLock)
-                totalSize = info.coreCount(block);
-            //otherwise use the total number of CPUs
-            else
-                totalSize = info.coreCount();
-            long blockSize;
+        List<Integer> nodes = topology.getNodes();
+        //run all jobs across all CPUs unless NUMA locking is enabled then lock them to individual nodes
+        List<Integer> groups = numaLock ? nodes : Collections.singletonList(-1);
+        for (int node : groups) {
+            List<CpuTopology.Domain> domains = topology.getDomains(node);
+            List<CpuTopology.Core> cores = new ArrayList<>();
+            for (CpuTopology.Domain domain : domains)
+                cores.addAll(domain.getCores());
+            if (cores.isEmpty())
+                continue;
+            //the number of logical CPUs in the node or the system
+            int totalSize = 0;
+            for (CpuTopology.Core core : cores)
+                totalSize += core.getThreads().cardinality();
+            int blockSize;
             //if jobs will span all NUMA nodes and there is only one node then leave two CPUs without a job
-            if (info.numaCount() == 1 || (info.numaCount() > 1 && !numaLock)) {
+            if (nodes.size() == 1 || (nodes.size() > 1 && !numaLock)) {
                 if (skipCount == 1)
                     blockSize = totalSize - 1;
                 else if (skipCount < 1)
@@ -88,7 +113,7 @@ public class CPUUsage {
                 else
                     blockSize = totalSize;
             }
-            long tempSize = blockSize - skipCount;
+            int tempSize = blockSize - skipCount;
             if (tempSize < 2 && blockSize >= 2)
                 blockSize = 2;
             else if (tempSize >= 2)
@@ -100,47 +125,89 @@ public class CPUUsage {
                 else
                     blockSize = totalSize - 1;
             }
-            //the number of CPUs that will be available to each job
-            long cpuPerJob = blockSize / jobCount;
-            if (cpuPerJob < 1)
-                cpuPerJob = 1;
-            //the number of jobs that will run on a full number of CPUs, the rest will run -1
-            long fullSize = jobCount - (blockSize % jobCount);
-            //the offset into the total CPU set that the current job would be allowed to run on
-            for (int i = 0; i < jobCount; i++) {
-                //the index into the sets of CPUs that this job would run on
-                //the index can wrap if more jobs per node have been requested than there are CPUs
-                long index = i % blockSize;
-                long cpus;
-                if (jobCount <= blockSize && index >= fullSize)
-                    cpus = cpuPerJob + 1;
-                else
-                    cpus = cpuPerJob;
-                
-                BigInteger mask = BigInteger.ZERO;
-                //the offset starts with the offset of the current block
-                int myOffset = offset;
-                //add up all sets within this block before this one, can't use
-                //a running total because if the user asks for too many processes
-                //it will wrap
-                for (int j = 0; j < index; j++) {
-                    if (jobCount <= blockSize && j >= fullSize)
-                        myOffset += cpuPerJob + 1;
-                    else
-                        myOffset += cpuPerJob;
+            //convert the number of CPUs to whole cores
+            int threadsPerCore = Math.max(1, Math.round(totalSize / (float)cores.size()));
+            int usableCores = Math.max(1, Math.min(cores.size(), blockSize / threadsPerCore));
+            //leave the slowest cores without a job, then the lowest numbered cores where the system tends to run
+            List<CpuTopology.Core> sorted = new ArrayList<>(cores);
+            sorted.sort(CpuTopology.SLOWEST_FIRST);
+            Set<CpuTopology.Core> idle = new HashSet<>(sorted.subList(0, cores.size() - usableCores));
+            List<List<CpuTopology.Core>> free = new ArrayList<>();
+            for (CpuTopology.Domain domain : domains) {
+                List<CpuTopology.Core> available = new ArrayList<>();
+                for (CpuTopology.Core core : domain.getCores()) {
+                    if (!idle.contains(core))
+                        available.add(core);
                 }
-                //set the bits that will be the CPUs that the job would be allowed to run on
-                for (int j = 0; j < cpus; j++) {
-                    mask = mask.setBit(myOffset + j);
+                free.add(available);
+            }
+            
+            List<List<CpuTopology.Core>> blocks = new ArrayList<>(Collections.nCopies(jobCount, null));
+            //more jobs have been requested than there are cores so the jobs will share cores
+            if (jobCount > usableCores) {
+                List<CpuTopology.Core> order = new ArrayList<>();
+                free.forEach(order::addAll);
+                for (int i = 0; i < jobCount; i++)
+                    blocks.set(i, Collections.singletonList(order.get(i % usableCores)));
+            }
+            else {
+                //the number of cores that will be available to each job
+                int coresPerJob = usableCores / jobCount;
+                //the number of jobs that will run on a full number of cores, the rest will run +1
+                int fullSize = jobCount - (usableCores % jobCount);
+                //place the largest jobs first so they are the most likely to fit in a single cache domain
+                for (int i = jobCount - 1; i >= 0; i--)
+                    blocks.set(i, take(free, i >= fullSize ? coresPerJob + 1 : coresPerJob));
+            }
+            
+            for (List<CpuTopology.Core> block : blocks) {
+                CpuMask.Builder mask = new CpuMask.Builder();
+                CpuMask.Builder primary = new CpuMask.Builder();
+                for (CpuTopology.Core core : block) {
+                    for (int cpu = core.getThreads().nextSetBit(0); cpu >= 0; cpu = core.getThreads().nextSetBit(cpu + 1))
+                        mask.set(cpu);
+                    primary.set(core.getPrimary());
                 }
+                CpuMask running = mask.build();
                 //create the CPU usage spec
-                CPUUsage usage = new CPUUsage(numaLock ? block : -1, mask, (int)cpus);
-                retval.add(usage);
+                retval.add(new CPUUsage(numaLock ? node : -1, running, primary.build(), running.cardinality()));
             }
-            
-            offset += totalSize;
         }
         
         return retval;
     }
+    
+    /**
+     * Take cores for a job from the free cores in each cache domain.
+     * @param free The free cores in each cache domain. The cores that are taken are removed.
+     * @param size The number of cores to take.
+     */
+    private static List<CpuTopology.Core> take(List<List<CpuTopology.Core>> free, int size) {
+        List<CpuTopology.Core> retval = new ArrayList<>(size);
+        //the domain with the fewest free cores that can hold the whole job
+        List<CpuTopology.Core> best = null;
+        for (List<CpuTopology.Core> domain : free) {
+            if (domain.size() >= size && (best == null || domain.size() < best.size()))
+                best = domain;
+        }
+        if (best != null) {
+            retval.addAll(best.subList(0, size));
+            best.subList(0, size).clear();
+            return retval;
+        }
+        //the job is larger than any domain so fill the domains with the most free cores first
+        while (retval.size() < size) {
+            List<CpuTopology.Core> largest = null;
+            for (List<CpuTopology.Core> domain : free) {
+                if (largest == null || domain.size() > largest.size())
+                    largest = domain;
+            }
+            if (largest == null || largest.isEmpty())
+                break;
+            int count = Math.min(size - retval.size(), largest.size());
+            retval.addAll(largest.subList(0, count));
+            largest.subList(0, count).clear();
+        }
+        return retval;
+    }
 }
@@ -0,0 +1,83 @@
+package ca.wise.lib;
+
+import lombok.Getter;
+
+/**
+ * The most recent console output of a W.I.S.E. process. Only the last
+ * few kilobytes of stdout and stderr are kept, older output is overwritten.
+ */
+public class ConsoleCapture {
+
+    /**
+     * The end of the processes standard output.
+     */
+    @Getter private final Ring stdout;
+    /**
+     * The end of the processes standard error.
+     */
+    @Getter private final Ring stderr;
+
+    /**
+     * Create a new capture.
+     * @param capacity The number of bytes to keep for each stream.
+     */
+    public ConsoleCapture(int capacity) {
+        stdout = new Ring(capacity);
+        stderr = new Ring(capacity);
+    }
+
+    /**
+     * A fixed size buffer that keeps the most recently written bytes.
+     */
+    public static final class Ring {
+        private final byte[] buffer;
+        /**
+         * The total number of bytes that have been written.
+         */
+        private long written = 0;
+
+        Ring(int capacity) {
+            buffer = new byte[Math.max(1, capacity)];
+        }
+
+        /**
+         * Append bytes to the buffer, overwriting the oldest bytes if it is full.
+         */
+        synchronized void write(byte[] data, int offset, int length) {
+            //only the end of large writes can fit
+            if (length > buffer.length) {
+                offset += length - buffer.length;
+                written += length - buffer.length;
+                length = buffer.length;
+            }
+            int start = (int)(written % buffer.length);
+            int first = Math.min(length, buffer.length - start);
+            System.arraycopy(data, offset, buffer, start, first);
+            if (first < length)
+                System.arraycopy(data, offset + first, buffer, 0, length - first);
+            written += length;
+        }
+
+        /**
+         * The total number of bytes that have been written, including bytes that have been overwritten.
+         */
+        public synchronized long getWritten() {
+            return written;
+        }
+
+        /**
+         * Get the most recently written bytes.
+         * @param max The maximum number of bytes to return.
+         */
+        public synchronized byte[] tail(int max) {
+            int length = (int)Math.min(Math.min(written, buffer.length), Math.max(0, max));
+            byte[] retval = new byte[length];
+            int start = (int)((written - length) % buffer.length);
+            int first = Math.min(length, buffer.length - start);
+            System.arraycopy(buffer, start, retval, 0, first);
+            if (first < length)
+                System.arraycopy(buffer, 0, retval, first, length - first);
+            return retval;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package ca.wise.lib;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import ca.wise.CpuMask;
+import lombok.Getter;
+
+/**
+ * The layout of the processors in the system: which logical processors are
+ * hyperthreads of the same physical core, which cores share a last level
+ * cache, and which NUMA node each core is on.
+ *
+ * On Linux the layout is read from sysfs. On other platforms, or if sysfs
+ * can't be read, every logical processor is treated as its own core and each
+ * NUMA node as a single cache domain.
+ */
+public final class CpuTopology {
+
+    private static final Path CPU_ROOT = Paths.get("/sys/devices/system/cpu");
+    private static final Path NODE_ROOT = Paths.get("/sys/devices/system/node");
+    /**
+     * The capacity of a processor when the kernel doesn't report one.
+     */
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private static CpuTopology _instance = null;
+
+    /**
+     * The cache domains, ordered by their lowest processor.
+     */
+    @Getter private final List<Domain> domains;
+    /**
+     * The number of logical processors.
+     */
+    @Getter private final int processorCount;
+
+    private CpuTopology(List<Domain> domains) {
+        this.domains = Collections.unmodifiableList(domains);
+        int count = 0;
+        for (Domain domain : domains) {
+            for (Core core : domain.cores)
+                count += core.threads.cardinality();
+        }
+        processorCount = count;
+    }
+
+    /**
+     * Get the topology of this system. It is only read once.
+     */
+    public static synchronized CpuTopology get() {
+        if (_instance == null) {
+            _instance = readSysfs();
+            if (_instance == null)
+                _instance = fromCpuInfo(new CPUInfo());
+        }
+        return _instance;
+    }
+
+    /**
+     * Get the NUMA nodes in the system, in order.
+     */
+    public List<Integer> getNodes() {
+        List<Integer> retval = new ArrayList<>();
+        for (Domain domain : domains) {
+            if (!retval.contains(domain.node))
+                retval.add(domain.node);
+        }
+        Collections.sort(retval);
+        return retval;
+    }
+
+    /**
+     * Get the cache domains on a NUMA node.
+     * @param node The NUMA node, or -1 for every domain in the system.
+     */
+    public List<Domain> getDomains(int node) {
+        if (node < 0)
+            return domains;
+        List<Domain> retval = new ArrayList<>();
+        for (Domain domain : domains) {
+            if (domain.node == node)
+                retval.add(domain);
+        }
+        return retval;
+    }
+
+    /**
+     * Read the topology from sysfs.
+     * @return The topology, or null if it couldn't be read.
+     */
+    static CpuTopology readSysfs() {
+        CpuMask online = readList(CPU_ROOT.resolve("online"));
+        if (online == null || online.isEmpty())
+            return null;
+        Map<Integer, Integer> nodes = new HashMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(NODE_ROOT, "node*")) {
+            for (Path path : stream) {
+                int node;
+                try {
+                    node = Integer.parseInt(path.getFileName().toString().substring(4));
+                }
+                catch (NumberFormatException e) {
+                    continue;
+                }
+                CpuMask cpus = readList(path.resolve("cpulist"));
+                if (cpus != null) {
+                    for (int cpu = cpus.nextSetBit(0); cpu >= 0; cpu = cpus.nextSetBit(cpu + 1))
+                        nodes.put(cpu, node);
+                }
+            }
+        }
+        //kernels without NUMA support don't have the node directory
+        catch (IOException e) { }
+
+        //cores and domains are identified by their lowest processor
+        Map<Integer, Core> cores = new TreeMap<>();
+        Map<Integer, Domain> domains = new TreeMap<>();
+        for (int cpu = online.nextSetBit(0); cpu >= 0; cpu = online.nextSetBit(cpu + 1)) {
+            Path dir = CPU_ROOT.resolve("cpu" + cpu);
+            CpuMask siblings = readList(dir.resolve("topology/thread_siblings_list"));
+            if (siblings == null || !siblings.get(cpu))
+                siblings = CpuMask.of(cpu);
+            siblings = siblings.and(online);
+            int coreId = siblings.lowestSetBit();
+            if (cores.containsKey(coreId))
+                continue;
+            CpuMask shared = readLastLevelCache(dir);
+            //without cache information each core is its own domain
+            if (shared == null || !shared.containsAll(siblings))
+                shared = siblings;
+            int domainId = shared.and(online).lowestSetBit();
+            int node = nodes.getOrDefault(cpu, 0);
+            Core core = new Core(siblings, readInt(dir.resolve("cpu_capacity"), DEFAULT_CAPACITY), node);
+            cores.put(coreId, core);
+            domains.computeIfAbsent(domainId, key -> new Domain(node)).cores.add(core);
+        }
+        if (cores.isEmpty())
+            return null;
+        return new CpuTopology(new ArrayList<>(domains.values()));
+    }
+
+    /**
+     * Create a topology where every logical processor is its own core and every NUMA
+     * node is one cache domain. Processors are numbered contiguously by node.
+     */
+    static CpuTopology fromCpuInfo(CPUInfo info) {
+        List<Domain> domains = new ArrayList<>();
+        int offset = 0;
+        for (int node = 0; node < info.numaCount(); node++) {
+            Domain domain = new Domain(node);
+            long count = info.coreCount(node);
+            for (int i = 0; i < count; i++)
+                domain.cores.add(new Core(CpuMask.of(offset + i), DEFAULT_CAPACITY, node));
+            offset += count;
+            if (!domain.cores.isEmpty())
+                domains.add(domain);
+        }
+        if (domains.isEmpty()) {
+            Domain domain = new Domain(0);
+            domain.cores.add(new Core(CpuMask.of(0), DEFAULT_CAPACITY, 0));
+            domains.add(domain);
+        }
+        return new CpuTopology(domains);
+    }
+
+    /**
+     * Find the processors that share the highest level cache with a processor.
+     */
+    private static CpuMask readLastLevelCache(Path cpu) {
+        int bestLevel = -1;
+        CpuMask retval = null;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(cpu.resolve("cache"), "index*")) {
+            for (Path index : stream) {
+                int level = readInt(index.resolve("level"), -1);
+                if (level > bestLevel) {
+                    CpuMask shared = readList(index.resolve("shared_cpu_list"));
+                    if (shared != null) {
+                        bestLevel = level;
+                        retval = shared;
+                    }
+                }
+            }
+        }
+        catch (IOException e) { }
+        return retval;
+    }
+
+    private static CpuMask readList(Path path) {
+        try {
+            return CpuMask.parse(new String(Files.readAllBytes(path), StandardCharsets.US_ASCII));
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static int readInt(Path path, int def) {
+        try {
+            return Integer.parseInt(new String(Files.readAllBytes(path), StandardCharsets.US_ASCII).trim());
+        }
+        catch (IOException | NumberFormatException e) {
+            return def;
+        }
+    }
+
+    /**
+     * A physical core and its hyperthreads.
+     */
+    public static final class Core {
+        /**
+         * Every logical processor on the core.
+         */
+        @Getter private final CpuMask threads;
+        /**
+         * The relative performance of the core, the fastest cores in the system have a capacity of 1024.
+         */
+        @Getter private final int capacity;
+        /**
+         * The NUMA node the core is on.
+         */
+        @Getter private final int node;
+
+        Core(CpuMask threads, int capacity, int node) {
+            this.threads = threads;
+            this.capacity = capacity;
+            this.node = node;
+        }
+
+        /**
+         * The first logical processor on the core.
+         */
+        public int getPrimary() {
+            return threads.lowestSetBit();
+        }
+    }
+
+    /**
+     * A set of cores that share a last level cache, ex. an AMD CCX.
+     */
+    public static final class Domain {
+        /**
+         * The NUMA node the domain is on.
+         */
+        @Getter private final int node;
+        private final List<Core> cores = new ArrayList<>();
+
+        Domain(int node) {
+            this.node = node;
+        }
+
+        /**
+         * The cores in the domain, ordered by their first processor.
+         */
+        public List<Core> getCores() {
+            return Collections.unmodifiableList(cores);
+        }
+    }
+
+    /**
+     * Orders cores so that the slowest cores, then the lowest numbered cores, come first.
+     */
+    static final Comparator<Core> SLOWEST_FIRST = Comparator.comparingInt(Core::getCapacity).thenComparingInt(Core::getPrimary);
+}
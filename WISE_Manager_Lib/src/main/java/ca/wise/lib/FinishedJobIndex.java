@@ -0,0 +1,163 @@
+package ca.wise.lib;
+
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.function.Function;
+
+import lombok.Getter;
+
+/**
+ * Secondary indexes of the finished jobs used to filter the job history.
+ *
+ * Finished jobs are indexed by name, by submission time, and by completion
+ * time. Each index is an {@link IndexedJobList} so counting the jobs in a
+ * range and finding the first job in a range are both O(log n). The indexes
+ * store {@link JobCatalog.Entry} records instead of jobs so they don't keep
+ * finished jobs in memory.
+ *
+ * Only one thread should modify the indexes at a time.
+ */
+public class FinishedJobIndex {
+
+    private final IndexedJobList<String> byName;
+    private final IndexedJobList<TimeKey> bySubmitted;
+    private final IndexedJobList<TimeKey> byCompleted;
+
+    /**
+     * Create a new set of indexes.
+     * @param loader Gets the finished job for a record.
+     */
+    FinishedJobIndex(Function<JobCatalog.Entry, Job> loader) {
+        byName = new IndexedJobList<>(loader, 0);
+        bySubmitted = new IndexedJobList<>(loader, 0);
+        byCompleted = new IndexedJobList<>(loader, 0);
+    }
+
+    /**
+     * Add a finished job to the indexes, replacing any existing job with the same name.
+     * @param entry A record of the finished job.
+     */
+    void add(JobCatalog.Entry entry) {
+        byName.add(entry.getName(), entry);
+        index(bySubmitted, entry, entry.getSubmitted());
+        index(byCompleted, entry, entry.getEnd());
+    }
+
+    private static void index(IndexedJobList<TimeKey> list, JobCatalog.Entry entry, LocalDateTime time) {
+        //jobs without a time can't match a time filter so they aren't indexed
+        if (time == null)
+            list.removeByName(entry.getName());
+        else
+            list.add(new TimeKey(JobCatalog.toEpoch(time), entry.getName()), entry);
+    }
+
+    /**
+     * Remove a finished job from the indexes.
+     * @param name The name of the job.
+     */
+    void remove(String name) {
+        byName.removeByName(name);
+        bySubmitted.removeByName(name);
+        byCompleted.removeByName(name);
+    }
+
+    /**
+     * The number of finished jobs whose names start with a prefix.
+     */
+    public int countByName(String prefix) {
+        return byName.rank(nextPrefix(prefix)) - byName.rank(prefix);
+    }
+
+    /**
+     * Iterate over the finished jobs whose names start with a prefix, in name order.
+     * @param prefix The prefix to find.
+     * @param from The name of the first job to return. Can be null to start at the first job with the prefix.
+     */
+    public Iterator<Job> byName(String prefix, String from) {
+        if (from != null && from.compareTo(prefix) > 0)
+            return byName.iterator(from, true);
+        return byName.iterator(prefix, true);
+    }
+
+    /**
+     * Get the smallest name that comes after every name that starts with a prefix.
+     */
+    static String nextPrefix(String prefix) {
+        if (prefix.isEmpty() || prefix.charAt(prefix.length() - 1) == Character.MAX_VALUE)
+            return prefix + Character.MAX_VALUE;
+        return prefix.substring(0, prefix.length() - 1) + (char)(prefix.charAt(prefix.length() - 1) + 1);
+    }
+
+    /**
+     * The number of finished jobs that were submitted within a time range.
+     * @param from The earliest time, as returned by {@link JobCatalog#toEpoch(LocalDateTime)}.
+     * @param to The latest time, as returned by {@link JobCatalog#toEpoch(LocalDateTime)}.
+     */
+    public int countBySubmitted(long from, long to) {
+        return count(bySubmitted, from, to);
+    }
+
+    /**
+     * The number of finished jobs that completed within a time range.
+     * @param from The earliest time, as returned by {@link JobCatalog#toEpoch(LocalDateTime)}.
+     * @param to The latest time, as returned by {@link JobCatalog#toEpoch(LocalDateTime)}.
+     */
+    public int countByCompleted(long from, long to) {
+        return count(byCompleted, from, to);
+    }
+
+    private static int count(IndexedJobList<TimeKey> list, long from, long to) {
+        if (from > to)
+            return 0;
+        //keys are sorted newest first so the range starts at the latest time
+        int start = list.rank(new TimeKey(to, ""));
+        int end = from == Long.MIN_VALUE ? list.size() : list.rank(new TimeKey(from - 1, ""));
+        return end - start;
+    }
+
+    /**
+     * Iterate over the finished jobs that were submitted before a time, newest first.
+     * @param to The latest time.
+     * @param from The key of the first job to return. Can be null to start at the latest time.
+     */
+    public Iterator<Job> bySubmitted(long to, TimeKey from) {
+        return byTime(bySubmitted, to, from);
+    }
+
+    /**
+     * Iterate over the finished jobs that completed before a time, newest first.
+     * @param to The latest time.
+     * @param from The key of the first job to return. Can be null to start at the latest time.
+     */
+    public Iterator<Job> byCompleted(long to, TimeKey from) {
+        return byTime(byCompleted, to, from);
+    }
+
+    private static Iterator<Job> byTime(IndexedJobList<TimeKey> list, long to, TimeKey from) {
+        TimeKey start = new TimeKey(to, "");
+        if (from != null && from.compareTo(start) > 0)
+            return list.iterator(from, true);
+        return list.iterator(start, true);
+    }
+
+    /**
+     * The sort key for the time indexes. Later times come first, jobs with the same time are sorted by name.
+     */
+    public static final class TimeKey implements Comparable<TimeKey> {
+        @Getter private final long time;
+        @Getter private final String name;
+
+        public TimeKey(long time, String name) {
+            this.time = time;
+            this.name = name;
+        }
+
+        @Override
+        public int compareTo(TimeKey o) {
+            int c = Long.compare(o.time, time);
+            if (c == 0)
+                c = name.compareTo(o.name);
+            return c;
+        }
+    }
+}
@@ -0,0 +1,565 @@
+package ca.wise.lib;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * An ordered list of jobs that is also indexed by job name.
+ *
+ * Jobs are stored in a balanced tree (a treap) that is ordered by a
+ * sort key and augmented with subtree sizes, so finding a job by name,
+ * finding the index of a job, getting the job at an index, inserting
+ * and removing are all O(log n). Tree nodes are never modified once
+ * they have been created, every change builds a new path to the root,
+ * so readers always see a consistent list without locking.
+ *
+ * If the list is created with a loader, jobs can be stored as compact
+ * {@link JobCatalog.Entry} records instead of {@link Job} objects. Records
+ * are turned back into jobs when they are accessed and a small number of
+ * the loaded jobs are cached. The loader should return the same job for a
+ * record while that job is still in use so iterating doesn't create new jobs
+ * for records that are already loaded.
+ *
+ * Only one thread should modify the list at a time.
+ * @param <K> The type of key that is used to order the jobs. Keys must be unique.
+ */
+public class IndexedJobList<K extends Comparable<K>> extends AbstractList<Job> {
+
+    private volatile Node<K> root = null;
+    private final Map<String, K> keys = new ConcurrentHashMap<>();
+    private final Function<JobCatalog.Entry, Job> loader;
+    private final Map<String, Job> loaded;
+
+    /**
+     * Create a list that only stores {@link Job} objects.
+     */
+    public IndexedJobList() {
+        this(null, 0);
+    }
+
+    /**
+     * Create a list that can store jobs as compact records.
+     * @param loader Creates a job from its record.
+     * @param cacheSize The maximum number of jobs created from records that will be cached.
+     */
+    public IndexedJobList(Function<JobCatalog.Entry, Job> loader, int cacheSize) {
+        this.loader = loader;
+        this.loaded = new LinkedHashMap<String, Job>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Job> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    @Override
+    public Job get(int index) {
+        return page(node(root, index));
+    }
+
+    private static <K> Node<K> node(Node<K> node, int index) {
+        if (index < 0 || index >= size(node))
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size(node));
+        while (node != null) {
+            int leftSize = size(node.left);
+            if (index < leftSize)
+                node = node.left;
+            else if (index > leftSize) {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+            else
+                return node;
+        }
+        throw new IndexOutOfBoundsException();
+    }
+
+    /**
+     * Get the job stored in a node, loading it from its record if necessary.
+     */
+    private Job page(Node<K> node) {
+        if (node.job != null)
+            return node.job;
+        synchronized (loaded) {
+            Job job = loaded.get(node.record.getName());
+            if (job == null) {
+                job = loader.apply(node.record);
+                loaded.put(node.record.getName(), job);
+            }
+            return job;
+        }
+    }
+
+    /**
+     * Get the job stored in a node without adding it to the cache if it has to be loaded from
+     * its record, so iterating over the list doesn't evict the cached jobs.
+     */
+    private Job peek(Node<K> node) {
+        if (node.job != null)
+            return node.job;
+        Job job;
+        synchronized (loaded) {
+            job = loaded.get(node.record.getName());
+        }
+        if (job == null)
+            job = loader.apply(node.record);
+        return job;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if (!(o instanceof Job))
+            return -1;
+        Job job = (Job)o;
+        K key = keys.get(job.getName());
+        if (key == null)
+            return -1;
+        Node<K> node = root;
+        int index = 0;
+        while (node != null) {
+            int c = key.compareTo(node.key);
+            if (c < 0)
+                node = node.left;
+            else if (c > 0) {
+                index += size(node.left) + 1;
+                node = node.right;
+            }
+            else {
+                //names are unique so any job with the same name as a record is the same job
+                if (node.job == job || (node.job == null && node.record.getName().equals(job.getName())))
+                    return index + size(node.left);
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        //jobs can only be in the list once
+        return indexOf(o);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    /**
+     * Iterate over the list as it was when the iterator was created.
+     * Changes to the list while iterating will not be visible.
+     * Jobs that are stored as records are not cached while iterating.
+     */
+    @Override
+    public Iterator<Job> iterator() {
+        return new NodeIterator<>(this, root);
+    }
+
+    /**
+     * Iterate over the jobs that have a key after {@code from}, in key order. Changes
+     * to the list while iterating will not be visible. Finding the first job is O(log n).
+     * @param from The key to start at.
+     * @param inclusive Should a job with a key equal to {@code from} be included.
+     */
+    public Iterator<Job> iterator(K from, boolean inclusive) {
+        return new NodeIterator<>(this, root, from, inclusive);
+    }
+
+    /**
+     * Get an unmodifiable copy of the list as it currently is. Creating the copy
+     * is O(1) and it will not change when this list is modified.
+     */
+    public List<Job> snapshot() {
+        return new Snapshot<>(this, root);
+    }
+
+    /**
+     * Get the records of the jobs in the list, in order, without loading or
+     * caching any jobs. Jobs that are stored as {@link Job} objects are
+     * converted to records.
+     */
+    public List<JobCatalog.Entry> records() {
+        Node<K> tree = root;
+        List<JobCatalog.Entry> retval = new ArrayList<>(size(tree));
+        Deque<Node<K>> stack = new ArrayDeque<>();
+        Node<K> node = tree;
+        while (node != null || !stack.isEmpty()) {
+            while (node != null) {
+                stack.push(node);
+                node = node.left;
+            }
+            node = stack.pop();
+            retval.add(node.record != null ? node.record : new JobCatalog.Entry(node.job, -1));
+            node = node.right;
+        }
+        return retval;
+    }
+
+    /**
+     * Is there a job with the given name in the list.
+     * @param name The name of the job to look for.
+     */
+    public boolean containsName(String name) {
+        return keys.containsKey(name);
+    }
+
+    /**
+     * Find a job by its name.
+     * @param name The name of the job to find.
+     * @return The job with the given name, or null if no job with that name is in the list.
+     */
+    public Job find(String name) {
+        Node<K> node = findNode(name);
+        return node == null ? null : page(node);
+    }
+
+    /**
+     * Is the job with the given name stored as a {@link Job} object instead of a record.
+     * @param name The name of the job.
+     */
+    public boolean isLoaded(String name) {
+        Node<K> node = findNode(name);
+        return node != null && node.job != null;
+    }
+
+    private Node<K> findNode(String name) {
+        K key = keys.get(name);
+        if (key == null)
+            return null;
+        Node<K> node = root;
+        while (node != null) {
+            int c = key.compareTo(node.key);
+            if (c < 0)
+                node = node.left;
+            else if (c > 0)
+                node = node.right;
+            else
+                return node;
+        }
+        return null;
+    }
+
+    /**
+     * Get the number of jobs that have a key less than the given key.
+     * @param key The key to find the position of. It doesn't need to be in the list.
+     */
+    public int rank(K key) {
+        Node<K> node = root;
+        int index = 0;
+        while (node != null) {
+            if (node.key.compareTo(key) < 0) {
+                index += size(node.left) + 1;
+                node = node.right;
+            }
+            else
+                node = node.left;
+        }
+        return index;
+    }
+
+    /**
+     * Get the sort key of the job at an index.
+     * @param index The index of the job.
+     */
+    public K keyAt(int index) {
+        return node(root, index).key;
+    }
+
+    /**
+     * Get the sort key that a job was added with.
+     * @param name The name of the job.
+     * @return The jobs sort key, or null if no job with that name is in the list.
+     */
+    public K keyOf(String name) {
+        return keys.get(name);
+    }
+
+    /**
+     * Add a job to the list. If a job with the same name is already
+     * in the list it will be replaced.
+     * @param key The key that determines where in the list the job will be placed.
+     * @param job The job to add.
+     * @return The index that the job was added at.
+     */
+    public int add(K key, Job job) {
+        return insert(key, job.getName(), job, null);
+    }
+
+    /**
+     * Add a job to the list as a compact record. If a job with the same name is
+     * already in the list it will be replaced.
+     * @param key The key that determines where in the list the job will be placed.
+     * @param record The record of the job to add.
+     * @return The index that the job was added at.
+     */
+    public int add(K key, JobCatalog.Entry record) {
+        if (loader == null)
+            throw new UnsupportedOperationException("List cannot store records");
+        return insert(key, record.getName(), null, record);
+    }
+
+    private int insert(K key, String name, Job job, JobCatalog.Entry record) {
+        K old = keys.get(name);
+        Node<K> tree = root;
+        if (old != null)
+            tree = delete(tree, old);
+        uncache(name);
+        Split<K> split = split(tree, key);
+        int index = size(split.left);
+        Node<K> node = new Node<>(key, job, record, ThreadLocalRandom.current().nextInt(), null, null);
+        keys.put(name, key);
+        root = merge(merge(split.left, node), split.right);
+        return index;
+    }
+
+    /**
+     * Replace a job with a compact record of it. The job will keep its position in the list.
+     * @param name The name of the job to replace.
+     * @param record The record to store instead of the job.
+     * @return True if the job was replaced.
+     */
+    public boolean unload(String name, JobCatalog.Entry record) {
+        if (loader == null)
+            throw new UnsupportedOperationException("List cannot store records");
+        K key = keys.get(name);
+        if (key == null)
+            return false;
+        root = replace(root, key, record);
+        return true;
+    }
+
+    /**
+     * Remove a job from the list.
+     * @param job The job to remove.
+     * @return The index that the job was at before it was removed, or -1 if the job wasn't in the list.
+     */
+    public int remove(Job job) {
+        int index = indexOf(job);
+        if (index >= 0) {
+            K key = keys.remove(job.getName());
+            root = delete(root, key);
+            uncache(job.getName());
+        }
+        return index;
+    }
+
+    /**
+     * Remove a job from the list by name.
+     * @param name The name of the job to remove.
+     * @return True if a job was removed.
+     */
+    public boolean removeByName(String name) {
+        K key = keys.remove(name);
+        if (key != null) {
+            root = delete(root, key);
+            uncache(name);
+        }
+        return key != null;
+    }
+
+    @Override
+    public void clear() {
+        keys.clear();
+        root = null;
+        synchronized (loaded) {
+            loaded.clear();
+        }
+    }
+
+    private void uncache(String name) {
+        if (loader != null) {
+            synchronized (loaded) {
+                loaded.remove(name);
+            }
+        }
+    }
+
+    private static <K> int size(Node<K> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    /**
+     * Split a tree into the nodes that have a key less than {@code key} and the
+     * nodes that have a key greater than or equal to {@code key}.
+     */
+    private static <K extends Comparable<K>> Split<K> split(Node<K> node, K key) {
+        if (node == null)
+            return new Split<>(null, null);
+        if (node.key.compareTo(key) < 0) {
+            Split<K> s = split(node.right, key);
+            s.left = node.with(node.left, s.left);
+            return s;
+        }
+        else {
+            Split<K> s = split(node.left, key);
+            s.right = node.with(s.right, node.right);
+            return s;
+        }
+    }
+
+    /**
+     * Merge two trees. All keys in {@code left} must be less than all keys in {@code right}.
+     */
+    private static <K> Node<K> merge(Node<K> left, Node<K> right) {
+        if (left == null)
+            return right;
+        if (right == null)
+            return left;
+        if (left.priority > right.priority)
+            return left.with(left.left, merge(left.right, right));
+        return right.with(merge(left, right.left), right.right);
+    }
+
+    private static <K extends Comparable<K>> Node<K> delete(Node<K> node, K key) {
+        if (node == null)
+            return null;
+        int c = key.compareTo(node.key);
+        if (c < 0)
+            return node.with(delete(node.left, key), node.right);
+        else if (c > 0)
+            return node.with(node.left, delete(node.right, key));
+        return merge(node.left, node.right);
+    }
+
+    private static <K extends Comparable<K>> Node<K> replace(Node<K> node, K key, JobCatalog.Entry record) {
+        if (node == null)
+            return null;
+        int c = key.compareTo(node.key);
+        if (c < 0)
+            return node.with(replace(node.left, key, record), node.right);
+        else if (c > 0)
+            return node.with(node.left, replace(node.right, key, record));
+        return new Node<>(node.key, null, record, node.priority, node.left, node.right);
+    }
+
+    /**
+     * A node in the tree. Stores either a job or a record of a job.
+     */
+    private static final class Node<K> {
+        final K key;
+        final Job job;
+        final JobCatalog.Entry record;
+        final int priority;
+        final int size;
+        final Node<K> left;
+        final Node<K> right;
+
+        Node(K key, Job job, JobCatalog.Entry record, int priority, Node<K> left, Node<K> right) {
+            this.key = key;
+            this.job = job;
+            this.record = record;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = 1 + size(left) + size(right);
+        }
+
+        Node<K> with(Node<K> left, Node<K> right) {
+            return new Node<>(key, job, record, priority, left, right);
+        }
+    }
+
+    /**
+     * A read only list backed by a fixed tree.
+     */
+    private static final class Snapshot<K extends Comparable<K>> extends AbstractList<Job> {
+        private final IndexedJobList<K> owner;
+        private final Node<K> root;
+
+        Snapshot(IndexedJobList<K> owner, Node<K> root) {
+            this.owner = owner;
+            this.root = root;
+        }
+
+        @Override
+        public int size() {
+            return IndexedJobList.size(root);
+        }
+
+        @Override
+        public Job get(int index) {
+            return owner.page(node(root, index));
+        }
+
+        @Override
+        public Iterator<Job> iterator() {
+            return new NodeIterator<>(owner, root);
+        }
+    }
+
+    private static final class Split<K> {
+        Node<K> left;
+        Node<K> right;
+
+        Split(Node<K> left, Node<K> right) {
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    /**
+     * In-order traversal of a fixed tree.
+     */
+    private static final class NodeIterator<K extends Comparable<K>> implements Iterator<Job> {
+        private final IndexedJobList<K> owner;
+        private final Deque<Node<K>> stack = new ArrayDeque<>();
+
+        NodeIterator(IndexedJobList<K> owner, Node<K> root) {
+            this.owner = owner;
+            pushLeft(root);
+        }
+
+        NodeIterator(IndexedJobList<K> owner, Node<K> root, K from, boolean inclusive) {
+            this.owner = owner;
+            //only keep the nodes that are at or after the starting key
+            Node<K> node = root;
+            while (node != null) {
+                int c = node.key.compareTo(from);
+                if (c > 0 || (inclusive && c == 0)) {
+                    stack.push(node);
+                    node = node.left;
+                }
+                else
+                    node = node.right;
+            }
+        }
+
+        private void pushLeft(Node<K> node) {
+            while (node != null) {
+                stack.push(node);
+                node = node.left;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty();
+        }
+
+        @Override
+        public Job next() {
+            if (stack.isEmpty())
+                throw new NoSuchElementException();
+            Node<K> node = stack.pop();
+            pushLeft(node.right);
+            return owner.peek(node);
+        }
+    }
+}
@@ -13,15 +13,18 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
-import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Strings;
@@ -29,8 +32,10 @@ import com.sun.jna.Pointer;
 import com.sun.jna.platform.win32.Kernel32;
 import com.sun.jna.platform.win32.WinNT;
 
-import ca.hss.ui.StreamReaderThread;
+import ca.wise.CpuMask;
 import ca.wise.lib.WISELogger.LogName;
+import ca.wise.lib.json.ResourceUsage;
+import ca.wise.lib.linux.MemoryPolicyLinux;
 import ca.wise.lib.status.IJobStatus;
 import ca.wise.lib.status.Status;
 import lombok.Getter;
@@ -42,10 +47,45 @@ import oshi.software.os.OperatingSystem;
 
 public class Job implements Closeable {
 	
-	private static final ThreadPoolExecutor threadPool;
-
-	private ProcessWatcher process = null;
-	private PerformanceTracker perf = null;
+	/**
+	 * The W.I.S.E. process, null if the job isn't running.
+	 */
+	private volatile Process process = null;
+	/**
+	 * The end of the console output of the last time the job was run or validated.
+	 * Null if the job hasn't been run since the manager started.
+	 */
+	@Getter private volatile ConsoleCapture console = null;
+	private volatile PerformanceTracker perf = null;
+	/**
+	 * The recent resource usage of the job. Null if the job hasn't been run since the manager started.
+	 */
+	@Getter private volatile UsageHistory usageHistory = null;
+	/**
+	 * The resources used by the most recent run of the job. Loaded from the job folder the first time it is requested.
+	 */
+	private volatile ResourceProfile resourceProfile = null;
+	private volatile boolean resourceProfileLoaded = false;
+	/**
+	 * The totals and peaks of the resources used by the most recent run of the job, without the curve.
+	 * Set when the run finishes or when the job is loaded from the job catalog.
+	 */
+	private volatile ResourceUsage resourceSummary = null;
+	/**
+	 * The cgroup the job is running in on Linux, null if it isn't running in its own cgroup.
+	 */
+	private volatile JobCgroup cgroup = null;
+	/**
+	 * The number of bytes of the jobs memory on each NUMA node. Only measured for jobs that are locked to a NUMA node.
+	 */
+	@Getter private volatile long[] numaMemory = null;
+	/**
+	 * How often the NUMA locality of a jobs memory is measured.
+	 */
+	private static final long NUMA_SAMPLE_NANOS = TimeUnit.SECONDS.toNanos(30);
+	//samples the usage of running jobs, only used while holding its lock
+	private static final ProcSampler sampler = new ProcSampler();
+	private static final ProcSampler.Counters counters = new ProcSampler.Counters();
 	@Getter private double usage = 0;
 	
 	@Getter private final Path xmlPath;
@@ -54,32 +94,61 @@ public class Job implements Closeable {
 	private String directory;
 	
 	@Getter protected String name;
-	@Getter @Setter protected LocalDateTime start;
-	@Getter @Setter protected LocalDateTime submitted;
-	@Getter @Setter protected LocalDateTime end;
+	@Getter protected LocalDateTime start;
+	@Getter protected LocalDateTime submitted;
+	@Getter protected LocalDateTime end;
 	@Getter protected int requestedCores;
 	@Getter protected boolean hasRequestedCores = false;
-	@Getter @Setter protected JobStage status;
+	@Getter protected volatile JobStage status;
 	@Getter @Setter protected int priority;
 	/**
 	 * Which CPU cores the job is running on.
 	 */
 	@Getter @Setter CPUUsage cpuUsage = CPUUsage.ZERO;
+	/**
+	 * Should the job run on every hyperthread of its cores or only one thread per core. If
+	 * null the default from {@link Settings#getUseHyperthreads()} is used.
+	 */
+	@Getter @Setter protected Boolean hyperthreads = null;
+	
+	/**
+	 * The serialized job history, cleared whenever a property of the job changes.
+	 */
+	private volatile JobHistoryCache.Fragment historyFragment = null;
+	private volatile int historyVersion = 0;
 	
 	public void setRequestedCores(int cores) {
 	    requestedCores = cores;
 	    hasRequestedCores = true;
 	}
 	
-	private List<IPropertyChangedListener> eventListeners = new ArrayList<>();
-	private List<IJobCompleteListener> completeListeners = new ArrayList<>();
+	public void setStart(LocalDateTime start) {
+	    this.start = start;
+	    notifyPropertyChanged("start", start);
+	}
+	
+	public void setSubmitted(LocalDateTime submitted) {
+	    this.submitted = submitted;
+	    notifyPropertyChanged("submitted", submitted);
+	}
 	
-	static {
-		SystemInfo si = new SystemInfo();
-		CentralProcessor p = si.getHardware().getProcessor();
-		threadPool = new ThreadPoolExecutor(p.getLogicalProcessorCount() * 3, 1024, 3600, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+	public void setEnd(LocalDateTime end) {
+	    this.end = end;
+	    notifyPropertyChanged("end", end);
 	}
 	
+	/**
+	 * Move the job to a new stage. Illegal transitions are ignored.
+	 */
+	public void setStatus(JobStage status) {
+	    changeStage(status);
+	}
+	
+	private List<IPropertyChangedListener> eventListeners = new ArrayList<>();
+	private List<IJobCompleteListener> completeListeners = new ArrayList<>();
+	private List<IStageChangedListener> stageListeners = new CopyOnWriteArrayList<>();
+	private final Object stageLock = new Object();
+	
 	/**
 	 * Create a new W.I.S.E. job.
 	 * @param jobDirectory The directory that all jobs are stored in.
@@ -108,6 +177,7 @@ public class Job implements Closeable {
 		directory = jobDirectory;
 		name = jobName;
 		status = stage;
+		eventListeners.add(JobHistoryCache.INVALIDATOR);
 		if (stage == JobStage.Queued) {
 			IJobStatus st = JobStatus.getUpdater(Paths.get(jobDirectory, jobName).toString());
 			st.updateStatus(Status.Submitted);
@@ -116,6 +186,26 @@ public class Job implements Closeable {
 		loadConfig();
 	}
 	
+	/**
+	 * Create a job from its job catalog entry without reading anything from the job folder.
+	 * @param jobDirectory The directory that all jobs are stored in.
+	 * @param entry The jobs catalog entry.
+	 */
+	Job(String jobDirectory, JobCatalog.Entry entry) {
+		xmlPath = Paths.get(jobDirectory, entry.getName(), entry.getSpecificationFile());
+		directory = jobDirectory;
+		name = entry.getName();
+		status = entry.getStage();
+		submitted = entry.getSubmitted();
+		start = entry.getStart();
+		end = entry.getEnd();
+		requestedCores = entry.getRequestedCores();
+		hasRequestedCores = entry.isHasRequestedCores();
+		priority = entry.getPriority();
+		resourceSummary = entry.getResources();
+		eventListeners.add(JobHistoryCache.INVALIDATOR);
+	}
+	
 	/**
 	 * Save the configuration of the job to a file in the job directory.
 	 */
@@ -128,6 +218,8 @@ public class Job implements Closeable {
 	        props.setProperty("priority", String.valueOf(priority));
 	        props.setProperty("submitted", DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(submitted));
 	        props.setProperty("cores", String.valueOf(requestedCores));
+	        if (hyperthreads != null)
+	            props.setProperty("hyperthreads", String.valueOf(hyperthreads));
 	        
 	        try (OutputStream output = new FileOutputStream(configPath.toFile())) {
 	            props.store(output, null);
@@ -151,19 +243,43 @@ public class Job implements Closeable {
 	    }
 	}
 	
+	/**
+	 * Read the configuration file.
+	 * @return The configuration, or null if the file doesn't exist.
+	 */
+	private Properties readConfig() {
+        Path configPath = Paths.get(directory, name, ".config");
+        if (!Files.exists(configPath))
+            return null;
+        Properties props = new Properties();
+        try (InputStream input = new FileInputStream(configPath.toFile())) {
+            props.load(input);
+        }
+        catch (IOException e) { }
+        return props;
+	}
+	
+	/**
+	 * Should the job run on every hyperthread of its cores.
+	 */
+	private boolean useHyperthreads() {
+	    Boolean value = hyperthreads;
+	    //jobs that were loaded from the job catalog haven't read their configuration file
+	    if (value == null) {
+	        Properties props = readConfig();
+	        if (props != null && name.equals(props.getProperty("name")) && props.containsKey("hyperthreads"))
+	            value = hyperthreads = Boolean.valueOf(props.getProperty("hyperthreads"));
+	    }
+	    return value != null ? value : Settings.getUseHyperthreads();
+	}
+	
 	/**
 	 * Load the configuration file, if one exists.
 	 */
 	private void loadConfig() {
-        Path configPath = Paths.get(directory, name, ".config");
+        Properties props = readConfig();
         //if the config file exists
-        if (Files.exists(configPath)) {
-            Properties props = new Properties();
-            try (InputStream input = new FileInputStream(configPath.toFile())) {
-                props.load(input);
-            }
-            catch (IOException e) { }
-            
+        if (props != null) {
             if (props.containsKey("name")) {
                 String name = props.getProperty("name");
                 //make sure the config file is for this job
@@ -175,6 +291,9 @@ public class Job implements Closeable {
                         requestedCores = tryParseInteger(props.getProperty("cores"), requestedCores);
                         hasRequestedCores = true;
                     }
+                    if (props.containsKey("hyperthreads")) {
+                        hyperthreads = Boolean.valueOf(props.getProperty("hyperthreads"));
+                    }
                     if (props.containsKey("submitted")) {
                         try {
                             submitted = LocalDateTime.parse(props.getProperty("submitted"), DateTimeFormatter.ISO_LOCAL_DATE_TIME);
@@ -213,10 +332,75 @@ public class Job implements Closeable {
 	    completeListeners.clear();
 	}
 	
+	/**
+	 * Listen for the job moving between stages.
+	 * @return The stage the job was in when the listener was added.
+	 */
+	public JobStage addStageChangedListener(IStageChangedListener listener) {
+	    synchronized (stageLock) {
+	        stageListeners.add(listener);
+	        return status;
+	    }
+	}
+	
+	/**
+	 * Stop listening for the job moving between stages.
+	 * @return The stage the job was in when the listener was removed.
+	 */
+	public JobStage removeStageChangedListener(IStageChangedListener listener) {
+	    synchronized (stageLock) {
+	        stageListeners.remove(listener);
+	        return status;
+	    }
+	}
+	
+	/**
+	 * Move the job to a new stage if the transition is allowed.
+	 * @param next The stage to move to.
+	 * @return True if the job is now in the requested stage.
+	 */
+	protected boolean changeStage(JobStage next) {
+	    synchronized (stageLock) {
+	        JobStage previous = status;
+	        if (previous == next)
+	            return true;
+	        if (!previous.canTransitionTo(next)) {
+	            WISELogger.getSpecial(LogName.Backend).warn("Job " + name + " cannot move from " + previous + " to " + next + ".");
+	            return false;
+	        }
+	        status = next;
+	        //stage listeners are called while the lock is held so they see every transition in order
+	        stageListeners.forEach(l -> l.onStageChanged(this, previous, next));
+	    }
+	    notifyPropertyChanged("status", next);
+	    return true;
+	}
+	
 	private void notifyPropertyChanged(String name, Object value) {
 		eventListeners.forEach(l -> l.onPropertyChanged(this, name, value));
 	}
 	
+	JobHistoryCache.Fragment getHistoryFragment() {
+	    return historyFragment;
+	}
+	
+	/**
+	 * Store the serialized job history. It is ignored if the job has changed since serializing started.
+	 */
+	void setHistoryFragment(JobHistoryCache.Fragment fragment) {
+	    if (fragment.version == historyVersion)
+	        historyFragment = fragment;
+	}
+	
+	int getHistoryVersion() {
+	    return historyVersion;
+	}
+	
+	void invalidateHistory() {
+	    historyVersion++;
+	    historyFragment = null;
+	}
+	
 	/**
 	 * Mark the job to be restarted with W.I.S.E. Manager is restarted.
 	 */
@@ -229,25 +413,33 @@ public class Job implements Closeable {
 	    catch (IOException e) { }
 	}
 	
-	protected void jobDone(Process p) {
+	/**
+	 * A job has completed running. Update its status and tell the listeners that it is done.
+	 * @param p The process that ran the job.
+	 * @param exitTime The time that the process exited.
+	 */
+	protected void jobDone(Process p, LocalDateTime exitTime) {
 		try {
 			IJobStatus status = JobStatus.getUpdater(Paths.get(directory, name).toString());
 			status.forceReload();
 			IJobStatus.JobCompletionStatus current = status.getJobStatus();
 			
+			JobStage next;
 			if (current == IJobStatus.JobCompletionStatus.NONE) {
 				status.updateStatus(Status.Failed);
-				this.status = JobStage.Error;
+				next = JobStage.Error;
 			}
 			else if (current == IJobStatus.JobCompletionStatus.FAILED)
-				this.status = JobStage.Error;
+				next = JobStage.Error;
 			else
-				this.status = JobStage.Finished;
-			end = LocalDateTime.now();
+				next = JobStage.Finished;
+			end = exitTime;
+			saveResourceProfile();
 			usage = 0.0;
 			process = null;
+			releaseCgroup();
 			notifyPropertyChanged("end", end);
-			notifyPropertyChanged("status", status);
+			changeStage(next);
 			notifyPropertyChanged("usage", usage);
 			completeListeners.forEach(l -> l.onJobComplete(this));
 		}
@@ -260,23 +452,117 @@ public class Job implements Closeable {
 		}
 	}
 	
+	/**
+	 * Store the resources used by the job in the job folder after it has finished running.
+	 */
+	private void saveResourceProfile() {
+		PerformanceTracker tracker = perf;
+		ResourceProfile profile = resourceProfile;
+		if (tracker == null || profile == null) {
+			perf = null;
+			return;
+		}
+		//the sampler may be recording a sample
+		synchronized (sampler) {
+			//a cgroup keeps the totals of its exited processes so the final usage can still be read
+			if (cgroup != null)
+				updateUsage(System.nanoTime());
+			perf = null;
+			profile.finish((System.nanoTime() - tracker.start) / 1_000_000L);
+			resourceSummary = profile.toUsage(false);
+			try {
+				profile.write(Paths.get(directory, name, ResourceProfile.FILE_NAME));
+			}
+			catch (IOException e) {
+				WISELogger.getSpecial(LogName.Backend).warn("Unable to save the resource usage of " + name, e);
+			}
+		}
+	}
+	
+	/**
+	 * Remove the cgroup the job ran in, if it had one.
+	 */
+	private void releaseCgroup() {
+		JobCgroup group = cgroup;
+		cgroup = null;
+		if (group != null)
+			group.remove();
+	}
+	
+	/**
+	 * Get the resources used by the most recent run of the job.
+	 * @return The resources used, or null if they weren't recorded.
+	 */
+	public ResourceProfile getResourceProfile() {
+		if (!resourceProfileLoaded) {
+			resourceProfileLoaded = true;
+			try {
+				resourceProfile = ResourceProfile.read(Paths.get(directory, name, ResourceProfile.FILE_NAME));
+			}
+			catch (IOException e) {
+				WISELogger.getSpecial(LogName.Backend).debug("Unable to read the resource usage of " + name, e);
+			}
+		}
+		return resourceProfile;
+	}
+	
+	/**
+	 * Get a summary of the resources used by the most recent run of the job. The
+	 * summary of a running job contains the usage up to the most recent sample.
+	 * @param curve Should the CPU and memory curve be included.
+	 * @return The resources used, or null if they weren't recorded.
+	 */
+	public ResourceUsage getResourceUsage(boolean curve) {
+		ResourceProfile profile = getResourceProfile();
+		if (profile == null)
+			return null;
+		synchronized (sampler) {
+			return profile.toUsage(curve);
+		}
+	}
+	
+	/**
+	 * Get the totals and peaks of the resources used by a job that isn't running, without
+	 * the curve. The summary is kept with the job so it is only read from the job folder
+	 * if the job wasn't run or loaded from the job catalog since the manager started.
+	 * The returned summary is shared and shouldn't be modified.
+	 * @return The resources used, or null if they weren't recorded.
+	 */
+	public ResourceUsage getResourceSummary() {
+		ResourceUsage retval = resourceSummary;
+		if (retval == null && process == null && !resourceProfileLoaded) {
+			retval = getResourceUsage(false);
+			resourceSummary = retval;
+		}
+		return retval;
+	}
+	
+	/**
+	 * Get the resource summary of the job if it is already in memory.
+	 */
+	ResourceUsage peekResourceSummary() {
+		return resourceSummary;
+	}
+	
 	/**
 	 * A validation job has completed running. Check to see if the job was valid or not
 	 * and tell the listeners that the validation has completed.
 	 * @param p The running process.
+	 * @param exitTime The time that the process exited.
 	 */
-	protected void validationJobDone(Process p) {
+	protected void validationJobDone(Process p, LocalDateTime exitTime) {
 	    try {
+            JobStage next;
             if (Files.exists(Paths.get(directory, name, "validation.json")))
-                this.status = JobStage.ValidationComplete;
+                next = JobStage.ValidationComplete;
             else
-                this.status = JobStage.ValidationFailed;
+                next = JobStage.ValidationFailed;
 
-            end = LocalDateTime.now();
+            end = exitTime;
             usage = 0.0;
             process = null;
             notifyPropertyChanged("end", end);
-            notifyPropertyChanged("status", status);
+            changeStage(next);
             notifyPropertyChanged("usage", usage);
             completeListeners.forEach(l -> l.onJobComplete(this));
             completeListeners.clear();
@@ -293,40 +579,106 @@ public class Job implements Closeable {
 	public void stop() {
 		JobStatus.getUpdater(Paths.get(directory, name).toString()).updateStatus(Status.Information, "Stop Requested");
 		releaseXmlLockNoThrow();
-		status = JobStage.Stopped;
+		changeStage(JobStage.Stopped);
 	}
 	
 	/**
 	 * Attempt to update the process CPU usage.
 	 */
 	public void updateUsage() {
-		if (perf != null) {
+		updateUsage(Collections.singletonList(this));
+	}
+	
+	/**
+	 * Update the resource usage of a list of jobs. Every job is sampled with the
+	 * same timestamp, on Linux the usage of each job and its child processes is
+	 * read directly from /proc. Jobs that aren't running are skipped.
+	 * @param jobs The jobs to update.
+	 */
+	public static void updateUsage(List<Job> jobs) {
+		synchronized (sampler) {
+			long now = System.nanoTime();
+			for (Job job : jobs)
+				job.updateUsage(now);
+		}
+	}
+	
+	private void updateUsage(long now) {
+		PerformanceTracker perf = this.perf;
+		UsageHistory history = usageHistory;
+		if (perf == null || history == null)
+			return;
+		long running;
+		long rss;
+		long peak;
+		long read;
+		long write;
+		int threads;
+		JobCgroup group = cgroup;
+		if (group != null || ProcSampler.isSupported()) {
+			if (group != null ? !sampler.readCgroup(group.getPath(), counters) : !sampler.read(perf.process, counters))
+				return;
+			running = counters.getCpuMillis();
+			rss = counters.getRss();
+			peak = counters.getPeakRss();
+			read = counters.getReadBytes();
+			write = counters.getWriteBytes();
+			threads = counters.getThreads();
+		}
+		else {
 			OSProcess process = perf.os.getProcess(perf.process);
-			if (process != null) {
-				long time = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) * 1000L;
-				long running = process.getKernelTime() + process.getUserTime();
-				usage = 100d * (running - perf.running) / (((double)(time - perf.time)) * perf.cpuCount);
-				if (usage < 0)
-					usage = 0;
-				perf.time = time;
-				perf.running = running;
-				notifyPropertyChanged("usage", usage);
-			}
+			if (process == null)
+				return;
+			running = process.getKernelTime() + process.getUserTime();
+			rss = process.getResidentSetSize();
+			peak = rss;
+			read = process.getBytesRead();
+			write = process.getBytesWritten();
+			threads = process.getThreadCount();
+		}
+		double elapsed = (now - perf.time) / 1_000_000d;
+		if (elapsed <= 0)
+			return;
+		usage = 100d * (running - perf.running) / (elapsed * perf.cpuCount);
+		if (usage < 0)
+			usage = 0;
+		perf.time = now;
+		perf.running = running;
+		history.add(now, usage, rss, read, write, threads);
+		//reading the memory locality walks the processes page tables so it is measured less often
+		if (cpuUsage.getNumaNode() >= 0 && (group != null || ProcSampler.isSupported()) &&
+				(perf.numaTime == Long.MIN_VALUE || now - perf.numaTime >= NUMA_SAMPLE_NANOS)) {
+			perf.numaTime = now;
+			long[] nodes = group != null ? sampler.readCgroupNuma(group.getPath()) : sampler.readNumaMaps(perf.process);
+			if (nodes != null)
+				numaMemory = nodes;
 		}
+		ResourceProfile profile = resourceProfile;
+		if (profile != null) {
+			profile.record((now - perf.start) / 1_000_000L, usage, running, rss, read, write, threads);
+			profile.recordPeak(peak);
+		}
+		notifyPropertyChanged("usage", usage);
 	}
 	
 	/**
 	 * Start the job running in W.I.S.E..
+	 * @return False if the job couldn't be moved to the running stage, ex. it was stopped
+	 * after it was chosen to run. W.I.S.E. isn't started and the job doesn't use its processors.
 	 */
-	public void startJob() {
+	public boolean startJob() {
 		try {
 			releaseXmlLock();
-			status = JobStage.Running;
-			notifyPropertyChanged("status", status);
+			if (!changeStage(JobStage.Running))
+				return false;
 			IJobStatus st = JobStatus.getUpdater(Paths.get(directory, name).toString());
 			st.updateStatus(Status.Started);
 			Process p;
 			List<String> parameters;
+			//the processors in the jobs block that it will use
+			CpuMask processors = cpuUsage.getProcessors(useHyperthreads());
+			//W.I.S.E. can only be given a contiguous range of processors
+			boolean contiguous = !processors.isEmpty() && processors.highestSetBit() - processors.lowestSetBit() + 1 == processors.cardinality();
 			//the verison of W.I.S.E. supports the -m parameters
 			if (!Strings.isNullOrEmpty(WISESupport.getMqttId()) && WISESupport.isSupportsManagerId()) {
 			    parameters = new ArrayList<>();
@@ -336,14 +688,15 @@ public class Job implements Closeable {
                 parameters.add(WISESupport.getMqttId());
 				//we define which cores to run on
 				if (cpuUsage.getNumaNode() >= 0 && cpuUsage.getNumaNode() < CPUInfo.staticNumaCount()) {
-				    int coresToUse = cpuUsage.getRunningCores().bitCount();
+				    int maxCores = processors.isEmpty() ? cpuUsage.getMaxCores() : processors.cardinality();
+				    int coresToUse = processors.cardinality();
 				    //this job has been set to run on no cores or the user has requested fewer cores than the max allowed
 				    if (requestedCores > 0 && (coresToUse == 0 || requestedCores < coresToUse))
 				        coresToUse = requestedCores;
 			        //they have asked for too many cores or they have asked us to decide how many cores to use
-			        if ((cpuUsage.getMaxCores() > 0 && coresToUse >= cpuUsage.getMaxCores()) || coresToUse == 0)
-			            coresToUse = cpuUsage.getMaxCores();
-                    int offset = cpuUsage.getRunningCores().getLowestSetBit();
+			        if ((maxCores > 0 && coresToUse >= maxCores) || coresToUse == 0)
+			            coresToUse = maxCores;
+                    int offset = processors.lowestSetBit();
                     //this job has been set to run on no cores
                     if (offset < 0) {
     			        for (int i = 0; i < cpuUsage.getNumaNode(); i++) {
@@ -352,7 +705,8 @@ public class Job implements Closeable {
                     }
 			        parameters.add("-r");
 			        parameters.add(String.valueOf(coresToUse));
-			        if (offset > 0) {
+			        //other layouts are applied with the processor affinity or the cgroup instead
+			        if (offset > 0 && (processors.isEmpty() || contiguous)) {
 			            parameters.add("-f");
 			            parameters.add(String.valueOf(offset));
 			        }
@@ -362,46 +716,100 @@ public class Job implements Closeable {
 			}
 			else
 				parameters = Arrays.asList(Settings.getWiseExe(), xmlPath.toAbsolutePath().toString());
-			p = new ProcessBuilder(parameters)
-					.directory(Paths.get(Settings.getWiseExe()).getParent().toFile())
-					.start();
-			process = new ProcessWatcher(this::jobDone, p);
-			threadPool.execute(process);
-			//send stdout and stderr to /dev/nul so that output doesn't block the application
-			threadPool.execute(new StreamReaderThread(p.getInputStream()));
-			threadPool.execute(new StreamReaderThread(p.getErrorStream()));
-			start = LocalDateTime.now();
-			notifyPropertyChanged("start", start);
-			SystemInfo system = new SystemInfo();
-			OperatingSystem os = system.getOperatingSystem();
-			CentralProcessor processor = system.getHardware().getProcessor();
-			int cpuCount = processor.getLogicalProcessorCount();
-			Long pid = ca.hss.platform.OperatingSystem.getOperatingSystem().getPid(p);
-			if (pid != null) {
-				if (pid < 0) {
-					WinNT.HANDLE handle = new WinNT.HANDLE();
-					handle.setPointer(Pointer.createConstant(-pid));
-					pid = (long)Kernel32.INSTANCE.GetProcessId(handle);
-				}
+			//on Linux run the job in its own cgroup so it and its child processes are constrained from the start
+			JobCgroup group = JobCgroup.create(name, processors, cpuUsage.getNumaNode(), priority);
+			if (group != null)
+				parameters = group.wrap(parameters);
+			cgroup = group;
+			//place the memory of jobs that are locked to a NUMA node on that node, W.I.S.E. inherits the policy of this thread
+			MemoryPolicyLinux memoryPolicy = cpuUsage.getNumaNode() >= 0 ? MemoryPolicyLinux.load() : null;
+			boolean placed = memoryPolicy != null && memoryPolicy.setThreadPolicy(Settings.getNumaMemoryPolicy(), cpuUsage.getNumaNode());
+			//on Linux W.I.S.E. also inherits the processors of this thread, setting the affinity of the process
+			//after it has started would only move its main thread. A cgroups cpuset replaces the inherited
+			//affinity when W.I.S.E. joins the cgroup but keeps it in place if W.I.S.E. can't join.
+			AffinityKernel threadAffinity = withJobProcessors(AffinityKernel.setThreadAffinity(), processors, contiguous);
+			CpuMask previousAffinity = threadAffinity == null ? null : threadAffinity.saveThread();
+			try {
+				p = new ProcessBuilder(parameters)
+						.directory(Paths.get(Settings.getWiseExe()).getParent().toFile())
+						.start();
+			}
+			finally {
+				if (placed)
+					memoryPolicy.resetThreadPolicy();
+				AffinityKernel.restoreThreadAffinity(previousAffinity);
+			}
+			process = p;
+			//only watch for W.I.S.E. to exit once the state of this run is set, if it exits
+			//immediately the completion handler would otherwise see the previous run
+			try {
+				//keep the end of stdout and stderr, draining them so that output doesn't block W.I.S.E.
+				console = OutputPump.capture(p, Settings.getConsoleTailSize());
+				start = LocalDateTime.now();
+				notifyPropertyChanged("start", start);
+				SystemInfo system = new SystemInfo();
+				OperatingSystem os = system.getOperatingSystem();
+				CentralProcessor processor = system.getHardware().getProcessor();
+				int cpuCount = processor.getLogicalProcessorCount();
+				Long pid = ca.hss.platform.OperatingSystem.getOperatingSystem().getPid(p);
+				if (pid != null) {
+					if (pid < 0) {
+						WinNT.HANDLE handle = new WinNT.HANDLE();
+						handle.setPointer(Pointer.createConstant(-pid));
+						pid = (long)Kernel32.INSTANCE.GetProcessId(handle);
+					}
 				
-				if (pid > 0) {
-					perf = new PerformanceTracker();
-					perf.cpuCount = cpuCount;
-					perf.os = os;
-					perf.time = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) * 1000L;
-					perf.running = 0;
-					perf.process = pid.intValue();
+					if (pid > 0) {
+						PerformanceTracker tracker = new PerformanceTracker();
+						tracker.cpuCount = cpuCount;
+						tracker.os = os;
+						tracker.start = System.nanoTime();
+						tracker.time = tracker.start;
+						tracker.running = 0;
+						tracker.numaTime = Long.MIN_VALUE;
+						tracker.process = pid.intValue();
+						usageHistory = new UsageHistory();
+						numaMemory = null;
+						resourceProfile = new ResourceProfile(cpuCount);
+						resourceProfileLoaded = true;
+						resourceSummary = null;
+						perf = tracker;
 					
-					if (Settings.getLockCPU())
-						AffinityKernel.setProcessorAffinity(pid.longValue())
-							.withoutProcessor(0)
-							.save();
+						//the cgroups cpuset already restricts the processors, on Windows the affinity of the whole process is set
+						if (cgroup == null && previousAffinity == null) {
+							AffinityKernel affinity = withJobProcessors(AffinityKernel.setProcessorAffinity(pid.longValue()), processors, contiguous);
+							if (affinity != null)
+								affinity.save();
+						}
+					}
 				}
 			}
+			finally {
+				ProcessReactor.watch(p, this::jobDone);
+			}
 		}
 		catch (Exception e) {
+			if (process == null)
+				releaseCgroup();
 			WISELogger.getSpecial(LogName.Backend).fatal("Error starting job.", e);
 		}
+		return true;
+	}
+	
+	/**
+	 * Add the processors that W.I.S.E. should run on to an affinity, for jobs that
+	 * W.I.S.E. can't be told which processors to use on its command line.
+	 * @param kernel The affinity to add the processors to.
+	 * @param processors The processors in the jobs block.
+	 * @param contiguous Are the processors in the jobs block a contiguous range.
+	 * @return The affinity, or null if the affinity of W.I.S.E. shouldn't be changed.
+	 */
+	private AffinityKernel withJobProcessors(AffinityKernel kernel, CpuMask processors, boolean contiguous) {
+		if (cpuUsage.getNumaNode() >= 0 && !processors.isEmpty() && !contiguous)
+			return kernel.withProcessors(processors);
+		else if (Settings.getLockCPU())
+			return kernel.withoutProcessor(0);
+		return null;
 	}
 	
 	/**
@@ -410,7 +818,7 @@ public class Job implements Closeable {
 	public boolean validate() {
         try {
             if (WISESupport.isSupportsValidation()) {
-                status = JobStage.Validating;
+                changeStage(JobStage.Validating);
                 List<String> parameters = new ArrayList<>();
                 parameters.add(Settings.getWiseExe());
                 parameters.add(xmlPath.toAbsolutePath().toString());
@@ -422,11 +830,10 @@ public class Job implements Closeable {
                 Process p = new ProcessBuilder(parameters)
                         .directory(Paths.get(Settings.getWiseExe()).getParent().toFile())
                         .start();
-                process = new ProcessWatcher(this::validationJobDone, p);
-                threadPool.execute(process);
-                //send stdout and stderr to /dev/nul so that output doesn't block the application
-                threadPool.execute(new StreamReaderThread(p.getInputStream()));
-                threadPool.execute(new StreamReaderThread(p.getErrorStream()));
+                process = p;
+                ProcessReactor.watch(p, this::validationJobDone);
+                //keep the end of stdout and stderr, draining them so that output doesn't block W.I.S.E.
+                console = OutputPump.capture(p, Settings.getConsoleTailSize());
                 start = LocalDateTime.now();
                 notifyPropertyChanged("start", start);
                 return true;
@@ -435,7 +842,7 @@ public class Job implements Closeable {
         catch (Exception e) {
             WISELogger.getSpecial(LogName.Backend).fatal("Error validating job.", e);
         }
-        status = JobStage.ValidationFailed;
+        changeStage(JobStage.ValidationFailed);
         return false;
 	}
 	
@@ -443,8 +850,9 @@ public class Job implements Closeable {
 	 * If the job is running, terminate its process immediately.
 	 */
 	public void terminateJob() {
-		if (process != null && process.toExecute != null) {
-			process.toExecute.destroyForcibly();
+		Process p = process;
+		if (p != null) {
+			p.destroyForcibly();
 		}
 	}
 	
@@ -514,6 +922,32 @@ public class Job implements Closeable {
 		ValidationComplete,
 		ValidationFailed;
 	    
+	    /**
+	     * The stages that a job can move to from each stage.
+	     */
+	    private static final Map<JobStage, Set<JobStage>> transitions = new EnumMap<>(JobStage.class);
+	    
+	    static {
+	        transitions.put(Queued, EnumSet.of(Running, Stopped, Error, Validating, ValidationFailed));
+	        transitions.put(Running, EnumSet.of(Finished, Error, Stopped));
+	        transitions.put(Validating, EnumSet.of(ValidationComplete, ValidationFailed, Stopped, Error));
+	        //finished jobs can only be resubmitted
+	        transitions.put(Finished, EnumSet.of(Queued));
+	        transitions.put(Error, EnumSet.of(Queued));
+	        transitions.put(Stopped, EnumSet.of(Queued));
+	        transitions.put(ValidationComplete, EnumSet.of(Queued));
+	        transitions.put(ValidationFailed, EnumSet.of(Queued));
+	        //the real stage of an unknown job may be discovered later
+	        transitions.put(Unknown, EnumSet.allOf(JobStage.class));
+	    }
+	    
+	    /**
+	     * Can a job move from this stage to another stage.
+	     */
+	    public boolean canTransitionTo(JobStage next) {
+	        return this == next || transitions.get(this).contains(next);
+	    }
+	    
 	    @Override
 	    public String toString() {
 	        switch (this) {
@@ -546,6 +980,16 @@ public class Job implements Closeable {
 		void onPropertyChanged(Job job, String name, Object value);
 	}
 	
+	@FunctionalInterface
+	public static interface IStageChangedListener {
+		
+		/**
+		 * Called when a job moves to a new stage. Listeners are called while the job
+		 * is locked so they should not block.
+		 */
+		void onStageChanged(Job job, JobStage previous, JobStage current);
+	}
+	
 	@FunctionalInterface
 	public static interface IJobCompleteListener {
 		
@@ -557,7 +1001,21 @@ public class Job implements Closeable {
 		public int cpuCount;
 		public int process;
 		public OperatingSystem os;
+		/**
+		 * The {@link System#nanoTime()} that the job was started at.
+		 */
+		public long start;
+		/**
+		 * The {@link System#nanoTime()} of the last sample.
+		 */
 		public long time;
+		/**
+		 * The CPU time used by the process at the last sample, in milliseconds.
+		 */
 		public long running;
+		/**
+		 * The {@link System#nanoTime()} that the NUMA locality of the jobs memory was last measured.
+		 */
+		public long numaTime;
 	}
 }
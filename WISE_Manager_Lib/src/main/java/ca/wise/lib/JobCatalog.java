@@ -0,0 +1,441 @@
+package ca.wise.lib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ca.wise.lib.Job.JobStage;
+import ca.wise.lib.WISELogger.LogName;
+import ca.wise.lib.json.ResourceUsage;
+import lombok.Getter;
+
+/**
+ * An append-only record of the state of every job in the job directory.
+ *
+ * Each time a job changes stage its current details are appended to the
+ * catalog file, when a job is deleted a removal is appended. On startup
+ * the catalog is replayed so finished jobs can be loaded without parsing
+ * their status files. Each entry remembers the modification time of the
+ * jobs status file, if the status file has changed since the entry was
+ * written the entry is ignored and the job folder is parsed instead.
+ *
+ * The catalog is rewritten with only the current entries once it contains
+ * enough stale records.
+ */
+public class JobCatalog implements Closeable {
+
+    /**
+     * The name of the catalog file in the job directory.
+     */
+    public static final String FILE_NAME = ".catalog";
+
+    private static final int MAGIC = 0x574A4354;
+    /**
+     * Version 2 stores job stages by name instead of by ordinal.
+     * Version 3 stores the resource summary of jobs that have run.
+     */
+    private static final int VERSION = 3;
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_REMOVE = 2;
+    /**
+     * The minimum number of stale records before the catalog will be compacted.
+     */
+    private static final int MIN_STALE_RECORDS = 1000;
+    static final long NO_TIME = Long.MIN_VALUE;
+
+    private final Path path;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    private DataOutputStream output;
+    private int recordCount = 0;
+
+    private JobCatalog(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Open the catalog in a job directory, creating it if it doesn't exist.
+     * @param jobDirectory The directory that jobs are stored in.
+     */
+    public static JobCatalog open(Path jobDirectory) {
+        JobCatalog catalog = new JobCatalog(jobDirectory.resolve(FILE_NAME));
+        catalog.load();
+        return catalog;
+    }
+
+    /**
+     * Get the catalog entry for a job.
+     * @param name The name of the job.
+     * @return The last recorded details of the job, or null if the job isn't in the catalog.
+     */
+    public Entry get(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Get all entries in the catalog.
+     */
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    /**
+     * Record the current details of a job.
+     * @param job The job to record.
+     */
+    public void record(Job job) {
+        Entry entry = new Entry(job, fingerprint(job.getXmlPath().getParent()));
+        synchronized (writeLock) {
+            entries.put(entry.name, entry);
+            try {
+                DataOutputStream out = output();
+                out.writeByte(RECORD_PUT);
+                entry.write(out);
+                out.flush();
+                recordCount++;
+            }
+            catch (IOException e) {
+                WISELogger.getSpecial(LogName.Backend).warn("Unable to write to the job catalog.", e);
+            }
+        }
+    }
+
+    /**
+     * Record that a job has been removed from the job directory.
+     * @param name The name of the job that was removed.
+     */
+    public void remove(String name) {
+        synchronized (writeLock) {
+            if (entries.remove(name) != null) {
+                try {
+                    DataOutputStream out = output();
+                    out.writeByte(RECORD_REMOVE);
+                    out.writeUTF(name);
+                    out.flush();
+                    recordCount++;
+                }
+                catch (IOException e) {
+                    WISELogger.getSpecial(LogName.Backend).warn("Unable to write to the job catalog.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all jobs that are not in the given set of job names.
+     * @param names The names of jobs that still exist.
+     */
+    public void retain(Set<String> names) {
+        entries.keySet().stream()
+            .filter(x -> !names.contains(x))
+            .forEach(this::remove);
+    }
+
+    /**
+     * Is a catalog entry still valid for a job folder. Entries are not valid
+     * if the job has been flagged to restart or if its status file has been
+     * modified since the entry was written.
+     * @param entry The catalog entry.
+     * @param folder The jobs folder.
+     */
+    public static boolean isCurrent(Entry entry, Path folder) {
+        if (Files.exists(folder.resolve("restart.act")))
+            return false;
+        return entry.fingerprint == fingerprint(folder);
+    }
+
+    /**
+     * Does the catalog contain enough stale records that it should be compacted.
+     */
+    public boolean needsCompaction() {
+        synchronized (writeLock) {
+            int stale = recordCount - entries.size();
+            return stale >= MIN_STALE_RECORDS && stale > entries.size();
+        }
+    }
+
+    /**
+     * Compact the catalog if it contains too many stale records.
+     */
+    public void compactIfNeeded() {
+        if (needsCompaction())
+            compact();
+    }
+
+    /**
+     * Rewrite the catalog file so that it only contains the current entries.
+     */
+    public void compact() {
+        synchronized (writeLock) {
+            Path temp = path.resolveSibling(FILE_NAME + ".tmp");
+            try {
+                closeOutput();
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    for (Entry entry : entries.values()) {
+                        out.writeByte(RECORD_PUT);
+                        entry.write(out);
+                    }
+                }
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                recordCount = entries.size();
+            }
+            catch (IOException e) {
+                WISELogger.getSpecial(LogName.Backend).warn("Unable to compact the job catalog.", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            closeOutput();
+        }
+    }
+
+    /**
+     * Read the catalog file. If the end of the file is corrupt, from the manager
+     * being killed while writing for example, the valid entries will be kept and
+     * the file rewritten.
+     */
+    private void load() {
+        if (!Files.exists(path))
+            return;
+        boolean corrupt = false;
+        try (InputStream stream = Files.newInputStream(path);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                corrupt = true;
+            else {
+                while (true) {
+                    int type = in.read();
+                    if (type < 0)
+                        break;
+                    if (type == RECORD_PUT) {
+                        Entry entry = Entry.read(in);
+                        //a stage that no longer exists, the job folder will be parsed instead
+                        if (entry.stage == null)
+                            entries.remove(entry.name);
+                        else
+                            entries.put(entry.name, entry);
+                    }
+                    else if (type == RECORD_REMOVE)
+                        entries.remove(in.readUTF());
+                    else {
+                        corrupt = true;
+                        break;
+                    }
+                    recordCount++;
+                }
+            }
+        }
+        catch (EOFException e) {
+            corrupt = true;
+        }
+        catch (IOException | IllegalArgumentException e) {
+            WISELogger.getSpecial(LogName.Backend).warn("Unable to read the job catalog.", e);
+            corrupt = true;
+        }
+        if (corrupt)
+            compact();
+    }
+
+    private DataOutputStream output() throws IOException {
+        if (output == null) {
+            boolean exists = Files.exists(path);
+            OutputStream stream = Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            output = new DataOutputStream(new BufferedOutputStream(stream));
+            if (!exists) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+            }
+        }
+        return output;
+    }
+
+    private void closeOutput() throws IOException {
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+    }
+
+    /**
+     * Get a value that will change when the jobs status changes.
+     * @param folder The jobs folder.
+     * @return The last modified time of the jobs status file, or -1 if the job doesn't have a status file.
+     */
+    static long fingerprint(Path folder) {
+        try {
+            Path status = folder.resolve("status.json");
+            if (!Files.exists(status))
+                status = folder.resolve("status.xml");
+            if (Files.exists(status))
+                return Files.getLastModifiedTime(status).toMillis();
+        }
+        catch (IOException e) { }
+        return -1;
+    }
+
+    static long toEpoch(LocalDateTime time) {
+        return time == null ? NO_TIME : time.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static LocalDateTime fromEpoch(long time) {
+        return time == NO_TIME ? null : LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneOffset.UTC);
+    }
+
+    /**
+     * The recorded details of a single job. Entries are also used to store
+     * older finished jobs in memory, so they only use primitive fields and
+     * strings other than the optional resource summary. Specification file
+     * names are interned because most jobs share one.
+     */
+    public static final class Entry {
+        @Getter private final String name;
+        /**
+         * The file name of the jobs specification file.
+         */
+        @Getter private final String specificationFile;
+        @Getter private final JobStage stage;
+        private final long submitted;
+        private final long start;
+        private final long end;
+        @Getter private final int requestedCores;
+        @Getter private final boolean hasRequestedCores;
+        @Getter private final int priority;
+        /**
+         * The modification time of the jobs status file when the entry was written.
+         */
+        @Getter private final long fingerprint;
+        /**
+         * The resources used by the last run of the job, null if they weren't recorded.
+         */
+        @Getter private final ResourceUsage resources;
+
+        Entry(Job job, long fingerprint) {
+            this.name = job.getName();
+            this.specificationFile = job.getXmlPath().getFileName().toString().intern();
+            this.stage = job.getStatus();
+            this.submitted = toEpoch(job.getSubmitted());
+            this.start = toEpoch(job.getStart());
+            this.end = toEpoch(job.getEnd());
+            this.requestedCores = job.getRequestedCores();
+            this.hasRequestedCores = job.isHasRequestedCores();
+            this.priority = job.getPriority();
+            this.fingerprint = fingerprint;
+            //don't read the job folder, finished jobs have their summary in memory
+            this.resources = job.peekResourceSummary();
+        }
+
+        private Entry(String name, String specificationFile, JobStage stage, long submitted, long start, long end,
+                int requestedCores, boolean hasRequestedCores, int priority, long fingerprint, ResourceUsage resources) {
+            this.name = name;
+            this.specificationFile = specificationFile;
+            this.stage = stage;
+            this.submitted = submitted;
+            this.start = start;
+            this.end = end;
+            this.requestedCores = requestedCores;
+            this.hasRequestedCores = hasRequestedCores;
+            this.priority = priority;
+            this.fingerprint = fingerprint;
+            this.resources = resources;
+        }
+
+        public LocalDateTime getSubmitted() {
+            return fromEpoch(submitted);
+        }
+
+        public LocalDateTime getStart() {
+            return fromEpoch(start);
+        }
+
+        public LocalDateTime getEnd() {
+            return fromEpoch(end);
+        }
+
+        /**
+         * Has the job finished running, or never been run.
+         */
+        public boolean isFinished() {
+            return stage != JobStage.Queued && stage != JobStage.Running && stage != JobStage.Validating;
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeUTF(name);
+            out.writeUTF(specificationFile);
+            //stored by name so that adding or reordering stages doesn't change the meaning of old entries
+            out.writeUTF(stage.name());
+            out.writeLong(submitted);
+            out.writeLong(start);
+            out.writeLong(end);
+            out.writeInt(requestedCores);
+            out.writeBoolean(hasRequestedCores);
+            out.writeInt(priority);
+            out.writeLong(fingerprint);
+            out.writeBoolean(resources != null);
+            if (resources != null) {
+                out.writeDouble(resources.wallSeconds);
+                out.writeDouble(resources.cpuSeconds);
+                out.writeDouble(resources.meanCpu);
+                out.writeInt(resources.cpuCount);
+                out.writeLong(resources.peakRss);
+                out.writeInt(resources.peakThreads);
+                out.writeLong(resources.readBytes);
+                out.writeLong(resources.writeBytes);
+            }
+        }
+
+        private static Entry read(DataInputStream in) throws IOException {
+            String name = in.readUTF();
+            String specificationFile = in.readUTF().intern();
+            JobStage stage;
+            try {
+                stage = JobStage.valueOf(in.readUTF());
+            }
+            catch (IllegalArgumentException e) {
+                stage = null;
+            }
+            long submitted = in.readLong();
+            long start = in.readLong();
+            long end = in.readLong();
+            int requestedCores = in.readInt();
+            boolean hasRequestedCores = in.readBoolean();
+            int priority = in.readInt();
+            long fingerprint = in.readLong();
+            ResourceUsage resources = null;
+            if (in.readBoolean()) {
+                resources = new ResourceUsage();
+                resources.wallSeconds = in.readDouble();
+                resources.cpuSeconds = in.readDouble();
+                resources.meanCpu = in.readDouble();
+                resources.cpuCount = in.readInt();
+                resources.peakRss = in.readLong();
+                resources.peakThreads = in.readInt();
+                resources.readBytes = in.readLong();
+                resources.writeBytes = in.readLong();
+            }
+            return new Entry(name, specificationFile, stage, submitted, start, end,
+                    requestedCores, hasRequestedCores, priority, fingerprint, resources);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package ca.wise.lib;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.common.base.Strings;
+
+import ca.wise.CpuMask;
+import ca.wise.lib.WISELogger.LogName;
+import ca.wise.lib.json.CgroupPolicy;
+import ca.wise.lib.linux.MemoryPolicyLinux;
+import lombok.Getter;
+
+/**
+ * A cgroup v2 leaf that a single W.I.S.E. job runs in on Linux.
+ *
+ * W.I.S.E. is started through a small shell wrapper that moves itself into
+ * the cgroup before executing W.I.S.E. so the job and every process it starts
+ * are constrained from the beginning, unlike processor affinity which can
+ * only be set after the process has started. The cgroup restricts the job
+ * to the processors and memory node of its {@link CPUUsage} block and applies
+ * the limits of the jobs priority class. The cgroups accounting files keep
+ * the totals for processes that have exited so they are also used to measure
+ * the resources the job used.
+ */
+public final class JobCgroup {
+
+    private static final Path MOUNT = Paths.get("/sys/fs/cgroup");
+    private static final String PREFIX = "wise-job-";
+    /**
+     * The leaf the manager is moved into when jobs are created in the managers own cgroup. Processes
+     * can't be in a cgroup that distributes resources to its children.
+     */
+    private static final String MANAGER_LEAF = "wise-manager";
+    private static final String[] CONTROLLERS = { "cpuset", "cpu", "memory", "io" };
+    /**
+     * The period used for {@code cpu.max} in microseconds.
+     */
+    private static final long CPU_PERIOD = 100000;
+
+    private static boolean initialized = false;
+    private static Path parent = null;
+
+    /**
+     * The cgroup directory.
+     */
+    @Getter private final Path path;
+
+    private JobCgroup(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Create a cgroup for a job if the cgroup policy allows it.
+     * @param name The name of the job.
+     * @param processors The processors that the job will run on, empty if the job hasn't been assigned processors.
+     * @param numaNode The NUMA node the job is locked to, or -1 if it isn't locked to a node.
+     * @param priority The priority of the job.
+     * @return The cgroup, or null if the job shouldn't or can't be run in its own cgroup.
+     */
+    public static JobCgroup create(String name, CpuMask processors, int numaNode, int priority) {
+        CgroupPolicy policy = Settings.getCgroupPolicy();
+        if (policy == null || !policy.enabled)
+            return null;
+        Path base = initialize(policy);
+        if (base == null)
+            return null;
+        Path dir = base.resolve(PREFIX + name.replaceAll("[^A-Za-z0-9._-]", "_"));
+        try {
+            //left behind by a previous run of the same job
+            if (Files.isDirectory(dir))
+                Files.delete(dir);
+            Files.createDirectory(dir);
+        }
+        catch (IOException e) {
+            WISELogger.getSpecial(LogName.Backend).warn("Unable to create a cgroup for " + name, e);
+            return null;
+        }
+        //the wrapper has to be able to move W.I.S.E. into the cgroup
+        if (!Files.isWritable(dir.resolve("cgroup.procs"))) {
+            WISELogger.getSpecial(LogName.Backend).warn("Unable to move jobs into the cgroup " + dir + ", " + name + " will run in the manager's cgroup");
+            try {
+                Files.delete(dir);
+            }
+            catch (IOException e) { }
+            return null;
+        }
+        JobCgroup retval = new JobCgroup(dir);
+        retval.applyCpuset(base, processors, numaNode);
+        retval.applyLimits(policy.findClass(priority));
+        return retval;
+    }
+
+    /**
+     * Find the cgroup to create job cgroups in and enable the controllers that are used
+     * by jobs. Only done once.
+     * @return The parent cgroup, or null if cgroups can't be used.
+     */
+    private static synchronized Path initialize(CgroupPolicy policy) {
+        if (initialized)
+            return parent;
+        initialized = true;
+        //cgroup v1 or not Linux
+        if (!Files.exists(MOUNT.resolve("cgroup.controllers")))
+            return null;
+        try {
+            Path base;
+            if (Strings.isNullOrEmpty(policy.root)) {
+                base = ownCgroup();
+                if (base == null)
+                    return null;
+                Path leaf = base.resolve(MANAGER_LEAF);
+                if (!Files.isDirectory(leaf))
+                    Files.createDirectory(leaf);
+                write(leaf.resolve("cgroup.procs"), Paths.get("/proc/self").toRealPath().getFileName().toString());
+            }
+            else {
+                base = MOUNT.resolve(policy.root.replaceFirst("^/+", ""));
+                Files.createDirectories(base);
+            }
+            String available = new String(Files.readAllBytes(base.resolve("cgroup.controllers")), StandardCharsets.UTF_8);
+            for (String controller : CONTROLLERS) {
+                if (!(" " + available.trim() + " ").contains(" " + controller + " "))
+                    continue;
+                //without the controller the job cgroups wouldn't apply the jobs limits, the caught exception means cgroups aren't used
+                write(base.resolve("cgroup.subtree_control"), "+" + controller);
+            }
+            //remove empty job cgroups left by a previous instance of the manager
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(base, PREFIX + "*")) {
+                for (Path old : stream) {
+                    try {
+                        Files.delete(old);
+                    }
+                    catch (IOException e) { }
+                }
+            }
+            parent = base;
+        }
+        catch (IOException e) {
+            WISELogger.getSpecial(LogName.Backend).warn("Unable to set up cgroups for jobs, jobs will run in the manager's cgroup", e);
+        }
+        return parent;
+    }
+
+    /**
+     * Find the cgroup v2 directory that this process is in.
+     */
+    private static Path ownCgroup() throws IOException {
+        for (String line : Files.readAllLines(Paths.get("/proc/self/cgroup"))) {
+            //the unified hierarchy always has ID 0 and no controller list
+            if (line.startsWith("0::")) {
+                Path retval = MOUNT.resolve(line.substring(3).replaceFirst("^/+", ""));
+                //already moved into the manager leaf by an earlier instance
+                if (retval.getFileName() != null && retval.getFileName().toString().equals(MANAGER_LEAF))
+                    retval = retval.getParent();
+                return retval;
+            }
+        }
+        return null;
+    }
+
+    private void applyCpuset(Path base, CpuMask cpus, int numaNode) {
+        //the job hasn't been assigned processors so use every processor, leaving the first free if requested
+        if (cpus.isEmpty() && Settings.getLockCPU()) {
+            try {
+                cpus = CpuMask.parse(new String(Files.readAllBytes(base.resolve("cpuset.cpus.effective")), StandardCharsets.UTF_8));
+                cpus = cpus.cardinality() > 1 ? cpus.without(0) : CpuMask.EMPTY;
+            }
+            catch (IOException e) {
+                cpus = CpuMask.EMPTY;
+            }
+        }
+        if (!cpus.isEmpty())
+            tryWrite("cpuset.cpus", cpus.toString());
+        //cpuset.mems is a strict binding so a preferred node is left to the jobs memory policy
+        if (numaNode >= 0 && Settings.getNumaMemoryPolicy() == MemoryPolicyLinux.Mode.Bind)
+            tryWrite("cpuset.mems", String.valueOf(numaNode));
+    }
+
+    private void applyLimits(CgroupPolicy.PriorityClass limits) {
+        if (limits == null)
+            return;
+        if (limits.memoryMaxMb != null && limits.memoryMaxMb > 0)
+            tryWrite("memory.max", String.valueOf(limits.memoryMaxMb * 1024 * 1024));
+        if (limits.cpuMaxPercent != null && limits.cpuMaxPercent > 0)
+            tryWrite("cpu.max", (limits.cpuMaxPercent * CPU_PERIOD / 100) + " " + CPU_PERIOD);
+        if (limits.ioWeight != null)
+            tryWrite("io.weight", "default " + Math.max(1, Math.min(10000, limits.ioWeight)));
+    }
+
+    /**
+     * Wrap a command so that it is run in the cgroup. The wrapper replaces itself
+     * with the command so the process ID is the ID of the command. If the wrapper
+     * can't join the cgroup it prints a message to stderr and runs the command anyway.
+     * @param command The command to run.
+     * @return The wrapped command.
+     */
+    public List<String> wrap(List<String> command) {
+        List<String> retval = new ArrayList<>(command.size() + 4);
+        retval.add("/bin/sh");
+        retval.add("-c");
+        retval.add("echo $$ 2>/dev/null > \"$0\" || echo \"Unable to join the cgroup $0\" >&2; exec \"$@\"");
+        retval.add(path.resolve("cgroup.procs").toString());
+        retval.addAll(command);
+        return retval;
+    }
+
+    /**
+     * Remove the cgroup after the job has exited. Any processes that are still
+     * in the cgroup are killed.
+     */
+    public void remove() {
+        for (int i = 0; i < 20; i++) {
+            try {
+                Files.delete(path);
+                return;
+            }
+            catch (NoSuchFileException e) {
+                return;
+            }
+            catch (IOException e) {
+                //processes started by W.I.S.E. are still running, cgroup.kill was added in Linux 5.14
+                if (i == 0 && Files.exists(path.resolve("cgroup.kill")))
+                    tryWrite("cgroup.kill", "1");
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+            }
+        }
+        WISELogger.getSpecial(LogName.Backend).warn("Unable to remove the cgroup " + path);
+    }
+
+    private void tryWrite(String file, String value) {
+        try {
+            write(path.resolve(file), value);
+        }
+        catch (IOException e) {
+            WISELogger.getSpecial(LogName.Backend).warn("Unable to set " + file + " for " + path.getFileName(), e);
+        }
+    }
+
+    private static void write(Path file, String value) throws IOException {
+        Files.write(file, value.getBytes(StandardCharsets.US_ASCII), StandardOpenOption.WRITE);
+    }
+}
@@ -0,0 +1,96 @@
+package ca.wise.lib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import ca.wise.lib.Job.IPropertyChangedListener;
+import ca.wise.lib.json.JobHistory;
+import ca.wise.lib.json.JobHistory.HistoryStatus;
+
+/**
+ * Caches the serialized job history of each job.
+ *
+ * The first time a jobs history is requested it is serialized to JSON and
+ * the bytes are stored in the job. The cached bytes are cleared by a property
+ * changed listener whenever one of the jobs details changes, so responses for
+ * jobs that haven't changed can be built by copying the cached bytes.
+ */
+public final class JobHistoryCache {
+
+    private static final ObjectWriter writer = new ObjectMapper().writerFor(JobHistory.class);
+    private static final byte[] JOBS_START = ",\"jobs\":[".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] JOBS_END = "]}".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Clears the cached history of a job when one of its properties changes.
+     * Usage changes are ignored because the usage isn't part of the history.
+     */
+    static final IPropertyChangedListener INVALIDATOR = (job, name, value) -> {
+        if (!"usage".equals(name))
+            job.invalidateHistory();
+    };
+
+    private JobHistoryCache() { }
+
+    /**
+     * Get the serialized job history of a job.
+     * @param job The job.
+     * @param status The list that the job is in.
+     * @return The UTF-8 encoded JSON history of the job.
+     */
+    public static byte[] serialize(Job job, HistoryStatus status) throws JsonProcessingException {
+        int version = job.getHistoryVersion();
+        Fragment fragment = job.getHistoryFragment();
+        if (fragment != null && fragment.status == status && fragment.version == version)
+            return fragment.bytes;
+        byte[] bytes = writer.writeValueAsBytes(JobHistoryQuery.toHistory(job, status));
+        //if the job changed while it was being serialized the version will no longer match
+        job.setHistoryFragment(new Fragment(status, version, bytes));
+        return bytes;
+    }
+
+    /**
+     * Add a list of jobs to a serialized JSON object.
+     * @param header The serialized object that the jobs will be added to. It must contain at least one other property.
+     * @param jobs The jobs to add.
+     * @param statuses The list that each job is in.
+     * @return The serialized object with a {@code jobs} array added to the end.
+     */
+    public static byte[] appendJobs(byte[] header, List<Job> jobs, List<HistoryStatus> statuses) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(header.length + jobs.size() * 160 + 16);
+        //remove the closing brace from the header
+        int end = header.length - 1;
+        while (end > 0 && header[end] != '}')
+            end--;
+        out.write(header, 0, end);
+        out.write(JOBS_START);
+        for (int i = 0; i < jobs.size(); i++) {
+            if (i > 0)
+                out.write(',');
+            out.write(serialize(jobs.get(i), statuses.get(i)));
+        }
+        out.write(JOBS_END);
+        return out.toByteArray();
+    }
+
+    /**
+     * The serialized history of a job.
+     */
+    static final class Fragment {
+        final HistoryStatus status;
+        final int version;
+        final byte[] bytes;
+
+        Fragment(HistoryStatus status, int version, byte[] bytes) {
+            this.status = status;
+            this.version = version;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,507 @@
+package ca.wise.lib;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.google.common.base.Strings;
+
+import ca.wise.lib.FinishedJobIndex.TimeKey;
+import ca.wise.lib.WISELogger.LogName;
+import ca.wise.lib.json.JobHistory;
+import ca.wise.lib.json.JobHistory.HistoryStatus;
+import ca.wise.lib.json.JobHistoryRequest;
+import lombok.Getter;
+
+/**
+ * A filtered, paged request for the job history.
+ *
+ * Results are returned with the running jobs first, then the queued
+ * jobs, then the finished jobs. Each page includes a cursor that can be
+ * used to request the next page. Cursors point at the sort key of the next
+ * job to return instead of a position so jobs that are added to or removed
+ * from a list between requests don't cause the other jobs in the list to be
+ * skipped or repeated. Running jobs are keyed by the order they were started
+ * and queued jobs by their place in the queue. A job that moves to a list
+ * that has already been paged through, a queued job that starts running for
+ * example, isn't returned again until the history is requested from the start.
+ *
+ * Finished jobs are read from whichever of the {@link FinishedJobIndex}
+ * indexes matches the fewest jobs so the cost of a request depends on the
+ * page size instead of the number of finished jobs. Running and queued
+ * jobs are filtered directly.
+ */
+public final class JobHistoryQuery {
+
+    private static final String SECTION_RUNNING = "r";
+    private static final String SECTION_QUEUED = "q";
+    private static final String SECTION_FINISHED = "f";
+    private static final String SECTION_NAME = "n";
+    private static final String SECTION_SUBMITTED = "s";
+    private static final String SECTION_COMPLETED = "c";
+
+    /**
+     * Which lists to return jobs from.
+     */
+    @Getter private final HistoryStatus filter;
+    private final String namePrefix;
+    private final long submittedFrom;
+    private final long submittedTo;
+    private final long completedFrom;
+    private final long completedTo;
+    private final String cursor;
+    private final int offset;
+    private final int count;
+
+    private JobHistoryQuery(HistoryStatus filter, String namePrefix, long submittedFrom, long submittedTo,
+            long completedFrom, long completedTo, String cursor, int offset, int count) {
+        this.filter = filter;
+        this.namePrefix = namePrefix;
+        this.submittedFrom = submittedFrom;
+        this.submittedTo = submittedTo;
+        this.completedFrom = completedFrom;
+        this.completedTo = completedTo;
+        this.cursor = cursor;
+        this.offset = offset;
+        this.count = count;
+    }
+
+    /**
+     * Create a query from a job history request. Invalid times are ignored.
+     * @param request The request. Can be null to return all jobs.
+     */
+    public static JobHistoryQuery fromRequest(JobHistoryRequest request) {
+        if (request == null)
+            return new JobHistoryQuery(HistoryStatus.All, null, Long.MIN_VALUE, Long.MAX_VALUE,
+                    Long.MIN_VALUE, Long.MAX_VALUE, null, -1, -1);
+        return new JobHistoryQuery(request.filter == null ? HistoryStatus.All : request.filter,
+                Strings.emptyToNull(request.namePrefix),
+                parseTime(request.submitTimeFrom, Long.MIN_VALUE), parseTime(request.submitTimeTo, Long.MAX_VALUE),
+                parseTime(request.completeTimeFrom, Long.MIN_VALUE), parseTime(request.completeTimeTo, Long.MAX_VALUE),
+                Strings.emptyToNull(request.cursor), request.offset, request.count);
+    }
+
+    /**
+     * Parse a time from a request. Times can either have an offset or be in the local time zone.
+     * @return The time in the form used by the {@link FinishedJobIndex}, or {@code missing} if the time isn't set or isn't valid.
+     */
+    static long parseTime(String value, long missing) {
+        if (Strings.isNullOrEmpty(value))
+            return missing;
+        try {
+            LocalDateTime time;
+            try {
+                time = OffsetDateTime.parse(value).atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+            }
+            catch (DateTimeParseException e) {
+                time = LocalDateTime.parse(value);
+            }
+            return JobCatalog.toEpoch(time);
+        }
+        catch (DateTimeParseException e) {
+            WISELogger.getSpecial(LogName.Backend).warn("Invalid job history time " + value);
+            return missing;
+        }
+    }
+
+    /**
+     * Convert a job to the details that are returned in the job history.
+     * @param job The job.
+     * @param status The list that the job is in.
+     */
+    public static JobHistory toHistory(Job job, HistoryStatus status) {
+        //the resources used by running jobs change with every sample so they are only included once the job is complete,
+        //the summary is kept in memory so the job folder isn't read for every completed job
+        return JobHistory.builder()
+            .status(status)
+            .name(job.getName())
+            .submitTime(formatTime(job.getSubmitted()))
+            .startTime(formatTime(job.getStart()))
+            .completeTime(formatTime(job.getEnd()))
+            .resources(status == HistoryStatus.Complete ? job.getResourceSummary() : null)
+            .build();
+    }
+
+    static String formatTime(LocalDateTime time) {
+        return time == null ? null : time.atZone(ZoneId.systemDefault()).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+    }
+
+    private boolean hasFilters() {
+        return namePrefix != null || hasSubmittedFilter() || hasCompletedFilter();
+    }
+
+    private boolean hasSubmittedFilter() {
+        return submittedFrom != Long.MIN_VALUE || submittedTo != Long.MAX_VALUE;
+    }
+
+    private boolean hasCompletedFilter() {
+        return completedFrom != Long.MIN_VALUE || completedTo != Long.MAX_VALUE;
+    }
+
+    private boolean matches(Job job) {
+        if (job == null)
+            return false;
+        if (namePrefix != null && !job.getName().startsWith(namePrefix))
+            return false;
+        if (hasSubmittedFilter() && !inRange(job.getSubmitted(), submittedFrom, submittedTo))
+            return false;
+        if (hasCompletedFilter() && !inRange(job.getEnd(), completedFrom, completedTo))
+            return false;
+        return true;
+    }
+
+    private static boolean inRange(LocalDateTime time, long from, long to) {
+        if (time == null)
+            return false;
+        long value = JobCatalog.toEpoch(time);
+        return value >= from && value <= to;
+    }
+
+    /**
+     * Run the query.
+     * @param registry The job lists to read from.
+     */
+    Page execute(JobRegistry registry) {
+        Cursor start = Cursor.decode(cursor);
+        Results results = new Results(count > 0 ? count : Integer.MAX_VALUE, start == null && offset > 0 ? offset : 0, start);
+        JobListSnapshot snapshot = registry.getSnapshot();
+        JobQueue queue = registry.getJobQueue();
+        if (filter == HistoryStatus.Running || filter == HistoryStatus.QueueRun || filter == HistoryStatus.All)
+            list(results, SECTION_RUNNING, 0, snapshot.getRunning(), HistoryStatus.Running, job -> {
+                Long order = queue.runningOrder(job);
+                return order == null ? null : new long[] { order };
+            });
+        if (filter == HistoryStatus.Queued || filter == HistoryStatus.QueueRun || filter == HistoryStatus.All)
+            list(results, SECTION_QUEUED, 1, snapshot.getQueued(), HistoryStatus.Queued, queue::queuedOrder);
+        if (filter == HistoryStatus.Complete || filter == HistoryStatus.All)
+            finished(results, registry);
+        return new Page(Collections.unmodifiableList(results.jobs), Collections.unmodifiableList(results.statuses),
+                results.total, results.next);
+    }
+
+    /**
+     * Add jobs from the running or queued lists.
+     * @param sortKey Gets the sort key of a job in the list, or null if the job is no longer in the list.
+     */
+    private void list(Results results, String section, int order, List<Job> list, HistoryStatus status, Function<Job, long[]> sortKey) {
+        boolean filtered = hasFilters();
+        results.total += filtered ? (int)list.stream().filter(this::matches).count() : list.size();
+        int cursorOrder = results.start == null ? -1 : sectionOrder(results.start.section);
+        //the cursor is for a later list
+        if (cursorOrder > order)
+            return;
+        long[] from = cursorOrder == order ? parseSortKey(results.start.value) : null;
+        int first = 0;
+        //without filters the skipped jobs don't need to be looked at
+        if (!filtered && results.skip > 0) {
+            int skipped = Math.min(results.skip, list.size());
+            first += skipped;
+            results.skip -= skipped;
+        }
+        for (int i = first; i < list.size() && results.next == null; i++) {
+            Job job = list.get(i);
+            long[] key = sortKey.apply(job);
+            //the job has left the list since the snapshot was taken
+            if (key == null)
+                continue;
+            //keys increase along the list so these jobs were on an earlier page
+            if (from != null && compareSortKeys(key, from) < 0)
+                continue;
+            if (matches(job))
+                results.add(job, status, () -> new Cursor(section, formatSortKey(key)).encode());
+        }
+    }
+
+    private static String formatSortKey(long[] key) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < key.length; i++) {
+            if (i > 0)
+                builder.append(':');
+            builder.append(key[i]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Parse a sort key from a cursor.
+     * @return The key, or null to start at the beginning of the list if the key isn't valid.
+     */
+    private static long[] parseSortKey(String value) {
+        String[] parts = value.split(":");
+        long[] retval = new long[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++)
+                retval[i] = Long.parseLong(parts[i]);
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+        return retval;
+    }
+
+    private static int compareSortKeys(long[] a, long[] b) {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            int c = Long.compare(a[i], b[i]);
+            if (c != 0)
+                return c;
+        }
+        return Integer.compare(a.length, b.length);
+    }
+
+    /**
+     * Add finished jobs using the index that has the fewest possible matches.
+     */
+    private void finished(Results results, JobRegistry registry) {
+        IndexedJobList<Long> finished = registry.getFinishedJobs();
+        FinishedJobIndex index = registry.getFinishedIndex();
+        String section = SECTION_FINISHED;
+        int matches = finished.size();
+        if (namePrefix != null) {
+            int c = index.countByName(namePrefix);
+            if (c <= matches) {
+                matches = c;
+                section = SECTION_NAME;
+            }
+        }
+        if (hasSubmittedFilter()) {
+            int c = index.countBySubmitted(submittedFrom, submittedTo);
+            if (c <= matches) {
+                matches = c;
+                section = SECTION_SUBMITTED;
+            }
+        }
+        if (hasCompletedFilter()) {
+            int c = index.countByCompleted(completedFrom, completedTo);
+            if (c <= matches) {
+                matches = c;
+                section = SECTION_COMPLETED;
+            }
+        }
+        //when more than one filter is used the other filters may remove some of these jobs
+        results.total += matches;
+
+        //continue using the index that the cursor was created with
+        Cursor from = results.start;
+        if (from != null && isFinishedSection(from.section))
+            section = from.section;
+        else
+            from = null;
+        if (results.next != null)
+            return;
+
+        Iterator<Job> it;
+        try {
+            switch (section) {
+            case SECTION_NAME:
+                it = index.byName(namePrefix == null ? "" : namePrefix, from == null ? null : from.value);
+                break;
+            case SECTION_SUBMITTED:
+                it = index.bySubmitted(submittedTo, from == null ? null : from.timeKey());
+                break;
+            case SECTION_COMPLETED:
+                it = index.byCompleted(completedTo, from == null ? null : from.timeKey());
+                break;
+            default:
+                if (from != null)
+                    it = finished.iterator(Long.parseLong(from.value), true);
+                //without filters the skipped jobs can be found by position
+                else if (!hasFilters() && results.skip > 0) {
+                    if (results.skip >= finished.size())
+                        return;
+                    it = finished.iterator(finished.keyAt(results.skip), true);
+                    results.skip = 0;
+                }
+                else
+                    it = finished.iterator();
+                break;
+            }
+        }
+        catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return;
+        }
+
+        final String indexSection = section;
+        while (it.hasNext() && results.next == null) {
+            Job job = it.next();
+            if (job == null)
+                continue;
+            if (!inIndexRange(indexSection, job))
+                break;
+            if (matches(job))
+                results.add(job, HistoryStatus.Complete, () -> finishedCursor(indexSection, finished, job));
+        }
+    }
+
+    /**
+     * Is a job still within the range of the index that is being read. Indexes are
+     * sorted so once a job is outside the range no later jobs can match.
+     */
+    private boolean inIndexRange(String section, Job job) {
+        switch (section) {
+        case SECTION_NAME:
+            return namePrefix == null || job.getName().startsWith(namePrefix);
+        case SECTION_SUBMITTED:
+            return job.getSubmitted() == null || JobCatalog.toEpoch(job.getSubmitted()) >= submittedFrom;
+        case SECTION_COMPLETED:
+            return job.getEnd() == null || JobCatalog.toEpoch(job.getEnd()) >= completedFrom;
+        default:
+            return true;
+        }
+    }
+
+    private static String finishedCursor(String section, IndexedJobList<Long> finished, Job job) {
+        switch (section) {
+        case SECTION_NAME:
+            return new Cursor(section, job.getName()).encode();
+        case SECTION_SUBMITTED:
+            return new Cursor(section, JobCatalog.toEpoch(job.getSubmitted()) + ":" + job.getName()).encode();
+        case SECTION_COMPLETED:
+            return new Cursor(section, JobCatalog.toEpoch(job.getEnd()) + ":" + job.getName()).encode();
+        default:
+            Long key = finished.keyOf(job.getName());
+            //the job was removed while the page was being built
+            if (key == null)
+                return null;
+            return new Cursor(section, key.toString()).encode();
+        }
+    }
+
+    private static boolean isFinishedSection(String section) {
+        return SECTION_FINISHED.equals(section) || SECTION_NAME.equals(section) ||
+                SECTION_SUBMITTED.equals(section) || SECTION_COMPLETED.equals(section);
+    }
+
+    private static int sectionOrder(String section) {
+        if (SECTION_RUNNING.equals(section))
+            return 0;
+        if (SECTION_QUEUED.equals(section))
+            return 1;
+        return 2;
+    }
+
+    /**
+     * One page of the job history.
+     */
+    public static final class Page {
+        private final List<Job> jobs;
+        private final List<HistoryStatus> statuses;
+        /**
+         * The number of jobs that match the query. If more than one filter was used this
+         * may be larger than the number of jobs that will actually be returned.
+         */
+        @Getter private final int totalCount;
+        /**
+         * A cursor that can be used to request the next page, or null if this is the last page.
+         */
+        @Getter private final String nextCursor;
+
+        Page(List<Job> jobs, List<HistoryStatus> statuses, int totalCount, String nextCursor) {
+            this.jobs = jobs;
+            this.statuses = statuses;
+            this.totalCount = totalCount;
+            this.nextCursor = nextCursor;
+        }
+
+        /**
+         * The details of the jobs in the page.
+         */
+        public List<JobHistory> getJobs() {
+            List<JobHistory> retval = new ArrayList<>(jobs.size());
+            for (int i = 0; i < jobs.size(); i++)
+                retval.add(toHistory(jobs.get(i), statuses.get(i)));
+            return retval;
+        }
+
+        /**
+         * Add the jobs in the page to a serialized JSON object using the cached history of each job.
+         * @param header The serialized object to add a {@code jobs} array to.
+         */
+        public byte[] appendJobs(byte[] header) throws IOException {
+            return JobHistoryCache.appendJobs(header, jobs, statuses);
+        }
+    }
+
+    /**
+     * The page that is being built.
+     */
+    private static final class Results {
+        final List<Job> jobs = new ArrayList<>();
+        final List<HistoryStatus> statuses = new ArrayList<>();
+        final int limit;
+        final Cursor start;
+        int skip;
+        int total = 0;
+        String next = null;
+
+        Results(int limit, int skip, Cursor start) {
+            this.limit = limit;
+            this.skip = skip;
+            this.start = start;
+        }
+
+        /**
+         * Add a job that matched the query. If the page is already full a cursor
+         * pointing at the job is created instead.
+         */
+        void add(Job job, HistoryStatus status, Supplier<String> cursor) {
+            if (skip > 0)
+                skip--;
+            else if (jobs.size() >= limit)
+                next = cursor.get();
+            else {
+                jobs.add(job);
+                statuses.add(status);
+            }
+        }
+    }
+
+    /**
+     * The position of the next job to return. Cursors are sent to clients as opaque strings.
+     */
+    private static final class Cursor {
+        final String section;
+        final String value;
+
+        Cursor(String section, String value) {
+            this.section = section;
+            this.value = value;
+        }
+
+        TimeKey timeKey() {
+            int split = value.indexOf(':');
+            return new TimeKey(Long.parseLong(value.substring(0, split)), value.substring(split + 1));
+        }
+
+        String encode() {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString((section + ":" + value).getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Cursor decode(String cursor) {
+            if (cursor == null)
+                return null;
+            try {
+                String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int split = value.indexOf(':');
+                if (split > 0) {
+                    String section = value.substring(0, split);
+                    if (SECTION_RUNNING.equals(section) || SECTION_QUEUED.equals(section) || isFinishedSection(section))
+                        return new Cursor(section, value.substring(split + 1));
+                }
+            }
+            catch (IllegalArgumentException e) { }
+            WISELogger.getSpecial(LogName.Backend).warn("Invalid job history cursor " + cursor);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package ca.wise.lib;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import lombok.Getter;
+
+/**
+ * An immutable view of the job lists at a point in time. A new
+ * snapshot is published every time one of the job lists changes
+ * so the lists can be read without taking any locks.
+ *
+ * The jobs themselves are not copied, their status and times may
+ * have changed since the snapshot was taken.
+ */
+public final class JobListSnapshot {
+
+    /**
+     * An empty snapshot.
+     */
+    public static final JobListSnapshot EMPTY = new JobListSnapshot(0, Collections.emptyList(),
+            Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+
+    /**
+     * The version of the job lists. Increases every time the lists change.
+     */
+    @Getter private final long version;
+    /**
+     * Jobs that have been started, in the order they were started.
+     */
+    @Getter private final List<Job> running;
+    /**
+     * Jobs that are waiting to run, in the order they will be started.
+     */
+    @Getter private final List<Job> queued;
+    /**
+     * Jobs that are being validated or waiting to be validated.
+     */
+    @Getter private final List<Job> validating;
+    /**
+     * Completed jobs, the most recently completed first.
+     */
+    @Getter private final List<Job> finished;
+
+    //sorted name lists are built the first time they are requested
+    private volatile List<String> runningNames;
+    private volatile List<String> queuedNames;
+    private volatile List<String> unfinishedNames;
+    private volatile List<String> finishedNames;
+
+    JobListSnapshot(long version, List<Job> running, List<Job> queued, List<Job> validating, List<Job> finished) {
+        this.version = version;
+        this.running = running;
+        this.queued = queued;
+        this.validating = validating;
+        this.finished = finished;
+    }
+
+    /**
+     * The sorted names of the jobs that are running.
+     */
+    public List<String> getRunningNames() {
+        List<String> retval = runningNames;
+        if (retval == null) {
+            retval = sortedNames(running.stream());
+            runningNames = retval;
+        }
+        return retval;
+    }
+
+    /**
+     * The sorted names of the jobs that are waiting to run.
+     */
+    public List<String> getQueuedNames() {
+        List<String> retval = queuedNames;
+        if (retval == null) {
+            retval = sortedNames(queued.stream());
+            queuedNames = retval;
+        }
+        return retval;
+    }
+
+    /**
+     * The sorted names of all running and queued jobs.
+     */
+    public List<String> getUnfinishedNames() {
+        List<String> retval = unfinishedNames;
+        if (retval == null) {
+            retval = sortedNames(Stream.concat(running.stream(), queued.stream()));
+            unfinishedNames = retval;
+        }
+        return retval;
+    }
+
+    /**
+     * The sorted names of all finished jobs.
+     */
+    public List<String> getFinishedNames() {
+        List<String> retval = finishedNames;
+        if (retval == null) {
+            retval = sortedNames(finished.stream());
+            finishedNames = retval;
+        }
+        return retval;
+    }
+
+    private static List<String> sortedNames(Stream<Job> jobs) {
+        return Collections.unmodifiableList(jobs.map(Job::getName).sorted().collect(Collectors.toList()));
+    }
+}
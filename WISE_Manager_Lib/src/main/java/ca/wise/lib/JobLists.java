@@ -2,90 +2,179 @@ package ca.wise.lib;
 
 import java.io.BufferedReader;
 import java.io.Closeable;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.attribute.BasicFileAttributeView;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.GregorianCalendar;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+import java.util.stream.Stream;
 
-import javax.swing.SwingUtilities;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
 import javax.xml.datatype.XMLGregorianCalendar;
 
-import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
-import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
-import org.apache.commons.compress.compressors.gzip.GzipUtils;
-import org.apache.commons.compress.utils.IOUtils;
-
 import com.google.common.base.Strings;
 import com.google.protobuf.util.JsonFormat;
 
 import ca.wise.status.proto.jobStatus;
 import ca.wise.fgm.FGMHelper;
+import ca.wise.lib.Job.IStageChangedListener;
 import ca.wise.lib.Job.JobStage;
 import ca.wise.lib.WISELogger.LogName;
+import ca.wise.lib.archive.ArchiveFormat;
+import ca.wise.lib.archive.ArchiveIndex;
+import ca.wise.lib.archive.ArchiveReader;
+import ca.wise.lib.archive.ArchiveWriter;
+import ca.wise.lib.json.BulkManage;
+import ca.wise.lib.json.BulkManageProgress;
 import ca.wise.lib.json.JobHistory;
+import ca.wise.lib.json.RetentionPolicy;
 import ca.wise.lib.json.Shutdown;
 import ca.wise.lib.mqtt.MqttListener;
 import lombok.Getter;
 
 public class JobLists implements Closeable {
 	
-	private Path jobDirectory;
+	/**
+	 * The maximum number of threads to use when loading job folders.
+	 */
+	private static final int MAX_SCAN_THREADS = 8;
+	/**
+	 * The number of job folders that a single thread will load at a time.
+	 */
+	private static final int SCAN_BATCH_SIZE = 16;
+	/**
+	 * How often to check if the job catalog needs to be compacted.
+	 */
+	private static final long CATALOG_COMPACT_MINUTES = 10;
+	/**
+	 * The number of bulk management requests that can run at the same time.
+	 */
+	private static final int BULK_MANAGE_THREADS = 2;
+	/**
+	 * The number of bulk management requests that can be waiting to run.
+	 */
+	private static final int BULK_MANAGE_QUEUE = 8;
+	/**
+	 * The delay between loading the job directory and the first retention sweep.
+	 */
+	private static final long RETENTION_START_SECONDS = 60;
+	
+	/**
+	 * The directory that W.I.S.E. jobs are written to.
+	 */
+	@Getter private Path jobDirectory;
 	private Lock listLock = new ReentrantLock();
-	@Getter private List<Job> finishedJobs = new ArrayList<>();
-	private List<Job> jobQueue = new ArrayList<>();
-	private List<Job> validateQueue = new ArrayList<>();
+	private final JobRegistry registry;
+	private final IndexedJobList<Long> finishedJobs;
+	private final JobQueue jobQueue;
+	private final JobQueue validateQueue;
 	private ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+	/**
+	 * Deletes job folders in the background.
+	 */
+	private final TrashPurger trash;
+	/**
+	 * The names of the finished jobs that are being archived. They stay in the finished list but can't be deleted, rerun, or archived again.
+	 */
+	private final Set<String> archiving = ConcurrentHashMap.newKeySet();
+	/**
+	 * The names of the archived jobs that are being extracted. They are added to the finished list once they have been extracted.
+	 */
+	private final Set<String> extracting = ConcurrentHashMap.newKeySet();
 	private Lock queueLock = new ReentrantLock();
+	/**
+	 * Runs bulk management requests so that archiving many jobs doesn't block the shared executor.
+	 */
+	private final ThreadPoolExecutor bulkExecutor = new ThreadPoolExecutor(BULK_MANAGE_THREADS, BULK_MANAGE_THREADS,
+			60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(BULK_MANAGE_QUEUE), r -> {
+				Thread thread = new Thread(r, "Bulk Manage");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			});
 	
-	private List<IListChangedListener> finishedListeners = new ArrayList<>();
-	private List<IListChangedListener> queueListeners = new ArrayList<>();
-	private List<IListChangedListener> validateListeners = new ArrayList<>();
+	private List<IListChangedListener> finishedListeners = new CopyOnWriteArrayList<>();
+	private List<IListChangedListener> queueListeners = new CopyOnWriteArrayList<>();
+	private List<IListChangedListener> validateListeners = new CopyOnWriteArrayList<>();
+	/**
+	 * Batches list changes before they are passed to the listeners.
+	 */
+	private final ListChangeDispatcher dispatcher;
+	private List<IScanProgressListener> scanProgressListeners = new CopyOnWriteArrayList<>();
+	/**
+	 * The progress of loading jobs from the job directory. Null if the job directory hasn't been loaded.
+	 */
+	@Getter private volatile ScanProgress scanProgress = null;
+	/**
+	 * A record of job lifecycle changes used to speed up loading the job directory.
+	 */
+	private volatile JobCatalog catalog = null;
+	private ScheduledFuture<?> catalogCompaction = null;
+	/**
+	 * Removes old finished jobs. Null if no retention policy has been configured.
+	 */
+	private volatile RetentionEngine retention = null;
+	private List<RetentionEngine.IRetentionListener> retentionListeners = new CopyOnWriteArrayList<>();
+	private List<ITelemetryListener> telemetryListeners = new CopyOnWriteArrayList<>();
 	
 	/**
 	 * Create a new job list.
 	 * @param directory The directory that W.I.S.E. jobs get written to.
 	 */
 	public JobLists(Path directory) {
+		this(directory, new ListChangeDispatcher());
+	}
+	
+	/**
+	 * Create a new job list.
+	 * @param directory The directory that W.I.S.E. jobs get written to.
+	 * @param dispatcher Used to pass list changes to the listeners. It will be closed when the job list is closed.
+	 */
+	public JobLists(Path directory, ListChangeDispatcher dispatcher) {
+		this.dispatcher = dispatcher;
 		jobDirectory = directory;
+		trash = new TrashPurger(directory);
+		registry = new JobRegistry(directory.toAbsolutePath().toString());
+		finishedJobs = registry.getFinishedJobs();
+		jobQueue = registry.getJobQueue();
+		validateQueue = registry.getValidateQueue();
+		bulkExecutor.allowCoreThreadTimeOut(true);
 	}
 	
 	public void addFinishedListChangeListener(IListChangedListener listener) {
@@ -111,6 +200,74 @@ public class JobLists implements Closeable {
     public void removeValidateChangeListener(IListChangedListener listener) {
         validateListeners.remove(listener);
     }
+    
+    /**
+     * Listen for jobs in the job queue or the validation queue moving between stages.
+     */
+    public void addStageChangedListener(IStageChangedListener listener) {
+        jobQueue.addStageChangedListener(listener);
+        validateQueue.addStageChangedListener(listener);
+    }
+    
+    public void removeStageChangedListener(IStageChangedListener listener) {
+        jobQueue.removeStageChangedListener(listener);
+        validateQueue.removeStageChangedListener(listener);
+    }
+    
+    public void addScanProgressListener(IScanProgressListener listener) {
+        scanProgressListeners.add(listener);
+    }
+    
+    public void removeScanProgressListener(IScanProgressListener listener) {
+        scanProgressListeners.remove(listener);
+    }
+    
+    public void addRetentionListener(RetentionEngine.IRetentionListener listener) {
+        retentionListeners.add(listener);
+    }
+    
+    public void removeRetentionListener(RetentionEngine.IRetentionListener listener) {
+        retentionListeners.remove(listener);
+    }
+    
+    public void addTelemetryListener(ITelemetryListener listener) {
+        telemetryListeners.add(listener);
+    }
+    
+    public void removeTelemetryListener(ITelemetryListener listener) {
+        telemetryListeners.remove(listener);
+    }
+	
+	/**
+	 * Get the list of finished jobs. The list is indexed by job name so
+	 * lookups and {@link List#indexOf(Object)} are O(log n).
+	 * @return The list of finished jobs, the most recently completed job first.
+	 */
+	public List<Job> getFinishedJobs() {
+		return Collections.unmodifiableList(finishedJobs);
+	}
+	
+	/**
+	 * Get the records of the finished jobs without loading the jobs.
+	 * @return The records of the finished jobs, the most recently completed job first.
+	 */
+	public List<JobCatalog.Entry> getFinishedRecords() {
+		return finishedJobs.records();
+	}
+	
+	/**
+	 * Find a job by name in any of the job lists. Does not block on the list locks.
+	 * @param jobName The name of the job to find.
+	 * @return The job, or null if no job with the given name exists.
+	 */
+	public Job findJob(String jobName) {
+		Job job = registry.findQueued(jobName);
+		if (job == null)
+			job = registry.findValidating(jobName);
+		if (job == null)
+			job = registry.findFinished(jobName);
+		return job;
+	}
 	
 	/**
 	 * Non-thread safe get job list method.
@@ -145,10 +302,8 @@ public class JobLists implements Closeable {
 		queueLock.lock();
 		boolean retval = false;
 		try {
-			if (index > 0 && index < jobQueue.size()) {
-				Collections.swap(jobQueue, index, index - 1);
-				retval = true;
-			}
+			if (index > 0)
+				retval = registry.swapQueued(index - 1);
 		}
 		finally {
 			queueLock.unlock();
@@ -165,10 +320,8 @@ public class JobLists implements Closeable {
 		queueLock.lock();
 		boolean retval = false;
 		try {
-			if (index >= 0 && index < (jobQueue.size() - 1)) {
-				Collections.swap(jobQueue, index, index + 1);
-				retval = true;
-			}
+			if (index >= 0)
+				retval = registry.swapQueued(index);
 		}
 		finally {
 			queueLock.unlock();
@@ -192,17 +345,22 @@ public class JobLists implements Closeable {
 		queueLock.unlock();
 	}
 	
+	/**
+	 * Sample the resource usage of the running jobs and pass the jobs to the telemetry listeners.
+	 */
+	public void sampleUsage() {
+		List<Job> running = registry.getSnapshot().getRunning();
+		Job.updateUsage(running);
+		if (!running.isEmpty())
+			telemetryListeners.forEach(l -> l.onUsageSampled(running));
+	}
+	
 	/**
 	 * Get the number of jobs that are currently running.
 	 * @return The number of running jobs.
 	 */
 	public long getRunningCount() {
-		try {
-			return lockJobQueue().stream().filter(j -> j.status == JobStage.Running).count();
-		}
-		finally {
-			unlockJobQueue();
-		}
+		return jobQueue.getStageCount(JobStage.Running);
 	}
 	
 	/**
@@ -210,12 +368,7 @@ public class JobLists implements Closeable {
 	 * @return The number of jobs that have not yet been run.
 	 */
 	public long getQueuedCount() {
-		try {
-			return lockJobQueue().stream().filter(j -> j.status == JobStage.Queued).count();
-		}
-		finally {
-			unlockJobQueue();
-		}
+		return jobQueue.getQueued().size();
 	}
 	
 	/**
@@ -224,9 +377,8 @@ public class JobLists implements Closeable {
 	 */
 	public void markQueueForRestart() {
 	    try {
-	        lockJobQueue().stream()
-	            .filter(j -> j.status == JobStage.Queued)
-	            .forEach(Job::markForRestart);
+	        lockJobQueue();
+	        jobQueue.getQueued().forEach(Job::markForRestart);
 	    }
 	    finally {
 	        unlockJobQueue();
@@ -239,22 +391,10 @@ public class JobLists implements Closeable {
 	 * @return 1 if the job is queued or running, -1 if the job is finished, and 0 if the job is unknown.
 	 */
 	public int containsJob(String jobName) {
-        queueLock.lock();
-	    try {
-	        if (jobQueue.stream().anyMatch(x -> x.name.equals(jobName)))
-	            return 1;
-	    }
-	    finally {
-	        queueLock.unlock();
-	    }
-	    
-	    listLock.lock();
-	    try {
-	        return finishedJobs.stream().anyMatch(x -> x.name.equals(jobName)) ? -1 : 0;
-	    }
-	    finally {
-	        listLock.unlock();
-	    }
+	    //jobs that are being extracted will be finished jobs
+	    if (extracting.contains(jobName))
+	        return -1;
+	    return registry.containsJob(jobName);
 	}
 	
 	/**
@@ -288,18 +428,21 @@ public class JobLists implements Closeable {
 	public void completeJob(Job job) {
 		listLock.lock();
 		try {
-			int index = jobQueue.indexOf(job);
-			if (index >= 0) {
+			if (registry.findQueued(job.getName()) == job) {
+				//add the job to the finished list before removing it from the queue
+				//so that lookups by name will always find it
+				int finishedIndex = registry.addFinishedFirst(job);
+				catalogJob(job);
+				int index;
 				queueLock.lock();
 				try {
-					jobQueue.remove(index);
+					index = registry.removeQueued(job);
 				}
 				finally {
 					queueLock.unlock();
 				}
 				queuedJobRemoved(job, index);
-				finishedJobs.add(0, job);
-				finishedJobAdded(job, 0);
+				finishedJobAdded(job, finishedIndex);
 			}
 		}
 		finally {
@@ -314,12 +457,12 @@ public class JobLists implements Closeable {
 	public void completeValidationJob(Job job) {
 	    listLock.lock();
 	    try {
-	        int index = validateQueue.indexOf(job);
-	        if (index >= 0) {
-	            validateQueue.remove(index);
+	        if (registry.findValidating(job.getName()) == job) {
+	            int finishedIndex = registry.addFinishedFirst(job);
+	            catalogJob(job);
+	            int index = registry.removeValidating(job);
 	            validationJobRemoved(job, index);
-	            finishedJobs.add(0, job);
-	            finishedJobAdded(job, 0);
+	            finishedJobAdded(job, finishedIndex);
 	        }
 	    }
 	    finally {
@@ -327,6 +470,58 @@ public class JobLists implements Closeable {
 	    }
 	}
 	
+	/**
+	 * A queued job is being started, move it from the queued jobs to the running jobs.
+	 * This should be called before the job is started.
+	 * @param job The job that is being started.
+	 */
+	public void markJobRunning(Job job) {
+		listLock.lock();
+		try {
+			int index;
+			queueLock.lock();
+			try {
+				index = registry.markRunning(job);
+			}
+			finally {
+				queueLock.unlock();
+			}
+			if (index >= 0) {
+				int newIndex = jobQueue.getRunning().size() - 1;
+				//the job was not the next job in the queue
+				if (newIndex != index) {
+					queuedJobRemoved(job, index);
+					queuedJobAdded(job, newIndex);
+				}
+			}
+		}
+		finally {
+			listLock.unlock();
+		}
+	}
+	
+	/**
+	 * A validation job is being started, move it from the queued validation jobs to the running validation jobs.
+	 * This should be called before the job is validated.
+	 * @param job The job that is being validated.
+	 */
+	public void markValidationRunning(Job job) {
+		listLock.lock();
+		try {
+			int index = registry.markValidationRunning(job);
+			if (index >= 0) {
+				int newIndex = validateQueue.getRunning().size() - 1;
+				if (newIndex != index) {
+					validationJobRemoved(job, index);
+					validationJobAdded(job, newIndex);
+				}
+			}
+		}
+		finally {
+			listLock.unlock();
+		}
+	}
+	
 	/**
 	 * Terminate a running job or stop a queued job from running.
 	 * @param shutdown Information about the job to terminate.
@@ -334,15 +529,14 @@ public class JobLists implements Closeable {
 	 */
 	@SuppressWarnings("resource")
     public void terminateJob(Shutdown shutdown, MqttListener mqtt, boolean flagRestart) {
-		Job completedJob = null;
-		
 		listLock.lock();
 		try {
-			Optional<Job> job = jobQueue.stream().filter(j -> j.name.equals(shutdown.jobId)).findFirst();
+			Optional<Job> job = Optional.ofNullable(registry.findQueued(shutdown.jobId));
 			if (job.isPresent()) {
 				if (job.get().status == JobStage.Queued) {
 					job.get().stop();
-					completedJob = job.get();
+					//remove the job before the lock is released so it can't be chosen to run once it has stopped
+					completeJob(job.get());
 				}
 				else if (shutdown.priority == 1) {
 					if (mqtt != null)
@@ -361,9 +555,6 @@ public class JobLists implements Closeable {
 		finally {
 			listLock.unlock();
 		}
-		
-		if (completedJob != null)
-			completeJob(completedJob);
 	}
 	
 	/**
@@ -371,33 +562,28 @@ public class JobLists implements Closeable {
 	 * @param job The new job.
 	 */
 	public void newJob(Job job) {
+		newJob(job, null);
+	}
+	
+	/**
+	 * Add a job to the job queue.
+	 * @param job The new job.
+	 * @param order The position of the job relative to other jobs with the same priority. Null to place it after all of them.
+	 */
+	private void newJob(Job job, Long order) {
         job.saveConfig();
 		listLock.lock();
 		try {
 			queueLock.lock();
-			int index = -1;
+			int index;
 			try {
-			    //find the location that the job should be placed in the queue
-			    for (int i = jobQueue.size() - 1; i >= 0; i--) {
-			        //if the job at this index is running or its priority is higher than or equal
-			        //to the new job add the new job after it
-			        if (jobQueue.get(i).getStatus() != JobStage.Queued ||
-			                jobQueue.get(i).getPriority() >= job.getPriority()) {
-			            index = i + 1;
-			            jobQueue.add(index, job);
-			            break;
-			        }
-			    }
-			    //this job has a higher priority than all the other jobs in the queue
-			    if (index < 0) {
-			        jobQueue.add(0, job);
-			        index = 0;
-			    }
+			    index = order == null ? registry.addQueued(job) : registry.addQueued(job, order);
 			}
 			finally {
 				queueLock.unlock();
 			}
 			queuedJobAdded(job, index);
+			catalogJob(job);
 		}
 		finally {
 			listLock.unlock();
@@ -415,8 +601,9 @@ public class JobLists implements Closeable {
         else {
             listLock.lock();
             try {
-                finishedJobs.add(0, job);
-                finishedJobAdded(job, 0);
+                int index = registry.addFinishedFirst(job);
+                catalogJob(job);
+                finishedJobAdded(job, index);
             }
             finally {
                 listLock.unlock();
@@ -433,24 +620,8 @@ public class JobLists implements Closeable {
         if (containsJob(job.name) == 0) {
             listLock.lock();
             try {
-                int index = -1;
-
-                //find the location that the job should be placed in the queue
-                for (int i = validateQueue.size() - 1; i >= 0; i--) {
-                    //if the job at this index is running or its priority is higher than or equal
-                    //to the new job add the new job after it
-                    if (validateQueue.get(i).getStatus() != JobStage.Queued ||
-                            validateQueue.get(i).getPriority() >= job.getPriority()) {
-                        index = i + 1;
-                        validateQueue.add(index, job);
-                        break;
-                    }
-                }
-                //this job has a higher priority than all the other jobs in the queue
-                if (index < 0) {
-                    validateQueue.add(0, job);
-                    index = 0;
-                }
+                int index = registry.addValidating(job);
+                catalogJob(job);
                 validationJobAdded(job, index);
             }
             finally {
@@ -459,38 +630,27 @@ public class JobLists implements Closeable {
         }
     }
     
+	/**
+	 * Get the most recent snapshot of the job lists. The snapshot is
+	 * immutable and can be read without blocking changes to the lists.
+	 */
+	public JobListSnapshot getSnapshot() {
+		return registry.getSnapshot();
+	}
+	
 	/**
 	 * Get a list of job names for completed jobs.
 	 * @return A list of job names.
 	 */
 	public List<String> getCompleteJobList() {
-		listLock.lock();
-		try {
-			return finishedJobs.stream().map(x -> x.name).sorted().collect(Collectors.toList());
-		}
-		finally {
-			listLock.unlock();
-		}
+		return registry.getSnapshot().getFinishedNames();
 	}
 	
 	/**
 	 * Get a list of job details for completed jobs.
 	 */
 	public List<JobHistory> getCompleteJobDetailsList() {
-	    listLock.lock();
-	    try {
-	        return finishedJobs.stream().map(x -> JobHistory.builder()
-	                .status(JobHistory.HistoryStatus.Complete)
-	                .name(x.getName())
-                    .submitTime(x.getSubmitted() == null ? null : x.getSubmitted().atZone(ZoneId.systemDefault()).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME))
-                    .startTime(x.getStart() == null ? null : x.getStart().atZone(ZoneId.systemDefault()).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME))
-                    .completeTime(x.getEnd() == null ? null : x.getEnd().atZone(ZoneId.systemDefault()).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME))
-	                .build())
-                .collect(Collectors.toList());
-	    }
-	    finally {
-	        listLock.unlock();
-	    }
+	    return toHistory(registry.getSnapshot().getFinished(), JobHistory.HistoryStatus.Complete);
 	}
 
 	/**
@@ -499,13 +659,9 @@ public class JobLists implements Closeable {
 	 * @return The job names at the given indices.
 	 */
 	public List<String> getFinishedJobs(int[] indices) {
-		listLock.lock();
-		try {
-			return IntStream.range(0, finishedJobs.size()).filter(i -> Arrays.stream(indices).anyMatch(j -> i == j)).mapToObj(i -> finishedJobs.get(i).getName()).collect(Collectors.toList());
-		}
-		finally {
-			listLock.unlock();
-		}
+		List<Job> finished = registry.getSnapshot().getFinished();
+		int size = finished.size();
+		return Arrays.stream(indices).sorted().distinct().filter(i -> i >= 0 && i < size).mapToObj(i -> finished.get(i).getName()).collect(Collectors.toList());
 	}
 	
 	/**
@@ -513,35 +669,14 @@ public class JobLists implements Closeable {
 	 * @return A list of job names.
 	 */
 	public List<String> getQueuedJobs() {
-		listLock.lock();
-		try {
-			return jobQueue.stream().filter(x -> x.status == JobStage.Queued).map(x -> x.name).sorted().collect(Collectors.toList());
-		}
-		finally {
-			listLock.unlock();
-		}
+		return registry.getSnapshot().getQueuedNames();
 	}
     
 	/**
 	 * Get a list of job details for queued (not yet running) jobs.
 	 */
     public List<JobHistory> getQueuedJobDetailsList() {
-        listLock.lock();
-        try {
-            return jobQueue.stream()
-                    .filter(x -> x.status == JobStage.Queued)
-                    .map(x -> JobHistory.builder()
-                        .status(JobHistory.HistoryStatus.Queued)
-                        .name(x.getName())
-                        .submitTime(x.getSubmitted() == null ? null : x.getSubmitted().atZone(ZoneId.systemDefault()).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME))
-                        .startTime(x.getStart() == null ? null : x.getStart().atZone(ZoneId.systemDefault()).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME))
-                        .completeTime(x.getEnd() == null ? null : x.getEnd().atZone(ZoneId.systemDefault()).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME))
-                        .build())
-                    .collect(Collectors.toList());
-        }
-        finally {
-            listLock.unlock();
-        }
+        return toHistory(registry.getSnapshot().getQueued(), JobHistory.HistoryStatus.Queued);
     }
 	
 	/**
@@ -549,35 +684,14 @@ public class JobLists implements Closeable {
 	 * @return A list of job names.
 	 */
 	public List<String> getRunningJobs() {
-		listLock.lock();
-		try {
-			return jobQueue.stream().filter(x -> x.status == JobStage.Running).map(x -> x.name).sorted().collect(Collectors.toList());
-		}
-		finally {
-			listLock.unlock();
-		}
+		return registry.getSnapshot().getRunningNames();
 	}
     
     /**
      * Get a list of job details for running jobs.
      */
     public List<JobHistory> getRunningJobDetailsList() {
-        listLock.lock();
-        try {
-            return jobQueue.stream()
-                    .filter(x -> x.status == JobStage.Running)
-                    .map(x -> JobHistory.builder()
-                        .status(JobHistory.HistoryStatus.Running)
-                        .name(x.getName())
-                        .submitTime(x.getSubmitted() == null ? null : x.getSubmitted().atZone(ZoneId.systemDefault()).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME))
-                        .startTime(x.getStart() == null ? null : x.getStart().atZone(ZoneId.systemDefault()).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME))
-                        .completeTime(x.getEnd() == null ? null : x.getEnd().atZone(ZoneId.systemDefault()).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME))
-                        .build())
-                    .collect(Collectors.toList());
-        }
-        finally {
-            listLock.unlock();
-        }
+        return toHistory(registry.getSnapshot().getRunning(), JobHistory.HistoryStatus.Running);
     }
 	
 	/**
@@ -585,14 +699,23 @@ public class JobLists implements Closeable {
 	 * @return A list of job names.
 	 */
 	public List<String> getUnfinishedJobs() {
-		listLock.lock();
-		try {
-			return jobQueue.stream().map(x -> x.name).sorted().collect(Collectors.toList());
-		}
-		finally {
-			listLock.unlock();
-		}
+		return registry.getSnapshot().getUnfinishedNames();
 	}
+    
+    
+    /**
+     * Get a page of the job history.
+     * @param query The lists to read from, filters to apply, and the page to return.
+     */
+    public JobHistoryQuery.Page getJobHistory(JobHistoryQuery query) {
+        return query.execute(registry);
+    }
+    
+    private static List<JobHistory> toHistory(List<Job> jobs, JobHistory.HistoryStatus status) {
+        return jobs.stream()
+                .map(x -> JobHistoryQuery.toHistory(x, status))
+                .collect(Collectors.toList());
+    }
 	
 	/**
 	 * Get a list of jobs that have been archived. They may or may not also exist in the finished job list.
@@ -613,15 +736,29 @@ public class JobLists implements Closeable {
 	}
 	
 	/**
-	 * Delete a folder and all files within it.
+	 * Find the archive of a job. Zip archives are preferred, then gzipped tar archives.
+	 * @param jobName The name of the job.
+	 * @return The path to the archive, or null if the job hasn't been archived.
+	 */
+	public Path findArchive(String jobName) {
+		if (Strings.isNullOrEmpty(jobName) || jobName.contains("..") || jobName.contains("/") || jobName.contains("\\"))
+			return null;
+		for (String extension : new String[] { ".zip", ".tar.gz", ".tar" }) {
+			Path archive = Paths.get(Settings.getJobDirectory(), "Archives", jobName + extension);
+			if (Files.isRegularFile(archive))
+				return archive;
+		}
+		return null;
+	}
+	
+	/**
+	 * Delete a folder and all files within it. The folder is moved into the
+	 * trash immediately and its files are deleted in the background.
 	 * @param path The path of the folder to delete.
 	 * @throws IOException If a file system permission error occurred.
 	 */
 	private void deleteRecursive(Path path) throws IOException {
-		Files.walk(path)
-		    .sorted(Comparator.reverseOrder())
-		    .map(Path::toFile)
-		    .forEach(File::delete);
+		trash.delete(path);
 	}
 	
 	/**
@@ -633,7 +770,10 @@ public class JobLists implements Closeable {
 		boolean success = false;
 		listLock.lock();
 		try {
-			Optional<Job> job = finishedJobs.stream().filter(x -> x.name.equals(jobName)).findFirst();
+			//the job is being archived
+			if (archiving.contains(jobName))
+				return false;
+			Optional<Job> job = Optional.ofNullable(registry.findFinished(jobName));
 			if (job.isPresent()) {
 				Path path = job.get().getXmlPath().getParent();
 				if (Files.exists(path) && Files.isDirectory(path)) {
@@ -649,9 +789,9 @@ public class JobLists implements Closeable {
 				}
 
 				if (success) {
-					int index = finishedJobs.indexOf(job.get());
+					int index = registry.removeFinished(job.get());
+					uncatalogJob(jobName);
 					if (index >= 0) {
-						finishedJobs.remove(index);
 						finishedJobRemove(job.get(), index);
 					}
 				}
@@ -674,7 +814,10 @@ public class JobLists implements Closeable {
 		boolean success = false;
 		listLock.lock();
 		try {
-			Optional<Job> job = finishedJobs.stream().filter(x -> x.name.equals(jobName)).findFirst();
+			//the job is being archived
+			if (archiving.contains(jobName))
+				return false;
+			Optional<Job> job = Optional.ofNullable(registry.findFinished(jobName));
 			if (job.isPresent()) {
 				Path path = job.get().getXmlPath().getParent();
 				if (Files.exists(path) && Files.isDirectory(path)) {
@@ -709,9 +852,9 @@ public class JobLists implements Closeable {
 				}
 
 				if (success) {
-					int index = finishedJobs.indexOf(job.get());
+					int index = registry.removeFinished(job.get());
+					uncatalogJob(jobName);
 					if (index >= 0) {
-						finishedJobs.remove(index);
 						finishedJobRemove(job.get(), index);
 						Job newJob = new Job(jobDirectory.toString(), job.get().getName());
 						newJob.setRequestedCores(job.get().getRequestedCores());
@@ -729,253 +872,390 @@ public class JobLists implements Closeable {
 	}
 	
 	/**
-	 * Create a zip archive of a finished job.
-	 * @param jobName The name of the job to archive.
-	 * @return True if the job was successfully archived.
+	 * Run a management operation on many finished jobs. The jobs are managed one
+	 * at a time on a dedicated thread pool and the listener is notified after each
+	 * job has been managed.
+	 * @param request The operation to run and the jobs to run it on.
+	 * @param listener Notified of the progress of the request. Called from the bulk management thread.
+	 * @return True if the request was started. If false the listener will have been passed the reason.
 	 */
-	public boolean zipFinishedJob(String jobName) {
-		boolean success = false;
-		listLock.lock();
-		try {
-			Optional<Job> job = finishedJobs.stream().filter(x -> x.name.equals(jobName)).findFirst();
-			if (job.isPresent()) {
+	public boolean bulkManage(BulkManage request, IBulkProgressListener listener) {
+		BulkManageProgress progress = new BulkManageProgress();
+		progress.responseId = request.responseId;
+		progress.request = request.request;
+		
+		String error = null;
+		JobStage status = null;
+		long olderThan = Long.MAX_VALUE;
+		if (!"zip".equals(request.request) && !"tar".equals(request.request) && !"delete".equals(request.request) &&
+				!"rerun".equals(request.request))
+			error = "Unknown bulk request " + request.request;
+		else if (request.targets == null && Strings.isNullOrEmpty(request.olderThan) && request.olderThanDays == null &&
+				Strings.isNullOrEmpty(request.status))
+			//don't allow a missing filter to select every job
+			error = "A list of targets or a filter is required";
+		else {
+			if (!Strings.isNullOrEmpty(request.status)) {
 				try {
-					boolean wasLocked = job.get().conditionalClose();
-					Path toArchive = job.get().getXmlPath().getParent();
-					Path path = Paths.get(Settings.getJobDirectory(), "Archives");
-					if (!Files.exists(path))
-						Files.createDirectories(path);
-					path = path.resolve(jobName + ".zip");
-					
-					try (FileOutputStream fos = new FileOutputStream(path.toFile())) {
-						try (ZipOutputStream zos = new ZipOutputStream(fos)) {
-							zipFile(toArchive, jobName, zos);
-						}
-					}
-					if (wasLocked)
-						job.get().lock();
-					success = true;
+					status = JobStage.valueOf(request.status);
 				}
-				catch (IOException e) {
-					WISELogger.getSpecial(LogName.Backend).error("Unable to create zip archive.", e);
+				catch (IllegalArgumentException e) {
+					error = "Unknown job status " + request.status;
 				}
 			}
-		}
-		finally {
-			listLock.unlock();
-		}
-		return success;
-	}
-	
-	private void zipFile(Path fileToZip, String filename, final ZipOutputStream stream) throws IOException {
-		//skip hidden files and directories
-		if (Files.isHidden(fileToZip))
-			return;
-		//recursively zip directories
-		if (Files.isDirectory(fileToZip)) {
-			List<Path> children = Files.list(fileToZip).collect(Collectors.toList());
-			for (Path child : children) {
-				zipFile(child, filename + "/" + child.getFileName().toString(), stream);
+			if (!Strings.isNullOrEmpty(request.olderThan)) {
+				olderThan = JobHistoryQuery.parseTime(request.olderThan, Long.MIN_VALUE);
+				if (olderThan == Long.MIN_VALUE)
+					error = "Invalid time " + request.olderThan;
 			}
+			else if (request.olderThanDays != null)
+				olderThan = JobCatalog.toEpoch(LocalDateTime.now().minusDays(request.olderThanDays));
 		}
-		else {
-			try (FileInputStream fis = new FileInputStream(fileToZip.toFile())) {
-				ZipEntry zipEntry = new ZipEntry(filename);
-				stream.putNextEntry(zipEntry);
-				byte[] bytes = new byte[1024];
-				int length;
-				while ((length = fis.read(bytes)) >= 0) {
-					stream.write(bytes, 0, length);
-				}
+		
+		if (error == null) {
+			final JobStage filterStatus = status;
+			final long filterTime = olderThan;
+			try {
+				bulkExecutor.execute(() -> runBulkManage(request, findBulkTargets(request, filterStatus, filterTime), progress, listener));
+				return true;
+			}
+			catch (RejectedExecutionException e) {
+				error = "Too many bulk requests are waiting to run";
 			}
 		}
+		WISELogger.getSpecial(LogName.Backend).warn("Unable to run bulk management request. " + error);
+		progress.error = error;
+		progress.complete = true;
+		listener.onBulkProgress(progress);
+		return false;
 	}
 	
 	/**
-	 * Unzip an archived job. If the job directory already exists the archive will not be extracted.
-	 * @param jobName The name of the job to extract.
-	 * @return True if the archive was extracted or the job already exists.
+	 * Find the names of the jobs that a bulk management request applies to.
+	 * @param status Only return jobs with this status. Can be null to return jobs with any status.
+	 * @param olderThan Only return jobs that completed before this time.
 	 */
-	public boolean unzipArchive(String jobName) {
-		boolean success = false;
-		listLock.lock();
-		try {
-			Optional<Job> job = finishedJobs.stream().filter(x -> x.name.equals(jobName)).findFirst();
-			//skip existing jobs
-			if (job.isPresent())
-				success = true;
-			else {
-				Path outputPath = Paths.get(Settings.getJobDirectory(), jobName);
-				//assume the existing directory is already what the user wants
-				if (Files.exists(outputPath))
-					success = true;
+	private List<String> findBulkTargets(BulkManage request, JobStage status, long olderThan) {
+		if (request.targets != null)
+			return new ArrayList<>(new LinkedHashSet<>(request.targets));
+		List<String> names = new ArrayList<>();
+		//both iterators read a fixed version of the list so the list lock isn't needed
+		Iterator<Job> it;
+		if (olderThan == Long.MAX_VALUE)
+			it = registry.getSnapshot().getFinished().iterator();
+		else
+			it = registry.getFinishedIndex().byCompleted(olderThan - 1, null);
+		while (it.hasNext()) {
+			Job job = it.next();
+			if (status == null || job.getStatus() == status)
+				names.add(job.getName());
+		}
+		return names;
+	}
+	
+	private void runBulkManage(BulkManage request, List<String> targets, BulkManageProgress progress, IBulkProgressListener listener) {
+		progress.total = targets.size();
+		boolean deleteArchived = request.deleteArchived != null && request.deleteArchived;
+		for (String name : targets) {
+			Job job = registry.findFinished(name);
+			boolean success = false;
+			long freed = 0;
+			long archived = 0;
+			if (job != null) {
+				if ("delete".equals(request.request)) {
+					//the folder is only measured when it will be deleted
+					long size = directorySize(job.getXmlPath().getParent());
+					success = deleteFinishedJob(name);
+					if (success)
+						freed = size;
+				}
+				else if ("rerun".equals(request.request))
+					success = rerunFinishedJob(name, request.deleteOld == null ? true : request.deleteOld);
 				else {
-					Path archive = Paths.get(Settings.getJobDirectory(), "Archives", jobName + ".zip");
-					//make sure the archive exists
-					if (Files.exists(archive)) {
+					ArchiveFormat format;
+					if ("zip".equals(request.request))
+						format = ArchiveFormat.Zip;
+					else
+						format = request.compress == null || request.compress ? ArchiveFormat.TarGz : ArchiveFormat.Tar;
+					//the size of the folder is counted while it is archived instead of walking it again
+					long size = archiveJob(name, format, deleteArchived);
+					success = size >= 0;
+					if (success) {
 						try {
-							try (ZipInputStream zis = new ZipInputStream(new FileInputStream(archive.toFile()))) {
-								ZipEntry zipEntry = zis.getNextEntry();
-								while (zipEntry != null) {
-									unzipFile(zipEntry, outputPath.resolve(zipEntry.getName()), zis);
-									zipEntry = zis.getNextEntry();
-								}
-							}
-							success = true;
-						}
-						catch (IOException e) {
-							WISELogger.getSpecial(LogName.Backend).error("Unable to extract zip archive.", e);
-						}
-						
-						if (success) {
-							Job j = new Job(Settings.getJobDirectory(), jobName, JobStage.Finished);
-                            j.saveConfig();
-							finishedJobs.add(j);
-							finishedJobAdded(j, finishedJobs.size() - 1);
+							archived = Files.size(archivePath(name, format));
 						}
+						catch (IOException e) { }
+						//the archive uses space that the job folder may not have given back
+						if (deleteArchived)
+							freed = Math.max(0, size - archived);
 					}
 				}
 			}
+			progress.index++;
+			progress.jobName = name;
+			progress.success = success;
+			progress.bytesFreed = freed;
+			progress.bytesArchived = archived;
+			progress.totalBytesFreed += freed;
+			progress.totalBytesArchived += archived;
+			if (!success)
+				progress.failed++;
+			listener.onBulkProgress(progress);
 		}
-		finally {
-			listLock.unlock();
-		}
-		return success;
+		progress.jobName = null;
+		progress.success = null;
+		progress.bytesFreed = null;
+		progress.bytesArchived = null;
+		progress.complete = true;
+		listener.onBulkProgress(progress);
 	}
 	
-	private void unzipFile(ZipEntry entry, Path file, final ZipInputStream stream) throws IOException {
-		if (entry.isDirectory()) {
-			Files.createDirectories(file);
-		}
-		else {
-			byte[] buffer = new byte[1024];
-			try (FileOutputStream fos = new FileOutputStream(file.toFile())) {
-				int len;
-				while ((len = stream.read(buffer)) >= 0) {
-					fos.write(buffer, 0, len);
-				}
-			}
-			BasicFileAttributeView attributes = Files.getFileAttributeView(file, BasicFileAttributeView.class);
-			attributes.setTimes(entry.getLastModifiedTime(), entry.getLastAccessTime(), entry.getCreationTime());
-		}
-	}
-
 	/**
-	 * Create a tar archive of a finished job.
-	 * @param jobName The name of the job to archive.
-	 * @return True if the job was successfully archived.
+	 * Get the total size of the files in a directory.
+	 * @return The size in bytes, 0 if the directory doesn't exist.
 	 */
-	public boolean tarFinishedJob(String jobName) {
-		boolean success = false;
-		listLock.lock();
-		try {
-			Optional<Job> job = finishedJobs.stream().filter(x -> x.name.equals(jobName)).findFirst();
-			if (job.isPresent()) {
+	static long directorySize(Path path) {
+		if (!Files.exists(path))
+			return 0;
+		try (Stream<Path> files = Files.walk(path)) {
+			return files.filter(Files::isRegularFile).mapToLong(file -> {
 				try {
-					boolean wasLocked = job.get().conditionalClose();
-					Path toArchive = job.get().getXmlPath().getParent();
-					Path path = Paths.get(Settings.getJobDirectory(), "Archives");
-					if (!Files.exists(path))
-						Files.createDirectories(path);
-					path = path.resolve(jobName + ".tar.gz");
-					
-					try (TarArchiveOutputStream out = new TarArchiveOutputStream(new GzipCompressorOutputStream(new FileOutputStream(path.toFile())))) {
-						out.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_STAR);
-						out.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
-						out.setAddPaxHeadersForNonAsciiNames(true);
-						tarFile(toArchive, jobName, out);
-					}
-					if (wasLocked)
-						job.get().lock();
-					success = true;
+					return Files.size(file);
 				}
 				catch (IOException e) {
-					WISELogger.getSpecial(LogName.Backend).error("Unable to create tar archive.", e);
+					return 0;
 				}
-			}
+			}).sum();
 		}
-		finally {
-			listLock.unlock();
+		catch (IOException | UncheckedIOException e) {
+			WISELogger.getSpecial(LogName.Backend).warn("Unable to read the size of " + path.toString(), e);
+			return 0;
 		}
-		return success;
 	}
 	
-	private void tarFile(Path file, String filename, TarArchiveOutputStream out) throws IOException {
-		if (Files.isDirectory(file)) {
-			List<Path> children = Files.list(file).collect(Collectors.toList());
-			for (Path child : children) {
-				tarFile(child, filename + "/" + child.getFileName().toString(), out);
-			}
+	/**
+	 * Create a zip archive of a finished job.
+	 * @param jobName The name of the job to archive.
+	 * @return True if the job was successfully archived.
+	 */
+	public boolean zipFinishedJob(String jobName) {
+		return archiveFinishedJob(jobName, ArchiveFormat.Zip, false);
+	}
+	
+	/**
+	 * Get the path that a job is archived to.
+	 * @param jobName The name of the job.
+	 * @param format The type of archive.
+	 */
+	public static Path archivePath(String jobName, ArchiveFormat format) {
+		return Paths.get(Settings.getJobDirectory(), "Archives", jobName + format.getExtension());
+	}
+	
+	/**
+	 * Archive a finished job. The job stays in the finished list while the archive
+	 * is written but is marked as archiving so it can't be deleted, rerun, or archived
+	 * again. The list lock isn't held while writing so other jobs can be managed and
+	 * scheduled while large jobs are being archived. The job is only removed from the
+	 * finished list once its folder has been deleted.
+	 * @param jobName The name of the job to archive.
+	 * @param format The type of archive to create.
+	 * @param delete Delete the job folder once the archive has been written.
+	 * @return True if the job was successfully archived, and deleted if requested.
+	 */
+	public boolean archiveFinishedJob(String jobName, ArchiveFormat format, boolean delete) {
+		return archiveJob(jobName, format, delete) >= 0;
+	}
+	
+	/**
+	 * Archive a finished job.
+	 * @see #archiveFinishedJob(String, ArchiveFormat, boolean)
+	 * @return The total size of the files in the archive, or -1 if the job wasn't archived, or wasn't deleted if requested.
+	 */
+	private long archiveJob(String jobName, ArchiveFormat format, boolean delete) {
+		Job job;
+		listLock.lock();
+		try {
+			job = registry.findFinished(jobName);
+			if (job == null || !archiving.add(jobName))
+				return -1;
 		}
-		else {
-			out.putArchiveEntry(new TarArchiveEntry(file.toFile(), filename));
-			try (FileInputStream in = new FileInputStream(file.toFile())) {
-				IOUtils.copy(in, out);
+		finally {
+			listLock.unlock();
+		}
+		
+		long size = 0;
+		boolean archived = false;
+		boolean deleted = false;
+		try {
+			Path toArchive = job.getXmlPath().getParent();
+			Path path = archivePath(jobName, format);
+			try {
+				boolean wasLocked = job.conditionalClose();
+				try {
+					Files.createDirectories(path.getParent());
+					switch (format) {
+					case Tar:
+						size = ArchiveWriter.tar(toArchive, jobName, path);
+						break;
+					case TarGz:
+						size = ArchiveWriter.tarGz(toArchive, jobName, path, Settings.getArchiveThreads());
+						break;
+					default:
+						size = ArchiveWriter.zip(toArchive, jobName, path, Settings.getArchiveThreads());
+						break;
+					}
+					archived = true;
+				}
+				finally {
+					if (wasLocked && !(archived && delete))
+						job.lock();
+				}
+			}
+			catch (IOException e) {
+				WISELogger.getSpecial(LogName.Backend).error("Unable to create " + format.getExtension().substring(1) + " archive.", e);
+				//don't leave a truncated archive where it could be found and extracted or read from
+				try {
+					Files.deleteIfExists(path);
+					Files.deleteIfExists(ArchiveIndex.sidecar(path));
+				}
+				catch (IOException e2) {
+					WISELogger.getSpecial(LogName.Backend).warn("Unable to delete incomplete archive " + path.getFileName().toString(), e2);
+				}
+			}
+			if (archived && delete) {
+				listLock.lock();
+				try {
+					//moving the folder to the trash is quick, its files are deleted in the background
+					job.close();
+					deleteRecursive(toArchive);
+					deleted = true;
+					int index = registry.removeFinished(job);
+					uncatalogJob(jobName);
+					if (index >= 0)
+						finishedJobRemove(job, index);
+				}
+				catch (IOException e) {
+					WISELogger.getSpecial(LogName.Backend).error("Unable to delete job folder", e);
+				}
+				finally {
+					listLock.unlock();
+				}
 			}
-			out.closeArchiveEntry();
 		}
+		finally {
+			archiving.remove(jobName);
+		}
+		return archived && (deleted || !delete) ? size : -1;
 	}
-
+	
 	/**
-	 * Untar an archived job. If the job directory already exists the archive will not be extracted.
+	 * Unzip an archived job. If the job directory already exists the archive will not be extracted.
 	 * @param jobName The name of the job to extract.
 	 * @return True if the archive was extracted or the job already exists.
 	 */
-	public boolean untarArchive(String jobName) {
-		boolean success = false;
+	public boolean unzipArchive(String jobName) {
+		return extractArchive(jobName, ".zip");
+	}
+	
+	/**
+	 * Extract an archived job. If the job directory already exists the archive will not be extracted.
+	 * @param jobName The name of the job to extract.
+	 * @param extensions The archive types to look for, in order of preference.
+	 * @return True if the archive was extracted or the job already exists.
+	 */
+	private boolean extractArchive(String jobName, String... extensions) {
+		Path outputPath = Paths.get(Settings.getJobDirectory(), jobName);
+		Path archive = null;
 		listLock.lock();
 		try {
-			Optional<Job> job = finishedJobs.stream().filter(x -> x.name.equals(jobName)).findFirst();
 			//skip existing jobs
-			if (job.isPresent())
-				success = true;
-			else {
-				Path outputPath = Paths.get(Settings.getJobDirectory(), jobName);
-				//assume the existing directory is already what the user wants
-				if (Files.exists(outputPath))
-					success = true;
-				else {
-					Path archive = Paths.get(Settings.getJobDirectory(), "Archives", jobName + ".zip");
-					//make sure the archive exists
-					if (Files.exists(archive)) {
-						try {
-							InputStream stream = new FileInputStream(archive.toFile());
-							if (GzipUtils.isCompressedFilename(archive.getFileName().toString()))
-								stream = new GzipCompressorInputStream(stream);
-							try (TarArchiveInputStream tin = new TarArchiveInputStream(stream)) {
-								TarArchiveEntry entry;
-								while ((entry = tin.getNextTarEntry()) != null) {
-									Path newFile = outputPath.resolve(entry.getName());
-									if (entry.isDirectory()) {
-										Files.createDirectories(newFile);
-									}
-									else {
-										if (!Files.exists(newFile.getParent()))
-											Files.createDirectories(newFile.getParent());
-										IOUtils.copy(tin, new FileOutputStream(newFile.toFile()));
-									}
-								}
-							}
-							success = true;
-						}
-						catch (IOException e) {
-							WISELogger.getSpecial(LogName.Backend).error("Unable to extract tar archive.", e);
-						}
-						
-						if (success) {
-							Job j = new Job(Settings.getJobDirectory(), jobName, JobStage.Finished);
-                            j.saveConfig();
-							finishedJobs.add(j);
-							finishedJobAdded(j, finishedJobs.size() - 1);
-						}
-					}
+			if (registry.findFinished(jobName) != null)
+				return true;
+			//the same archive is already being extracted
+			if (extracting.contains(jobName))
+				return false;
+			//assume the existing directory is already what the user wants
+			if (Files.exists(outputPath))
+				return true;
+			for (String extension : extensions) {
+				Path path = Paths.get(Settings.getJobDirectory(), "Archives", jobName + extension);
+				if (Files.exists(path)) {
+					archive = path;
+					break;
 				}
 			}
+			//make sure the archive exists
+			if (archive == null)
+				return false;
+			extracting.add(jobName);
 		}
 		finally {
 			listLock.unlock();
 		}
-		return success;
+		
+		try {
+			//extract without the list lock so jobs can still be scheduled and managed
+			try {
+				//archives contain the job folder so extract its contents directly into the job directory
+				ArchiveReader.extract(archive, jobName, outputPath, Settings.getArchiveThreads());
+			}
+			catch (IOException e) {
+				WISELogger.getSpecial(LogName.Backend).error("Unable to extract archive " + archive.getFileName().toString(), e);
+				//remove the partially extracted job so it isn't mistaken for a complete job later
+				try {
+					if (Files.exists(outputPath))
+						deleteRecursive(outputPath);
+				}
+				catch (IOException e1) { }
+				return false;
+			}
+			
+			listLock.lock();
+			try {
+				Job j = new Job(Settings.getJobDirectory(), jobName, JobStage.Finished);
+				j.saveConfig();
+				int index = registry.addFinishedLast(j);
+				catalogJob(j);
+				finishedJobAdded(j, index);
+			}
+			finally {
+				listLock.unlock();
+			}
+			return true;
+		}
+		finally {
+			extracting.remove(jobName);
+		}
+	}
+
+	/**
+	 * Create a gzipped tar archive of a finished job.
+	 * @param jobName The name of the job to archive.
+	 * @return True if the job was successfully archived.
+	 */
+	public boolean tarFinishedJob(String jobName) {
+		return tarFinishedJob(jobName, true);
+	}
+
+	/**
+	 * Create a tar archive of a finished job.
+	 * @param jobName The name of the job to archive.
+	 * @param compress Should the archive be gzipped. Uncompressed archives are much faster
+	 * to create for jobs whose outputs are already compressed.
+	 * @return True if the job was successfully archived.
+	 */
+	public boolean tarFinishedJob(String jobName, boolean compress) {
+		return archiveFinishedJob(jobName, compress ? ArchiveFormat.TarGz : ArchiveFormat.Tar, false);
+	}
+	
+	/**
+	 * Untar an archived job. If the job directory already exists the archive will not be extracted.
+	 * Gzipped archives are used before uncompressed archives if both exist.
+	 * @param jobName The name of the job to extract.
+	 * @return True if the archive was extracted or the job already exists.
+	 */
+	public boolean untarArchive(String jobName) {
+		return extractArchive(jobName, ".tar.gz", ".tar");
 	}
 	
 	private LocalDateTime convertDate(XMLGregorianCalendar xc) {
@@ -1021,438 +1301,677 @@ public class JobLists implements Closeable {
 	}
 
 	/**
-	 * Re-load the completed jobs from the job directory.
+	 * Re-load the completed jobs from the job directory. Job folders are
+	 * loaded in parallel and added to the job lists as soon as they have
+	 * been read, the lists can be queried and new jobs submitted while
+	 * the folders are being loaded.
 	 */
 	public CompletableFuture<Long> repopulateLists() {
 		return CompletableFuture.supplyAsync(() -> {
+			//finish deleting any jobs that were in the trash when the manager last exited
+			trash.resume();
+			List<Path> directories = new ArrayList<>();
+			try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(jobDirectory, p -> Files.isDirectory(p) && !trash.isTrash(p))) {
+				directoryStream.forEach(directories::add);
+			}
+			catch (IOException e1) {
+				WISELogger.getSpecial(LogName.Backend).error("Unable to parse job directory", e1);
+			}
+			directories.sort(Comparator.comparing(Path::toString).reversed());
+			
+			//reserve positions at the end of the finished list so that loaded jobs
+			//keep the directory order no matter which order they finish loading in
+			long finishedKey;
+			JobCatalog currentCatalog = JobCatalog.open(jobDirectory);
+			catalog = currentCatalog;
 			listLock.lock();
 			try {
-				List<Path> directories = new ArrayList<>();
-				try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(jobDirectory, p -> Files.isDirectory(p))) {
-					directoryStream.forEach(directories::add);
+				finishedKey = registry.reserveFinished(directories.size());
+				//finished jobs that are in the catalog are available immediately, they
+				//will be replaced if the scan finds that they have changed
+				for (int i = 0; i < directories.size(); i++) {
+					JobCatalog.Entry entry = currentCatalog.get(directories.get(i).getFileName().toString());
+					if (entry != null && entry.isFinished()) {
+						//older jobs are only stored as records
+						int index = registry.addFinishedAt(finishedKey + i, entry);
+						//use the job that will be returned by later lookups so listeners see its changes
+						finishedJobAdded(registry.findFinished(entry.getName()), index);
+					}
 				}
-				catch (IOException e1) {
-					WISELogger.getSpecial(LogName.Backend).error("Unable to parse job directory", e1);
+			}
+			finally {
+				listLock.unlock();
+			}
+			
+			scanProgress = new ScanProgress(directories.size());
+			ForkJoinPool pool = new ForkJoinPool(Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_SCAN_THREADS)));
+			try {
+				JAXBContext context = JAXBContext.newInstance(ca.wise.lib.xml.List.class);
+				pool.invoke(new FolderScanTask(context, directories, 0, directories.size(), finishedKey));
+			}
+			catch (Exception e) {
+				WISELogger.getSpecial(LogName.Backend).error("Unable to iterate job directory.", e);
+			}
+			finally {
+				pool.shutdown();
+			}
+			scanProgress.complete();
+			reportScanProgress(true);
+			
+			//forget about jobs that no longer exist
+			currentCatalog.retain(directories.stream().map(x -> x.getFileName().toString()).collect(Collectors.toSet()));
+			currentCatalog.compactIfNeeded();
+			if (catalogCompaction == null)
+				catalogCompaction = executor.scheduleWithFixedDelay(() -> catalog.compactIfNeeded(), CATALOG_COMPACT_MINUTES, CATALOG_COMPACT_MINUTES, TimeUnit.MINUTES);
+			startRetention();
+			
+			return getQueuedCount();
+		}, executor);
+	}
+	
+	/**
+	 * Start removing old finished jobs if a retention policy has been configured.
+	 */
+	private void startRetention() {
+		RetentionPolicy policy = Settings.getRetentionPolicy();
+		if (retention == null && policy != null && policy.enabled) {
+			retention = new RetentionEngine(this, policy);
+			retention.addRetentionListener(summary -> retentionListeners.forEach(l -> l.onRetentionSweep(summary)));
+			retention.start(RETENTION_START_SECONDS);
+		}
+	}
+	
+	/**
+	 * Load a single job folder.
+	 * @param p The path to the job folder.
+	 * @param unmarshaller An unmarshaller for XML job status files.
+	 * @param finishedKey The position in the finished list to use if the job has completed.
+	 * @param queueOrder The position in the job queue to use, relative to other jobs with the same priority, if the job needs to be run.
+	 */
+	private void loadJobFolder(Path p, Unmarshaller unmarshaller, long finishedKey, long queueOrder) throws Exception {
+		Path statusPath = p.resolve("status.xml");
+		Path jStatusPath = p.resolve("status.json");
+		
+		boolean needsRestarted = Files.exists(p.resolve("restart.act"));
+		if (needsRestarted) {
+		    try {
+		        Files.delete(p.resolve("restart.act"));
+		    }
+		    catch (Exception e) { }
+		}
+		
+		if (Files.exists(statusPath)) {
+			boolean error = false;
+			LocalDateTime dt = LocalDateTime.now();
+			ca.wise.lib.xml.List lst = null;
+			try {
+				lst = (ca.wise.lib.xml.List)unmarshaller.unmarshal(statusPath.toFile());
+			}
+			catch (JAXBException e) {
+				WISELogger.getSpecial(LogName.Backend).warn("Unable to read status XML.", e);
+				error = true;
+			}
+			
+			if (error) {
+				Files.delete(statusPath);
+				Job job = new Job(jobDirectory.toAbsolutePath().toString(), p.getFileName().toString(), JobStage.Error);
+				if (job.getSubmitted() == null)
+				    job.setSubmitted(dt);
+				if (!job.hasRequestedCores) {
+                    //try to read the number of cores to use
+                    int cores = 0;
+                    Path json = p.resolve("job.xml");
+                    if (Files.exists(json)) {
+                        cores = guessCoreCount(json);
+                    }
+                    
+				    job.setRequestedCores(cores);
 				}
-				directories.sort(Comparator.comparing(Path::toString).reversed());
-				
-				try {
-					JAXBContext context = JAXBContext.newInstance(ca.wise.lib.xml.List.class);
-					Unmarshaller unmarshaller = context.createUnmarshaller();
-					for (Path p : directories) {
-						Path statusPath = p.resolve("status.xml");
-						Path jStatusPath = p.resolve("status.json");
-						
-						boolean needsRestarted = Files.exists(p.resolve("restart.act"));
-						if (needsRestarted) {
-						    try {
-						        Files.delete(p.resolve("restart.act"));
-						    }
-						    catch (Exception e) { }
+                job.saveConfig();
+				addLoadedJob(job, finishedKey);
+			}
+			else {
+				boolean complete = false;
+				boolean stopped = false;
+				LocalDateTime started = LocalDateTime.now();
+				LocalDateTime ended = LocalDateTime.now();
+				for (Object v : lst.getStatusOrMessage()) {
+					if (v instanceof ca.wise.lib.xml.List.Status) {
+						ca.wise.lib.xml.List.Status st = (ca.wise.lib.xml.List.Status)v;
+						if (st.getValue().equals("Submitted"))
+							dt = convertDate(st.getTime());
+						else if (st.getValue().equals("Started"))
+							started = convertDate(st.getTime());
+						else if (st.getValue().equals("Complete")) {
+							ended = convertDate(st.getTime());
+							complete = true;
+							break;
 						}
-						
-						if (Files.exists(statusPath)) {
-							boolean error = false;
-							LocalDateTime dt = LocalDateTime.now();
-							ca.wise.lib.xml.List lst = null;
-							try {
-								lst = (ca.wise.lib.xml.List)unmarshaller.unmarshal(statusPath.toFile());
-							}
-							catch (JAXBException e) {
-								WISELogger.getSpecial(LogName.Backend).warn("Unable to read status XML.", e);
-								error = true;
-							}
-							
-							if (error) {
-								Files.delete(statusPath);
-								Job job = new Job(jobDirectory.toAbsolutePath().toString(), p.getFileName().toString(), JobStage.Error);
-								if (job.getSubmitted() == null)
-								    job.setSubmitted(dt);
-								if (!job.hasRequestedCores) {
-		                            //try to read the number of cores to use
-		                            int cores = 0;
-		                            Path json = p.resolve("job.xml");
-		                            if (Files.exists(json)) {
-		                                cores = guessCoreCount(json);
-		                            }
-		                            
-								    job.setRequestedCores(cores);
-								}
-                                job.saveConfig();
-								finishedJobs.add(job);
-								finishedJobAdded(job, finishedJobs.size() - 1);
-							}
-							else {
-								boolean complete = false;
-								boolean stopped = false;
-								LocalDateTime started = LocalDateTime.now();
-								LocalDateTime ended = LocalDateTime.now();
-								for (Object v : lst.getStatusOrMessage()) {
-									if (v instanceof ca.wise.lib.xml.List.Status) {
-										ca.wise.lib.xml.List.Status st = (ca.wise.lib.xml.List.Status)v;
-										if (st.getValue().equals("Submitted"))
-											dt = convertDate(st.getTime());
-										else if (st.getValue().equals("Started"))
-											started = convertDate(st.getTime());
-										else if (st.getValue().equals("Complete")) {
-											ended = convertDate(st.getTime());
-											complete = true;
-											break;
-										}
-										//shutdown requested message added from the job
-										else if (st.getValue().equals("Shutdown Requested")) {
-											ended = convertDate(st.getTime());
-											stopped = true;
-											break;
-										}
-										//shutdown requested message added from the manager
-										else if (st.getValue().equals("Information")) {
-											if (st.getData() != null && st.getData().equals("Stop Requested")) {
-												ended = convertDate(st.getTime());
-												stopped = true;
-												break;
-											}
-										}
-									}
-								}
-								if (needsRestarted) {
-                                    Files.delete(statusPath);
-                                    Job job = new Job(jobDirectory.toAbsolutePath().toString(), p.getFileName().toString());
-                                    if (job.getSubmitted() == null)
-                                        job.setSubmitted(dt);
-                                    if (!job.hasRequestedCores) {
-                                        //try to read the number of cores to use
-                                        int cores = 0;
-                                        Path json = p.resolve("job.xml");
-                                        if (Files.exists(json)) {
-                                            cores = guessCoreCount(json);
-                                        }
-                                        
-                                        job.setRequestedCores(cores);
-                                    }
-                                    newJob(job);
-								}
-								else if (complete || stopped) {
-									JobStage stage;
-									if (stopped)
-										stage = JobStage.Stopped;
-									else
-										stage = JobStage.Finished;
-									Job job = new Job(jobDirectory.toAbsolutePath().toString(), p.getFileName().toString(), stage);
-									if (job.getSubmitted() == null)
-									    job.setSubmitted(dt);
-									job.setStart(started);
-									job.setEnd(ended);
-									if (!job.hasRequestedCores) {
-	                                    //try to read the number of cores to use
-	                                    int cores = 0;
-	                                    Path json = p.resolve("job.xml");
-	                                    if (Files.exists(json)) {
-	                                        cores = guessCoreCount(json);
-	                                    }
-	                                    
-									    job.setRequestedCores(cores);
-									}
-                                    job.saveConfig();
-									finishedJobs.add(job);
-									finishedJobAdded(job, finishedJobs.size() - 1);
-								}
-								else if (Settings.getRestartOld()) {
-									Files.delete(statusPath);
-									Job job = new Job(jobDirectory.toAbsolutePath().toString(), p.getFileName().toString());
-									if (job.getSubmitted() == null)
-									    job.setSubmitted(dt);
-									if (!job.hasRequestedCores) {
-	                                    //try to read the number of cores to use
-	                                    int cores = 0;
-	                                    Path json = p.resolve("job.xml");
-	                                    if (Files.exists(json)) {
-	                                        cores = guessCoreCount(json);
-	                                    }
-	                                    
-									    job.setRequestedCores(cores);
-									}
-                                    newJob(job);
-								}
-								else {
-									Files.delete(statusPath);
-									Job job = new Job(jobDirectory.toAbsolutePath().toString(), p.getFileName().toString(), JobStage.Error);
-									if (job.getSubmitted() == null)
-									    job.setSubmitted(dt);
-									if (!job.hasRequestedCores) {
-                                        //try to read the number of cores to use
-                                        int cores = 0;
-                                        Path json = p.resolve("job.xml");
-                                        if (Files.exists(json)) {
-                                            cores = guessCoreCount(json);
-                                        }
-                                        
-									    job.setRequestedCores(cores);
-									}
-                                    job.saveConfig();
-									finishedJobs.add(job);
-									finishedJobAdded(job, finishedJobs.size() - 1);
-								}
-							}
+						//shutdown requested message added from the job
+						else if (st.getValue().equals("Shutdown Requested")) {
+							ended = convertDate(st.getTime());
+							stopped = true;
+							break;
 						}
-						else if (Files.exists(jStatusPath)) {
-							boolean error = false;
-							LocalDateTime dt = LocalDateTime.now();
-							jobStatus.Builder schema = jobStatus.newBuilder();
-							
-							try (BufferedReader stream = new BufferedReader(new FileReader(jStatusPath.toString()))) {
-								JsonFormat.parser().ignoringUnknownFields().merge(stream, schema);
-							}
-							catch (IOException e) {
-								WISELogger.getSpecial(LogName.Backend).warn("Unable to read status JSON.", e);
-								error = true;
-							}
-
-							Path json = p.resolve("job.fgmj");
-							if (!Files.exists(json))
-								json = p.resolve("job.fgmb");
-							
-							if (error) {
-								Files.delete(jStatusPath);
-								Job job = new Job(jobDirectory.toAbsolutePath().toString(), p.getFileName().toString(), JobStage.Error);
-								if (job.getSubmitted() == null)
-								    job.setSubmitted(dt);
-								if (!job.hasRequestedCores) {
-                                    //try to read the number of cores to use
-                                    int cores = 0;
-                                    if (Files.exists(json)) {
-                                        cores = guessCoreCount(json);
-                                    }
-                                    
-                                    job.setRequestedCores(cores);
-								}
-                                job.saveConfig();
-								finishedJobs.add(job);
-								finishedJobAdded(job, finishedJobs.size() - 1);
+						//shutdown requested message added from the manager
+						else if (st.getValue().equals("Information")) {
+							if (st.getData() != null && st.getData().equals("Stop Requested")) {
+								ended = convertDate(st.getTime());
+								stopped = true;
+								break;
 							}
-							else {
-								boolean complete = false;
-								boolean stopped = false;
-								LocalDateTime started = LocalDateTime.now();
-								LocalDateTime ended = LocalDateTime.now();
-								for (int i = 0; i < schema.getEntriesCount(); i++) {
-									jobStatus.statusEntryOrBuilder entry = schema.getEntriesOrBuilder(i);
-									if (entry.getEntryCase() == jobStatus.statusEntry.EntryCase.STATUS) {
-										if (entry.getStatusOrBuilder().getStatus() == jobStatus.statusType.SUBMITTED)
-											dt = Instant.ofEpochSecond(entry.getStatusOrBuilder().getTimeOrBuilder().getSeconds())
-													.atZone(ZoneId.systemDefault()).toLocalDateTime();
-										else if (entry.getStatusOrBuilder().getStatus() == jobStatus.statusType.STARTED)
-											started = Instant.ofEpochSecond(entry.getStatusOrBuilder().getTimeOrBuilder().getSeconds())
-													.atZone(ZoneId.systemDefault()).toLocalDateTime();
-										else if (entry.getStatusOrBuilder().getStatus() == jobStatus.statusType.COMPLETE) {
-											ended = Instant.ofEpochSecond(entry.getStatusOrBuilder().getTimeOrBuilder().getSeconds())
-													.atZone(ZoneId.systemDefault()).toLocalDateTime();
-											complete = true;
-											break;
-										}
-										//shutdown requested message added from the job
-										else if (entry.getStatusOrBuilder().getStatus() == jobStatus.statusType.SHUTDOWN_REQUESTED) {
-											ended = Instant.ofEpochSecond(entry.getStatusOrBuilder().getTimeOrBuilder().getSeconds())
-													.atZone(ZoneId.systemDefault()).toLocalDateTime();
-											stopped = true;
-											break;
-										}
-										//shutdown requested message added from the manager
-										else if (entry.getStatusOrBuilder().getStatus() == jobStatus.statusType.INFORMATION) {
-											if (entry.getStatusOrBuilder().getData() != null &&
-													entry.getStatusOrBuilder().getData().getValue() != null &&
-													entry.getStatusOrBuilder().getData().getValue().equals("Stop Requested")) {
-												ended = Instant.ofEpochSecond(entry.getStatusOrBuilder().getTimeOrBuilder().getSeconds())
-														.atZone(ZoneId.systemDefault()).toLocalDateTime();
-												stopped = true;
-												break;
-											}
-										}
-									}
-								}
+						}
+					}
+				}
+				if (needsRestarted) {
+                    Files.delete(statusPath);
+                    Job job = new Job(jobDirectory.toAbsolutePath().toString(), p.getFileName().toString());
+                    if (job.getSubmitted() == null)
+                        job.setSubmitted(dt);
+                    if (!job.hasRequestedCores) {
+                        //try to read the number of cores to use
+                        int cores = 0;
+                        Path json = p.resolve("job.xml");
+                        if (Files.exists(json)) {
+                            cores = guessCoreCount(json);
+                        }
+                        
+                        job.setRequestedCores(cores);
+                    }
+                    newJob(job, queueOrder);
+				}
+				else if (complete || stopped) {
+					JobStage stage;
+					if (stopped)
+						stage = JobStage.Stopped;
+					else
+						stage = JobStage.Finished;
+					Job job = new Job(jobDirectory.toAbsolutePath().toString(), p.getFileName().toString(), stage);
+					if (job.getSubmitted() == null)
+					    job.setSubmitted(dt);
+					job.setStart(started);
+					job.setEnd(ended);
+					if (!job.hasRequestedCores) {
+                        //try to read the number of cores to use
+                        int cores = 0;
+                        Path json = p.resolve("job.xml");
+                        if (Files.exists(json)) {
+                            cores = guessCoreCount(json);
+                        }
+                        
+					    job.setRequestedCores(cores);
+					}
+                    job.saveConfig();
+					addLoadedJob(job, finishedKey);
+				}
+				else if (Settings.getRestartOld()) {
+					Files.delete(statusPath);
+					Job job = new Job(jobDirectory.toAbsolutePath().toString(), p.getFileName().toString());
+					if (job.getSubmitted() == null)
+					    job.setSubmitted(dt);
+					if (!job.hasRequestedCores) {
+                        //try to read the number of cores to use
+                        int cores = 0;
+                        Path json = p.resolve("job.xml");
+                        if (Files.exists(json)) {
+                            cores = guessCoreCount(json);
+                        }
+                        
+					    job.setRequestedCores(cores);
+					}
+                    newJob(job, queueOrder);
+				}
+				else {
+					Files.delete(statusPath);
+					Job job = new Job(jobDirectory.toAbsolutePath().toString(), p.getFileName().toString(), JobStage.Error);
+					if (job.getSubmitted() == null)
+					    job.setSubmitted(dt);
+					if (!job.hasRequestedCores) {
+                        //try to read the number of cores to use
+                        int cores = 0;
+                        Path json = p.resolve("job.xml");
+                        if (Files.exists(json)) {
+                            cores = guessCoreCount(json);
+                        }
+                        
+					    job.setRequestedCores(cores);
+					}
+                    job.saveConfig();
+					addLoadedJob(job, finishedKey);
+				}
+			}
+		}
+		else if (Files.exists(jStatusPath)) {
+			boolean error = false;
+			LocalDateTime dt = LocalDateTime.now();
+			jobStatus.Builder schema = jobStatus.newBuilder();
+			
+			try (BufferedReader stream = new BufferedReader(new FileReader(jStatusPath.toString()))) {
+				JsonFormat.parser().ignoringUnknownFields().merge(stream, schema);
+			}
+			catch (IOException e) {
+				WISELogger.getSpecial(LogName.Backend).warn("Unable to read status JSON.", e);
+				error = true;
+			}
 
-                                if (needsRestarted) {
-                                    Files.delete(jStatusPath);
-                                    Job job = new Job(jobDirectory.toAbsolutePath().toString(), p.getFileName().toString());
-                                    if (job.getSubmitted() == null)
-                                        job.setSubmitted(dt);
-                                    if (!job.hasRequestedCores) {
-                                        //try to read the number of cores to use
-                                        int cores = 0;
-                                        if (Files.exists(json)) {
-                                            cores = guessCoreCount(json);
-                                        }
-                                        
-                                        job.setRequestedCores(cores);
-                                    }
-                                    newJob(job);
-                                }
-                                else if (complete || stopped) {
-									JobStage stage;
-									if (stopped)
-										stage = JobStage.Stopped;
-									else
-										stage = JobStage.Finished;
-									Job job = new Job(jobDirectory.toAbsolutePath().toString(), p.getFileName().toString(), stage);
-									if (job.getSubmitted() == null)
-									    job.setSubmitted(dt);
-									job.setStart(started);
-									job.setEnd(ended);
-									if (!job.hasRequestedCores) {
-	                                    //try to read the number of cores to use
-	                                    int cores = 0;
-	                                    if (Files.exists(json)) {
-	                                        cores = guessCoreCount(json);
-	                                    }
-	                                    
-									    job.setRequestedCores(cores);
-									}
-                                    job.saveConfig();
-									finishedJobs.add(job);
-									finishedJobAdded(job, finishedJobs.size() - 1);
-								}
-								else if (Settings.getRestartOld()) {
-									Files.delete(jStatusPath);
-									Job job = new Job(jobDirectory.toAbsolutePath().toString(), p.getFileName().toString());
-									if (job.getSubmitted() == null)
-									    job.setSubmitted(dt);
-									if (!job.hasRequestedCores) {
-	                                    //try to read the number of cores to use
-	                                    int cores = 0;
-	                                    if (Files.exists(json)) {
-	                                        cores = guessCoreCount(json);
-	                                    }
-	                                    
-									    job.setRequestedCores(cores);
-									}
-                                    newJob(job);
-								}
-								else {
-									Files.delete(jStatusPath);
-									Job job = new Job(jobDirectory.toAbsolutePath().toString(), p.getFileName().toString(), JobStage.Error);
-									if (job.getSubmitted() == null)
-									    job.setSubmitted(dt);
-									if (!job.hasRequestedCores) {
-	                                    //try to read the number of cores to use
-	                                    int cores = 0;
-	                                    if (Files.exists(json)) {
-	                                        cores = guessCoreCount(json);
-	                                    }
-	                                    
-									    job.setRequestedCores(cores);
-									}
-                                    job.saveConfig();
-									finishedJobs.add(job);
-									finishedJobAdded(job, finishedJobs.size() - 1);
-								}
-							}
+			Path json = p.resolve("job.fgmj");
+			if (!Files.exists(json))
+				json = p.resolve("job.fgmb");
+			
+			if (error) {
+				Files.delete(jStatusPath);
+				Job job = new Job(jobDirectory.toAbsolutePath().toString(), p.getFileName().toString(), JobStage.Error);
+				if (job.getSubmitted() == null)
+				    job.setSubmitted(dt);
+				if (!job.hasRequestedCores) {
+                    //try to read the number of cores to use
+                    int cores = 0;
+                    if (Files.exists(json)) {
+                        cores = guessCoreCount(json);
+                    }
+                    
+                    job.setRequestedCores(cores);
+				}
+                job.saveConfig();
+				addLoadedJob(job, finishedKey);
+			}
+			else {
+				boolean complete = false;
+				boolean stopped = false;
+				LocalDateTime started = LocalDateTime.now();
+				LocalDateTime ended = LocalDateTime.now();
+				for (int i = 0; i < schema.getEntriesCount(); i++) {
+					jobStatus.statusEntryOrBuilder entry = schema.getEntriesOrBuilder(i);
+					if (entry.getEntryCase() == jobStatus.statusEntry.EntryCase.STATUS) {
+						if (entry.getStatusOrBuilder().getStatus() == jobStatus.statusType.SUBMITTED)
+							dt = Instant.ofEpochSecond(entry.getStatusOrBuilder().getTimeOrBuilder().getSeconds())
+									.atZone(ZoneId.systemDefault()).toLocalDateTime();
+						else if (entry.getStatusOrBuilder().getStatus() == jobStatus.statusType.STARTED)
+							started = Instant.ofEpochSecond(entry.getStatusOrBuilder().getTimeOrBuilder().getSeconds())
+									.atZone(ZoneId.systemDefault()).toLocalDateTime();
+						else if (entry.getStatusOrBuilder().getStatus() == jobStatus.statusType.COMPLETE) {
+							ended = Instant.ofEpochSecond(entry.getStatusOrBuilder().getTimeOrBuilder().getSeconds())
+									.atZone(ZoneId.systemDefault()).toLocalDateTime();
+							complete = true;
+							break;
 						}
-						else {
-							Path jobPath = p.resolve("job.xml");
-							boolean exists = Files.exists(jobPath);
-							if (!exists) {
-								jobPath = p.resolve("job.fgmj");
-								exists = Files.exists(jobPath);
-								if (!exists) {
-									jobPath = p.resolve("job.fgmb");
-									exists = Files.exists(jobPath);
-								}
-							}
-							
-							if (exists) {
-								if (Settings.getRestartOld() || needsRestarted) {
-									Job job = new Job(jobDirectory.toAbsolutePath().toString(), p.getFileName().toString());
-									if (job.getSubmitted() == null)
-									    job.setSubmitted(LocalDateTime.now());
-									if (!job.hasRequestedCores) {
-	                                    //try to read the number of cores to use
-	                                    int cores = 0;
-	                                    if (Files.exists(jobPath)) {
-	                                        cores = guessCoreCount(jobPath);
-	                                    }
-	                                    
-									    job.setRequestedCores(cores);
-									}
-                                    newJob(job);
-								}
-								else {
-									Job job = new Job(jobDirectory.toAbsolutePath().toString(), p.getFileName().toString(), JobStage.Unknown);
-									if (job.getSubmitted() == null)
-									    job.setSubmitted(LocalDateTime.now());
-									if (!job.hasRequestedCores) {
-                                        //try to read the number of cores to use
-                                        int cores = 0;
-                                        if (Files.exists(jobPath)) {
-                                            cores = guessCoreCount(jobPath);
-                                        }
-                                        
-									    job.setRequestedCores(cores);
-									}
-							        job.saveConfig();
-									finishedJobs.add(job);
-									finishedJobAdded(job, finishedJobs.size() - 1);
-								}
+						//shutdown requested message added from the job
+						else if (entry.getStatusOrBuilder().getStatus() == jobStatus.statusType.SHUTDOWN_REQUESTED) {
+							ended = Instant.ofEpochSecond(entry.getStatusOrBuilder().getTimeOrBuilder().getSeconds())
+									.atZone(ZoneId.systemDefault()).toLocalDateTime();
+							stopped = true;
+							break;
+						}
+						//shutdown requested message added from the manager
+						else if (entry.getStatusOrBuilder().getStatus() == jobStatus.statusType.INFORMATION) {
+							if (entry.getStatusOrBuilder().getData() != null &&
+									entry.getStatusOrBuilder().getData().getValue() != null &&
+									entry.getStatusOrBuilder().getData().getValue().equals("Stop Requested")) {
+								ended = Instant.ofEpochSecond(entry.getStatusOrBuilder().getTimeOrBuilder().getSeconds())
+										.atZone(ZoneId.systemDefault()).toLocalDateTime();
+								stopped = true;
+								break;
 							}
 						}
 					}
 				}
-				catch (Exception e) {
-					WISELogger.getSpecial(LogName.Backend).error("Unable to iterate job directory.", e);
+
+                if (needsRestarted) {
+                    Files.delete(jStatusPath);
+                    Job job = new Job(jobDirectory.toAbsolutePath().toString(), p.getFileName().toString());
+                    if (job.getSubmitted() == null)
+                        job.setSubmitted(dt);
+                    if (!job.hasRequestedCores) {
+                        //try to read the number of cores to use
+                        int cores = 0;
+                        if (Files.exists(json)) {
+                            cores = guessCoreCount(json);
+                        }
+                        
+                        job.setRequestedCores(cores);
+                    }
+                    newJob(job, queueOrder);
+                }
+                else if (complete || stopped) {
+					JobStage stage;
+					if (stopped)
+						stage = JobStage.Stopped;
+					else
+						stage = JobStage.Finished;
+					Job job = new Job(jobDirectory.toAbsolutePath().toString(), p.getFileName().toString(), stage);
+					if (job.getSubmitted() == null)
+					    job.setSubmitted(dt);
+					job.setStart(started);
+					job.setEnd(ended);
+					if (!job.hasRequestedCores) {
+                        //try to read the number of cores to use
+                        int cores = 0;
+                        if (Files.exists(json)) {
+                            cores = guessCoreCount(json);
+                        }
+                        
+					    job.setRequestedCores(cores);
+					}
+                    job.saveConfig();
+					addLoadedJob(job, finishedKey);
+				}
+				else if (Settings.getRestartOld()) {
+					Files.delete(jStatusPath);
+					Job job = new Job(jobDirectory.toAbsolutePath().toString(), p.getFileName().toString());
+					if (job.getSubmitted() == null)
+					    job.setSubmitted(dt);
+					if (!job.hasRequestedCores) {
+                        //try to read the number of cores to use
+                        int cores = 0;
+                        if (Files.exists(json)) {
+                            cores = guessCoreCount(json);
+                        }
+                        
+					    job.setRequestedCores(cores);
+					}
+                    newJob(job, queueOrder);
+				}
+				else {
+					Files.delete(jStatusPath);
+					Job job = new Job(jobDirectory.toAbsolutePath().toString(), p.getFileName().toString(), JobStage.Error);
+					if (job.getSubmitted() == null)
+					    job.setSubmitted(dt);
+					if (!job.hasRequestedCores) {
+                        //try to read the number of cores to use
+                        int cores = 0;
+                        if (Files.exists(json)) {
+                            cores = guessCoreCount(json);
+                        }
+                        
+					    job.setRequestedCores(cores);
+					}
+                    job.saveConfig();
+					addLoadedJob(job, finishedKey);
 				}
 			}
-			finally {
-				listLock.unlock();
+		}
+		else {
+			Path jobPath = p.resolve("job.xml");
+			boolean exists = Files.exists(jobPath);
+			if (!exists) {
+				jobPath = p.resolve("job.fgmj");
+				exists = Files.exists(jobPath);
+				if (!exists) {
+					jobPath = p.resolve("job.fgmb");
+					exists = Files.exists(jobPath);
+				}
 			}
 			
-			return getQueuedCount();
-		}, executor);
+			if (exists) {
+				if (Settings.getRestartOld() || needsRestarted) {
+					Job job = new Job(jobDirectory.toAbsolutePath().toString(), p.getFileName().toString());
+					if (job.getSubmitted() == null)
+					    job.setSubmitted(LocalDateTime.now());
+					if (!job.hasRequestedCores) {
+                        //try to read the number of cores to use
+                        int cores = 0;
+                        if (Files.exists(jobPath)) {
+                            cores = guessCoreCount(jobPath);
+                        }
+                        
+					    job.setRequestedCores(cores);
+					}
+                    newJob(job, queueOrder);
+				}
+				else {
+					Job job = new Job(jobDirectory.toAbsolutePath().toString(), p.getFileName().toString(), JobStage.Unknown);
+					if (job.getSubmitted() == null)
+					    job.setSubmitted(LocalDateTime.now());
+					if (!job.hasRequestedCores) {
+                        //try to read the number of cores to use
+                        int cores = 0;
+                        if (Files.exists(jobPath)) {
+                            cores = guessCoreCount(jobPath);
+                        }
+                        
+					    job.setRequestedCores(cores);
+					}
+			        job.saveConfig();
+					addLoadedJob(job, finishedKey);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Add a job that was loaded from the job directory to the finished list.
+	 * @param job The job to add.
+	 * @param key The position that was reserved for the job in the finished list.
+	 */
+	private void addLoadedJob(Job job, long key) {
+		listLock.lock();
+		try {
+			int index = registry.addFinishedAt(key, job);
+			catalogJob(job);
+			finishedJobAdded(job, index);
+		}
+		finally {
+			listLock.unlock();
+		}
+	}
+	
+	/**
+	 * Remove a job that was loaded from the job catalog but has changed since it was cataloged.
+	 * @param jobName The name of the job.
+	 */
+	private void removeStaleJob(String jobName) {
+		listLock.lock();
+		try {
+			Job job = registry.findFinished(jobName);
+			if (job != null) {
+				int index = registry.removeFinished(job);
+				if (index >= 0)
+					finishedJobRemove(job, index);
+			}
+		}
+		finally {
+			listLock.unlock();
+		}
+	}
+	
+	/**
+	 * Record the current state of a job in the job catalog.
+	 */
+	private void catalogJob(Job job) {
+		JobCatalog current = catalog;
+		if (current != null)
+			current.record(job);
+	}
+	
+	/**
+	 * Remove a job from the job catalog.
+	 */
+	private void uncatalogJob(String jobName) {
+		JobCatalog current = catalog;
+		if (current != null)
+			current.remove(jobName);
+	}
+	
+	/**
+	 * Report the progress of loading the job directory if enough time has passed since
+	 * the last report.
+	 * @param force Report the progress even if not enough time has passed.
+	 */
+	private void reportScanProgress(boolean force) {
+		ScanProgress progress = scanProgress;
+		if (progress != null && progress.shouldReport(force)) {
+			WISELogger.getSpecial(LogName.Backend).info(String.format("Loaded %d of %d job folders (%.1f folders/s, %d remaining)",
+					progress.getScanned(), progress.getTotal(), progress.getFoldersPerSecond(), progress.getRemaining()));
+			scanProgressListeners.forEach(l -> l.onScanProgress(progress));
+		}
+	}
+	
+	/**
+	 * Loads a range of job folders, splitting the range between threads if it is large.
+	 */
+	private class FolderScanTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final JAXBContext context;
+		private final List<Path> directories;
+		private final int start;
+		private final int end;
+		private final long finishedKey;
+		
+		public FolderScanTask(JAXBContext context, List<Path> directories, int start, int end, long finishedKey) {
+			this.context = context;
+			this.directories = directories;
+			this.start = start;
+			this.end = end;
+			this.finishedKey = finishedKey;
+		}
+
+		@Override
+		protected void compute() {
+			if ((end - start) <= SCAN_BATCH_SIZE) {
+				Unmarshaller unmarshaller;
+				try {
+					unmarshaller = context.createUnmarshaller();
+				}
+				catch (JAXBException e) {
+					WISELogger.getSpecial(LogName.Backend).error("Unable to create status XML reader.", e);
+					return;
+				}
+				for (int i = start; i < end; i++) {
+					Path p = directories.get(i);
+					try {
+						JobCatalog.Entry entry = catalog.get(p.getFileName().toString());
+						if (entry != null && entry.isFinished()) {
+							//the job was loaded from the catalog and hasn't changed
+							if (JobCatalog.isCurrent(entry, p)) {
+								scanProgress.folderScanned();
+								reportScanProgress(false);
+								continue;
+							}
+							removeStaleJob(entry.getName());
+						}
+						//queued jobs that are restarted run before new jobs with the same priority
+						loadJobFolder(p, unmarshaller, finishedKey + i, i - directories.size());
+					}
+					catch (Exception e) {
+						WISELogger.getSpecial(LogName.Backend).error("Unable to load job folder " + p.getFileName(), e);
+					}
+					scanProgress.folderScanned();
+					reportScanProgress(false);
+				}
+			}
+			else {
+				int middle = (start + end) >>> 1;
+				invokeAll(new FolderScanTask(context, directories, start, middle, finishedKey),
+						new FolderScanTask(context, directories, middle, end, finishedKey));
+			}
+		}
 	}
 	
 	private void finishedJobRemove(final Job job, final int index) {
-		SwingUtilities.invokeLater(() -> {
-			finishedListeners.forEach(l -> l.itemRemoved(job, index));
-		});
+		dispatcher.removed(finishedListeners, job, index);
 	}
 	
 	private void finishedJobAdded(final Job job, final int index) {
-		SwingUtilities.invokeLater(() -> {
-			finishedListeners.forEach(l -> l.itemAdded(job, index));
-		});
+		dispatcher.added(finishedListeners, job, index);
 	}
 	
 	private void queuedJobRemoved(final Job job, final int index) {
-		SwingUtilities.invokeLater(() -> {
-			queueListeners.forEach(l -> l.itemRemoved(job, index));
-		});
+		dispatcher.removed(queueListeners, job, index);
 	}
 	
 	private void queuedJobAdded(final Job job, final int index) {
-		SwingUtilities.invokeLater(() -> {
-			queueListeners.forEach(l -> l.itemAdded(job, index));
-		});
+		dispatcher.added(queueListeners, job, index);
 	}
     
     private void validationJobRemoved(final Job job, final int index) {
-        SwingUtilities.invokeLater(() -> {
-            validateListeners.forEach(l -> l.itemRemoved(job, index));
-        });
+        dispatcher.removed(validateListeners, job, index);
     }
     
     private void validationJobAdded(final Job job, final int index) {
-        SwingUtilities.invokeLater(() -> {
-            validateListeners.forEach(l -> l.itemAdded(job, index));
-        });
+        dispatcher.added(validateListeners, job, index);
     }
 	
 	public static interface IListChangedListener {
 		
 		void itemAdded(Job job, int index);
 		void itemRemoved(Job job, int index);
+		
+		/**
+		 * Called when a range of jobs has been added to the list.
+		 * @param jobs The jobs that were added, in list order.
+		 * @param index The index of the first job that was added.
+		 */
+		default void itemsAdded(List<Job> jobs, int index) {
+			for (int i = 0; i < jobs.size(); i++)
+				itemAdded(jobs.get(i), index + i);
+		}
+		
+		/**
+		 * Called when a range of jobs has been removed from the list.
+		 * @param jobs The jobs that were removed, in list order.
+		 * @param index The index of the first job before it was removed.
+		 */
+		default void itemsRemoved(List<Job> jobs, int index) {
+			//each removal moves the next job into the same index
+			for (Job job : jobs)
+				itemRemoved(job, index);
+		}
+		
+		/**
+		 * Called with all changes that were made to the list since the last time
+		 * listeners were notified. The changes must be applied in order.
+		 * @param changes The ranges of jobs that were added or removed.
+		 */
+		default void itemsChanged(List<ListChangeDispatcher.Change> changes) {
+			for (ListChangeDispatcher.Change change : changes) {
+				if (change.isAdded())
+					itemsAdded(change.getJobs(), change.getIndex());
+				else
+					itemsRemoved(change.getJobs(), change.getIndex());
+			}
+		}
+	}
+	
+	@FunctionalInterface
+	public static interface IScanProgressListener {
+		
+		/**
+		 * Called periodically while jobs are being loaded from the job directory, and once when loading has finished.
+		 */
+		void onScanProgress(ScanProgress progress);
+	}
+
+	@FunctionalInterface
+	public static interface IBulkProgressListener {
+		
+		/**
+		 * Called after each job in a bulk management request has been managed, and once when
+		 * the request has completed. The same progress object is passed to every call.
+		 */
+		void onBulkProgress(BulkManageProgress progress);
+	}
+
+	@FunctionalInterface
+	public static interface ITelemetryListener {
+		
+		/**
+		 * Called after the resource usage of the running jobs has been sampled.
+		 * @param jobs The jobs that were sampled. The samples are in each jobs {@link Job#getUsageHistory() usage history}.
+		 */
+		void onUsageSampled(List<Job> jobs);
 	}
 
 	@Override
 	public void close() throws IOException {
 		executor.shutdown();
+		bulkExecutor.shutdown();
+		trash.close();
+		if (retention != null)
+			retention.close();
+		dispatcher.close();
+		if (catalog != null)
+			catalog.close();
 	}
 	
 	private class JobKiller implements Runnable {
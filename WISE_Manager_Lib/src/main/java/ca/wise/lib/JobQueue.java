@@ -0,0 +1,301 @@
+package ca.wise.lib;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import ca.wise.lib.Job.IStageChangedListener;
+import ca.wise.lib.Job.JobStage;
+
+/**
+ * A queue of jobs ordered by priority. Jobs that have been started are
+ * kept separate from the jobs that are waiting to run, as a list the
+ * running jobs come first followed by the waiting jobs in the order
+ * that they should be started.
+ *
+ * Waiting jobs are ordered by priority, highest first, and then by the
+ * order that they were added so jobs with the same priority run in the
+ * order they were submitted. Adding, removing, and finding the position
+ * of a waiting job are all O(log n).
+ *
+ * The number of jobs in the queue in each {@link JobStage} is kept up to
+ * date as jobs change stage so it can be read without looking at the jobs.
+ *
+ * Only one thread should modify the queue at a time.
+ */
+public class JobQueue extends AbstractList<Job> implements IStageChangedListener {
+
+    private final List<Job> running = new CopyOnWriteArrayList<>();
+    private final IndexedJobList<QueueKey> queued = new IndexedJobList<>();
+    private final Map<String, Job> names = new ConcurrentHashMap<>();
+    private final AtomicIntegerArray stageCounts = new AtomicIntegerArray(JobStage.values().length);
+    private final List<IStageChangedListener> stageListeners = new CopyOnWriteArrayList<>();
+    /**
+     * The order that each running job was started in.
+     */
+    private final Map<String, Long> started = new ConcurrentHashMap<>();
+    private long sequence = 0;
+    private long startSequence = 0;
+
+    @Override
+    public int size() {
+        return running.size() + queued.size();
+    }
+
+    @Override
+    public Job get(int index) {
+        int runningCount = running.size();
+        if (index < runningCount)
+            return running.get(index);
+        return queued.get(index - runningCount);
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        int index = running.indexOf(o);
+        if (index < 0) {
+            index = queued.indexOf(o);
+            if (index >= 0)
+                index += running.size();
+        }
+        return index;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return indexOf(o);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Job && names.get(((Job)o).getName()) == o;
+    }
+
+    @Override
+    public Iterator<Job> iterator() {
+        return new Iterator<Job>() {
+            private final Iterator<Job> first = running.iterator();
+            private final Iterator<Job> second = queued.iterator();
+
+            @Override
+            public boolean hasNext() {
+                return first.hasNext() || second.hasNext();
+            }
+
+            @Override
+            public Job next() {
+                if (first.hasNext())
+                    return first.next();
+                return second.next();
+            }
+        };
+    }
+
+    /**
+     * Get the jobs that have been started.
+     */
+    public List<Job> getRunning() {
+        return Collections.unmodifiableList(running);
+    }
+
+    /**
+     * Get the jobs that are waiting to be started, in the order they should be started.
+     */
+    public List<Job> getQueued() {
+        return Collections.unmodifiableList(queued);
+    }
+
+    /**
+     * Get an unmodifiable copy of the running jobs.
+     */
+    List<Job> snapshotRunning() {
+        return Collections.unmodifiableList(new ArrayList<>(running));
+    }
+
+    /**
+     * Get an unmodifiable copy of the jobs that are waiting to run.
+     */
+    List<Job> snapshotQueued() {
+        return queued.snapshot();
+    }
+
+    /**
+     * Get the number of jobs in the queue that are in a stage.
+     * @param stage The stage to count.
+     */
+    public int getStageCount(JobStage stage) {
+        return stageCounts.get(stage.ordinal());
+    }
+
+    /**
+     * Listen for any job in the queue moving between stages.
+     */
+    public void addStageChangedListener(IStageChangedListener listener) {
+        stageListeners.add(listener);
+    }
+
+    public void removeStageChangedListener(IStageChangedListener listener) {
+        stageListeners.remove(listener);
+    }
+
+    @Override
+    public void onStageChanged(Job job, JobStage previous, JobStage current) {
+        stageCounts.decrementAndGet(previous.ordinal());
+        stageCounts.incrementAndGet(current.ordinal());
+        stageListeners.forEach(l -> l.onStageChanged(job, previous, current));
+    }
+
+    /**
+     * Find a job in the queue by name.
+     * @param name The name of the job.
+     * @return The job or null if no job in the queue has the given name.
+     */
+    public Job find(String name) {
+        return names.get(name);
+    }
+
+    /**
+     * Get a value that increases along the list of running jobs. It doesn't change
+     * while the job is running.
+     * @param job The running job.
+     * @return The order the job was started in, or null if the job isn't running.
+     */
+    Long runningOrder(Job job) {
+        return started.get(job.getName());
+    }
+
+    /**
+     * Get a value that increases along the list of waiting jobs, higher priorities
+     * first and then in the order the jobs were added. It only changes if the job
+     * is moved with {@link #swap(int)}.
+     * @param job The waiting job.
+     * @return The negated priority and the order the job was added in, or null if the job isn't waiting to run.
+     */
+    long[] queuedOrder(Job job) {
+        QueueKey key = queued.keyOf(job.getName());
+        return key == null ? null : new long[] { -(long)key.priority, key.sequence };
+    }
+
+    /**
+     * Add a job that is waiting to run. The job will be placed after all
+     * other waiting jobs that have the same or a higher priority.
+     * @param job The job to add.
+     * @return The index of the job in the queue.
+     */
+    int enqueue(Job job) {
+        return enqueue(job, sequence++);
+    }
+
+    /**
+     * Add a job that is waiting to run with a specific order relative to other
+     * jobs with the same priority.
+     * @param job The job to add.
+     * @param order The order of the job. Jobs added using {@link #enqueue(Job)} use increasing values starting at 0.
+     * @return The index of the job in the queue.
+     */
+    int enqueue(Job job, long order) {
+        Job old = names.put(job.getName(), job);
+        if (old != job) {
+            if (old != null)
+                untrack(old);
+            stageCounts.incrementAndGet(job.addStageChangedListener(this).ordinal());
+        }
+        return running.size() + queued.add(new QueueKey(job.getPriority(), order), job);
+    }
+
+    private void untrack(Job job) {
+        stageCounts.decrementAndGet(job.removeStageChangedListener(this).ordinal());
+    }
+
+    /**
+     * Remove a job from the queue, whether it is running or waiting to run.
+     * @param job The job to remove.
+     * @return The index the job was at before it was removed, or -1 if it was not in the queue.
+     */
+    int removeJob(Job job) {
+        int index = running.indexOf(job);
+        if (index >= 0) {
+            running.remove(index);
+            started.remove(job.getName());
+        }
+        else {
+            index = queued.remove(job);
+            if (index >= 0)
+                index += running.size();
+        }
+        if (index >= 0 && names.remove(job.getName(), job))
+            untrack(job);
+        return index;
+    }
+
+    /**
+     * Move a job that is waiting to run into the list of running jobs.
+     * @param job The job that is being started.
+     * @return The index that the job was at before it was moved, or -1 if the job is not waiting to run.
+     */
+    int markRunning(Job job) {
+        int index = queued.remove(job);
+        if (index >= 0) {
+            index += running.size();
+            started.put(job.getName(), startSequence++);
+            running.add(job);
+        }
+        return index;
+    }
+
+    /**
+     * Swap two adjacent jobs that are waiting to run.
+     * @param index The index of the first job to swap. It will be swapped with the job at {@code index + 1}.
+     * @return True if the jobs were swapped, false if either index isn't a waiting job.
+     */
+    boolean swap(int index) {
+        int queuedIndex = index - running.size();
+        if (queuedIndex < 0 || queuedIndex + 1 >= queued.size())
+            return false;
+        Job first = queued.get(queuedIndex);
+        Job second = queued.get(queuedIndex + 1);
+        QueueKey firstKey = queued.keyOf(first.getName());
+        QueueKey secondKey = queued.keyOf(second.getName());
+        queued.remove(first);
+        queued.remove(second);
+        queued.add(secondKey, first);
+        queued.add(firstKey, second);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        names.values().forEach(this::untrack);
+        running.clear();
+        started.clear();
+        queued.clear();
+        names.clear();
+    }
+
+    /**
+     * The sort key for waiting jobs. Higher priorities come first, then earlier submissions.
+     */
+    private static final class QueueKey implements Comparable<QueueKey> {
+        private final int priority;
+        private final long sequence;
+
+        QueueKey(int priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(QueueKey o) {
+            int c = Integer.compare(o.priority, priority);
+            if (c == 0)
+                c = Long.compare(sequence, o.sequence);
+            return c;
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package ca.wise.lib;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import lombok.Getter;
+
+/**
+ * Storage for the job lists that indexes every job by its name.
+ *
+ * The name indexes are concurrent so lookups by name never need
+ * to take the list locks. Modifications should only be made while
+ * holding the list lock in {@link JobLists}.
+ *
+ * Every modification publishes a new {@link JobListSnapshot} that
+ * readers can use without locking.
+ *
+ * Only the most recently added finished jobs are kept as {@link Job}
+ * objects, older finished jobs are stored as compact {@link JobCatalog.Entry}
+ * records and are loaded when they are accessed. A record always loads as
+ * the same {@link Job} object while that object is still in use, so listeners
+ * that keep a job see the changes that are made to it later.
+ */
+public class JobRegistry {
+
+    /**
+     * The maximum number of finished jobs that are kept as {@link Job} objects.
+     */
+    private static final int HOT_FINISHED_JOBS = 500;
+    /**
+     * The maximum number of finished jobs loaded from records that will be cached.
+     */
+    private static final int FINISHED_PAGE_CACHE = 100;
+
+    /**
+     * The running and queued jobs.
+     */
+    @Getter private final JobQueue jobQueue = new JobQueue();
+    /**
+     * The jobs that are being validated or are waiting to be validated.
+     */
+    @Getter private final JobQueue validateQueue = new JobQueue();
+    /**
+     * Completed jobs, the most recently completed job first.
+     */
+    @Getter private final IndexedJobList<Long> finishedJobs;
+    /**
+     * Indexes of the finished jobs by name, submission time, and completion time.
+     */
+    @Getter private final FinishedJobIndex finishedIndex;
+    /**
+     * The names of the finished jobs that are stored as {@link Job} objects, in the order they were added.
+     */
+    private final Set<String> hotFinished = new LinkedHashSet<>();
+    /**
+     * The finished jobs that have been handed out, by name. Jobs are only softly referenced so
+     * jobs loaded from records can be collected once nothing is using them.
+     */
+    private final Map<String, JobReference> handedOut = new HashMap<>();
+    private final ReferenceQueue<Job> collected = new ReferenceQueue<>();
+    private final String jobDirectory;
+
+    //keys used to place jobs at the start or end of the finished list
+    private long firstFinished = 0;
+    private long lastFinished = -1;
+    private long version = 0;
+    /**
+     * The most recently published view of the job lists.
+     */
+    @Getter private volatile JobListSnapshot snapshot = JobListSnapshot.EMPTY;
+
+    /**
+     * Create a new job registry.
+     * @param jobDirectory The directory that jobs are stored in.
+     */
+    public JobRegistry(String jobDirectory) {
+        this.jobDirectory = jobDirectory;
+        finishedJobs = new IndexedJobList<>(this::materialize, FINISHED_PAGE_CACHE);
+        //use the finished job if it is loaded so its current details are returned
+        finishedIndex = new FinishedJobIndex(entry -> {
+            Job job = finishedJobs.isLoaded(entry.getName()) ? finishedJobs.find(entry.getName()) : null;
+            return job == null ? materialize(entry) : job;
+        });
+    }
+    
+    /**
+     * Get the job for a record of a finished job. If the job has already been
+     * created and is still in use the same job is returned.
+     */
+    private Job materialize(JobCatalog.Entry entry) {
+        synchronized (handedOut) {
+            expunge();
+            JobReference ref = handedOut.get(entry.getName());
+            Job job = ref == null ? null : ref.get();
+            if (job == null) {
+                job = new Job(jobDirectory, entry);
+                handedOut.put(entry.getName(), new JobReference(job, collected));
+            }
+            return job;
+        }
+    }
+    
+    /**
+     * Make a job the one that is returned for its name.
+     */
+    private void handOut(Job job) {
+        synchronized (handedOut) {
+            expunge();
+            handedOut.put(job.getName(), new JobReference(job, collected));
+        }
+    }
+    
+    /**
+     * Forget the job that was returned for a name, the next record for the name will create a new job.
+     */
+    private void forget(String name) {
+        synchronized (handedOut) {
+            handedOut.remove(name);
+        }
+    }
+    
+    /**
+     * Remove the names of jobs that have been collected.
+     */
+    private void expunge() {
+        JobReference ref;
+        while ((ref = (JobReference)collected.poll()) != null) {
+            //the name may have been handed out again since the job was collected
+            if (handedOut.get(ref.name) == ref)
+                handedOut.remove(ref.name);
+        }
+    }
+
+    /**
+     * Is a job with the given name known.
+     * @param name The name of the job to check.
+     * @return 1 if the job is queued or running, -1 if the job is finished, and 0 if the job is unknown.
+     */
+    public int containsJob(String name) {
+        if (jobQueue.find(name) != null)
+            return 1;
+        return finishedJobs.containsName(name) ? -1 : 0;
+    }
+
+    /**
+     * Find a queued or running job by name.
+     * @param name The name of the job.
+     * @return The job, or null if no queued or running job has that name.
+     */
+    public Job findQueued(String name) {
+        return jobQueue.find(name);
+    }
+
+    /**
+     * Find a job that is waiting to be validated by name.
+     * @param name The name of the job.
+     * @return The job, or null if no validation job has that name.
+     */
+    public Job findValidating(String name) {
+        return validateQueue.find(name);
+    }
+
+    /**
+     * Find a finished job by name.
+     * @param name The name of the job.
+     * @return The job, or null if no finished job has that name.
+     */
+    public Job findFinished(String name) {
+        return finishedJobs.find(name);
+    }
+
+    /**
+     * Add a job to the job queue after all queued jobs with the same or higher priority.
+     * @return The index the job was added at.
+     */
+    int addQueued(Job job) {
+        int index = jobQueue.enqueue(job);
+        publish();
+        return index;
+    }
+
+    /**
+     * Add a job to the job queue at a specific position relative to other queued jobs with the same priority.
+     * @param order The position of the job. Jobs added without an order use increasing values starting at 0.
+     * @return The index the job was added at.
+     */
+    int addQueued(Job job, long order) {
+        int index = jobQueue.enqueue(job, order);
+        publish();
+        return index;
+    }
+
+    int removeQueued(Job job) {
+        return published(jobQueue.removeJob(job));
+    }
+
+    /**
+     * Move a queued job to the list of running jobs.
+     * @return The index the job was at before it was moved, or -1 if the job isn't queued.
+     */
+    int markRunning(Job job) {
+        return published(jobQueue.markRunning(job));
+    }
+
+    /**
+     * Swap two adjacent queued jobs.
+     * @param index The index of the first of the two jobs.
+     * @return True if the jobs were swapped.
+     */
+    boolean swapQueued(int index) {
+        boolean retval = jobQueue.swap(index);
+        if (retval)
+            publish();
+        return retval;
+    }
+
+    /**
+     * Add a job to the validation queue after all queued jobs with the same or higher priority.
+     * @return The index the job was added at.
+     */
+    int addValidating(Job job) {
+        int index = validateQueue.enqueue(job);
+        publish();
+        return index;
+    }
+
+    int removeValidating(Job job) {
+        return published(validateQueue.removeJob(job));
+    }
+
+    /**
+     * Move a queued validation job to the list of running validation jobs.
+     * @return The index the job was at before it was moved, or -1 if the job isn't queued.
+     */
+    int markValidationRunning(Job job) {
+        return published(validateQueue.markRunning(job));
+    }
+
+    /**
+     * Add a job to the start of the finished job list.
+     * @return The index the job was added at.
+     */
+    int addFinishedFirst(Job job) {
+        int index = finishedJobs.add(--firstFinished, job);
+        finishedIndex.add(new JobCatalog.Entry(job, -1));
+        loaded(job);
+        publish();
+        return index;
+    }
+
+    /**
+     * Add a job to the end of the finished job list.
+     * @return The index the job was added at.
+     */
+    int addFinishedLast(Job job) {
+        int index = finishedJobs.add(++lastFinished, job);
+        finishedIndex.add(new JobCatalog.Entry(job, -1));
+        loaded(job);
+        publish();
+        return index;
+    }
+
+    /**
+     * Reserve keys at the end of the finished list for jobs that will be added with {@link #addFinishedAt(long, Job)}.
+     * @param count The number of keys to reserve.
+     * @return The first reserved key.
+     */
+    long reserveFinished(int count) {
+        long first = lastFinished + 1;
+        lastFinished += count;
+        return first;
+    }
+
+    /**
+     * Add a job to the finished job list using a key from {@link #reserveFinished(int)}.
+     * @return The index the job was added at.
+     */
+    int addFinishedAt(long key, Job job) {
+        int index = finishedJobs.add(key, job);
+        finishedIndex.add(new JobCatalog.Entry(job, -1));
+        loaded(job);
+        publish();
+        return index;
+    }
+
+    /**
+     * Add a record of a finished job to the finished job list using a key from {@link #reserveFinished(int)}.
+     * The job will be stored as a record unless there is space for more {@link Job} objects.
+     * @return The index the job was added at.
+     */
+    int addFinishedAt(long key, JobCatalog.Entry entry) {
+        int index;
+        if (hotFinished.size() < HOT_FINISHED_JOBS) {
+            Job job = new Job(jobDirectory, entry);
+            index = finishedJobs.add(key, job);
+            loaded(job);
+        }
+        else {
+            hotFinished.remove(entry.getName());
+            forget(entry.getName());
+            index = finishedJobs.add(key, entry);
+        }
+        finishedIndex.add(entry);
+        publish();
+        return index;
+    }
+
+    int removeFinished(Job job) {
+        int index = finishedJobs.remove(job);
+        if (index >= 0) {
+            hotFinished.remove(job.getName());
+            forget(job.getName());
+            finishedIndex.remove(job.getName());
+        }
+        return published(index);
+    }
+
+    /**
+     * A finished job was added as a {@link Job} object. If there are now too
+     * many finished jobs stored as objects the oldest will be replaced by records.
+     */
+    private void loaded(Job job) {
+        handOut(job);
+        hotFinished.remove(job.getName());
+        hotFinished.add(job.getName());
+        Iterator<String> it = hotFinished.iterator();
+        while (hotFinished.size() > HOT_FINISHED_JOBS && it.hasNext()) {
+            String name = it.next();
+            it.remove();
+            Job old = finishedJobs.isLoaded(name) ? finishedJobs.find(name) : null;
+            if (old != null)
+                finishedJobs.unload(name, new JobCatalog.Entry(old, -1));
+        }
+    }
+
+    /**
+     * Publish a new snapshot if a modification returned a valid index.
+     */
+    private int published(int index) {
+        if (index >= 0)
+            publish();
+        return index;
+    }
+
+    private void publish() {
+        List<Job> validating = validateQueue.snapshotRunning();
+        List<Job> validateQueued = validateQueue.snapshotQueued();
+        if (!validateQueued.isEmpty()) {
+            List<Job> all = new ArrayList<>(validating);
+            all.addAll(validateQueued);
+            validating = Collections.unmodifiableList(all);
+        }
+        snapshot = new JobListSnapshot(++version, jobQueue.snapshotRunning(), jobQueue.snapshotQueued(),
+                validating, finishedJobs.snapshot());
+    }
+    
+    private static final class JobReference extends SoftReference<Job> {
+        final String name;
+        
+        JobReference(Job job, ReferenceQueue<Job> queue) {
+            super(job, queue);
+            this.name = job.getName();
+        }
+    }
+}
@@ -5,11 +5,17 @@ public class JobStartDetails {
     public final int cores;
     public final int priority;
     public final int validationState;
+    public final Boolean hyperthreads;
     
     public JobStartDetails(String jobName, int cores, int priority, int validationState) {
+        this(jobName, cores, priority, validationState, null);
+    }
+    
+    public JobStartDetails(String jobName, int cores, int priority, int validationState, Boolean hyperthreads) {
         this.jobName = jobName;
         this.cores = cores;
         this.priority = priority;
         this.validationState = validationState;
+        this.hyperthreads = hyperthreads;
     }
 }
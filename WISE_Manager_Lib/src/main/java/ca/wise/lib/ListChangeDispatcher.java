@@ -0,0 +1,294 @@
+package ca.wise.lib;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import ca.wise.lib.JobLists.IListChangedListener;
+import ca.wise.lib.WISELogger.LogName;
+import lombok.Getter;
+
+/**
+ * Collects job list changes and passes them to listeners in batches.
+ *
+ * Changes are held for a short time before being delivered so that jobs
+ * that are added or removed next to each other can be reported as a single
+ * range. At most one delivery is in progress at a time and deliveries are
+ * at least the flush interval apart, so a large number of changes, like
+ * those made while loading the job directory, results in a small number of
+ * listener calls.
+ *
+ * Only one batch is handed to the executor at a time, the next batch is taken
+ * once the previous one has been delivered, so changes are always delivered in
+ * the order they were made no matter which thread calls {@link #flush()}.
+ *
+ * Changes are delivered using an {@link Executor} so listeners can be called
+ * on whichever thread they require, a UI can use its event thread for example.
+ */
+public class ListChangeDispatcher implements Closeable {
+
+    /**
+     * The default minimum time between deliveries in milliseconds.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL = 50;
+
+    //a single timer is shared by all dispatchers, it only hands batches to the delivery executors
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "List Change Dispatcher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Executor deliverer;
+    private final long flushInterval;
+    private final Object lock = new Object();
+    private List<Batch> pending = new ArrayList<>();
+    //all of the delivery state is guarded by lock
+    private boolean scheduled = false;
+    private boolean delivering = false;
+    private boolean flushRequested = false;
+    private boolean closed = false;
+
+    /**
+     * Create a dispatcher that calls listeners on its own timer thread.
+     */
+    public ListChangeDispatcher() {
+        this(Runnable::run, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * Create a dispatcher that calls listeners using an executor.
+     * @param deliverer Used to call the listeners. Batches must be run in the order they are submitted.
+     */
+    public ListChangeDispatcher(Executor deliverer) {
+        this(deliverer, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * Create a dispatcher that calls listeners using an executor.
+     * @param deliverer Used to call the listeners. Batches must be run in the order they are submitted.
+     * @param flushInterval The minimum time between deliveries in milliseconds.
+     */
+    public ListChangeDispatcher(Executor deliverer, long flushInterval) {
+        this.deliverer = deliverer;
+        this.flushInterval = Math.max(0, flushInterval);
+    }
+
+    /**
+     * Report that a job has been added to a list.
+     * @param listeners The listeners of the list that changed.
+     * @param job The job that was added.
+     * @param index The index the job was added at.
+     */
+    public void added(List<IListChangedListener> listeners, Job job, int index) {
+        post(listeners, true, job, index);
+    }
+
+    /**
+     * Report that a job has been removed from a list.
+     * @param listeners The listeners of the list that changed.
+     * @param job The job that was removed.
+     * @param index The index the job was at before it was removed.
+     */
+    public void removed(List<IListChangedListener> listeners, Job job, int index) {
+        post(listeners, false, job, index);
+    }
+
+    private void post(List<IListChangedListener> listeners, boolean added, Job job, int index) {
+        boolean immediate = false;
+        synchronized (lock) {
+            //only the most recent batch can be extended or the order of the changes would be lost
+            Batch last = pending.isEmpty() ? null : pending.get(pending.size() - 1);
+            if (last == null || last.listeners != listeners || !last.merge(added, job, index))
+                pending.add(new Batch(listeners, added, job, index));
+            //nothing is scheduled once the dispatcher is closed
+            if (closed)
+                immediate = true;
+            //a delivery in progress will schedule the next one when it finishes
+            else if (!scheduled && !delivering) {
+                scheduled = true;
+                timer.schedule(this::scheduledFlush, flushInterval, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (immediate)
+            flush();
+    }
+
+    /**
+     * Deliver any pending changes without waiting for the flush interval. If a
+     * delivery is already in progress the pending changes are delivered as soon
+     * as it finishes so changes are never delivered out of order.
+     */
+    public void flush() {
+        List<Batch> batches;
+        synchronized (lock) {
+            if (delivering) {
+                flushRequested = true;
+                return;
+            }
+            if (pending.isEmpty())
+                return;
+            batches = pending;
+            pending = new ArrayList<>();
+            delivering = true;
+        }
+        try {
+            deliverer.execute(() -> {
+                try {
+                    deliver(batches);
+                }
+                finally {
+                    delivered();
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            WISELogger.getSpecial(LogName.Backend).warn("Unable to deliver job list changes.", e);
+            delivered();
+        }
+    }
+
+    /**
+     * Run by the timer once the flush interval has passed.
+     */
+    private void scheduledFlush() {
+        synchronized (lock) {
+            scheduled = false;
+            //the delivery in progress will schedule the next one
+            if (delivering)
+                return;
+        }
+        flush();
+    }
+
+    /**
+     * Called once a delivery has finished. Starts the next delivery if more changes arrived,
+     * immediately if a flush was requested or the flush interval later otherwise.
+     */
+    private void delivered() {
+        boolean immediate = false;
+        synchronized (lock) {
+            delivering = false;
+            if (!pending.isEmpty()) {
+                if (flushRequested || closed)
+                    immediate = true;
+                else if (!scheduled) {
+                    scheduled = true;
+                    timer.schedule(this::scheduledFlush, flushInterval, TimeUnit.MILLISECONDS);
+                }
+            }
+            flushRequested = false;
+        }
+        if (immediate)
+            flush();
+    }
+
+    private static void deliver(List<Batch> batches) {
+        int start = 0;
+        while (start < batches.size()) {
+            List<IListChangedListener> listeners = batches.get(start).listeners;
+            int end = start + 1;
+            while (end < batches.size() && batches.get(end).listeners == listeners)
+                end++;
+            List<Change> changes = new ArrayList<>(end - start);
+            for (int i = start; i < end; i++)
+                changes.add(batches.get(i).toChange());
+            List<Change> view = Collections.unmodifiableList(changes);
+            for (IListChangedListener listener : listeners) {
+                try {
+                    listener.itemsChanged(view);
+                }
+                catch (RuntimeException e) {
+                    WISELogger.getSpecial(LogName.Backend).warn("Job list listener failed.", e);
+                }
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Deliver any remaining changes and stop scheduling deliveries.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+        }
+        flush();
+    }
+
+    /**
+     * A range of jobs that were all added to or all removed from a list.
+     */
+    public static final class Change {
+        /**
+         * True if the jobs were added, false if they were removed.
+         */
+        @Getter private final boolean added;
+        /**
+         * The index of the first job in the range.
+         */
+        @Getter private final int index;
+        /**
+         * The jobs that were added or removed, in list order.
+         */
+        @Getter private final List<Job> jobs;
+
+        Change(boolean added, int index, List<Job> jobs) {
+            this.added = added;
+            this.index = index;
+            this.jobs = jobs;
+        }
+    }
+
+    /**
+     * Changes to one list that are waiting to be delivered.
+     */
+    private static final class Batch {
+        final List<IListChangedListener> listeners;
+        final boolean added;
+        final List<Job> jobs = new ArrayList<>();
+        int index;
+
+        Batch(List<IListChangedListener> listeners, boolean added, Job job, int index) {
+            this.listeners = listeners;
+            this.added = added;
+            this.index = index;
+            jobs.add(job);
+        }
+
+        /**
+         * Try to add another change to this batch. Changes can only be merged if the
+         * result is still a single contiguous range.
+         */
+        boolean merge(boolean added, Job job, int index) {
+            if (added != this.added)
+                return false;
+            if (added) {
+                if (index < this.index || index > this.index + jobs.size())
+                    return false;
+                jobs.add(index - this.index, job);
+            }
+            //removing the job that moved into the start of the range
+            else if (index == this.index)
+                jobs.add(job);
+            //removing the job just before the range
+            else if (index == this.index - 1) {
+                jobs.add(0, job);
+                this.index = index;
+            }
+            else
+                return false;
+            return true;
+        }
+
+        Change toChange() {
+            return new Change(added, index, Collections.unmodifiableList(jobs));
+        }
+    }
+}
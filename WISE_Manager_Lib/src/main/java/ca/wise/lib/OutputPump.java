@@ -0,0 +1,128 @@
+package ca.wise.lib;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import ca.wise.lib.WISELogger.LogName;
+
+/**
+ * Drains the output of every W.I.S.E. process on a single shared thread.
+ *
+ * Process pipes can't be registered with a selector so the pump checks how
+ * many bytes are available on each pipe and only reads what won't block.
+ * The pump backs off while the processes are quiet and sleeps completely
+ * when there are no processes. The output is kept in a {@link ConsoleCapture}
+ * so the end of a jobs console output can be requested without writing it to
+ * disk.
+ */
+public final class OutputPump {
+
+    /**
+     * The delay between checks while output is being received.
+     */
+    private static final long MIN_DELAY_MILLIS = 5;
+    /**
+     * The longest delay between checks while the processes are quiet. A pipe
+     * can hold at least 4 KiB so a process would have to write faster than this
+     * before it blocks.
+     */
+    private static final long MAX_DELAY_MILLIS = 100;
+
+    private static final Queue<Source> sources = new ConcurrentLinkedQueue<>();
+    private static Thread pump = null;
+
+    private OutputPump() { }
+
+    /**
+     * Capture the output of a process. The processes stdout and stderr will be
+     * read until the process exits.
+     * @param process The process to capture the output of.
+     * @param capacity The number of bytes of each stream to keep.
+     * @return The captured output.
+     */
+    public static ConsoleCapture capture(Process process, int capacity) {
+        ConsoleCapture capture = new ConsoleCapture(capacity);
+        sources.add(new Source(process, process.getInputStream(), capture.getStdout()));
+        sources.add(new Source(process, process.getErrorStream(), capture.getStderr()));
+        startPump();
+        return capture;
+    }
+
+    private static synchronized void startPump() {
+        if (pump == null) {
+            pump = new Thread(OutputPump::run, "Output Pump");
+            pump.setDaemon(true);
+            pump.start();
+        }
+        else
+            LockSupport.unpark(pump);
+    }
+
+    private static void run() {
+        byte[] buffer = new byte[16384];
+        long delay = MIN_DELAY_MILLIS;
+        while (true) {
+            if (sources.isEmpty()) {
+                LockSupport.park(OutputPump.class);
+                delay = MIN_DELAY_MILLIS;
+                continue;
+            }
+            boolean received = false;
+            Iterator<Source> it = sources.iterator();
+            while (it.hasNext()) {
+                Source source = it.next();
+                try {
+                    int available = source.stream.available();
+                    if (available > 0) {
+                        int read = source.stream.read(buffer, 0, Math.min(available, buffer.length));
+                        if (read < 0) {
+                            it.remove();
+                            source.close();
+                        }
+                        else {
+                            source.ring.write(buffer, 0, read);
+                            received = true;
+                        }
+                    }
+                    //the pipe has been drained and nothing else will be written to it
+                    else if (!source.process.isAlive()) {
+                        it.remove();
+                        source.close();
+                    }
+                }
+                catch (IOException e) {
+                    it.remove();
+                    source.close();
+                }
+            }
+            delay = received ? MIN_DELAY_MILLIS : Math.min(MAX_DELAY_MILLIS, delay * 2);
+            LockSupport.parkNanos(OutputPump.class, TimeUnit.MILLISECONDS.toNanos(delay));
+        }
+    }
+
+    private static final class Source {
+        final Process process;
+        final InputStream stream;
+        final ConsoleCapture.Ring ring;
+
+        Source(Process process, InputStream stream, ConsoleCapture.Ring ring) {
+            this.process = process;
+            this.stream = stream;
+            this.ring = ring;
+        }
+
+        void close() {
+            try {
+                stream.close();
+            }
+            catch (IOException e) {
+                WISELogger.getSpecial(LogName.Backend).debug("Unable to close process output", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,467 @@
+package ca.wise.lib;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import lombok.Getter;
+
+/**
+ * Reads the resource usage of processes directly from {@code /proc} on Linux.
+ *
+ * The usage of a process includes all of its descendants, which are found
+ * through the {@code children} file of each of its threads. Files are read
+ * into a single reusable buffer and parsed without creating strings so a
+ * sampler can be used to sample every running job on each update. A sampler
+ * is not thread safe.
+ *
+ * Jobs that run in their own cgroup are read from the cgroups accounting
+ * files instead, which also include processes that have already exited.
+ */
+public class ProcSampler {
+
+    /**
+     * The number of clock ticks per second used by {@code /proc/<pid>/stat}. This
+     * is fixed at 100 by the kernel ABI.
+     */
+    private static final long CLOCK_TICKS = 100;
+    private static final Path PROC = Paths.get("/proc");
+    private static final boolean supported = Files.isReadable(PROC.resolve("self/stat"));
+    private static final byte[] READ_BYTES = "read_bytes:".getBytes();
+    private static final byte[] WRITE_BYTES = "write_bytes:".getBytes();
+    private static final byte[] USAGE_USEC = "usage_usec".getBytes();
+    private static final byte[] RBYTES = "rbytes=".getBytes();
+    private static final byte[] WBYTES = "wbytes=".getBytes();
+    private static final byte[] PAGE_SIZE_KB = "kernelpagesize_kB=".getBytes();
+    private static final byte[] NUMA_ANON = "anon ".getBytes();
+    private static final byte[] NUMA_FILE_MAPPED = "file_mapped ".getBytes();
+    /**
+     * The highest number of NUMA nodes that memory locality is reported for.
+     */
+    private static final int MAX_NODES = 64;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(16384);
+    private final long pageSize;
+
+    public ProcSampler() {
+        pageSize = supported ? findPageSize() : 4096;
+    }
+
+    /**
+     * Can process usage be read from {@code /proc}.
+     */
+    public static boolean isSupported() {
+        return supported;
+    }
+
+    /**
+     * Read the usage of a process and all of its descendants.
+     * @param pid The ID of the process.
+     * @param counters The counters to store the usage in. Any existing values are replaced.
+     * @return False if the process no longer exists.
+     */
+    public boolean read(long pid, Counters counters) {
+        counters.cpuTicks = 0;
+        counters.cpuMicros = 0;
+        counters.rss = 0;
+        counters.readBytes = 0;
+        counters.writeBytes = 0;
+        counters.threads = 0;
+        boolean retval = add(pid, counters, true);
+        counters.peakRss = counters.rss;
+        return retval;
+    }
+
+    /**
+     * Read the usage of every process in a cgroup v2 cgroup.
+     * @param cgroup The directory of the cgroup.
+     * @param counters The counters to store the usage in. Any existing values are replaced.
+     * @return False if the cgroup no longer exists.
+     */
+    public boolean readCgroup(Path cgroup, Counters counters) {
+        int length = readFile(cgroup.resolve("cpu.stat"));
+        if (length <= 0)
+            return false;
+        counters.cpuTicks = 0;
+        counters.cpuMicros = findValue(USAGE_USEC, length);
+        //the memory charged to the cgroup, this includes the page cache used by the job
+        length = readFile(cgroup.resolve("memory.current"));
+        counters.rss = length > 0 ? parseLong(0, length) : 0;
+        //memory.peak was added in Linux 5.19
+        length = readFile(cgroup.resolve("memory.peak"));
+        counters.peakRss = length > 0 ? Math.max(counters.rss, parseLong(0, length)) : counters.rss;
+        //only available if the io controller is enabled, one line per device
+        length = readFile(cgroup.resolve("io.stat"));
+        counters.readBytes = length > 0 ? sumValues(RBYTES, length) : 0;
+        counters.writeBytes = length > 0 ? sumValues(WBYTES, length) : 0;
+        length = readFile(cgroup.resolve("cgroup.threads"));
+        int threads = 0;
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(i) == '\n')
+                threads++;
+        }
+        counters.threads = threads;
+        return true;
+    }
+
+    private boolean add(long pid, Counters counters, boolean root) {
+        Path dir = PROC.resolve(Long.toString(pid));
+        int length = readFile(dir.resolve("stat"));
+        if (length <= 0)
+            return false;
+        //the command name can contain spaces and parentheses so start after the last parenthesis
+        int pos = length - 1;
+        while (pos > 0 && buffer.get(pos) != ')')
+            pos--;
+        //field 3, the process state, is the first field after the command name
+        int field = 2;
+        long utime = 0, stime = 0, cutime = 0, cstime = 0, threads = 0;
+        pos++;
+        while (pos < length && field < 20) {
+            while (pos < length && buffer.get(pos) == ' ')
+                pos++;
+            field++;
+            long value = 0;
+            while (pos < length && buffer.get(pos) != ' ') {
+                byte b = buffer.get(pos++);
+                if (b >= '0' && b <= '9')
+                    value = value * 10 + (b - '0');
+            }
+            switch (field) {
+            case 14:
+                utime = value;
+                break;
+            case 15:
+                stime = value;
+                break;
+            case 16:
+                cutime = value;
+                break;
+            case 17:
+                cstime = value;
+                break;
+            case 20:
+                threads = value;
+                break;
+            }
+        }
+        counters.cpuTicks += utime + stime;
+        //descendants that have exited and been waited for are included in the roots child times
+        if (root)
+            counters.cpuTicks += cutime + cstime;
+        counters.threads += (int)threads;
+
+        length = readFile(dir.resolve("statm"));
+        if (length > 0) {
+            pos = 0;
+            while (pos < length && buffer.get(pos) != ' ')
+                pos++;
+            counters.rss += parseLong(pos + 1, length) * pageSize;
+        }
+
+        //only readable for processes owned by the same user
+        length = readFile(dir.resolve("io"));
+        if (length > 0) {
+            counters.readBytes += findValue(READ_BYTES, length);
+            counters.writeBytes += findValue(WRITE_BYTES, length);
+        }
+
+        try (DirectoryStream<Path> tasks = Files.newDirectoryStream(dir.resolve("task"))) {
+            for (Path task : tasks) {
+                length = readFile(task.resolve("children"));
+                if (length > 0) {
+                    //copy the IDs out of the buffer before it is reused by the children
+                    long[] children = parseList(length);
+                    for (long child : children)
+                        add(child, counters, false);
+                }
+            }
+        }
+        catch (IOException e) { }
+        return true;
+    }
+
+    /**
+     * Find how much of a processes mapped memory is on each NUMA node from
+     * {@code /proc/<pid>/numa_maps}. Reading the file walks the page tables of
+     * the process so it shouldn't be read on every sample.
+     * @param pid The ID of the process.
+     * @return The number of bytes on each node, or null if the locality couldn't be read.
+     */
+    public long[] readNumaMaps(long pid) {
+        long[] nodes = new long[MAX_NODES];
+        long[] pages = new long[MAX_NODES];
+        byte[] token = new byte[32];
+        int tokenLength = 0;
+        long pageKb = 4;
+        //the file has a line for every mapping so it is parsed one block at a time
+        try (FileChannel channel = FileChannel.open(PROC.resolve(Long.toString(pid)).resolve("numa_maps"), StandardOpenOption.READ)) {
+            while (true) {
+                buffer.clear();
+                int length = channel.read(buffer);
+                if (length < 0)
+                    break;
+                for (int i = 0; i < length; i++) {
+                    byte b = buffer.get(i);
+                    if (b == ' ' || b == '\n') {
+                        //N<node>=<pages>
+                        if (tokenLength > 2 && tokenLength <= token.length && token[0] == 'N' && token[1] >= '0' && token[1] <= '9') {
+                            int node = 0;
+                            int pos = 1;
+                            while (pos < tokenLength && token[pos] >= '0' && token[pos] <= '9')
+                                node = node * 10 + (token[pos++] - '0');
+                            if (pos < tokenLength && token[pos] == '=' && node < MAX_NODES)
+                                pages[node] += parseLong(token, pos + 1, tokenLength);
+                        }
+                        else if (tokenLength > PAGE_SIZE_KB.length && tokenLength <= token.length && startsWith(token, PAGE_SIZE_KB))
+                            pageKb = parseLong(token, PAGE_SIZE_KB.length, tokenLength);
+                        tokenLength = 0;
+                        //the page size is at the end of the line so the pages can be converted to bytes
+                        if (b == '\n') {
+                            for (int j = 0; j < MAX_NODES; j++) {
+                                nodes[j] += pages[j] * pageKb * 1024;
+                                pages[j] = 0;
+                            }
+                            pageKb = 4;
+                        }
+                    }
+                    else {
+                        //file names can be longer than the token buffer, they are skipped
+                        if (tokenLength < token.length)
+                            token[tokenLength] = b;
+                        tokenLength++;
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            return null;
+        }
+        return trimNodes(nodes);
+    }
+
+    /**
+     * Find how much of the memory charged to a cgroup is on each NUMA node from
+     * {@code memory.numa_stat}. Anonymous and mapped file memory is included.
+     * @param cgroup The directory of the cgroup.
+     * @return The number of bytes on each node, or null if the locality couldn't be read.
+     */
+    public long[] readCgroupNuma(Path cgroup) {
+        int length = readFile(cgroup.resolve("memory.numa_stat"));
+        if (length <= 0)
+            return null;
+        long[] nodes = new long[MAX_NODES];
+        int pos = 0;
+        while (pos < length) {
+            boolean match = matches(NUMA_ANON, pos, length) || matches(NUMA_FILE_MAPPED, pos, length);
+            while (pos < length && buffer.get(pos) != '\n') {
+                //N<node>=<bytes>
+                if (match && pos > 0 && buffer.get(pos) == 'N' && buffer.get(pos - 1) == ' ') {
+                    int node = (int)parseLong(pos + 1, length);
+                    while (pos < length && buffer.get(pos) != '=' && buffer.get(pos) != '\n')
+                        pos++;
+                    if (pos < length && buffer.get(pos) == '=' && node < MAX_NODES)
+                        nodes[node] += parseLong(pos + 1, length);
+                }
+                else
+                    pos++;
+            }
+            pos++;
+        }
+        return trimNodes(nodes);
+    }
+
+    private boolean matches(byte[] key, int pos, int length) {
+        if (pos + key.length > length)
+            return false;
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(pos + i) != key[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] value, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (value[i] != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static long parseLong(byte[] value, int pos, int length) {
+        long retval = 0;
+        while (pos < length && value[pos] >= '0' && value[pos] <= '9')
+            retval = retval * 10 + (value[pos++] - '0');
+        return retval;
+    }
+
+    /**
+     * Remove the nodes after the last node that has memory.
+     */
+    private static long[] trimNodes(long[] nodes) {
+        int count = nodes.length;
+        while (count > 1 && nodes[count - 1] == 0)
+            count--;
+        return Arrays.copyOf(nodes, count);
+    }
+
+    /**
+     * Read a file into the buffer.
+     * @return The number of bytes read, or -1 if the file couldn't be read.
+     */
+    private int readFile(Path path) {
+        buffer.clear();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) { }
+            return buffer.position();
+        }
+        //the process has exited or the file isn't readable
+        catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private long parseLong(int pos, int length) {
+        long value = 0;
+        while (pos < length) {
+            byte b = buffer.get(pos++);
+            if (b < '0' || b > '9')
+                break;
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Find the value of a {@code key: value} line in the buffer.
+     */
+    private long findValue(byte[] key, int length) {
+        for (int i = 0; i + key.length < length; i++) {
+            boolean match = i == 0 || buffer.get(i - 1) == '\n';
+            for (int j = 0; match && j < key.length; j++)
+                match = buffer.get(i + j) == key[j];
+            if (match) {
+                int pos = i + key.length;
+                while (pos < length && buffer.get(pos) == ' ')
+                    pos++;
+                return parseLong(pos, length);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Add the values of every {@code key=value} pair with the given key in the buffer.
+     */
+    private long sumValues(byte[] key, int length) {
+        long retval = 0;
+        for (int i = 0; i + key.length < length; i++) {
+            boolean match = i == 0 || buffer.get(i - 1) == ' ' || buffer.get(i - 1) == '\n';
+            for (int j = 0; match && j < key.length; j++)
+                match = buffer.get(i + j) == key[j];
+            if (match)
+                retval += parseLong(i + key.length, length);
+        }
+        return retval;
+    }
+
+    /**
+     * Parse a space separated list of numbers from the buffer.
+     */
+    private long[] parseList(int length) {
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(i) >= '0' && buffer.get(i) <= '9' && (i == 0 || buffer.get(i - 1) == ' '))
+                count++;
+        }
+        long[] retval = new long[count];
+        int index = 0;
+        int pos = 0;
+        while (pos < length && index < count) {
+            while (pos < length && (buffer.get(pos) < '0' || buffer.get(pos) > '9'))
+                pos++;
+            retval[index++] = parseLong(pos, length);
+            while (pos < length && buffer.get(pos) >= '0' && buffer.get(pos) <= '9')
+                pos++;
+        }
+        return retval;
+    }
+
+    /**
+     * Find the size of a memory page by comparing the resident pages and resident
+     * kilobytes of this process.
+     */
+    private long findPageSize() {
+        try {
+            long pages = 0;
+            int length = readFile(PROC.resolve("self/statm"));
+            if (length > 0) {
+                int pos = 0;
+                while (pos < length && buffer.get(pos) != ' ')
+                    pos++;
+                pages = parseLong(pos + 1, length);
+            }
+            long kb = 0;
+            for (String line : Files.readAllLines(PROC.resolve("self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    kb = Long.parseLong(line.substring(6).replace("kB", "").trim());
+                    break;
+                }
+            }
+            if (pages > 0 && kb > 0) {
+                long size = kb * 1024 / pages;
+                //the counts are read at slightly different times so round to a power of two
+                long page = 4096;
+                while (page * 2 <= size + size / 4)
+                    page *= 2;
+                return page;
+            }
+        }
+        catch (IOException | NumberFormatException e) { }
+        return 4096;
+    }
+
+    /**
+     * The usage of a process tree.
+     */
+    public static final class Counters {
+        //the CPU time from /proc is in clock ticks and from a cgroup is in microseconds
+        private long cpuTicks;
+        private long cpuMicros;
+        /**
+         * The resident memory in bytes.
+         */
+        @Getter private long rss;
+        /**
+         * The highest resident memory in bytes. Only tracked between samples for cgroups,
+         * otherwise it is the same as {@link #rss}.
+         */
+        @Getter private long peakRss;
+        /**
+         * The number of bytes read from storage.
+         */
+        @Getter private long readBytes;
+        /**
+         * The number of bytes written to storage.
+         */
+        @Getter private long writeBytes;
+        /**
+         * The number of threads.
+         */
+        @Getter private int threads;
+
+        /**
+         * The user and kernel CPU time in milliseconds.
+         */
+        public long getCpuMillis() {
+            return cpuTicks * 1000 / CLOCK_TICKS + cpuMicros / 1000;
+        }
+    }
+}
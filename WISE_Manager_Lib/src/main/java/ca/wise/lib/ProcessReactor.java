@@ -0,0 +1,140 @@
+package ca.wise.lib;
+
+import java.lang.reflect.Method;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import ca.wise.lib.WISELogger.LogName;
+
+/**
+ * Notifies listeners when processes exit without using a thread for each process.
+ *
+ * On Java 9 and newer {@code Process.onExit()} is used, which is backed by the
+ * JDK's process reaper and completes as soon as the process exits. It is looked
+ * up by reflection because the manager still targets Java 8. On Java 8 all
+ * watched processes are checked by a single shared thread that sleeps while
+ * there is nothing to watch.
+ *
+ * The exit time is recorded when the exit is detected and listeners are called
+ * on a separate thread so a slow listener can't delay other exits.
+ */
+public final class ProcessReactor {
+
+    /**
+     * How often the shared thread checks for exited processes on Java 8.
+     */
+    private static final long POLL_MILLIS = 20;
+
+    private static final Method onExit = findOnExit();
+    private static final ExecutorService callbacks = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "Process Exit");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Queue<Watch> watched = new ConcurrentLinkedQueue<>();
+    private static Thread poller = null;
+
+    private ProcessReactor() { }
+
+    private static Method findOnExit() {
+        try {
+            return Process.class.getMethod("onExit");
+        }
+        catch (NoSuchMethodException | SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Call a listener when a process exits. If the process has already exited the
+     * listener will be called immediately.
+     * @param process The process to watch.
+     * @param listener Called once after the process exits.
+     */
+    public static void watch(Process process, IProcessExitListener listener) {
+        if (onExit != null) {
+            try {
+                CompletableFuture<?> future = (CompletableFuture<?>)onExit.invoke(process);
+                future.whenComplete((p, e) -> exited(process, listener, LocalDateTime.now()));
+                return;
+            }
+            catch (ReflectiveOperationException | RuntimeException e) {
+                WISELogger.getSpecial(LogName.Backend).debug("Unable to use Process.onExit, falling back to polling", e);
+            }
+        }
+        watched.add(new Watch(process, listener));
+        startPoller();
+    }
+
+    private static synchronized void startPoller() {
+        if (poller == null) {
+            poller = new Thread(ProcessReactor::poll, "Process Reactor");
+            poller.setDaemon(true);
+            poller.start();
+        }
+        else
+            LockSupport.unpark(poller);
+    }
+
+    private static void poll() {
+        while (true) {
+            //park until a process is added, a permit is left by unpark if one was added since the check
+            if (watched.isEmpty()) {
+                LockSupport.park(ProcessReactor.class);
+                continue;
+            }
+            LocalDateTime now = LocalDateTime.now();
+            Iterator<Watch> it = watched.iterator();
+            while (it.hasNext()) {
+                Watch watch = it.next();
+                if (!watch.process.isAlive()) {
+                    it.remove();
+                    exited(watch.process, watch.listener, now);
+                }
+            }
+            LockSupport.parkNanos(ProcessReactor.class, TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS));
+        }
+    }
+
+    private static void exited(Process process, IProcessExitListener listener, LocalDateTime time) {
+        callbacks.execute(() -> {
+            try {
+                listener.onProcessExit(process, time);
+            }
+            catch (RuntimeException e) {
+                WISELogger.getSpecial(LogName.Backend).error("Process exit listener failed.", e);
+            }
+        });
+    }
+
+    private static final class Watch {
+        final Process process;
+        final IProcessExitListener listener;
+
+        Watch(Process process, IProcessExitListener listener) {
+            this.process = process;
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * Listen for a process to exit.
+     */
+    @FunctionalInterface
+    public static interface IProcessExitListener {
+
+        /**
+         * The process has exited.
+         * @param process The process that exited.
+         * @param exitTime The time that the exit was detected.
+         */
+        void onProcessExit(Process process, LocalDateTime exitTime);
+    }
+}
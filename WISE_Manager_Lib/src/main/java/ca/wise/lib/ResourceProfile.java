@@ -0,0 +1,225 @@
+package ca.wise.lib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+
+import ca.wise.lib.json.ResourceUsage;
+
+/**
+ * The resources used by a job over the course of a run.
+ *
+ * Totals and peaks are updated with every usage sample. The CPU and memory
+ * curve is downsampled as the job runs so it never has more than
+ * {@link #MAX_POINTS} points: when the curve is full adjacent points are
+ * merged and each new point covers twice as many samples. The profile is
+ * stored in a small binary file in the job folder when the job completes.
+ *
+ * Updates should only be made from one thread at a time.
+ */
+public class ResourceProfile {
+
+    /**
+     * The name of the file the profile is stored in, in the job folder.
+     */
+    public static final String FILE_NAME = "resources.bin";
+    /**
+     * The maximum number of points in the CPU and memory curve.
+     */
+    public static final int MAX_POINTS = 64;
+    private static final int MAGIC = 0x57525346;
+    private static final int VERSION = 1;
+
+    private long wallMillis;
+    private long cpuMillis;
+    private long peakRss;
+    private int peakThreads;
+    private long readBytes;
+    private long writeBytes;
+    private int cpuCount;
+
+    //the downsampled curve, the time of each point is the offset of its last sample from the start of the job
+    private final int[] pointTime = new int[MAX_POINTS];
+    private final float[] pointCpu = new float[MAX_POINTS];
+    private final long[] pointRss = new long[MAX_POINTS];
+    private int points = 0;
+    /**
+     * The number of samples in each point.
+     */
+    private int stride = 1;
+    //the samples that haven't been added to a point yet
+    private int pending = 0;
+    private double pendingCpu = 0;
+    private long pendingRss = 0;
+
+    /**
+     * Create a new profile.
+     * @param cpuCount The number of processors used to scale CPU usage.
+     */
+    public ResourceProfile(int cpuCount) {
+        this.cpuCount = cpuCount;
+    }
+
+    /**
+     * Add a usage sample.
+     * @param elapsed The time since the job started in milliseconds.
+     * @param cpu The CPU usage since the last sample as a percentage of all processors.
+     * @param cpuTime The total CPU time used by the job in milliseconds.
+     * @param rss The resident memory in bytes.
+     * @param read The total number of bytes read from storage.
+     * @param write The total number of bytes written to storage.
+     * @param threads The number of threads.
+     */
+    public void record(long elapsed, double cpu, long cpuTime, long rss, long read, long write, int threads) {
+        wallMillis = Math.max(wallMillis, elapsed);
+        cpuMillis = Math.max(cpuMillis, cpuTime);
+        peakRss = Math.max(peakRss, rss);
+        peakThreads = Math.max(peakThreads, threads);
+        readBytes = Math.max(readBytes, read);
+        writeBytes = Math.max(writeBytes, write);
+
+        pending++;
+        pendingCpu += cpu;
+        pendingRss = Math.max(pendingRss, rss);
+        if (pending >= stride)
+            flush();
+    }
+
+    /**
+     * Update the peak memory from a source that tracks it between samples.
+     * @param rss The highest resident memory in bytes.
+     */
+    public void recordPeak(long rss) {
+        peakRss = Math.max(peakRss, rss);
+    }
+
+    /**
+     * Mark the end of the run.
+     * @param elapsed The total time the job ran for in milliseconds.
+     */
+    public void finish(long elapsed) {
+        wallMillis = Math.max(wallMillis, elapsed);
+        if (pending > 0)
+            flush();
+    }
+
+    private void flush() {
+        if (points == MAX_POINTS) {
+            //merge pairs of points, the CPU is the mean and the memory is the peak
+            for (int i = 0; i < MAX_POINTS / 2; i++) {
+                pointTime[i] = pointTime[i * 2 + 1];
+                pointCpu[i] = (pointCpu[i * 2] + pointCpu[i * 2 + 1]) / 2;
+                pointRss[i] = Math.max(pointRss[i * 2], pointRss[i * 2 + 1]);
+            }
+            points = MAX_POINTS / 2;
+            stride *= 2;
+        }
+        pointTime[points] = (int)Math.min(Integer.MAX_VALUE, wallMillis / 1000);
+        pointCpu[points] = (float)(pendingCpu / pending);
+        pointRss[points] = pendingRss;
+        points++;
+        pending = 0;
+        pendingCpu = 0;
+        pendingRss = 0;
+    }
+
+    /**
+     * The mean CPU usage over the whole run as a percentage of all processors.
+     */
+    public double getMeanCpu() {
+        if (wallMillis <= 0 || cpuCount <= 0)
+            return 0;
+        return 100d * cpuMillis / ((double)wallMillis * cpuCount);
+    }
+
+    /**
+     * Convert the profile to the form that is sent to clients.
+     * @param curve Should the CPU and memory curve be included.
+     */
+    public ResourceUsage toUsage(boolean curve) {
+        ResourceUsage retval = new ResourceUsage();
+        retval.wallSeconds = wallMillis / 1000d;
+        retval.cpuSeconds = cpuMillis / 1000d;
+        retval.meanCpu = getMeanCpu();
+        retval.cpuCount = cpuCount;
+        retval.peakRss = peakRss;
+        retval.peakThreads = peakThreads;
+        retval.readBytes = readBytes;
+        retval.writeBytes = writeBytes;
+        if (curve) {
+            retval.curve = new ArrayList<>(points);
+            for (int i = 0; i < points; i++)
+                retval.curve.add(new double[] { pointTime[i], pointCpu[i], pointRss[i] });
+        }
+        return retval;
+    }
+
+    /**
+     * Save the profile to a file. The file is replaced atomically.
+     */
+    public void write(Path path) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName().toString() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(wallMillis);
+            out.writeLong(cpuMillis);
+            out.writeLong(peakRss);
+            out.writeInt(peakThreads);
+            out.writeLong(readBytes);
+            out.writeLong(writeBytes);
+            out.writeInt(cpuCount);
+            out.writeInt(stride);
+            out.writeInt(points);
+            for (int i = 0; i < points; i++) {
+                out.writeInt(pointTime[i]);
+                out.writeFloat(pointCpu[i]);
+                out.writeLong(pointRss[i]);
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Load a profile from a file.
+     * @return The profile, or null if the file doesn't exist or isn't a profile.
+     */
+    public static ResourceProfile read(Path path) throws IOException {
+        if (!Files.exists(path))
+            return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return null;
+            long wall = in.readLong();
+            long cpu = in.readLong();
+            long rss = in.readLong();
+            int threads = in.readInt();
+            long read = in.readLong();
+            long write = in.readLong();
+            ResourceProfile retval = new ResourceProfile(in.readInt());
+            retval.wallMillis = wall;
+            retval.cpuMillis = cpu;
+            retval.peakRss = rss;
+            retval.peakThreads = threads;
+            retval.readBytes = read;
+            retval.writeBytes = write;
+            retval.stride = in.readInt();
+            int count = in.readInt();
+            if (count < 0 || count > MAX_POINTS)
+                return null;
+            for (int i = 0; i < count; i++) {
+                retval.pointTime[i] = in.readInt();
+                retval.pointCpu[i] = in.readFloat();
+                retval.pointRss[i] = in.readLong();
+            }
+            retval.points = count;
+            return retval;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package ca.wise.lib;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import ca.hss.platform.OperatingSystem;
+import ca.wise.lib.Job.JobStage;
+import ca.wise.lib.WISELogger.LogName;
+import ca.wise.lib.archive.ArchiveFormat;
+import ca.wise.lib.json.RetentionPolicy;
+import ca.wise.lib.json.RetentionSummary;
+
+/**
+ * Removes old finished jobs from the job directory using a {@link RetentionPolicy}.
+ *
+ * The job directory is swept incrementally. Each pass measures the size of a
+ * limited number of job folders and archives or deletes a limited number of
+ * jobs, then the next pass is scheduled after a short delay until there is
+ * nothing left to do. Folder sizes are cached so that later sweeps only need
+ * to measure new jobs. The sweeps run on a single low priority thread that,
+ * on Linux, also uses the idle I/O scheduling class so that retention doesn't
+ * compete with running jobs for the disk.
+ */
+public class RetentionEngine implements Closeable {
+
+    /**
+     * The maximum number of job folders to measure in each pass.
+     */
+    private static final int SIZES_PER_PASS = 50;
+    /**
+     * The delay between passes while a sweep still has work to do.
+     */
+    private static final long PASS_DELAY_SECONDS = 5;
+
+    private final JobLists jobs;
+    private final RetentionPolicy policy;
+    private final Map<JobStage, Integer> keepLast = new EnumMap<>(JobStage.class);
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "Job Retention");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private final List<IRetentionListener> listeners = new CopyOnWriteArrayList<>();
+    /**
+     * The cached size of each finished job folder.
+     */
+    private final Map<String, FolderSize> sizes = new HashMap<>();
+    /**
+     * The summary of the sweep that is in progress.
+     */
+    private RetentionSummary summary = null;
+    private volatile boolean closed = false;
+
+    /**
+     * Create a new retention engine.
+     * @param jobs The job lists to remove jobs from.
+     * @param policy The rules for which jobs to remove.
+     */
+    RetentionEngine(JobLists jobs, RetentionPolicy policy) {
+        this.jobs = jobs;
+        this.policy = policy;
+        if (policy.keepLast != null) {
+            policy.keepLast.forEach((name, count) -> {
+                for (JobStage stage : JobStage.values()) {
+                    if (stage.name().equalsIgnoreCase(name) && count != null)
+                        keepLast.put(stage, count);
+                }
+            });
+        }
+    }
+
+    public void addRetentionListener(IRetentionListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeRetentionListener(IRetentionListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Start sweeping the job directory.
+     * @param delay The delay before the first sweep, in seconds.
+     */
+    public void start(long delay) {
+        executor.execute(RetentionEngine::lowerIoPriority);
+        executor.schedule(this::pass, delay, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Move the current thread to the idle I/O scheduling class. Only supported on Linux.
+     */
+    private static void lowerIoPriority() {
+        if (OperatingSystem.getOperatingSystem().getType() != OperatingSystem.Type.Linux)
+            return;
+        try {
+            //the link target is <pid>/task/<tid>
+            Path self = Files.readSymbolicLink(Paths.get("/proc/thread-self"));
+            String tid = self.getFileName().toString();
+            new ProcessBuilder("ionice", "-c", "3", "-p", tid)
+                .redirectErrorStream(true)
+                .redirectOutput(new File("/dev/null"))
+                .start()
+                .waitFor(10, TimeUnit.SECONDS);
+        }
+        catch (IOException | UnsupportedOperationException e) {
+            WISELogger.getSpecial(LogName.Backend).debug("Unable to lower the I/O priority of the retention thread", e);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Run a single pass of the current sweep and schedule the next pass.
+     */
+    private void pass() {
+        if (closed)
+            return;
+        boolean more = false;
+        try {
+            more = sweep();
+        }
+        catch (RuntimeException e) {
+            WISELogger.getSpecial(LogName.Backend).error("Job retention failed", e);
+        }
+        if (!closed) {
+            if (more)
+                executor.schedule(this::pass, PASS_DELAY_SECONDS, TimeUnit.SECONDS);
+            else
+                executor.schedule(this::pass, Math.max(1, policy.intervalMinutes), TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Do a limited amount of retention work.
+     * @return True if there is more work to do in the current sweep.
+     */
+    private boolean sweep() {
+        if (summary == null) {
+            summary = new RetentionSummary();
+            summary.startTime = JobHistoryQuery.formatTime(LocalDateTime.now());
+        }
+        //the most recently completed job is first, records are used so the jobs aren't loaded
+        List<JobCatalog.Entry> finished = jobs.getFinishedRecords();
+
+        //keep the most recent jobs of each status
+        Set<String> names = new HashSet<>();
+        Set<String> keep = new HashSet<>();
+        Map<JobStage, Integer> kept = new EnumMap<>(JobStage.class);
+        for (JobCatalog.Entry job : finished) {
+            names.add(job.getName());
+            int limit = keepLast.getOrDefault(job.getStage(), 0);
+            int count = kept.getOrDefault(job.getStage(), 0);
+            if (count < limit) {
+                keep.add(job.getName());
+                kept.put(job.getStage(), count + 1);
+            }
+        }
+        //forget the size of jobs that no longer exist or have been rerun
+        sizes.keySet().retainAll(names);
+
+        //measure the oldest jobs first, they are the first to be removed when the directory is too large
+        int measured = 0;
+        boolean unmeasured = false;
+        long knownTotal = 0;
+        for (int i = finished.size() - 1; i >= 0; i--) {
+            JobCatalog.Entry job = finished.get(i);
+            FolderSize size = sizes.get(job.getName());
+            if (size == null || !size.matches(job)) {
+                if (measured >= SIZES_PER_PASS) {
+                    unmeasured = true;
+                    continue;
+                }
+                size = new FolderSize(job, JobLists.directorySize(folder(job)));
+                sizes.put(job.getName(), size);
+                measured++;
+            }
+            knownTotal += size.bytes;
+        }
+
+        LocalDateTime cutoff = policy.maxAgeDays == null ? null : LocalDateTime.now().minusDays(policy.maxAgeDays);
+        long maxBytes = policy.getMaxTotalBytes();
+        List<JobCatalog.Entry> remove = new ArrayList<>();
+        long remaining = knownTotal;
+        for (int i = finished.size() - 1; i >= 0 && remove.size() < policy.batchSize; i--) {
+            JobCatalog.Entry job = finished.get(i);
+            if (keep.contains(job.getName()) || job.getStage() == JobStage.Running)
+                continue;
+            LocalDateTime time = job.getEnd() != null ? job.getEnd() : job.getSubmitted();
+            FolderSize size = sizes.get(job.getName());
+            if (size != null && !size.matches(job))
+                size = null;
+            //the known total is a lower bound of the real total so it is safe to remove jobs while it is too large
+            if ((cutoff != null && time != null && time.isBefore(cutoff)) ||
+                    (maxBytes >= 0 && size != null && remaining > maxBytes)) {
+                remove.add(job);
+                if (size != null)
+                    remaining -= size.bytes;
+            }
+        }
+
+        int removed = 0;
+        for (JobCatalog.Entry job : remove) {
+            if (closed)
+                return false;
+            if (remove(job))
+                removed++;
+        }
+
+        boolean more = unmeasured || removed >= policy.batchSize;
+        if (!more) {
+            summary.endTime = JobHistoryQuery.formatTime(LocalDateTime.now());
+            summary.finishedJobs = finished.size() - removed;
+            summary.totalBytes = 0;
+            for (FolderSize size : sizes.values())
+                summary.totalBytes += size.bytes;
+            RetentionSummary complete = summary;
+            summary = null;
+            listeners.forEach(l -> l.onRetentionSweep(complete));
+        }
+        return more;
+    }
+
+    /**
+     * Archive or delete a single job.
+     * @return True if the job was removed from the job directory.
+     */
+    private boolean remove(JobCatalog.Entry job) {
+        String name = job.getName();
+        FolderSize size = sizes.remove(name);
+        long before = size == null || !size.matches(job) ? JobLists.directorySize(folder(job)) : size.bytes;
+        boolean success;
+        Path archive = null;
+        if (policy.isArchive()) {
+            ArchiveFormat format;
+            if ("tar".equalsIgnoreCase(policy.archiveFormat))
+                format = ArchiveFormat.Tar;
+            else if ("tar.gz".equalsIgnoreCase(policy.archiveFormat))
+                format = ArchiveFormat.TarGz;
+            else
+                format = ArchiveFormat.Zip;
+            success = jobs.archiveFinishedJob(name, format, true);
+            archive = JobLists.archivePath(name, format);
+        }
+        else
+            success = jobs.deleteFinishedJob(name);
+
+        if (success) {
+            long freed = before;
+            if (archive != null) {
+                summary.archived++;
+                try {
+                    freed -= Files.size(archive);
+                }
+                catch (IOException e) { }
+            }
+            else
+                summary.deleted++;
+            summary.bytesFreed += freed;
+        }
+        else {
+            summary.failed++;
+            WISELogger.getSpecial(LogName.Backend).warn("Unable to remove job " + name + " for retention");
+        }
+        return success;
+    }
+
+    /**
+     * The folder that a job is stored in.
+     */
+    private Path folder(JobCatalog.Entry job) {
+        return jobs.getJobDirectory().resolve(job.getName());
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+    }
+
+    /**
+     * The size of a job folder. The completion time of the job is stored
+     * so that jobs that have been rerun will be measured again.
+     */
+    private static final class FolderSize {
+        final LocalDateTime end;
+        final long bytes;
+
+        FolderSize(JobCatalog.Entry job, long bytes) {
+            this.end = job.getEnd();
+            this.bytes = bytes;
+        }
+
+        boolean matches(JobCatalog.Entry job) {
+            return end == null ? job.getEnd() == null : end.equals(job.getEnd());
+        }
+    }
+
+    /**
+     * Listen for completed retention sweeps.
+     */
+    @FunctionalInterface
+    public static interface IRetentionListener {
+
+        /**
+         * A retention sweep has completed.
+         * @param summary The work done during the sweep.
+         */
+        void onRetentionSweep(RetentionSummary summary);
+    }
+}
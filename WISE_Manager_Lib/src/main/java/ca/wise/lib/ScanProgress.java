@@ -0,0 +1,89 @@
+package ca.wise.lib;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Getter;
+
+/**
+ * The progress of loading jobs from the job directory.
+ */
+public class ScanProgress {
+
+    /**
+     * The minimum time between progress reports.
+     */
+    private static final long REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(2);
+
+    /**
+     * The total number of job folders that will be loaded.
+     */
+    @Getter private final int total;
+    private final AtomicInteger scanned = new AtomicInteger();
+    private final long startTime = System.nanoTime();
+    private final AtomicLong lastReport = new AtomicLong(startTime);
+    private volatile long endTime;
+    private volatile boolean complete = false;
+
+    public ScanProgress(int total) {
+        this.total = total;
+    }
+
+    /**
+     * The number of job folders that have been loaded.
+     */
+    public int getScanned() {
+        return scanned.get();
+    }
+
+    /**
+     * The number of job folders that have not been loaded yet.
+     */
+    public int getRemaining() {
+        return Math.max(0, total - scanned.get());
+    }
+
+    /**
+     * Has loading finished.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * The average number of folders loaded per second.
+     */
+    public double getFoldersPerSecond() {
+        //nanoTime can be negative so it can't mark whether loading has finished
+        long end = complete ? endTime : System.nanoTime();
+        long elapsed = end - startTime;
+        if (elapsed <= 0)
+            return 0;
+        return scanned.get() / (elapsed / 1e9);
+    }
+
+    void folderScanned() {
+        scanned.incrementAndGet();
+    }
+
+    void complete() {
+        endTime = System.nanoTime();
+        complete = true;
+    }
+
+    /**
+     * Should the progress be reported. Only one thread will be told to report
+     * the progress each reporting interval.
+     * @param force Report even if the reporting interval hasn't passed.
+     */
+    boolean shouldReport(boolean force) {
+        long now = System.nanoTime();
+        long last = lastReport.get();
+        if (force) {
+            lastReport.set(now);
+            return true;
+        }
+        return (now - last) >= REPORT_INTERVAL && lastReport.compareAndSet(last, now);
+    }
+}
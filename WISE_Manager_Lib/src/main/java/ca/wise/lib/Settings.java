@@ -16,10 +16,15 @@ import java.nio.file.attribute.DosFileAttributeView;
 import java.time.Instant;
 import java.util.prefs.Preferences;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Strings;
 import com.google.protobuf.BoolValue;
+import com.google.protobuf.Descriptors.FieldDescriptor;
 import com.google.protobuf.Int32Value;
 import com.google.protobuf.StringValue;
 import com.google.protobuf.util.JsonFormat;
@@ -28,6 +33,10 @@ import ca.wise.config.proto.ServerConfiguration;
 import ca.wise.config.proto.ServerConfiguration.OutputType;
 import ca.wise.config.proto.ServerConfiguration.Verbosity;
 import ca.hss.platform.OperatingSystem;
+import ca.wise.lib.WISELogger.LogName;
+import ca.wise.lib.json.CgroupPolicy;
+import ca.wise.lib.json.RetentionPolicy;
+import ca.wise.lib.linux.MemoryPolicyLinux;
 import ca.wise.lib.windows.Registry;
 
 /**
@@ -36,7 +45,7 @@ import ca.wise.lib.windows.Registry;
  */
 public class Settings {
 
-	private static ISettings settings;
+	private static JobFolderSettings settings;
 	
 	private static Integer _processes = null;
 	private static Integer _skipProcesses = null;
@@ -60,6 +69,14 @@ public class Settings {
 	private static Integer _builderMaxBufferSize = null;
 	private static Instant _lastImport = null;
     private static Boolean _enableShmem = null;
+    private static Integer _archiveThreads = null;
+    private static Integer _consoleTail = null;
+    private static MemoryPolicyLinux.Mode _numaMemory = null;
+    private static Boolean _useHyperthreads = null;
+    private static RetentionPolicy _retention = null;
+    private static boolean _retentionLoaded = false;
+    private static CgroupPolicy _cgroup = null;
+    private static boolean _cgroupLoaded = false;
 	
 	private static Boolean _rpcEnabled = null;
 	private static String _rpcAddress = null;
@@ -659,6 +676,75 @@ public class Settings {
         settings.setRespectShmem(value);
     }
 	
+    /**
+     * Get the number of threads to use when compressing job archives. Can be set
+     * with the {@code wise.archive.threads} system property, defaults to half of
+     * the available processors.
+     */
+    public static int getArchiveThreads() {
+        if (_archiveThreads == null)
+            _archiveThreads = Math.max(1, Integer.getInteger("wise.archive.threads", Runtime.getRuntime().availableProcessors() / 2));
+        return _archiveThreads;
+    }
+    
+    /**
+     * Get the number of bytes of each jobs stdout and stderr to keep in memory. Can be
+     * set in kilobytes with the {@code wise.console.tail} system property, defaults to 16 KiB.
+     */
+    public static int getConsoleTailSize() {
+        if (_consoleTail == null)
+            _consoleTail = Math.max(1, Integer.getInteger("wise.console.tail", 16)) * 1024;
+        return _consoleTail;
+    }
+    
+    /**
+     * Get how the memory of jobs that are locked to a NUMA node should be placed on
+     * the node. Can be set to none, preferred, or bind with the {@code wise.numa.memory}
+     * system property, defaults to preferred.
+     */
+    public static MemoryPolicyLinux.Mode getNumaMemoryPolicy() {
+        if (_numaMemory == null)
+            _numaMemory = MemoryPolicyLinux.Mode.fromString(System.getProperty("wise.numa.memory"), MemoryPolicyLinux.Mode.Preferred);
+        return _numaMemory;
+    }
+    
+    /**
+     * Get whether jobs run on every hyperthread of the cores in their block by default
+     * or only one thread per core. Can be set with the {@code wise.hyperthreads} system
+     * property, defaults to true.
+     */
+    public static boolean getUseHyperthreads() {
+        if (_useHyperthreads == null)
+            _useHyperthreads = Boolean.parseBoolean(System.getProperty("wise.hyperthreads", "true"));
+        return _useHyperthreads;
+    }
+    
+    /**
+     * Get the job retention policy from the {@code retention} block of config.json
+     * in the job directory.
+     * @return The retention policy, or null if no policy has been configured.
+     */
+    public static RetentionPolicy getRetentionPolicy() {
+        if (!_retentionLoaded) {
+            _retentionLoaded = true;
+            _retention = settings.getExtra("retention", RetentionPolicy.class);
+        }
+        return _retention;
+    }
+    
+    /**
+     * Get the rules for running jobs in their own cgroup from the {@code cgroup} block
+     * of config.json in the job directory.
+     * @return The cgroup policy, or null if jobs shouldn't be run in their own cgroup.
+     */
+    public static CgroupPolicy getCgroupPolicy() {
+        if (!_cgroupLoaded) {
+            _cgroupLoaded = true;
+            _cgroup = settings.getExtra("cgroup", CgroupPolicy.class);
+        }
+        return _cgroup;
+    }
+	
 	/**
 	 * Get the last time that the settings file was imported.
 	 */
@@ -2068,6 +2154,11 @@ public class Settings {
         private ServerConfiguration.Builder config;
         private boolean lock = false;
         private boolean loadValid = false;
+        /**
+         * Top level blocks in config.json that aren't part of the server configuration,
+         * ex. {@code retention}. They are written back when the configuration is saved.
+         */
+        private ObjectNode extra = null;
         
         protected JobFolderSettings(ISettings core) {
             coreSettings = core;
@@ -2079,7 +2170,16 @@ public class Settings {
                 mapper.enable(DeserializationFeature.FAIL_ON_TRAILING_TOKENS);
                 //don't fail if properties that aren't known by manager exist
                 mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
-                mapper.readTree(text);
+                JsonNode tree = mapper.readTree(text);
+                if (tree != null && tree.isObject()) {
+                    tree.fieldNames().forEachRemaining(name -> {
+                        if (!isConfigurationField(name)) {
+                            if (extra == null)
+                                extra = mapper.createObjectNode();
+                            extra.set(name, tree.get(name));
+                        }
+                    });
+                }
 
                 config = ServerConfiguration.newBuilder();
                 
@@ -2097,6 +2197,36 @@ public class Settings {
                 makeV2();
         }
 
+        /**
+         * Read a top level block of config.json that isn't part of the server configuration.
+         * @param name The name of the block.
+         * @param type The type to read the block as.
+         * @return The block, or null if it isn't in config.json or isn't valid.
+         */
+        public <T> T getExtra(String name, Class<T> type) {
+            JsonNode node = extra == null ? null : extra.get(name);
+            if (node == null || !node.isObject())
+                return null;
+            try {
+                return new ObjectMapper().treeToValue(node, type);
+            }
+            catch (JsonProcessingException e) {
+                WISELogger.getSpecial(LogName.Backend).warn("Unable to read the " + name + " block of config.json", e);
+                return null;
+            }
+        }
+
+        /**
+         * Is a property name in config.json part of the server configuration.
+         */
+        private static boolean isConfigurationField(String name) {
+            for (FieldDescriptor field : ServerConfiguration.getDescriptor().getFields()) {
+                if (field.getName().equals(name) || field.getJsonName().equals(name))
+                    return true;
+            }
+            return false;
+        }
+
         /**
          * Get the default server configuration settings.
          * @param jobDirectory The job directory.
@@ -2885,8 +3015,17 @@ public class Settings {
         private void save() {
             if (!lock) {
                 try (FileWriter writer = new FileWriter(coreSettings.getJobDirectory() + "/config.json")) {
-                    writer.write(JsonFormat.printer()
-                        .print(config));
+                    String text = JsonFormat.printer()
+                        .print(config);
+                    //keep blocks that manager doesn't use as part of the server configuration
+                    if (extra != null) {
+                        ObjectMapper mapper = new ObjectMapper();
+                        mapper.enable(SerializationFeature.INDENT_OUTPUT);
+                        ObjectNode tree = (ObjectNode)mapper.readTree(text);
+                        tree.setAll(extra);
+                        text = mapper.writeValueAsString(tree);
+                    }
+                    writer.write(text);
                 }
                 catch (IOException e) {
                     e.printStackTrace();
@@ -0,0 +1,195 @@
+package ca.wise.lib;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import ca.wise.lib.WISELogger.LogName;
+
+/**
+ * Deletes folders from the job directory without blocking the caller.
+ *
+ * Folders are renamed into a trash folder, which is a single atomic
+ * operation, and the renamed tree is then deleted in the background by
+ * a small pool of low priority threads. Each directory in the tree is a
+ * separate task and its files are deleted in batches so large output
+ * folders are removed in parallel. Anything left in the trash folder,
+ * for example if the manager exited before a purge completed, is
+ * purged again by {@link #resume()}.
+ */
+public class TrashPurger implements Closeable {
+
+    /**
+     * The name of the trash folder in the job directory.
+     */
+    public static final String TRASH_FOLDER = ".trash";
+    /**
+     * The maximum number of threads used to delete files.
+     */
+    private static final int MAX_PURGE_THREADS = 4;
+    /**
+     * The number of files that a single task will delete.
+     */
+    private static final int PURGE_BATCH_SIZE = 256;
+
+    private final Path trash;
+    private final ForkJoinPool pool;
+    private final AtomicLong counter = new AtomicLong();
+
+    /**
+     * Create a new purger.
+     * @param jobDirectory The job directory. The trash folder will be created inside of it.
+     */
+    public TrashPurger(Path jobDirectory) {
+        trash = jobDirectory.resolve(TRASH_FOLDER);
+        pool = new ForkJoinPool(Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() / 2, MAX_PURGE_THREADS)), p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName("Trash Purge " + thread.getPoolIndex());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }, null, true);
+    }
+
+    /**
+     * Is a path the trash folder.
+     */
+    public boolean isTrash(Path path) {
+        return path.getFileName() != null && TRASH_FOLDER.equals(path.getFileName().toString());
+    }
+
+    /**
+     * Delete a file or folder. Folders are moved into the trash and deleted in the background.
+     * If the folder can't be moved, for example because one of its files is in use on Windows,
+     * it is deleted before this method returns.
+     * @param path The file or folder to delete.
+     */
+    public void delete(Path path) throws IOException {
+        if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            Files.deleteIfExists(path);
+            return;
+        }
+        Path moved;
+        try {
+            if (!Files.exists(trash))
+                Files.createDirectories(trash);
+            moved = trash.resolve(path.getFileName().toString() + "." + System.currentTimeMillis() + "." + counter.incrementAndGet());
+            Files.move(path, moved, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            WISELogger.getSpecial(LogName.Backend).warn("Unable to move " + path.toString() + " to the trash, deleting it in place", e);
+            deleteNow(path);
+            return;
+        }
+        purge(moved);
+    }
+
+    /**
+     * Purge anything that was left in the trash folder.
+     */
+    public void resume() {
+        if (!Files.isDirectory(trash))
+            return;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(trash)) {
+            for (Path path : stream)
+                purge(path);
+        }
+        catch (IOException e) {
+            WISELogger.getSpecial(LogName.Backend).warn("Unable to read the trash folder", e);
+        }
+    }
+
+    private void purge(Path path) {
+        if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS))
+            pool.execute(new PurgeTask(path, null));
+        else
+            pool.execute(new PurgeTask(null, Collections.singletonList(path)));
+    }
+
+    /**
+     * Delete a folder on the calling thread.
+     */
+    private static void deleteNow(Path path) throws IOException {
+        try (Stream<Path> files = Files.walk(path)) {
+            files.sorted(Comparator.reverseOrder())
+                .map(Path::toFile)
+                .forEach(File::delete);
+        }
+    }
+
+    @Override
+    public void close() {
+        //anything that hasn't been deleted will be purged the next time the job directory is loaded
+        pool.shutdownNow();
+    }
+
+    /**
+     * Deletes either a batch of files or a directory and everything in it.
+     */
+    private static class PurgeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final List<Path> files;
+
+        PurgeTask(Path directory, List<Path> files) {
+            this.directory = directory;
+            this.files = files;
+        }
+
+        @Override
+        protected void compute() {
+            if (directory == null) {
+                for (Path file : files)
+                    deleteQuietly(file);
+                return;
+            }
+            List<PurgeTask> tasks = new ArrayList<>();
+            List<Path> batch = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path : stream) {
+                    if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS))
+                        tasks.add(new PurgeTask(path, null));
+                    else {
+                        batch.add(path);
+                        if (batch.size() >= PURGE_BATCH_SIZE) {
+                            tasks.add(new PurgeTask(null, batch));
+                            batch = new ArrayList<>();
+                        }
+                    }
+                }
+            }
+            catch (IOException e) {
+                WISELogger.getSpecial(LogName.Backend).warn("Unable to purge " + directory.toString(), e);
+                return;
+            }
+            if (!batch.isEmpty())
+                tasks.add(new PurgeTask(null, batch));
+            invokeAll(tasks);
+            deleteQuietly(directory);
+        }
+
+        private static void deleteQuietly(Path path) {
+            try {
+                Files.deleteIfExists(path);
+            }
+            catch (IOException e) {
+                WISELogger.getSpecial(LogName.Backend).debug("Unable to delete " + path.toString(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package ca.wise.lib;
+
+import java.time.Instant;
+
+/**
+ * The most recent resource usage samples of a job.
+ *
+ * Samples are stored in preallocated primitive arrays that are used as a
+ * ring buffer so recording a sample doesn't allocate. When the buffer is
+ * full the oldest sample is overwritten.
+ */
+public class UsageHistory {
+
+    /**
+     * The default number of samples to keep.
+     */
+    public static final int DEFAULT_CAPACITY = 120;
+
+    //the wall clock time that corresponds to a System.nanoTime value, used to convert sample times to epoch nanoseconds
+    private static final long EPOCH_NANOS;
+    private static final long EPOCH_NANO_TIME;
+
+    static {
+        Instant now = Instant.now();
+        EPOCH_NANO_TIME = System.nanoTime();
+        EPOCH_NANOS = now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+
+    private final long[] time;
+    private final double[] cpu;
+    private final long[] rss;
+    private final long[] readBytes;
+    private final long[] writeBytes;
+    private final int[] threads;
+    /**
+     * The total number of samples that have been recorded.
+     */
+    private long count = 0;
+
+    public UsageHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a new history.
+     * @param capacity The maximum number of samples to keep.
+     */
+    public UsageHistory(int capacity) {
+        time = new long[capacity];
+        cpu = new double[capacity];
+        rss = new long[capacity];
+        readBytes = new long[capacity];
+        writeBytes = new long[capacity];
+        threads = new int[capacity];
+    }
+
+    /**
+     * Convert a {@link System#nanoTime()} value to nanoseconds since the epoch.
+     */
+    public static long toEpochNanos(long nanoTime) {
+        return EPOCH_NANOS + (nanoTime - EPOCH_NANO_TIME);
+    }
+
+    /**
+     * Record a sample.
+     * @param nanoTime The time the sample was taken from {@link System#nanoTime()}.
+     * @param cpu The CPU usage as a percentage of all processors.
+     * @param rss The resident memory in bytes.
+     * @param readBytes The total number of bytes read from storage.
+     * @param writeBytes The total number of bytes written to storage.
+     * @param threads The number of threads.
+     */
+    public synchronized void add(long nanoTime, double cpu, long rss, long readBytes, long writeBytes, int threads) {
+        int index = (int)(count % time.length);
+        this.time[index] = toEpochNanos(nanoTime);
+        this.cpu[index] = cpu;
+        this.rss[index] = rss;
+        this.readBytes[index] = readBytes;
+        this.writeBytes[index] = writeBytes;
+        this.threads[index] = threads;
+        count++;
+    }
+
+    /**
+     * The number of samples that are available.
+     */
+    public synchronized int size() {
+        return (int)Math.min(count, time.length);
+    }
+
+    /**
+     * Get a sample.
+     * @param age The age of the sample, 0 is the most recent sample.
+     * @return The sample, or null if there is no sample with that age.
+     */
+    public synchronized Sample get(int age) {
+        if (age < 0 || age >= size())
+            return null;
+        int index = (int)((count - 1 - age) % time.length);
+        return new Sample(time[index], cpu[index], rss[index], readBytes[index], writeBytes[index], threads[index]);
+    }
+
+    /**
+     * Get the most recent sample.
+     * @return The sample, or null if no samples have been recorded.
+     */
+    public Sample latest() {
+        return get(0);
+    }
+
+    /**
+     * Remove all samples.
+     */
+    public synchronized void clear() {
+        count = 0;
+    }
+
+    /**
+     * A single resource usage sample.
+     */
+    public static final class Sample {
+        /**
+         * The time the sample was taken in nanoseconds since the epoch.
+         */
+        public final long time;
+        /**
+         * The CPU usage as a percentage of all processors.
+         */
+        public final double cpu;
+        /**
+         * The resident memory in bytes.
+         */
+        public final long rss;
+        /**
+         * The total number of bytes read from storage.
+         */
+        public final long readBytes;
+        /**
+         * The total number of bytes written to storage.
+         */
+        public final long writeBytes;
+        /**
+         * The number of threads.
+         */
+        public final int threads;
+
+        Sample(long time, double cpu, long rss, long readBytes, long writeBytes, int threads) {
+            this.time = time;
+            this.cpu = cpu;
+            this.rss = rss;
+            this.readBytes = readBytes;
+            this.writeBytes = writeBytes;
+            this.threads = threads;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package ca.wise.lib.archive;
+
+import lombok.Getter;
+
+/**
+ * The types of archive that jobs can be stored in.
+ */
+public enum ArchiveFormat {
+    Zip(".zip"),
+    Tar(".tar"),
+    TarGz(".tar.gz");
+
+    /**
+     * The file extension of the archive, including the leading period.
+     */
+    @Getter private final String extension;
+
+    ArchiveFormat(String extension) {
+        this.extension = extension;
+    }
+}
@@ -0,0 +1,420 @@
+package ca.wise.lib.archive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+
+import lombok.Getter;
+
+/**
+ * A list of the files in a job archive that can be used to read single files
+ * without extracting the archive.
+ *
+ * Zip archives are indexed by their central directory. Tar archives have a
+ * sidecar index written next to them when they are created that stores the
+ * offset of each file in the tar stream. For gzipped tar archives the index
+ * also stores the offsets of the gzip members so reading a file only needs to
+ * decompress from the start of the member that contains it. Tar archives
+ * without a valid sidecar are scanned and read sequentially.
+ */
+public final class ArchiveIndex {
+
+    /**
+     * The extension added to an archive name for its sidecar index.
+     */
+    public static final String SIDECAR_EXTENSION = ".idx";
+    private static final int MAGIC = 0x57545849;
+    private static final int VERSION = 1;
+    /**
+     * The number of indexes to keep in memory.
+     */
+    private static final int CACHE_SIZE = 16;
+
+    private static final Map<Path, ArchiveIndex> cache = new LinkedHashMap<Path, ArchiveIndex>(CACHE_SIZE, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, ArchiveIndex> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * The absolute path of the archive.
+     */
+    @Getter private final Path archive;
+    private final Type type;
+    private final long archiveSize;
+    private final long archiveModified;
+    @Getter private final List<Entry> entries;
+    private final Map<String, Entry> byName = new HashMap<>();
+    private final long[] memberUncompressed;
+    private final long[] memberCompressed;
+
+    private ArchiveIndex(Path archive, Type type, long archiveSize, long archiveModified, List<Entry> entries,
+            long[] memberUncompressed, long[] memberCompressed) {
+        this.archive = archive;
+        this.type = type;
+        this.archiveSize = archiveSize;
+        this.archiveModified = archiveModified;
+        this.entries = Collections.unmodifiableList(entries);
+        for (Entry entry : entries)
+            byName.put(entry.name, entry);
+        this.memberUncompressed = memberUncompressed;
+        this.memberCompressed = memberCompressed;
+    }
+
+    /**
+     * Get the index of an archive. Indexes are cached until the archive changes.
+     * @param archive A zip, tar, or gzipped tar archive.
+     */
+    public static ArchiveIndex get(Path archive) throws IOException {
+        archive = archive.toAbsolutePath().normalize();
+        long size = Files.size(archive);
+        long modified = Files.getLastModifiedTime(archive).toMillis();
+        synchronized (cache) {
+            ArchiveIndex index = cache.get(archive);
+            if (index != null && index.archiveSize == size && index.archiveModified == modified)
+                return index;
+        }
+        ArchiveIndex index = load(archive, size, modified);
+        synchronized (cache) {
+            cache.put(archive, index);
+        }
+        return index;
+    }
+
+    /**
+     * Find an entry by name.
+     * @param name The name of the file in the archive, using / as the separator.
+     * @return The entry, or null if the archive doesn't contain the file.
+     */
+    public Entry find(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * Open a file in the archive.
+     * @param entry An entry from this index.
+     * @param offset The number of bytes to skip from the start of the file.
+     * @return A stream of the file contents starting at the offset.
+     */
+    public InputStream open(Entry entry, long offset) throws IOException {
+        offset = Math.max(0, Math.min(offset, entry.size));
+        if (type == Type.Zip) {
+            ZipFile zip = new ZipFile(archive.toFile());
+            try {
+                InputStream in = zip.getInputStream(zip.getEntry(entry.name));
+                IOUtils.skip(in, offset);
+                return new ZipEntryStream(in, zip);
+            }
+            catch (IOException|RuntimeException e) {
+                zip.close();
+                throw e;
+            }
+        }
+        else if (entry.dataOffset < 0)
+            return openSequential(entry, offset);
+        
+        long target = entry.dataOffset + offset;
+        FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ);
+        try {
+            InputStream in;
+            if (type == Type.Tar) {
+                channel.position(target);
+                in = Channels.newInputStream(channel);
+            }
+            else {
+                //start decompressing at the member that contains the offset
+                int member = Arrays.binarySearch(memberUncompressed, target);
+                if (member < 0)
+                    member = -member - 2;
+                channel.position(memberCompressed[member]);
+                in = new GzipCompressorInputStream(new BufferedInputStream(Channels.newInputStream(channel)), true);
+                IOUtils.skip(in, target - memberUncompressed[member]);
+            }
+            return new BoundedStream(in, entry.size - offset);
+        }
+        catch (IOException|RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read a file from a tar archive that doesn't have an index by reading the archive from the start.
+     */
+    private InputStream openSequential(Entry entry, long offset) throws IOException {
+        TarArchiveInputStream in = openTar(archive, type);
+        try {
+            TarArchiveEntry tarEntry;
+            while ((tarEntry = in.getNextTarEntry()) != null) {
+                if (tarEntry.getName().equals(entry.name)) {
+                    IOUtils.skip(in, offset);
+                    return in;
+                }
+            }
+            throw new EOFException("Unable to find " + entry.name + " in " + archive.getFileName().toString());
+        }
+        catch (IOException|RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static TarArchiveInputStream openTar(Path archive, Type type) throws IOException {
+        InputStream stream = new BufferedInputStream(Files.newInputStream(archive));
+        if (type == Type.TarGz)
+            stream = new GzipCompressorInputStream(stream, true);
+        return new TarArchiveInputStream(stream);
+    }
+
+    private static Type typeOf(Path archive) throws IOException {
+        String name = archive.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".zip"))
+            return Type.Zip;
+        else if (name.endsWith(".tar.gz") || name.endsWith(".tgz"))
+            return Type.TarGz;
+        else if (name.endsWith(".tar"))
+            return Type.Tar;
+        throw new IOException("Unknown archive type " + archive.getFileName().toString());
+    }
+
+    /**
+     * Get the path of the sidecar index for a tar archive.
+     */
+    public static Path sidecar(Path archive) {
+        return archive.resolveSibling(archive.getFileName().toString() + SIDECAR_EXTENSION);
+    }
+
+    private static ArchiveIndex load(Path archive, long size, long modified) throws IOException {
+        Type type = typeOf(archive);
+        List<Entry> entries = new ArrayList<>();
+        if (type == Type.Zip) {
+            try (ZipFile zip = new ZipFile(archive.toFile())) {
+                Enumeration<ZipArchiveEntry> it = zip.getEntries();
+                while (it.hasMoreElements()) {
+                    ZipArchiveEntry entry = it.nextElement();
+                    if (!entry.isDirectory())
+                        entries.add(new Entry(entry.getName(), entry.getSize(), entry.getTime(), -1));
+                }
+            }
+            return new ArchiveIndex(archive, type, size, modified, entries, null, null);
+        }
+        
+        Path sidecar = sidecar(archive);
+        if (Files.exists(sidecar)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar)))) {
+                //only use the sidecar if it was written for this version of the archive
+                if (in.readInt() == MAGIC && in.readInt() == VERSION && in.readLong() == size && in.readLong() == modified) {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++)
+                        entries.add(new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readLong()));
+                    int members = in.readInt();
+                    long[] uncompressed = new long[members];
+                    long[] compressed = new long[members];
+                    for (int i = 0; i < members; i++) {
+                        uncompressed[i] = in.readLong();
+                        compressed[i] = in.readLong();
+                    }
+                    //without member offsets a gzipped archive can only be read from the start
+                    if (type == Type.TarGz && members == 0) {
+                        List<Entry> sequential = new ArrayList<>(entries.size());
+                        for (Entry entry : entries)
+                            sequential.add(new Entry(entry.name, entry.size, entry.lastModified, -1));
+                        entries = sequential;
+                    }
+                    return new ArchiveIndex(archive, type, size, modified, entries, uncompressed, compressed);
+                }
+            }
+            catch (IOException e) {
+                entries.clear();
+            }
+        }
+        
+        //no index, list the files by reading the whole archive
+        try (TarArchiveInputStream in = openTar(archive, type)) {
+            TarArchiveEntry entry;
+            while ((entry = in.getNextTarEntry()) != null) {
+                if (!entry.isDirectory())
+                    entries.add(new Entry(entry.getName(), entry.getSize(), entry.getModTime().getTime(), -1));
+            }
+        }
+        return new ArchiveIndex(archive, type, size, modified, entries, null, null);
+    }
+
+    /**
+     * Write the sidecar index for a tar archive. Must be called after the archive has been closed.
+     * @param archive The tar archive.
+     * @param entries The files in the archive.
+     * @param memberUncompressed For gzipped archives, the uncompressed offset of each gzip member. Can be null.
+     * @param memberCompressed For gzipped archives, the offset in the archive of each gzip member. Can be null.
+     */
+    static void write(Path archive, List<Entry> entries, long[] memberUncompressed, long[] memberCompressed) throws IOException {
+        Path sidecar = sidecar(archive);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(sidecar)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(Files.size(archive));
+            out.writeLong(Files.getLastModifiedTime(archive).toMillis());
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeUTF(entry.name);
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastModified);
+                out.writeLong(entry.dataOffset);
+            }
+            int members = memberUncompressed == null ? 0 : memberUncompressed.length;
+            out.writeInt(members);
+            for (int i = 0; i < members; i++) {
+                out.writeLong(memberUncompressed[i]);
+                out.writeLong(memberCompressed[i]);
+            }
+        }
+    }
+
+    /**
+     * Get the name of a file relative to the job directory from its name in an archive.
+     * @param jobName The name of the job, the top level directory in the archive.
+     * @param name The name of the file in the archive.
+     * @return The relative name using the platform separator, or null if the file isn't in the job directory.
+     */
+    public static String relativeName(String jobName, String name) {
+        if (!name.startsWith(jobName + "/"))
+            return null;
+        return Paths.get(name.substring(jobName.length() + 1)).toString();
+    }
+
+    /**
+     * A file in an archive.
+     */
+    public static final class Entry {
+        /**
+         * The name of the file in the archive, using / as the separator.
+         */
+        @Getter private final String name;
+        /**
+         * The uncompressed size of the file.
+         */
+        @Getter private final long size;
+        /**
+         * The time the file was last modified, in milliseconds since the epoch.
+         */
+        @Getter private final long lastModified;
+        /**
+         * The offset of the file data in the uncompressed tar stream, or -1 if it isn't known.
+         */
+        private final long dataOffset;
+
+        Entry(String name, long size, long lastModified, long dataOffset) {
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.dataOffset = dataOffset;
+        }
+    }
+
+    private static enum Type {
+        Zip,
+        Tar,
+        TarGz
+    }
+
+    /**
+     * Closes the zip file when the entry stream is closed.
+     */
+    private static final class ZipEntryStream extends FilterInputStream {
+        private final ZipFile owner;
+
+        ZipEntryStream(InputStream in, ZipFile owner) {
+            super(in);
+            this.owner = owner;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            }
+            finally {
+                owner.close();
+            }
+        }
+    }
+
+    /**
+     * Limits a stream of the whole archive to the contents of one file.
+     */
+    private static final class BoundedStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int value = super.read();
+            if (value >= 0)
+                remaining--;
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int count = super.read(b, off, (int)Math.min(len, remaining));
+            if (count > 0)
+                remaining -= count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long count = super.skip(Math.min(n, remaining));
+            remaining -= count;
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int)Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
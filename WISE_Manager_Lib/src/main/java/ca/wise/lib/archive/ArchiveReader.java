@@ -0,0 +1,283 @@
+package ca.wise.lib.archive;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+
+/**
+ * Extracts job archives.
+ *
+ * Archives are decoded on the calling thread while a bounded pool of writer
+ * threads writes the files and restores their timestamps, so reading the next
+ * entry doesn't wait for the previous file to be written. Single files are
+ * read without extracting the archive using {@link ArchiveIndex}.
+ */
+public final class ArchiveReader {
+
+    /**
+     * The number of bytes passed to a writer at a time.
+     */
+    private static final int CHUNK_SIZE = 256 * 1024;
+    /**
+     * The number of chunks that can be waiting to be written. Limits the memory used by an extraction.
+     */
+    private static final int MAX_BUFFERED_CHUNKS = 64;
+
+    private ArchiveReader() { }
+
+    /**
+     * Extract a zip, tar, or gzipped tar archive. The type of archive is found from its extension.
+     * @param archive The archive to extract.
+     * @param rootName The name of the directory in the archive that contains the files. Entries in
+     * this directory are extracted directly into {@code output}.
+     * @param output The directory to extract the files into.
+     * @param writers The number of threads to write files with.
+     */
+    public static void extract(Path archive, String rootName, Path output, int writers) throws IOException {
+        String name = archive.getFileName().toString().toLowerCase(Locale.ROOT);
+        InputStream stream = new BufferedInputStream(Files.newInputStream(archive));
+        try {
+            ArchiveInputStream in;
+            if (name.endsWith(".zip"))
+                in = new ZipArchiveInputStream(stream);
+            else if (name.endsWith(".tar.gz") || name.endsWith(".tgz"))
+                in = new TarArchiveInputStream(new GzipCompressorInputStream(stream, true));
+            else if (name.endsWith(".tar"))
+                in = new TarArchiveInputStream(stream);
+            else
+                throw new IOException("Unknown archive type " + archive.getFileName().toString());
+            //the archive stream now owns the file stream
+            stream = in;
+            new Extraction(Math.max(1, writers)).run(in, rootName, output.toAbsolutePath().normalize());
+        }
+        finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Find where an archive entry should be extracted to.
+     */
+    static Path resolve(Path output, String rootName, String name) throws IOException {
+        String relative = name;
+        if (rootName != null) {
+            if (relative.equals(rootName))
+                relative = "";
+            else if (relative.startsWith(rootName + "/"))
+                relative = relative.substring(rootName.length() + 1);
+        }
+        Path target = output.resolve(relative).normalize();
+        //don't allow entries to be written outside of the output directory
+        if (!target.startsWith(output))
+            throw new IOException("Archive entry " + name + " is outside of the output directory");
+        return target;
+    }
+
+    /**
+     * The state of a single archive extraction.
+     */
+    private static final class Extraction {
+        private final ExecutorService writers;
+        /**
+         * Buffers that aren't waiting to be written. Taking a buffer blocks if too many chunks are waiting.
+         */
+        private final BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<>(MAX_BUFFERED_CHUNKS);
+        private final AtomicReference<IOException> error = new AtomicReference<>();
+        private int allocated = 0;
+        private Path lastParent = null;
+
+        Extraction(int writerCount) {
+            writers = Executors.newFixedThreadPool(writerCount, r -> {
+                Thread thread = new Thread(r, "Archive Writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        void run(ArchiveInputStream in, String rootName, Path output) throws IOException {
+            try {
+                Files.createDirectories(output);
+                ArchiveEntry entry;
+                while ((entry = in.getNextEntry()) != null && error.get() == null) {
+                    if (!in.canReadEntryData(entry))
+                        throw new IOException("Unable to read archive entry " + entry.getName());
+                    Path target = resolve(output, rootName, entry.getName());
+                    if (entry.isDirectory())
+                        Files.createDirectories(target);
+                    else
+                        file(in, target, entry);
+                }
+            }
+            catch (IOException e) {
+                error.compareAndSet(null, e);
+            }
+            finally {
+                //let the writers finish, they skip any remaining chunks if there was an error
+                writers.shutdown();
+                try {
+                    writers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    error.compareAndSet(null, new InterruptedIOException("Interrupted while extracting archive"));
+                }
+            }
+            IOException e = error.get();
+            if (e != null)
+                throw e;
+        }
+
+        /**
+         * Read a file from the archive and pass it to the writers in chunks.
+         */
+        private void file(InputStream in, Path target, ArchiveEntry entry) throws IOException {
+            Path parent = target.getParent();
+            if (!parent.equals(lastParent)) {
+                Files.createDirectories(parent);
+                lastParent = parent;
+            }
+            OutputFile file = new OutputFile(target, FileChannel.open(target, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), entry);
+            try {
+                long position = 0;
+                while (error.get() == null) {
+                    byte[] chunk = takeBuffer();
+                    int length = readFully(in, chunk);
+                    if (length == 0) {
+                        buffers.offer(chunk);
+                        break;
+                    }
+                    final long offset = position;
+                    file.pending.incrementAndGet();
+                    writers.execute(() -> {
+                        try {
+                            if (error.get() == null)
+                                file.write(chunk, length, offset);
+                        }
+                        catch (IOException e) {
+                            error.compareAndSet(null, e);
+                        }
+                        finally {
+                            buffers.offer(chunk);
+                            release(file);
+                        }
+                    });
+                    position += length;
+                    if (length < chunk.length)
+                        break;
+                }
+            }
+            finally {
+                release(file);
+            }
+        }
+
+        private byte[] takeBuffer() throws IOException {
+            byte[] buffer = buffers.poll();
+            if (buffer == null) {
+                if (allocated < MAX_BUFFERED_CHUNKS) {
+                    allocated++;
+                    return new byte[CHUNK_SIZE];
+                }
+                try {
+                    buffer = buffers.take();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while extracting archive");
+                }
+            }
+            return buffer;
+        }
+
+        private void release(OutputFile file) {
+            try {
+                file.release();
+            }
+            catch (IOException e) {
+                error.compareAndSet(null, e);
+            }
+        }
+
+        private static int readFully(InputStream in, byte[] buffer) throws IOException {
+            int total = 0;
+            while (total < buffer.length) {
+                int count = in.read(buffer, total, buffer.length - total);
+                if (count < 0)
+                    break;
+                total += count;
+            }
+            return total;
+        }
+    }
+
+    /**
+     * A file that is being written by the writer threads. The file is closed and its
+     * timestamps are restored when the last chunk has been written.
+     */
+    private static final class OutputFile {
+        private final Path path;
+        private final FileChannel channel;
+        private final FileTime modified;
+        private final FileTime accessed;
+        private final FileTime created;
+        /**
+         * The number of chunks waiting to be written, plus one while the file is still being read.
+         */
+        final AtomicInteger pending = new AtomicInteger(1);
+
+        OutputFile(Path path, FileChannel channel, ArchiveEntry entry) {
+            this.path = path;
+            this.channel = channel;
+            if (entry instanceof ZipEntry) {
+                ZipEntry zip = (ZipEntry)entry;
+                modified = zip.getLastModifiedTime();
+                accessed = zip.getLastAccessTime();
+                created = zip.getCreationTime();
+            }
+            else {
+                Date date = entry.getLastModifiedDate();
+                modified = date == null ? null : FileTime.fromMillis(date.getTime());
+                accessed = null;
+                created = null;
+            }
+        }
+
+        void write(byte[] chunk, int length, long position) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, length);
+            while (buffer.hasRemaining())
+                position += channel.write(buffer, position);
+        }
+
+        void release() throws IOException {
+            if (pending.decrementAndGet() == 0) {
+                channel.close();
+                Files.getFileAttributeView(path, BasicFileAttributeView.class).setTimes(modified, accessed, created);
+            }
+        }
+    }
+}
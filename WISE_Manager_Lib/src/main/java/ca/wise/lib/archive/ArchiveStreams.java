@@ -0,0 +1,177 @@
+package ca.wise.lib.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.compress.utils.IOUtils;
+
+import ca.wise.lib.WISELogger;
+import ca.wise.lib.WISELogger.LogName;
+
+/**
+ * Keeps files that are being streamed out of archives open between chunks.
+ *
+ * Reading from the middle of a zipped file, or of a tar archive that doesn't
+ * have an index, has to decompress everything before the requested offset.
+ * Files are sent one chunk per request so each transfer keeps its stream open
+ * and the next chunk continues from where the last one ended. A transfer is
+ * identified by who requested it, the archive, and the file. Streams are closed
+ * once the whole file has been read or when they haven't been used for
+ * {@link #IDLE_TIMEOUT} milliseconds.
+ */
+public final class ArchiveStreams implements Closeable {
+
+    /**
+     * The time in milliseconds after which an unused stream is closed.
+     */
+    public static final long IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(2);
+    /**
+     * The maximum number of streams to keep open.
+     */
+    private static final int MAX_STREAMS = 32;
+
+    //a single timer is shared by all instances, it only closes idle streams
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Archive Stream Timeout");
+        t.setDaemon(true);
+        return t;
+    });
+
+    //in access order so the least recently used stream is closed when there are too many
+    private final Map<String, Transfer> transfers = new LinkedHashMap<String, Transfer>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Transfer> eldest) {
+            if (size() > MAX_STREAMS) {
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    };
+    private final ScheduledFuture<?> sweeper;
+
+    public ArchiveStreams() {
+        sweeper = timer.scheduleWithFixedDelay(this::closeIdle, IDLE_TIMEOUT, IDLE_TIMEOUT / 2, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Read part of a file from an archive. If the same requester read the bytes
+     * immediately before the offset the stream is reused instead of reopened.
+     * @param requester The client that the file is being sent to.
+     * @param index The index of the archive.
+     * @param entry The file to read from the archive.
+     * @param offset The offset in the file to start reading at.
+     * @param bytes The buffer to read into. Filled unless the end of the file is reached.
+     * @return The number of bytes read.
+     */
+    public int read(String requester, ArchiveIndex index, ArchiveIndex.Entry entry, long offset, byte[] bytes) throws IOException {
+        String key = requester + "\n" + index.getArchive().toString() + "\n" + entry.getName();
+        Transfer transfer;
+        //the transfer is taken out of the map while it is being read so it can't be closed by the timer
+        synchronized (transfers) {
+            transfer = transfers.remove(key);
+        }
+        //the archive has changed or the requester went back to an earlier chunk
+        if (transfer != null && (transfer.index != index || transfer.position != offset)) {
+            closeQuietly(transfer);
+            transfer = null;
+        }
+        if (transfer == null)
+            transfer = new Transfer(index, index.open(entry, offset), offset);
+
+        boolean keep = false;
+        try {
+            int count = IOUtils.readFully(transfer.in, bytes);
+            transfer.position += count;
+            keep = count == bytes.length && transfer.position < entry.getSize();
+            return count;
+        }
+        finally {
+            if (keep) {
+                transfer.lastUsed = System.currentTimeMillis();
+                Transfer old;
+                synchronized (transfers) {
+                    old = transfers.put(key, transfer);
+                }
+                //another request for the same file was made at the same time
+                if (old != null)
+                    closeQuietly(old);
+            }
+            else
+                closeQuietly(transfer);
+        }
+    }
+
+    /**
+     * Close the streams that haven't been used recently.
+     */
+    private void closeIdle() {
+        long cutoff = System.currentTimeMillis() - IDLE_TIMEOUT;
+        List<Transfer> idle = new ArrayList<>();
+        synchronized (transfers) {
+            Iterator<Transfer> it = transfers.values().iterator();
+            while (it.hasNext()) {
+                Transfer transfer = it.next();
+                if (transfer.lastUsed < cutoff) {
+                    idle.add(transfer);
+                    it.remove();
+                }
+            }
+        }
+        idle.forEach(ArchiveStreams::closeQuietly);
+    }
+
+    /**
+     * Close all open streams.
+     */
+    @Override
+    public void close() {
+        sweeper.cancel(false);
+        List<Transfer> open;
+        synchronized (transfers) {
+            open = new ArrayList<>(transfers.values());
+            transfers.clear();
+        }
+        open.forEach(ArchiveStreams::closeQuietly);
+    }
+
+    private static void closeQuietly(Transfer transfer) {
+        try {
+            transfer.in.close();
+        }
+        catch (IOException e) {
+            WISELogger.getSpecial(LogName.Backend).debug("Unable to close an archive stream.", e);
+        }
+    }
+
+    /**
+     * A file that is being read from an archive.
+     */
+    private static final class Transfer {
+        private final ArchiveIndex index;
+        private final InputStream in;
+        /**
+         * The offset in the file of the next byte that will be read.
+         */
+        private long position;
+        private long lastUsed;
+
+        Transfer(ArchiveIndex index, InputStream in, long position) {
+            this.index = index;
+            this.in = in;
+            this.position = position;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package ca.wise.lib.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ParallelScatterZipCreator;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.parallel.FileBasedScatterGatherBackingStore;
+import org.apache.commons.compress.parallel.ScatterGatherBackingStore;
+import org.apache.commons.compress.utils.IOUtils;
+
+import ca.wise.lib.WISELogger;
+import ca.wise.lib.WISELogger.LogName;
+
+/**
+ * Writes job directories to zip and tar archives.
+ *
+ * Zip archives compress each file on a separate thread and gzipped tar archives
+ * compress blocks of the tar stream in parallel using a {@link ParallelGzipOutputStream}.
+ * Files that are already compressed are stored instead of being compressed again.
+ * Uncompressed tar archives copy files with {@link java.nio.channels.FileChannel#transferTo}
+ * so they can be written at disk speed. Tar archives have an {@link ArchiveIndex} sidecar
+ * written next to them so single files can be read without extracting the archive.
+ */
+public final class ArchiveWriter {
+
+    /**
+     * Compressed files smaller than this are compressed anyway. Switching between stored
+     * and compressed blocks ends a gzip member so it isn't worth doing for small files.
+     */
+    private static final long STORED_MIN_SIZE = 256 * 1024;
+
+    private ArchiveWriter() { }
+
+    /**
+     * Create a zip archive of a directory. Hidden files are skipped.
+     * @param directory The directory to archive.
+     * @param rootName The name of the directory inside the archive.
+     * @param archive The archive file to create.
+     * @param threads The number of threads to compress files with.
+     * @return The total size of the files that were archived.
+     */
+    public static long zip(Path directory, String rootName, Path archive, int threads) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        //the creator only deletes its temporary files when it writes the archive
+        List<ScatterGatherBackingStore> stores = Collections.synchronizedList(new ArrayList<>());
+        try {
+            //compressed entries are buffered next to the archive instead of in the system temp directory
+            final Path parent = archive.toAbsolutePath().getParent();
+            ParallelScatterZipCreator creator = new ParallelScatterZipCreator(pool, () -> {
+                ScatterGatherBackingStore store = new FileBasedScatterGatherBackingStore(Files.createTempFile(parent, ".scatter", ".tmp").toFile());
+                stores.add(store);
+                return store;
+            });
+            List<StoredEntry> stored = new ArrayList<>();
+            long size = addZipEntries(directory, rootName, creator, stored);
+            try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(archive.toFile())) {
+                creator.writeTo(out);
+                //stored entries are copied straight into the archive instead of through a temporary file,
+                //the archive is seekable so the size and CRC are written after the data
+                for (StoredEntry entry : stored) {
+                    out.putArchiveEntry(entry.entry);
+                    Files.copy(entry.file, out);
+                    out.closeArchiveEntry();
+                }
+            }
+            return size;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while creating " + archive.toString());
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException)
+                throw ((UncheckedIOException)e.getCause()).getCause();
+            throw new IOException("Unable to compress " + archive.toString(), e.getCause());
+        }
+        finally {
+            pool.shutdownNow();
+            //closing a store deletes its file, stores that were already written to the archive are already closed
+            synchronized (stores) {
+                for (ScatterGatherBackingStore store : stores) {
+                    try {
+                        store.close();
+                    }
+                    catch (IOException e) {
+                        WISELogger.getSpecial(LogName.Backend).debug("Unable to delete a temporary archive file.", e);
+                    }
+                }
+            }
+        }
+    }
+
+    private static long addZipEntries(Path file, String filename, ParallelScatterZipCreator creator, List<StoredEntry> stored) throws IOException {
+        //skip hidden files and directories
+        if (Files.isHidden(file))
+            return 0;
+        //recursively zip directories
+        if (Files.isDirectory(file)) {
+            long size = 0;
+            for (Path child : list(file)) {
+                size += addZipEntries(child, filename + "/" + child.getFileName().toString(), creator, stored);
+            }
+            return size;
+        }
+        else {
+            ZipArchiveEntry entry = new ZipArchiveEntry(filename);
+            entry.setTime(Files.getLastModifiedTime(file).toMillis());
+            if (CompressedFiles.isCompressed(file)) {
+                entry.setMethod(ZipEntry.STORED);
+                stored.add(new StoredEntry(entry, file));
+                return Files.size(file);
+            }
+            entry.setMethod(ZipEntry.DEFLATED);
+            creator.addArchiveEntry(entry, () -> {
+                try {
+                    return Files.newInputStream(file);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            return Files.size(file);
+        }
+    }
+
+    /**
+     * Create a gzipped tar archive of a directory.
+     * @param directory The directory to archive.
+     * @param rootName The name of the directory inside the archive.
+     * @param archive The archive file to create.
+     * @param threads The number of threads to compress blocks with.
+     * @return The total size of the files that were archived.
+     */
+    public static long tarGz(Path directory, String rootName, Path archive, int threads) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        List<ArchiveIndex.Entry> entries = new ArrayList<>();
+        long[] memberUncompressed;
+        long[] memberCompressed;
+        try (ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(new BufferedOutputStream(Files.newOutputStream(archive)), pool);
+                TarArchiveOutputStream out = new TarArchiveOutputStream(gzip)) {
+            out.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_STAR);
+            out.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
+            out.setAddPaxHeadersForNonAsciiNames(true);
+            tarFile(directory, rootName, out, gzip, entries);
+            out.finish();
+            gzip.finish();
+            memberUncompressed = gzip.getMemberUncompressedOffsets();
+            memberCompressed = gzip.getMemberCompressedOffsets();
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        writeIndex(archive, entries, memberUncompressed, memberCompressed);
+        return totalSize(entries);
+    }
+
+    private static void tarFile(Path file, String filename, TarArchiveOutputStream out, ParallelGzipOutputStream gzip,
+            List<ArchiveIndex.Entry> entries) throws IOException {
+        if (Files.isDirectory(file)) {
+            for (Path child : list(file)) {
+                tarFile(child, filename + "/" + child.getFileName().toString(), out, gzip, entries);
+            }
+        }
+        else {
+            TarArchiveEntry entry = new TarArchiveEntry(file.toFile(), filename);
+            out.putArchiveEntry(entry);
+            //tar writes each record as soon as it is full so the header has been passed to the gzip stream
+            entries.add(new ArchiveIndex.Entry(filename, entry.getSize(), entry.getModTime().getTime(), gzip.getBytesWritten()));
+            boolean stored = entry.getSize() >= STORED_MIN_SIZE && CompressedFiles.isCompressed(file);
+            if (stored)
+                gzip.setStored(true);
+            try (InputStream in = Files.newInputStream(file)) {
+                IOUtils.copy(in, out);
+            }
+            out.closeArchiveEntry();
+            if (stored)
+                gzip.setStored(false);
+        }
+    }
+
+    /**
+     * Create an uncompressed tar archive of a directory. The file contents are
+     * copied by the kernel so this is much faster than a gzipped archive for jobs
+     * whose outputs are already compressed.
+     * @param directory The directory to archive.
+     * @param rootName The name of the directory inside the archive.
+     * @param archive The archive file to create.
+     * @return The total size of the files that were archived.
+     */
+    public static long tar(Path directory, String rootName, Path archive) throws IOException {
+        List<ArchiveIndex.Entry> entries = new ArrayList<>();
+        try (TarChannelWriter out = new TarChannelWriter(FileChannel.open(archive, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+            tarFile(directory, rootName, out, entries);
+        }
+        writeIndex(archive, entries, null, null);
+        return totalSize(entries);
+    }
+
+    private static void tarFile(Path file, String filename, TarChannelWriter out, List<ArchiveIndex.Entry> entries) throws IOException {
+        if (Files.isDirectory(file)) {
+            for (Path child : list(file)) {
+                tarFile(child, filename + "/" + child.getFileName().toString(), out, entries);
+            }
+        }
+        else
+            entries.add(out.putFile(file, filename));
+    }
+
+    /**
+     * Write the sidecar index of a tar archive. The archive can still be read without
+     * the index so a failure is only logged.
+     */
+    private static void writeIndex(Path archive, List<ArchiveIndex.Entry> entries, long[] memberUncompressed, long[] memberCompressed) {
+        try {
+            ArchiveIndex.write(archive, entries, memberUncompressed, memberCompressed);
+        }
+        catch (IOException e) {
+            WISELogger.getSpecial(LogName.Backend).warn("Unable to write the index of " + archive.getFileName().toString(), e);
+        }
+    }
+
+    private static long totalSize(List<ArchiveIndex.Entry> entries) {
+        return entries.stream().mapToLong(ArchiveIndex.Entry::getSize).sum();
+    }
+
+    private static List<Path> list(Path directory) throws IOException {
+        try (Stream<Path> children = Files.list(directory)) {
+            return children.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * A file that will be stored in a zip archive without compression.
+     */
+    private static final class StoredEntry {
+        final ZipArchiveEntry entry;
+        final Path file;
+
+        StoredEntry(ZipArchiveEntry entry, Path file) {
+            this.entry = entry;
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package ca.wise.lib.archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Detects files that are already compressed so archives can store them
+ * instead of spending time compressing them again.
+ */
+public final class CompressedFiles {
+
+    /**
+     * Extensions of file formats that are always compressed.
+     */
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+        "gz", "tgz", "zip", "kmz", "7z", "bz2", "xz"
+    ));
+    private static final int TIFF_TAG_COMPRESSION = 259;
+    private static final int TIFF_COMPRESSION_NONE = 1;
+
+    private CompressedFiles() { }
+
+    /**
+     * Is a file already compressed.
+     * @param file The file to check.
+     * @return True if the file is in a compressed format, or is a TIFF image that uses compression.
+     */
+    public static boolean isCompressed(Path file) {
+        String extension = extension(file);
+        if (COMPRESSED_EXTENSIONS.contains(extension))
+            return true;
+        if (extension.equals("tif") || extension.equals("tiff"))
+            return isCompressedTiff(file);
+        return false;
+    }
+
+    private static String extension(Path file) {
+        String name = file.getFileName().toString();
+        int index = name.lastIndexOf('.');
+        return index < 0 ? "" : name.substring(index + 1).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Check the compression tag in the first image of a TIFF or BigTIFF file.
+     */
+    static boolean isCompressedTiff(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = read(channel, 0, 16, ByteOrder.LITTLE_ENDIAN);
+            if (header == null)
+                return false;
+            if (header.get(0) == 'M' && header.get(1) == 'M')
+                header.order(ByteOrder.BIG_ENDIAN);
+            else if (header.get(0) != 'I' || header.get(1) != 'I')
+                return false;
+            ByteOrder order = header.order();
+            int magic = header.getShort(2) & 0xffff;
+            boolean big;
+            long offset;
+            if (magic == 42) {
+                big = false;
+                offset = header.getInt(4) & 0xffffffffL;
+            }
+            else if (magic == 43) {
+                big = true;
+                offset = header.getLong(8);
+            }
+            else
+                return false;
+            
+            ByteBuffer countBuffer = read(channel, offset, big ? 8 : 2, order);
+            if (countBuffer == null)
+                return false;
+            long count = big ? countBuffer.getLong(0) : countBuffer.getShort(0) & 0xffff;
+            int entrySize = big ? 20 : 12;
+            long start = offset + (big ? 8 : 2);
+            //the tags are sorted so the compression tag will be near the start
+            for (long i = 0; i < count; i++) {
+                ByteBuffer entry = read(channel, start + i * entrySize, entrySize, order);
+                if (entry == null)
+                    return false;
+                int tag = entry.getShort(0) & 0xffff;
+                if (tag == TIFF_TAG_COMPRESSION)
+                    return (entry.getShort(big ? 12 : 8) & 0xffff) != TIFF_COMPRESSION_NONE;
+                else if (tag > TIFF_TAG_COMPRESSION)
+                    break;
+            }
+        }
+        catch (IOException e) { }
+        return false;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length, ByteOrder order) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(order);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                return null;
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,248 @@
+package ca.wise.lib.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip output stream that compresses blocks of data in parallel.
+ *
+ * The data is split into fixed size blocks and each block is compressed as
+ * a separate gzip member on a fork/join pool. The members are written to the
+ * output in order, which gives a valid gzip file that any gzip reader that
+ * supports concatenated members can decompress. Blocks can also be stored
+ * without compression for data that is already compressed.
+ *
+ * The offsets of each member are recorded so that a reader can start
+ * decompressing at the member that contains a given uncompressed offset.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    /**
+     * The default size of the blocks that are compressed in parallel.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private static final byte[] HEADER = new byte[] {
+        0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte)0xff
+    };
+
+    private final OutputStream out;
+    private final ForkJoinPool pool;
+    private final int blockSize;
+    private final int level;
+    /**
+     * The maximum number of blocks that can be waiting to be written.
+     */
+    private final int maxPending;
+    private final Deque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+    private byte[] buffer;
+    private int count = 0;
+    private boolean stored = false;
+    private boolean written = false;
+    private boolean finished = false;
+    /**
+     * The number of uncompressed bytes that have been written to the stream.
+     */
+    private long uncompressed = 0;
+    /**
+     * The number of compressed bytes that have been written to the output.
+     */
+    private long compressed = 0;
+    //the uncompressed and compressed offsets of the start of each member
+    private long[] memberUncompressed = new long[64];
+    private long[] memberCompressed = new long[64];
+    private int submittedMembers = 0;
+    private int writtenMembers = 0;
+
+    /**
+     * Create a new parallel gzip stream with the default block size and compression level.
+     * @param out The stream to write the compressed data to.
+     * @param pool The pool to compress blocks on.
+     */
+    public ParallelGzipOutputStream(OutputStream out, ForkJoinPool pool) {
+        this(out, pool, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Create a new parallel gzip stream.
+     * @param out The stream to write the compressed data to.
+     * @param pool The pool to compress blocks on.
+     * @param blockSize The number of bytes in each compressed block.
+     * @param level The compression level.
+     */
+    public ParallelGzipOutputStream(OutputStream out, ForkJoinPool pool, int blockSize, int level) {
+        this.out = out;
+        this.pool = pool;
+        this.blockSize = blockSize;
+        this.level = level;
+        //allow enough blocks in flight to keep every thread busy while the oldest is written
+        this.maxPending = pool.getParallelism() * 2;
+        this.buffer = new byte[blockSize];
+    }
+
+    /**
+     * Set whether the data that is written next is stored without compression.
+     * Used for data that is already compressed.
+     */
+    public void setStored(boolean stored) throws IOException {
+        if (this.stored != stored) {
+            if (count > 0)
+                submitBlock();
+            this.stored = stored;
+        }
+    }
+
+    /**
+     * Get the number of uncompressed bytes that have been written to the stream.
+     */
+    public long getBytesWritten() {
+        return uncompressed + count;
+    }
+
+    /**
+     * Get the uncompressed offset of the start of each gzip member. Only valid after the stream has been finished.
+     */
+    public long[] getMemberUncompressedOffsets() {
+        return Arrays.copyOf(memberUncompressed, writtenMembers);
+    }
+
+    /**
+     * Get the offset in the output of the start of each gzip member. Only valid after the stream has been finished.
+     */
+    public long[] getMemberCompressedOffsets() {
+        return Arrays.copyOf(memberCompressed, writtenMembers);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        buffer[count++] = (byte)b;
+        if (count == blockSize)
+            submitBlock();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int size = Math.min(len, blockSize - count);
+            System.arraycopy(b, off, buffer, count, size);
+            count += size;
+            off += size;
+            len -= size;
+            if (count == blockSize)
+                submitBlock();
+        }
+    }
+
+    /**
+     * Compress and write any data that has been buffered. Each flush ends
+     * a gzip member so frequent flushes will reduce the compression ratio.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (count > 0)
+            submitBlock();
+        while (!pending.isEmpty())
+            writeNext();
+        out.flush();
+    }
+
+    /**
+     * Finish writing the compressed data without closing the output stream.
+     */
+    public void finish() throws IOException {
+        if (finished)
+            return;
+        //an empty stream still needs one member to be a valid gzip file
+        if (count > 0 || !written)
+            submitBlock();
+        while (!pending.isEmpty())
+            writeNext();
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        }
+        finally {
+            //cancel anything that didn't get written because of an error
+            for (ForkJoinTask<byte[]> task : pending)
+                task.cancel(false);
+            pending.clear();
+            out.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        final byte[] block = buffer;
+        final int length = count;
+        final int blockLevel = stored ? Deflater.NO_COMPRESSION : level;
+        pending.add(pool.submit(() -> compress(block, length, blockLevel)));
+        if (submittedMembers == memberUncompressed.length) {
+            memberUncompressed = Arrays.copyOf(memberUncompressed, submittedMembers * 2);
+            memberCompressed = Arrays.copyOf(memberCompressed, submittedMembers * 2);
+        }
+        memberUncompressed[submittedMembers++] = uncompressed;
+        uncompressed += length;
+        written = true;
+        buffer = new byte[blockSize];
+        count = 0;
+        while (pending.size() > maxPending)
+            writeNext();
+    }
+
+    private void writeNext() throws IOException {
+        byte[] member;
+        try {
+            member = pending.removeFirst().join();
+        }
+        catch (RuntimeException e) {
+            throw new IOException("Unable to compress block", e);
+        }
+        memberCompressed[writtenMembers++] = compressed;
+        out.write(member);
+        compressed += member.length;
+    }
+
+    /**
+     * Compress a block of data into a complete gzip member.
+     */
+    static byte[] compress(byte[] data, int length, int level) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(level == Deflater.NO_COMPRESSION ? length + 64 : length / 2 + 64);
+        stream.write(HEADER, 0, HEADER.length);
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            byte[] temp = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                int size = deflater.deflate(temp);
+                stream.write(temp, 0, size);
+            }
+        }
+        finally {
+            deflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        writeInt(stream, (int)crc.getValue());
+        writeInt(stream, length);
+        return stream.toByteArray();
+    }
+
+    private static void writeInt(ByteArrayOutputStream stream, int value) {
+        stream.write(value & 0xff);
+        stream.write((value >> 8) & 0xff);
+        stream.write((value >> 16) & 0xff);
+        stream.write((value >> 24) & 0xff);
+    }
+}
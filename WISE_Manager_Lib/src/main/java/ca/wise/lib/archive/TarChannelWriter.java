@@ -0,0 +1,125 @@
+package ca.wise.lib.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.archivers.zip.ZipEncoding;
+import org.apache.commons.compress.archivers.zip.ZipEncodingHelper;
+
+/**
+ * Writes an uncompressed tar archive directly to a file channel.
+ *
+ * Headers are built by {@link TarArchiveEntry} and the file contents are
+ * copied with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * so the kernel can move the bytes without copying them through the heap.
+ * Long names use GNU long name entries and large sizes use star binary
+ * numbers, the same as the archives written by {@link ArchiveWriter#tarGz}.
+ */
+class TarChannelWriter implements Closeable {
+
+    private static final int RECORD_SIZE = TarConstants.DEFAULT_RCDSIZE;
+    private static final int BLOCK_SIZE = TarConstants.DEFAULT_BLKSIZE;
+    private static final String LONG_LINK_NAME = "././@LongLink";
+
+    private final FileChannel channel;
+    private final ZipEncoding encoding = ZipEncodingHelper.getZipEncoding(StandardCharsets.UTF_8.name());
+    private final byte[] header = new byte[RECORD_SIZE];
+    private final ByteBuffer padding = ByteBuffer.allocate(BLOCK_SIZE);
+    private boolean finished = false;
+
+    TarChannelWriter(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Add a file to the archive.
+     * @param file The file to add.
+     * @param name The name of the file in the archive.
+     * @return The index entry for the file.
+     */
+    ArchiveIndex.Entry putFile(Path file, String name) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length >= TarConstants.NAMELEN) {
+            //the name is stored as the contents of a GNU long name entry with a trailing null
+            TarArchiveEntry longName = new TarArchiveEntry(LONG_LINK_NAME, TarConstants.LF_GNUTYPE_LONGNAME);
+            longName.setSize(nameBytes.length + 1);
+            writeHeader(longName);
+            write(ByteBuffer.wrap(nameBytes));
+            pad(nameBytes.length);
+        }
+        
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            TarArchiveEntry entry = new TarArchiveEntry(file.toFile(), name);
+            //use the size of the open file in case it changed since the entry was created
+            long size = in.size();
+            entry.setSize(size);
+            writeHeader(entry);
+            long offset = channel.position();
+            long position = 0;
+            while (position < size) {
+                long count = in.transferTo(position, size - position, channel);
+                if (count <= 0)
+                    throw new IOException("Unable to copy " + file.toString() + " into the archive");
+                position += count;
+            }
+            pad(size);
+            return new ArchiveIndex.Entry(name, size, entry.getModTime().getTime(), offset);
+        }
+    }
+
+    private void writeHeader(TarArchiveEntry entry) throws IOException {
+        entry.writeEntryHeader(header, encoding, true);
+        write(ByteBuffer.wrap(header));
+    }
+
+    /**
+     * Pad the end of an entry to a full record.
+     */
+    private void pad(long size) throws IOException {
+        int remainder = (int)(size % RECORD_SIZE);
+        if (remainder > 0)
+            writeZeros(RECORD_SIZE - remainder);
+    }
+
+    private void writeZeros(int count) throws IOException {
+        padding.clear();
+        padding.limit(count);
+        write(padding);
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    /**
+     * Write the end of archive marker without closing the channel.
+     */
+    void finish() throws IOException {
+        if (finished)
+            return;
+        //two empty records mark the end of the archive, then the archive is padded to a full block
+        writeZeros(RECORD_SIZE * 2);
+        int remainder = (int)(channel.position() % BLOCK_SIZE);
+        if (remainder > 0)
+            writeZeros(BLOCK_SIZE - remainder);
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        }
+        finally {
+            channel.close();
+        }
+    }
+}
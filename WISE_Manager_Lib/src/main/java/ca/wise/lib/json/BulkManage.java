@@ -0,0 +1,70 @@
+package ca.wise.lib.json;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+/**
+ * A request to run the same management operation on many finished jobs.
+ * Jobs can either be listed by name or selected with a filter.
+ */
+@JsonInclude(Include.NON_NULL)
+public class BulkManage {
+
+    /**
+     * The operation to run on each job. One of zip, tar, delete, or rerun.
+     */
+    @JsonProperty("request")
+    public String request;
+    
+    /**
+     * The names of the jobs to manage. If set the filters are ignored.
+     */
+    @JsonProperty("targets")
+    public List<String> targets;
+    
+    /**
+     * Only manage jobs that completed before this time. ISO 8601 with or without an offset.
+     */
+    @JsonProperty("older_than")
+    public String olderThan;
+    
+    /**
+     * Only manage jobs that completed more than this many days ago.
+     * Ignored if {@link #olderThan} is set.
+     */
+    @JsonProperty("older_than_days")
+    public Integer olderThanDays;
+    
+    /**
+     * Only manage jobs that finished with this status, ex. Finished, Error, or Stopped.
+     */
+    @JsonProperty("status")
+    public String status;
+    
+    /**
+     * For rerun, should the previous outputs be deleted. Defaults to true.
+     */
+    @JsonProperty("delete_old")
+    public Boolean deleteOld;
+    
+    /**
+     * For tar, should the archive be gzipped. Defaults to true.
+     */
+    @JsonProperty("compress")
+    public Boolean compress;
+    
+    /**
+     * For zip and tar, delete the job directory after it has been archived.
+     */
+    @JsonProperty("delete_archived")
+    public Boolean deleteArchived;
+    
+    /**
+     * An ID that will be returned in the progress messages so they can be matched with the request.
+     */
+    @JsonProperty("response_id")
+    public String responseId;
+}
@@ -0,0 +1,95 @@
+package ca.wise.lib.json;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+/**
+ * Progress of a bulk management request. One message is sent after each
+ * job has been managed and a final message is sent with {@link #complete}
+ * set once all jobs have been managed.
+ */
+@JsonInclude(Include.NON_NULL)
+public class BulkManageProgress {
+
+    /**
+     * The ID from the request.
+     */
+    @JsonProperty("response_id")
+    public String responseId;
+    
+    /**
+     * The operation that is being run.
+     */
+    @JsonProperty("request")
+    public String request;
+    
+    /**
+     * The name of the job that was just managed. Not set on the final message.
+     */
+    @JsonProperty("job_name")
+    public String jobName;
+    
+    /**
+     * Was the operation successful for the job.
+     */
+    @JsonProperty("success")
+    public Boolean success;
+    
+    /**
+     * The number of bytes freed by managing the job, after subtracting the
+     * size of any archive that was created. Never negative, archiving a job
+     * without deleting it frees nothing.
+     */
+    @JsonProperty("bytes_freed")
+    public Long bytesFreed;
+    
+    /**
+     * The size of the archive that was created for the job, 0 if no archive
+     * was created. Not set on the final message.
+     */
+    @JsonProperty("bytes_archived")
+    public Long bytesArchived;
+    
+    /**
+     * The number of jobs that have been managed so far.
+     */
+    @JsonProperty("index")
+    public int index;
+    
+    /**
+     * The total number of jobs that will be managed.
+     */
+    @JsonProperty("total")
+    public int total;
+    
+    /**
+     * The number of bytes freed by all jobs managed so far.
+     */
+    @JsonProperty("total_bytes_freed")
+    public long totalBytesFreed;
+    
+    /**
+     * The total size of the archives created so far.
+     */
+    @JsonProperty("total_bytes_archived")
+    public long totalBytesArchived;
+    
+    /**
+     * The number of jobs that failed so far.
+     */
+    @JsonProperty("failed")
+    public int failed;
+    
+    /**
+     * True on the final message.
+     */
+    @JsonProperty("complete")
+    public boolean complete;
+    
+    /**
+     * A reason the request couldn't be run.
+     */
+    @JsonProperty("error")
+    public String error;
+}
@@ -0,0 +1,86 @@
+package ca.wise.lib.json;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+/**
+ * Rules for running W.I.S.E. jobs in their own cgroup on Linux. Read from
+ * the {@code cgroup} block of config.json.
+ */
+@JsonInclude(Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class CgroupPolicy {
+
+    /**
+     * Should jobs be run in their own cgroup.
+     */
+    @JsonProperty("enabled")
+    public boolean enabled = true;
+
+    /**
+     * The cgroup to create the job cgroups in, relative to the cgroup mount point. The
+     * cgroup must be delegated to the user the manager runs as. If not set the cgroup
+     * the manager was started in is used and the manager is moved into a child of it.
+     */
+    @JsonProperty("root")
+    public String root;
+
+    /**
+     * Resource limits for each priority class. The class with the highest
+     * {@code min_priority} that is not above a jobs priority is used.
+     */
+    @JsonProperty("classes")
+    public List<PriorityClass> classes = new ArrayList<>();
+
+    /**
+     * Find the limits for a job.
+     * @param priority The priority of the job.
+     * @return The limits, or null if there are no limits for the priority.
+     */
+    public PriorityClass findClass(int priority) {
+        PriorityClass retval = null;
+        for (PriorityClass c : classes) {
+            if (c.minPriority <= priority && (retval == null || c.minPriority > retval.minPriority))
+                retval = c;
+        }
+        return retval;
+    }
+
+    /**
+     * The resource limits for jobs within a range of priorities.
+     */
+    @JsonInclude(Include.NON_NULL)
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class PriorityClass {
+
+        /**
+         * The lowest job priority that the limits apply to.
+         */
+        @JsonProperty("min_priority")
+        public int minPriority = Integer.MIN_VALUE;
+
+        /**
+         * The maximum memory that a job can use in megabytes, written to {@code memory.max}.
+         */
+        @JsonProperty("memory_max_mb")
+        public Long memoryMaxMb;
+
+        /**
+         * The maximum CPU time that a job can use as a percentage of one processor, ex. 400
+         * for four processors. Written to {@code cpu.max}.
+         */
+        @JsonProperty("cpu_max_percent")
+        public Integer cpuMaxPercent;
+
+        /**
+         * The relative storage bandwidth weight of a job from 1 to 10000, written to {@code io.weight}.
+         */
+        @JsonProperty("io_weight")
+        public Integer ioWeight;
+    }
+}
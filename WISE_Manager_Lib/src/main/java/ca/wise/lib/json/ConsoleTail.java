@@ -0,0 +1,52 @@
+package ca.wise.lib.json;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+/**
+ * The end of the console output of a job.
+ */
+@JsonInclude(Include.NON_NULL)
+public class ConsoleTail {
+
+    /**
+     * The name of the job.
+     */
+    @JsonProperty("job_name")
+    public String jobName;
+    
+    /**
+     * The current status of the job.
+     */
+    @JsonProperty("status")
+    public String status;
+    
+    /**
+     * The end of the jobs standard output.
+     */
+    @JsonProperty("stdout")
+    public String stdout;
+    
+    /**
+     * The end of the jobs standard error.
+     */
+    @JsonProperty("stderr")
+    public String stderr;
+    
+    /**
+     * The total number of bytes the job has written to standard output.
+     */
+    @JsonProperty("stdout_total")
+    public long stdoutTotal;
+    
+    /**
+     * The total number of bytes the job has written to standard error.
+     */
+    @JsonProperty("stderr_total")
+    public long stderrTotal;
+    
+    public ConsoleTail(String jobName) {
+        this.jobName = jobName;
+    }
+}
@@ -25,6 +25,12 @@ public class FileList {
     @JsonProperty("files")
     public List<String> files = new ArrayList<>();
     
+    /**
+     * The name of the archive the files were listed from if the job has been archived.
+     */
+    @JsonProperty("archive")
+    public String archive;
+    
     public FileList(String jobName) {
         this.jobName = jobName;
     }
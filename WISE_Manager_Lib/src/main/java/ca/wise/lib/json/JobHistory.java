@@ -34,6 +34,12 @@ public class JobHistory {
 	@JsonProperty("complete_time")
 	public String completeTime;
 	
+	/**
+	 * The resources used by the job. Only set for completed jobs.
+	 */
+	@JsonProperty("resources")
+	public ResourceUsage resources;
+	
 	public enum HistoryStatus {
 		Unknown("unknown"),
 		All("all"),
@@ -17,7 +17,44 @@ public class JobHistoryRequest {
 	public HistoryStatus filter;
 	
 	/**
-	 * Skip some jobs.
+	 * Only return jobs whose names start with this prefix.
+	 */
+	@JsonProperty("name_prefix")
+	public String namePrefix;
+	
+	/**
+	 * Only return jobs submitted at or after this time. ISO 8601 with or without an offset.
+	 */
+	@JsonProperty("submit_time_from")
+	public String submitTimeFrom;
+	
+	/**
+	 * Only return jobs submitted at or before this time. ISO 8601 with or without an offset.
+	 */
+	@JsonProperty("submit_time_to")
+	public String submitTimeTo;
+	
+	/**
+	 * Only return jobs that completed at or after this time. ISO 8601 with or without an offset.
+	 */
+	@JsonProperty("complete_time_from")
+	public String completeTimeFrom;
+	
+	/**
+	 * Only return jobs that completed at or before this time. ISO 8601 with or without an offset.
+	 */
+	@JsonProperty("complete_time_to")
+	public String completeTimeTo;
+	
+	/**
+	 * Continue from a previous response. Use the {@code next_cursor} value
+	 * from the previous page with the same filters.
+	 */
+	@JsonProperty("cursor")
+	public String cursor;
+	
+	/**
+	 * Skip some jobs. Ignored if a cursor is used.
 	 */
 	@JsonProperty("offset")
 	public int offset = -1;
@@ -29,6 +29,12 @@ public class JobRequest {
 	@JsonProperty("use_cores")
 	public int cores;
 	
+	/**
+	 * Should the job use every hyperthread of its cores, null to use the managers default.
+	 */
+	@JsonProperty("hyperthreads")
+	public Boolean hyperthreads;
+	
 	@JsonProperty("file_extension")
 	public String extension;
 	
@@ -64,6 +70,7 @@ public class JobRequest {
 	public JobRequest(JobRequest copy) {
 	    this.jobName = copy.jobName;
 	    this.cores = copy.cores;
+	    this.hyperthreads = copy.hyperthreads;
 	    this.extension = copy.extension;
 	    this.fileSize = copy.fileSize;
 	    this.priority = copy.priority;
@@ -0,0 +1,89 @@
+package ca.wise.lib.json;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+/**
+ * The most recent resource usage of the running jobs.
+ */
+@JsonInclude(Include.NON_NULL)
+public class JobTelemetry {
+
+    /**
+     * The usage of each running job.
+     */
+    @JsonProperty("jobs")
+    public List<Sample> jobs = new ArrayList<>();
+    
+    /**
+     * The resource usage of a single job.
+     */
+    @JsonInclude(Include.NON_NULL)
+    public static class Sample {
+        
+        /**
+         * The name of the job.
+         */
+        @JsonProperty("job_name")
+        public String jobName;
+        
+        /**
+         * The time the sample was taken in nanoseconds since the epoch.
+         */
+        @JsonProperty("time")
+        public long time;
+        
+        /**
+         * The CPU usage as a percentage of all processors.
+         */
+        @JsonProperty("cpu")
+        public double cpu;
+        
+        /**
+         * The resident memory of the job and its child processes in bytes.
+         */
+        @JsonProperty("rss")
+        public long rss;
+        
+        /**
+         * The total number of bytes the job has read from storage.
+         */
+        @JsonProperty("read_bytes")
+        public long readBytes;
+        
+        /**
+         * The total number of bytes the job has written to storage.
+         */
+        @JsonProperty("write_bytes")
+        public long writeBytes;
+        
+        /**
+         * The number of threads used by the job and its child processes.
+         */
+        @JsonProperty("threads")
+        public int threads;
+        
+        /**
+         * The NUMA node the job is locked to, null if it isn't locked to a node.
+         */
+        @JsonProperty("numa_node")
+        public Integer numaNode;
+        
+        /**
+         * The number of bytes of the jobs memory on each NUMA node. Only reported for jobs
+         * that are locked to a node.
+         */
+        @JsonProperty("numa_memory")
+        public long[] numaMemory;
+        
+        /**
+         * The fraction of the jobs memory that is on the node it is locked to.
+         */
+        @JsonProperty("numa_local")
+        public Double numaLocal;
+    }
+}
@@ -15,4 +15,10 @@ public class Manage {
 	
 	@JsonProperty("delete_old")
 	public Boolean deleteOld;
+	
+	/**
+	 * For tar, should the archive be gzipped. Defaults to true.
+	 */
+	@JsonProperty("compress")
+	public Boolean compress;
 }
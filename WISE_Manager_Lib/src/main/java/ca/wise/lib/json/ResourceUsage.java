@@ -0,0 +1,76 @@
+package ca.wise.lib.json;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+/**
+ * A summary of the resources used by a job while it was running.
+ */
+@JsonInclude(Include.NON_NULL)
+public class ResourceUsage {
+
+    /**
+     * The name of the job. Only set when the usage is sent on its own.
+     */
+    @JsonProperty("job_name")
+    public String jobName;
+    
+    /**
+     * How long the job ran for in seconds.
+     */
+    @JsonProperty("wall_seconds")
+    public double wallSeconds;
+    
+    /**
+     * The total user and kernel CPU time used by the job in seconds.
+     */
+    @JsonProperty("cpu_seconds")
+    public double cpuSeconds;
+    
+    /**
+     * The mean CPU usage as a percentage of all processors.
+     */
+    @JsonProperty("mean_cpu")
+    public double meanCpu;
+    
+    /**
+     * The number of processors used to scale the CPU usage.
+     */
+    @JsonProperty("cpu_count")
+    public int cpuCount;
+    
+    /**
+     * The largest resident memory of the job in bytes.
+     */
+    @JsonProperty("peak_rss")
+    public long peakRss;
+    
+    /**
+     * The largest number of threads used by the job.
+     */
+    @JsonProperty("peak_threads")
+    public int peakThreads;
+    
+    /**
+     * The total number of bytes the job read from storage.
+     */
+    @JsonProperty("read_bytes")
+    public long readBytes;
+    
+    /**
+     * The total number of bytes the job wrote to storage.
+     */
+    @JsonProperty("write_bytes")
+    public long writeBytes;
+    
+    /**
+     * The CPU and memory usage over the run of the job. Each point is
+     * {@code [seconds since the job started, CPU %, resident bytes]}.
+     * Not included in the job history.
+     */
+    @JsonProperty("curve")
+    public List<double[]> curve;
+}
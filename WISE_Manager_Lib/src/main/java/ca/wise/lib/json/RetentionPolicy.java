@@ -0,0 +1,81 @@
+package ca.wise.lib.json;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+/**
+ * Rules for removing old finished jobs from the job directory. Read from
+ * the {@code retention} block of config.json.
+ */
+@JsonInclude(Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class RetentionPolicy {
+
+    /**
+     * Is the retention engine enabled.
+     */
+    @JsonProperty("enabled")
+    public boolean enabled = true;
+    
+    /**
+     * How often to check the job directory when there is no retention work to do, in minutes.
+     */
+    @JsonProperty("interval_minutes")
+    public int intervalMinutes = 60;
+    
+    /**
+     * Remove finished jobs that completed more than this many days ago.
+     */
+    @JsonProperty("max_age_days")
+    public Integer maxAgeDays;
+    
+    /**
+     * Remove the oldest finished jobs while the job directories use more than this many gigabytes.
+     */
+    @JsonProperty("max_total_gb")
+    public Double maxTotalGb;
+    
+    /**
+     * The number of the most recently finished jobs to always keep for each status,
+     * ex. {@code {"Finished": 50, "Error": 10}}.
+     */
+    @JsonProperty("keep_last")
+    public Map<String, Integer> keepLast = new HashMap<>();
+    
+    /**
+     * What to do with a job that is removed. Either archive or delete.
+     */
+    @JsonProperty("action")
+    public String action = "archive";
+    
+    /**
+     * The type of archive to create. One of zip, tar.gz, or tar.
+     */
+    @JsonProperty("archive_format")
+    public String archiveFormat = "zip";
+    
+    /**
+     * The maximum number of jobs to remove in each pass.
+     */
+    @JsonProperty("batch_size")
+    public int batchSize = 10;
+    
+    /**
+     * Should jobs be archived before they are removed.
+     */
+    public boolean isArchive() {
+        return !"delete".equalsIgnoreCase(action);
+    }
+    
+    /**
+     * The maximum size of the job directories in bytes, or -1 if there is no maximum.
+     */
+    public long getMaxTotalBytes() {
+        return maxTotalGb == null ? -1 : (long)(maxTotalGb * 1024 * 1024 * 1024);
+    }
+}
@@ -0,0 +1,60 @@
+package ca.wise.lib.json;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+/**
+ * A summary of the work done by the retention engine since the last summary.
+ */
+@JsonInclude(Include.NON_NULL)
+public class RetentionSummary {
+
+    /**
+     * The time that the first pass of the sweep started. ISO 8601 with an offset.
+     */
+    @JsonProperty("start_time")
+    public String startTime;
+    
+    /**
+     * The time that the sweep completed. ISO 8601 with an offset.
+     */
+    @JsonProperty("end_time")
+    public String endTime;
+    
+    /**
+     * The number of finished jobs in the job directory at the end of the sweep.
+     */
+    @JsonProperty("finished_jobs")
+    public int finishedJobs;
+    
+    /**
+     * The number of jobs that were archived and removed from the job directory.
+     */
+    @JsonProperty("archived")
+    public int archived;
+    
+    /**
+     * The number of jobs that were deleted.
+     */
+    @JsonProperty("deleted")
+    public int deleted;
+    
+    /**
+     * The number of jobs that couldn't be archived or deleted.
+     */
+    @JsonProperty("failed")
+    public int failed;
+    
+    /**
+     * The number of bytes removed from the job directory.
+     */
+    @JsonProperty("bytes_freed")
+    public long bytesFreed;
+    
+    /**
+     * The total size of the finished jobs remaining in the job directory.
+     */
+    @JsonProperty("total_bytes")
+    public long totalBytes;
+}
@@ -1,18 +1,21 @@
 package ca.wise.lib.linux;
 
-import java.util.BitSet;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 import com.sun.jna.Library;
 import com.sun.jna.Native;
-import com.sun.jna.NativeLong;
-import com.sun.jna.ptr.LongByReference;
 
+import ca.wise.CpuMask;
 import oshi.SystemInfo;
 import oshi.hardware.HardwareAbstractionLayer;
 
 public class AffinityKernelLinux {
 	
 	private LinuxLibrary _internal;
+	private CpuMask _system = null;
 	
 	private AffinityKernelLinux() {
 		_internal = (LinuxLibrary)Native.load("c", LinuxLibrary.class);
@@ -22,40 +25,63 @@ public class AffinityKernelLinux {
 		return new AffinityKernelLinux();
 	}
 	
-	public boolean GetProcessAffinityMask(final long pid, LongByReference lpProcessAffinityMask, LongByReference lpSystemAffinityMask) {
+	/**
+	 * Get the processors that a process is allowed to run on.
+	 * @return The processors, or null if the affinity couldn't be read.
+	 */
+	public CpuMask GetProcessAffinityMask(final long pid) {
 		final cpu_set_t cpuset = new cpu_set_t();
 		try {
-			boolean retval = _internal.sched_getaffinity((int)(pid == -1 ? 0 : pid), cpu_set_t.SIZE_OF_CPU_SET_T, cpuset) == 0;
-			if (retval) {
-				BitSet set = new BitSet(cpu_set_t.__CPU_SETSIZE);
-				int i = 0;
-				for (NativeLong nl : cpuset.__bits) {
-					for (int j = 0; j < Long.SIZE; j++)
-						set.set(i++, ((nl.longValue() >>> j) & 1) != 0);
+			if (_internal.sched_getaffinity((int)(pid == -1 ? 0 : pid), cpu_set_t.SIZE_OF_CPU_SET_T, cpuset) == 0) {
+				CpuMask.Builder retval = new CpuMask.Builder();
+				for (int i = 0; i < cpuset.__bits.length; i++) {
+					long bits = cpuset.__bits[i].longValue();
+					//a 32 bit long is sign extended
+					if (cpu_set_t.__NCPUBITS < Long.SIZE)
+						bits &= (1L << cpu_set_t.__NCPUBITS) - 1;
+					while (bits != 0) {
+						retval.set(i * cpu_set_t.__NCPUBITS + Long.numberOfTrailingZeros(bits));
+						bits &= bits - 1;
+					}
 				}
-				lpProcessAffinityMask.setValue(set.toLongArray()[0]);
-				SystemInfo info = new SystemInfo();
-				HardwareAbstractionLayer hal = info.getHardware();
-				int coreCount = hal.getProcessor().getLogicalProcessorCount();
-				long system = 0;
-				for (i = 0; i < coreCount; i++) {
-					system |= (1L << i);
-				}
-				lpSystemAffinityMask.setValue(system);
-				
-				return retval;
+				return retval.build();
 			}
 		}
 		catch (Exception e) {
 			e.printStackTrace();
 		}
-		return false;
+		return null;
+	}
+	
+	/**
+	 * Get every processor that is online.
+	 */
+	public synchronized CpuMask GetSystemAffinityMask() {
+		if (_system == null) {
+			try {
+				_system = CpuMask.parse(new String(Files.readAllBytes(Paths.get("/sys/devices/system/cpu/online")), StandardCharsets.US_ASCII));
+			}
+			catch (IOException e) {
+				_system = CpuMask.EMPTY;
+			}
+			if (_system.isEmpty()) {
+				SystemInfo info = new SystemInfo();
+				HardwareAbstractionLayer hal = info.getHardware();
+				_system = CpuMask.range(0, hal.getProcessor().getLogicalProcessorCount());
+			}
+		}
+		return _system;
 	}
 	
-	public boolean SetProcessAffinityMask(final long pid, long dwProcessAffinityMask) {
+	/**
+	 * Set the processors that a process is allowed to run on. Processors past
+	 * {@link cpu_set_t#__CPU_SETSIZE} are ignored.
+	 */
+	public boolean SetProcessAffinityMask(final long pid, CpuMask mask) {
 		final cpu_set_t cpuset = new cpu_set_t();
 		try {
-			cpuset.__bits[0].setValue(dwProcessAffinityMask);
+			for (int i = mask.nextSetBit(0); i >= 0 && i < cpu_set_t.__CPU_SETSIZE; i = mask.nextSetBit(i + 1))
+				cpu_set_t.__CPU_SET(i, cpuset);
 			return _internal.sched_setaffinity((int)(pid == -1 ? 0 : pid), cpu_set_t.SIZE_OF_CPU_SET_T, cpuset) == 0;
 		}
 		catch (Exception e) {
@@ -0,0 +1,117 @@
+package ca.wise.lib.linux;
+
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+
+import ca.hss.platform.OperatingSystem;
+
+/**
+ * Sets the NUMA memory policy of the calling thread with {@code set_mempolicy}.
+ * The policy is inherited by processes started from the thread so it can be
+ * used to place the memory of a W.I.S.E. process on a NUMA node.
+ */
+public class MemoryPolicyLinux {
+
+	private static final int MPOL_DEFAULT = 0;
+	private static final int MPOL_PREFERRED = 1;
+	private static final int MPOL_BIND = 2;
+
+	private static MemoryPolicyLinux _instance = null;
+	private static boolean _loaded = false;
+
+	private LinuxLibrary _internal;
+	private long _syscall;
+
+	private MemoryPolicyLinux(long syscall) {
+		_internal = (LinuxLibrary)Native.load("c", LinuxLibrary.class);
+		_syscall = syscall;
+	}
+
+	/**
+	 * Get the memory policy implementation for this platform.
+	 * @return The implementation, or null if memory policies aren't supported.
+	 */
+	public static synchronized MemoryPolicyLinux load() {
+		if (!_loaded) {
+			_loaded = true;
+			//glibc doesn't have a wrapper for set_mempolicy so it is called by number
+			String arch = System.getProperty("os.arch", "");
+			long syscall;
+			if (OperatingSystem.getOperatingSystem().getType() != OperatingSystem.Type.Linux)
+				syscall = -1;
+			else if (arch.equals("amd64") || arch.equals("x86_64"))
+				syscall = 238;
+			else if (arch.equals("aarch64"))
+				syscall = 237;
+			else
+				syscall = -1;
+			if (syscall > 0) {
+				try {
+					_instance = new MemoryPolicyLinux(syscall);
+				}
+				catch (UnsatisfiedLinkError e) { }
+			}
+		}
+		return _instance;
+	}
+
+	/**
+	 * Set the memory policy of the calling thread.
+	 * @param mode How strictly memory should be allocated on the node.
+	 * @param node The NUMA node to allocate memory on.
+	 * @return True if the policy was set.
+	 */
+	public boolean setThreadPolicy(Mode mode, int node) {
+		if (mode == Mode.None || node < 0)
+			return false;
+		long[] mask = new long[node / Long.SIZE + 1];
+		mask[node / Long.SIZE] = 1L << (node % Long.SIZE);
+		//the kernel reads one less than maxnode bits from the mask
+		NativeLong maxnode = new NativeLong(mask.length * (long)Long.SIZE + 1);
+		return _internal.syscall(_syscall, mode == Mode.Bind ? MPOL_BIND : MPOL_PREFERRED, mask, maxnode).longValue() == 0;
+	}
+
+	/**
+	 * Return the calling thread to the default memory policy of allocating on the local node.
+	 */
+	public boolean resetThreadPolicy() {
+		return _internal.syscall(_syscall, MPOL_DEFAULT, null, new NativeLong(0)).longValue() == 0;
+	}
+
+	/**
+	 * How a job's memory should be placed on its NUMA node.
+	 */
+	public enum Mode {
+		/**
+		 * Don't set a memory policy.
+		 */
+		None,
+		/**
+		 * Prefer the node but allocate on other nodes when it is full.
+		 */
+		Preferred,
+		/**
+		 * Only allocate on the node.
+		 */
+		Bind;
+
+		/**
+		 * Parse a mode, ignoring case.
+		 * @param value The mode to parse.
+		 * @param def The mode to use if the value isn't valid.
+		 */
+		public static Mode fromString(String value, Mode def) {
+			for (Mode mode : values()) {
+				if (mode.name().equalsIgnoreCase(value))
+					return mode;
+			}
+			return def;
+		}
+	}
+
+	private interface LinuxLibrary extends Library {
+
+		NativeLong syscall(long number, Object... args);
+	}
+}
@@ -13,7 +13,9 @@ import ca.wise.lib.json.JobHistory.HistoryStatus;
 public class JobHistoryWrapper {
     
     /**
-     * The total number of running jobs.
+     * The total number of jobs that match the request. If more than one
+     * filter was used this may be larger than the number of jobs that
+     * will actually be returned.
      */
     @JsonProperty("total_count")
     public int totalCount;
@@ -44,7 +46,15 @@ public class JobHistoryWrapper {
     public HistoryStatus filter;
 
     /**
-     * The list of job histories.
+     * A cursor that can be sent with the next request to get the
+     * next page of results. Not set if this was the last page.
+     */
+    @JsonProperty("next_cursor")
+    public String nextCursor;
+
+    /**
+     * The list of job histories. The job history handler leaves this empty
+     * and appends the cached history of each job to the serialized response.
      */
     @JsonProperty("jobs")
     public List<JobHistory> jobs;
@@ -41,7 +41,6 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.stream.Collectors;
 
 import javax.swing.SwingUtilities;
 
@@ -83,20 +82,28 @@ import ca.wise.geoserver.proto.ListCoverageStore.CoverageStoreList;
 import ca.wise.geoserver.proto.ListWorkspace.WorkspaceList;
 import ca.wise.lib.GlobalConfiguration;
 import ca.wise.lib.INewJobListener;
+import ca.wise.lib.ConsoleCapture;
 import ca.wise.lib.Job;
 import ca.wise.lib.JobLists;
+import ca.wise.lib.JobHistoryQuery;
 import ca.wise.lib.JobLists.IListChangedListener;
 import ca.wise.lib.JobStartDetails;
 import ca.wise.lib.MqttSettings;
 import ca.wise.lib.WISELogger;
+import ca.wise.lib.archive.ArchiveIndex;
+import ca.wise.lib.archive.ArchiveStreams;
 import ca.wise.lib.Settings;
+import ca.wise.lib.UsageHistory;
 import ca.wise.lib.WISELogger.LogName;
 import ca.wise.lib.json.Checkin;
 import ca.wise.lib.json.FileList;
-import ca.wise.lib.json.JobHistory;
 import ca.wise.lib.json.Manage;
+import ca.wise.lib.json.BulkManage;
+import ca.wise.lib.json.ConsoleTail;
+import ca.wise.lib.json.JobTelemetry;
+import ca.wise.lib.json.ResourceUsage;
+import ca.wise.lib.json.RetentionSummary;
 import ca.wise.lib.json.Shutdown;
-import ca.wise.lib.json.JobHistory.HistoryStatus;
 import ca.wise.lib.json.JobHistoryRequest;
 import ca.wise.lib.json.JobRequest;
 import ca.wise.lib.json.JobResponse;
@@ -131,6 +138,11 @@ public class MqttListener implements Closeable, MqttCallback, IMqttActionListene
 	public static final String TOPIC_BALANCE_RPC_START = "balancerpcstart";
 	public static final String TOPIC_BALANCE_LIST = "balancelist";
     public static final String TOPIC_VALIDATE = "validate";
+    public static final String TOPIC_BULK_PROGRESS = "bulkprogress";
+    public static final String TOPIC_RETENTION = "retention";
+    public static final String TOPIC_CONSOLE_OUTPUT = "consoleoutput";
+    public static final String TOPIC_TELEMETRY = "telemetry";
+    public static final String TOPIC_RESOURCE_USAGE = "resourceusage";
 
 	private MqttAsyncClient client;
 	private final JobLists jobs;
@@ -144,6 +156,10 @@ public class MqttListener implements Closeable, MqttCallback, IMqttActionListene
 	@Getter private final String persistenceDirectory;
 	private ThreadPoolExecutor executor;
 	private ThreadPoolExecutor geoServerExecutor;
+	/**
+	 * Files that are being streamed out of archives, kept open between chunks.
+	 */
+	private final ArchiveStreams archiveStreams = new ArchiveStreams();
 	private Lock locker = new ReentrantLock();
 	private ObjectMapper mapper = new ObjectMapper();
 	private boolean shuttingDown = false;
@@ -331,6 +347,8 @@ public class MqttListener implements Closeable, MqttCallback, IMqttActionListene
                 removeBalanceJob(job.getName());
             }
         });
+		jobs.addRetentionListener(this::sendRetentionSummary);
+		jobs.addTelemetryListener(this::sendTelemetry);
 		if (!address.startsWith("tcp:") && !address.startsWith("ws:") && !address.startsWith("wss:"))
 			address = "tcp://" + address;
 		this.address = address;
@@ -915,6 +933,7 @@ public class MqttListener implements Closeable, MqttCallback, IMqttActionListene
 			}
 			executor.shutdown();
 			geoServerExecutor.shutdown();
+			archiveStreams.close();
 		}
 		catch (JsonProcessingException | MqttException e) {
 			WISELogger.getSpecial(LogName.Backend).error("Unable to disconnect from MQTT broker.", e);
@@ -936,6 +955,8 @@ public class MqttListener implements Closeable, MqttCallback, IMqttActionListene
 				client.subscribe(new String[] {
 						topic + "/+/+/status",
 						topic + "/+/+/listfiles",
+						topic + "/+/+/consoletail",
+						topic + "/+/+/resources",
                         topic + "/+/+/shutdown",
 						topic + "/+/broadcast/reportin",
                         topic + "/+/" + myId + "/reportin",
@@ -956,6 +977,8 @@ public class MqttListener implements Closeable, MqttCallback, IMqttActionListene
                         topic + "/+/" + myId + "/requesthistory",
                         topic + "/+/manager/manage",
                         topic + "/+/" + myId + "/manage",
+                        topic + "/+/manager/bulkmanage",
+                        topic + "/+/" + myId + "/bulkmanage",
                         topic + "/+/manager/balancerequest",
                         topic + "/+/" + myId + "/balancerequest",
                         topic + "/+/manager/balancelist",
@@ -963,6 +986,8 @@ public class MqttListener implements Closeable, MqttCallback, IMqttActionListene
 				}, new int[] {
 						0,//status
 						0,//listfiles
+						0,//consoletail
+						0,//resources
                         0,//shutdown
 						0,//reportin
 						0,//reportin
@@ -1260,54 +1285,46 @@ public class MqttListener implements Closeable, MqttCallback, IMqttActionListene
 	 */
 	private void handleJobHistory(final ca.wise.lib.mqtt.MqttMessage message) {
 		executor.execute(() -> {
-			HistoryStatus filter = HistoryStatus.All;
-			int count = -1;
-			int offset = -1;
-			String responseId = null;
+			JobHistoryRequest request = null;
 			if (message.message != null && message.message.length() > 0) {
 				try {
-					JobHistoryRequest request = mapper.readValue(message.message, JobHistoryRequest.class);
-					filter = request.filter;
-					offset = request.offset;
-					count = request.count;
-					responseId = request.responseId;
+					request = mapper.readValue(message.message, JobHistoryRequest.class);
 				}
 				catch (IOException e) { }
 			}
-            JobHistoryWrapper retval = new JobHistoryWrapper();
-            retval.responseId = responseId;
-            retval.jobs = new ArrayList<>();
-            if (filter == HistoryStatus.Running || filter == HistoryStatus.QueueRun || filter == HistoryStatus.All) {
-                List<JobHistory> histories = jobs.getRunningJobDetailsList();
-                retval.jobs.addAll(histories);
-            }
-			if (filter == HistoryStatus.Queued || filter == HistoryStatus.QueueRun || filter == HistoryStatus.All) {
-                List<JobHistory> histories = jobs.getQueuedJobDetailsList();
-                retval.jobs.addAll(histories);
+			//filters and paging are applied while reading the job lists
+			JobHistoryQuery query = JobHistoryQuery.fromRequest(request);
+			JobHistoryQuery.Page page = jobs.getJobHistory(query);
+			JobHistoryWrapper retval = new JobHistoryWrapper();
+			retval.totalCount = page.getTotalCount();
+			retval.nextCursor = page.getNextCursor();
+			retval.filter = query.getFilter();
+			if (request != null) {
+				retval.responseId = request.responseId;
+				if (request.count > 0 && request.offset >= 0) {
+					retval.count = request.count;
+					retval.offset = request.offset;
+				}
+			}
+			
+			byte[] payload;
+			try {
+				//the job list is added from the cached history of each job
+				payload = page.appendJobs(mapper.writeValueAsBytes(retval));
+			}
+			catch (IOException e) {
+				WISELogger.getSpecial(LogName.Backend).warn("Failed to serialize the job history.", e);
+				return;
 			}
-            if (filter == HistoryStatus.Complete || filter == HistoryStatus.All) {
-                List<JobHistory> histories = jobs.getCompleteJobDetailsList();
-                retval.jobs.addAll(histories);
-            }
-			retval.totalCount = retval.jobs.size();
-			retval.filter = filter;
-            if (count > 0 && offset >= 0) {
-                retval.count = count;
-                retval.offset = offset;
-                retval.jobs = retval.jobs.stream()
-                        .skip(offset)
-                        .limit(count)
-                        .collect(Collectors.toList());
-            }
 			
 			String topic = buildTopic(message.from, TOPIC_HISTORY);
 			locker.lock();
 			try {
 				if (client != null && client.isConnected()) {
-					client.publish(topic, mapper.writeValueAsBytes(retval), 0, false);
+					client.publish(topic, payload, 0, false);
 				}
 			}
-			catch (JsonProcessingException | MqttException e) {
+			catch (MqttException e) {
 				WISELogger.getSpecial(LogName.Backend).warn("Failed to send checkin.", e);
 			}
 			finally {
@@ -1323,7 +1340,7 @@ public class MqttListener implements Closeable, MqttCallback, IMqttActionListene
 	private void handleJobManagement(Manage options) {
         executor.execute(() -> {
     	    if (options.request.equals("tar")) {
-    	        jobs.tarFinishedJob(options.target);
+    	        jobs.tarFinishedJob(options.target, options.compress == null || options.compress);
     	    }
     	    else if (options.request.equals("zip")) {
     	        jobs.zipFinishedJob(options.target);
@@ -1338,6 +1355,127 @@ public class MqttListener implements Closeable, MqttCallback, IMqttActionListene
         });
 	}
 	
+	/**
+	 * Broadcast the most recent resource usage of the running jobs.
+	 */
+	private void sendTelemetry(List<Job> running) {
+		JobTelemetry telemetry = new JobTelemetry();
+		for (Job job : running) {
+			UsageHistory history = job.getUsageHistory();
+			UsageHistory.Sample latest = history == null ? null : history.latest();
+			if (latest != null) {
+				JobTelemetry.Sample sample = new JobTelemetry.Sample();
+				sample.jobName = job.getName();
+				sample.time = latest.time;
+				sample.cpu = latest.cpu;
+				sample.rss = latest.rss;
+				sample.readBytes = latest.readBytes;
+				sample.writeBytes = latest.writeBytes;
+				sample.threads = latest.threads;
+				int node = job.getCpuUsage().getNumaNode();
+				long[] numa = job.getNumaMemory();
+				if (node >= 0 && numa != null) {
+					sample.numaNode = node;
+					sample.numaMemory = numa;
+					long total = Arrays.stream(numa).sum();
+					if (total > 0)
+						sample.numaLocal = node < numa.length ? numa[node] / (double)total : 0.0;
+				}
+				telemetry.jobs.add(sample);
+			}
+		}
+		if (telemetry.jobs.isEmpty())
+			return;
+		byte[] payload;
+		try {
+			payload = mapper.writeValueAsBytes(telemetry);
+		}
+		catch (IOException e) {
+			WISELogger.getSpecial(LogName.Backend).warn("Failed to serialize job telemetry.", e);
+			return;
+		}
+		locker.lock();
+		try {
+			if (client != null && client.isConnected()) {
+				client.publish(buildTopic(TARGET_ALL, TOPIC_TELEMETRY), payload, 0, false);
+			}
+		}
+		catch (MqttException e) {
+			WISELogger.getSpecial(LogName.Backend).warn("Failed to send job telemetry.", e);
+		}
+		finally {
+			locker.unlock();
+		}
+	}
+	
+	/**
+	 * Broadcast the summary of a completed retention sweep.
+	 */
+	private void sendRetentionSummary(RetentionSummary summary) {
+		byte[] payload;
+		try {
+			payload = mapper.writeValueAsBytes(summary);
+		}
+		catch (IOException e) {
+			WISELogger.getSpecial(LogName.Backend).warn("Failed to serialize retention summary.", e);
+			return;
+		}
+		locker.lock();
+		try {
+			if (client != null && client.isConnected()) {
+				client.publish(buildTopic(TARGET_ALL, TOPIC_RETENTION), payload, 0, false);
+			}
+		}
+		catch (MqttException e) {
+			WISELogger.getSpecial(LogName.Backend).warn("Failed to send retention summary.", e);
+		}
+		finally {
+			locker.unlock();
+		}
+	}
+	
+	/**
+	 * Handle a request to manage many completed jobs. Progress is sent
+	 * to the requester after each job has been managed.
+	 * @param message The message that was received.
+	 */
+	private void handleBulkManagement(final ca.wise.lib.mqtt.MqttMessage message) {
+		BulkManage request;
+		try {
+			request = mapper.readValue(message.message, BulkManage.class);
+		}
+		catch (IOException e) {
+			WISELogger.getSpecial(LogName.Backend).warn("Unable to parse bulk manage request.");
+			return;
+		}
+		final String topic = buildTopic(message.from, TOPIC_BULK_PROGRESS);
+		//the jobs are managed on the job lists bulk thread pool, not the shared executor
+		jobs.bulkManage(request, progress -> {
+			if (progress.complete && "rerun".equals(progress.request) && progress.index > progress.failed)
+				notifyJobQueueRunListeners();
+			byte[] payload;
+			try {
+				payload = mapper.writeValueAsBytes(progress);
+			}
+			catch (IOException e) {
+				WISELogger.getSpecial(LogName.Backend).warn("Failed to serialize bulk manage progress.", e);
+				return;
+			}
+			locker.lock();
+			try {
+				if (client != null && client.isConnected()) {
+					client.publish(topic, payload, 0, false);
+				}
+			}
+			catch (MqttException e) {
+				WISELogger.getSpecial(LogName.Backend).warn("Failed to send bulk manage progress.", e);
+			}
+			finally {
+				locker.unlock();
+			}
+		});
+	}
+	
 	/**
 	 * Handle a request to run a new job.
 	 * @param message The message that was received.
@@ -1793,7 +1931,7 @@ public class MqttListener implements Closeable, MqttCallback, IMqttActionListene
 
 				    if (newJobListener != null && request != null)
 				        newJobListener.onNewJob(new JobStartDetails(request.jobName, request.cores,
-				                request.priority, request.validationState));
+				                request.priority, request.validationState, request.hyperthreads));
 				}
 			}
 			catch (IOException e) {
@@ -1880,10 +2018,10 @@ public class MqttListener implements Closeable, MqttCallback, IMqttActionListene
                     if (newJobListener != null) {
                         if (request.validationState == JobRequest.VALIDATE_NONE)
                             newJobListener.onNewJob(new JobStartDetails(request.jobName, request.cores,
-                                    request.priority, JobRequest.VALIDATE_NONE));
+                                    request.priority, JobRequest.VALIDATE_NONE, request.hyperthreads));
                         else
                             newJobListener.onNewJob(new JobStartDetails(request.jobName, request.cores,
-                                    request.priority, JobRequest.VALIDATE_COMPLETE));
+                                    request.priority, JobRequest.VALIDATE_COMPLETE, request.hyperthreads));
                     }
                 }
             }
@@ -2173,6 +2311,83 @@ public class MqttListener implements Closeable, MqttCallback, IMqttActionListene
         }
 	}
 	
+	/**
+	 * Send the resources used by a job, including its CPU and memory curve.
+	 * @param from The client that requested the resource usage.
+	 * @param job The name of the job.
+	 */
+	public void handleResourceUsageRequest(final String from, final String job) {
+        executor.execute(() -> {
+            Job found = jobs.findJob(job);
+            ResourceUsage retval = found == null ? null : found.getResourceUsage(true);
+            //the job isn't known or didn't record its resource usage
+            if (retval == null)
+                return;
+            retval.jobName = job;
+            byte[] payload;
+            try {
+                payload = mapper.writeValueAsBytes(retval);
+            }
+            catch (IOException e) {
+                WISELogger.getSpecial(LogName.Backend).warn("Failed to serialize resource usage.", e);
+                return;
+            }
+            locker.lock();
+            try {
+                if (client != null && client.isConnected()) {
+                    client.publish(buildTopic(from, TOPIC_RESOURCE_USAGE), payload, 0, false);
+                }
+            }
+            catch (MqttException e) {
+                WISELogger.getSpecial(LogName.Backend).warn("Failed to send resource usage.", e);
+            }
+            finally {
+                locker.unlock();
+            }
+        });
+	}
+	
+	/**
+	 * Send the end of the console output of a job that has been run since the manager started.
+	 * @param from The client that requested the output.
+	 * @param job The name of the job.
+	 */
+	public void handleConsoleTailRequest(final String from, final String job) {
+        executor.execute(() -> {
+            Job found = jobs.findJob(job);
+            ConsoleCapture console = found == null ? null : found.getConsole();
+            //only jobs that have been run by this manager have console output
+            if (console == null)
+                return;
+            ConsoleTail retval = new ConsoleTail(job);
+            retval.status = found.getStatus().name();
+            retval.stdout = new String(console.getStdout().tail(Settings.getConsoleTailSize()), StandardCharsets.UTF_8);
+            retval.stderr = new String(console.getStderr().tail(Settings.getConsoleTailSize()), StandardCharsets.UTF_8);
+            retval.stdoutTotal = console.getStdout().getWritten();
+            retval.stderrTotal = console.getStderr().getWritten();
+            byte[] payload;
+            try {
+                payload = mapper.writeValueAsBytes(retval);
+            }
+            catch (IOException e) {
+                WISELogger.getSpecial(LogName.Backend).warn("Failed to serialize console output.", e);
+                return;
+            }
+            locker.lock();
+            try {
+                if (client != null && client.isConnected()) {
+                    client.publish(buildTopic(from, TOPIC_CONSOLE_OUTPUT), payload, 0, false);
+                }
+            }
+            catch (MqttException e) {
+                WISELogger.getSpecial(LogName.Backend).warn("Failed to send console output.", e);
+            }
+            finally {
+                locker.unlock();
+            }
+        });
+	}
+	
 	/**
 	 * Handle a request to list the files that have been output by a known job.
 	 * @param from The requestor.
@@ -2180,9 +2395,11 @@ public class MqttListener implements Closeable, MqttCallback, IMqttActionListene
 	 */
 	public void handleJobFileListRequest(final String from, final String job) {
         executor.execute(() -> {
+            FileList retval = null;
             //if we have this job
             if (jobs.containsJob(job) != 0) {
-                FileList retval = new FileList(job);
+                retval = new FileList(job);
+                FileList list = retval;
                 Path path = Paths.get(Settings.getJobDirectory(), job);
                 Path outPath = path.resolve("Outputs");
                 //if the job output folder exists
@@ -2193,7 +2410,7 @@ public class MqttListener implements Closeable, MqttCallback, IMqttActionListene
                             .forEach(file -> {
                                 if (!file.getFileName().toString().endsWith(".gz")) {
                                     String filename = path.relativize(file).toString();
-                                    retval.files.add(filename);
+                                    list.files.add(filename);
                                 }
                             });
                     }
@@ -2201,6 +2418,25 @@ public class MqttListener implements Closeable, MqttCallback, IMqttActionListene
                         WISELogger.getSpecial(LogName.Backend).error("Failed to list output files", e);
                     }
                 }
+            }
+            else {
+                //list the outputs of an archived job from the archive index without extracting it
+                Path archive = jobs.findArchive(job);
+                if (archive != null) {
+                    retval = new FileList(job);
+                    retval.archive = archive.getFileName().toString();
+                    try {
+                        for (ArchiveIndex.Entry entry : ArchiveIndex.get(archive).getEntries()) {
+                            if (entry.getName().startsWith(job + "/Outputs/") && !entry.getName().endsWith(".gz"))
+                                retval.files.add(ArchiveIndex.relativeName(job, entry.getName()));
+                        }
+                    }
+                    catch (IOException e) {
+                        WISELogger.getSpecial(LogName.Backend).error("Failed to list archived output files", e);
+                    }
+                }
+            }
+            if (retval != null) {
                 //return the file list
                 String topic = buildTopic(from, "filelist");
                 try {
@@ -2314,6 +2550,12 @@ public class MqttListener implements Closeable, MqttCallback, IMqttActionListene
 								}
 						    }
 						}
+						//the job may have been archived, stream the file straight out of the archive
+						else {
+						    Path archive = jobs.findArchive(response.getJob());
+						    if (archive != null)
+						        streamArchivedFile(from, response, archive);
+						}
 					}
 				}
             }
@@ -2323,6 +2565,58 @@ public class MqttListener implements Closeable, MqttCallback, IMqttActionListene
 		});
 	}
 	
+	/**
+	 * Stream part of a file from an archived job over MQTT. Archived files are
+	 * always sent uncompressed and can't be transferred using gRPC.
+	 * @param from The remote machine that has requested the file.
+	 * @param response The details of the file request.
+	 * @param archive The archive that contains the job.
+	 */
+	private void streamArchivedFile(final String from, final ca.wise.comms.client.proto.FileStreamResponse response, Path archive) throws IOException {
+	    ArchiveIndex index = ArchiveIndex.get(archive);
+	    ArchiveIndex.Entry entry = index.find(response.getJob() + "/" + response.getFilename().replace('\\', '/'));
+	    if (entry == null)
+	        return;
+	    long offset = Math.max(0, response.getOffset());
+	    long size = entry.getSize();
+	    int bufferSize = (int)Math.max(0, Math.min(Settings.getBuilderMaxBufferSize(), size - offset));
+	    boolean finished = (offset + bufferSize) >= size;
+	    byte[] bytes = new byte[bufferSize];
+	    //continue from the end of the last chunk instead of decompressing the file from the start again
+	    if (bufferSize > 0)
+	        archiveStreams.read(from, index, entry, offset, bytes);
+	    ca.wise.comms.client.proto.FileStream.Builder streamBuilder = ca.wise.comms.client.proto.FileStream.newBuilder()
+	            .setJob(response.getJob())
+	            .setFilename(response.getFilename())
+	            .setFileSize(size)
+	            .setIsEndOfFile(finished)
+	            .setData(ByteString.copyFrom(bytes));
+	    if (response.hasCompressStream())
+	        streamBuilder.setCompressStream(BoolValue.of(false));
+	    byte[] payload = JsonFormat.printer()
+	            .omittingInsignificantWhitespace()
+	            .includingDefaultValueFields()
+	            .print(streamBuilder)
+	            .getBytes(StandardCharsets.UTF_8);
+	    
+	    String topic = buildTopic(from, TOPIC_FILE_STREAM_AVAILABLE);
+	    locker.lock();
+	    try {
+	        if (client != null && client.isConnected()) {
+	            client.publish(topic, payload, 0, false);
+	        }
+	    }
+	    catch (MqttException e) {
+	        WISELogger.getSpecial(LogName.Backend).warn("Failed to send message.", e);
+	    }
+	    finally {
+	        locker.unlock();
+	    }
+	    
+	    if (finished)
+	        fileStreamUploadComplete(response.getJob(), response.getFilename(), "MQTT");
+	}
+	
 	/**
 	 * Send the list of load balancing jobs we are currently managing so that a new instance of
 	 * W.I.S.E. Manager can also run them.
@@ -2439,6 +2733,12 @@ public class MqttListener implements Closeable, MqttCallback, IMqttActionListene
                 catch (IOException e) {
                     WISELogger.getSpecial(LogName.Backend).warn("Unable to parse manage request.");
                 }
+            }
+		    break;
+		case BulkManage:
+            //TODO some kind of authentication on these commands
+            if (libMsg.job.equals(myId) || libMsg.job.equals(TARGET_MANAGER)) {
+                handleBulkManagement(libMsg);
             }
 		    break;
 		case Checkin:
@@ -2490,6 +2790,12 @@ public class MqttListener implements Closeable, MqttCallback, IMqttActionListene
 		case ListFiles:
             handleJobFileListRequest(libMsg.from, libMsg.job);
 		    break;
+		case ConsoleTail:
+            handleConsoleTailRequest(libMsg.from, libMsg.job);
+		    break;
+		case ResourceUsage:
+            handleResourceUsageRequest(libMsg.from, libMsg.job);
+		    break;
 	    default:
             WISELogger.getSpecial(LogName.Backend).debug("Didn't know how to handle it");
 	        break;
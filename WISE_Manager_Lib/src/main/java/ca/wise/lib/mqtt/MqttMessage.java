@@ -114,6 +114,10 @@ public class MqttMessage {
         Checkin,
         JobHistory,
         Manage,
+        /**
+         * Run a management operation on many finished jobs.
+         */
+        BulkManage,
         FileStream,
         FileResponse,
         /**
@@ -139,7 +143,15 @@ public class MqttMessage {
         /**
          * A request has been made to list all files that have been output for a specified job.
          */
-        ListFiles;
+        ListFiles,
+        /**
+         * A request has been made for the end of the console output of a specified job.
+         */
+        ConsoleTail,
+        /**
+         * A request has been made for the resources used by a specified job.
+         */
+        ResourceUsage;
 		
 		public static MessageType fromString(String value) {
 			if (value.equalsIgnoreCase("status"))
@@ -160,6 +172,12 @@ public class MqttMessage {
 				return JobHistory;
 			else if (value.equalsIgnoreCase("manage"))
 				return Manage;
+			else if (value.equalsIgnoreCase("bulkmanage"))
+				return BulkManage;
+			else if (value.equalsIgnoreCase("consoletail"))
+				return ConsoleTail;
+			else if (value.equalsIgnoreCase("resources"))
+				return ResourceUsage;
 			else if (value.equalsIgnoreCase("file"))
 				return FileStream;
 			else if (value.equalsIgnoreCase("fileresponse"))
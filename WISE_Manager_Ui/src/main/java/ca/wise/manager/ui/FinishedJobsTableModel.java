@@ -4,18 +4,14 @@ import java.awt.Desktop;
 import java.io.IOException;
 import java.util.List;
 
-import javax.swing.table.AbstractTableModel;
-
 import ca.hss.tr.Resources;
 import ca.hss.tr.Translations;
 import ca.wise.lib.Job;
-import ca.wise.lib.Job.IPropertyChangedListener;
 import ca.wise.lib.JobLists;
 import ca.wise.lib.WISELogger;
-import ca.wise.lib.JobLists.IListChangedListener;
 import ca.wise.lib.WISELogger.LogName;
 
-public class FinishedJobsTableModel extends AbstractTableModel implements IListChangedListener, IPropertyChangedListener {
+public class FinishedJobsTableModel extends JobListTableModel {
 	private static final long serialVersionUID = 1L;
 	
 	private JobLists jobs;
@@ -87,18 +83,6 @@ public class FinishedJobsTableModel extends AbstractTableModel implements IListC
 		return "";
 	}
 
-	@Override
-	public void itemAdded(Job job, int index) {
-		job.addPropertyChangedEventListener(this);
-		fireTableRowsInserted(index, index);
-	}
-
-	@Override
-	public void itemRemoved(Job job, int index) {
-		job.removePropertyChangedEventListener(this);
-		fireTableRowsDeleted(index, index);
-	}
-
 	@Override
 	public void onPropertyChanged(Job job, String name, Object value) {
 		int index = jobs.getFinishedJobs().indexOf(job);
@@ -0,0 +1,63 @@
+package ca.wise.manager.ui;
+
+import java.util.List;
+
+import javax.swing.table.AbstractTableModel;
+
+import ca.wise.lib.Job;
+import ca.wise.lib.Job.IPropertyChangedListener;
+import ca.wise.lib.JobLists.IListChangedListener;
+import ca.wise.lib.ListChangeDispatcher.Change;
+
+/**
+ * A table model that shows one of the job lists. Rows are inserted and removed
+ * as the list changes and the model listens for property changes on every job
+ * that is in the list.
+ */
+public abstract class JobListTableModel extends AbstractTableModel implements IListChangedListener, IPropertyChangedListener {
+	private static final long serialVersionUID = 1L;
+	/**
+	 * The maximum number of separate row ranges to report in one update before refreshing the whole table instead.
+	 */
+	private static final int MAX_RANGE_EVENTS = 32;
+
+	@Override
+	public void itemAdded(Job job, int index) {
+		job.addPropertyChangedEventListener(this);
+		fireTableRowsInserted(index, index);
+	}
+
+	@Override
+	public void itemRemoved(Job job, int index) {
+		job.removePropertyChangedEventListener(this);
+		fireTableRowsDeleted(index, index);
+	}
+
+	@Override
+	public void itemsAdded(List<Job> added, int index) {
+		added.forEach(x -> x.addPropertyChangedEventListener(this));
+		fireTableRowsInserted(index, index + added.size() - 1);
+	}
+
+	@Override
+	public void itemsRemoved(List<Job> removed, int index) {
+		removed.forEach(x -> x.removePropertyChangedEventListener(this));
+		fireTableRowsDeleted(index, index + removed.size() - 1);
+	}
+
+	@Override
+	public void itemsChanged(List<Change> changes) {
+		//too many separate ranges, refresh the whole table once
+		if (changes.size() > MAX_RANGE_EVENTS) {
+			for (Change change : changes) {
+				if (change.isAdded())
+					change.getJobs().forEach(x -> x.addPropertyChangedEventListener(this));
+				else
+					change.getJobs().forEach(x -> x.removePropertyChangedEventListener(this));
+			}
+			fireTableDataChanged();
+		}
+		else
+			IListChangedListener.super.itemsChanged(changes);
+	}
+}
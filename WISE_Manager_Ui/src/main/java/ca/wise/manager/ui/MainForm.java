@@ -72,6 +72,7 @@ import ca.wise.lib.GlobalConfiguration;
 import ca.wise.lib.Job;
 import ca.wise.lib.JobLists;
 import ca.wise.lib.JobStartDetails;
+import ca.wise.lib.ListChangeDispatcher;
 import ca.wise.lib.MqttSettings;
 import ca.wise.lib.WISELogger;
 import ca.wise.lib.WISESupport;
@@ -356,15 +357,12 @@ class MainForm extends JFrame implements Translated {
 							cpuUsageBar.setValue(usage);
 						
 						try {
-    						jobs.lockJobQueue()
-    						    .forEach(j -> j.updateUsage());
+						    //all running jobs are sampled at once
+    						jobs.sampleUsage();
 						}
 						catch (Exception e) {
 						    //don't let the runnable crash
 						}
-						finally {
-						    jobs.unlockJobQueue();
-						}
 					}
 				}, 2000, Settings.getCpuUpdateFrequency() * 1000);
 			}
@@ -435,6 +433,7 @@ class MainForm extends JFrame implements Translated {
 		synchronized(locker) {
 			Job j = new Job(Settings.getJobDirectory(), details.jobName);
 			j.setRequestedCores(details.cores);
+			j.setHyperthreads(details.hyperthreads);
 			j.setSubmitted(LocalDateTime.now());
 			j.setPriority(details.priority);
 			if (details.validationState == JobRequest.VALIDATE_COMPLETE)
@@ -471,15 +470,10 @@ class MainForm extends JFrame implements Translated {
 			}
 			//don't allow list changes while looking for jobs to run
 			jobs.runOnLists(() -> {
-                //find the first job in the queue that is not yet running
+                //the first job in the queue that is not yet running comes after all running jobs
 			    MutableInt firstIndex = new MutableInt(-1);
-                for (int i = 0; i < jobs.getJobQueue().size(); i++) {
-                    Job j = jobs.getJobQueue().get(i);
-                    if (j.getStatus() == JobStage.Queued) {
-                        firstIndex.setValue(i);
-                        break;
-                    }
-                }
+                if (jobs.getQueuedCount() > 0)
+                    firstIndex.setValue(nextQueuedIndex(jobs.getJobQueue().size() - (int)jobs.getQueuedCount()));
 
                 //if there is at least one job that is not yet running
                 if (firstIndex.getValue() >= 0) {
@@ -490,19 +484,19 @@ class MainForm extends JFrame implements Translated {
                             for (CPUUsage available : coresAvailable) {
                                 //check to see if all CPUs in this block are currently unused by Manager
                                 if (runningJobs.stream()
-                                        .noneMatch(x -> x.getRunningCores().and(available.getRunningCores()).bitCount() > 0)) {
+                                        .noneMatch(x -> x.getRunningCores().intersects(available.getRunningCores()))) {
                                     //also check that nobody started an external process on these CPUs
-                                    if (details == null || available.getRunningCores().and(details.getUsedMask()).bitCount() == 0) {
+                                    if (details == null || !available.getRunningCores().intersects(details.getUsedMask())) {
                                         //we are going to use this block so add it to the used list
                                         runningJobs.add(available);
                                         //reserve the block in shared memory
                                         systemMemory.reserveBlock(details, available.getRunningCores());
                                         //save the details to start the job once we are outside the shared memory lock
-                                        toStart.add(new StartupDetails(firstIndex.getValue(), available));
+                                        toStart.add(new StartupDetails(jobs.getJobQueue().get(firstIndex.getValue()), available));
                                         //try the next job
-                                        firstIndex.increment();
+                                        firstIndex.setValue(nextQueuedIndex(firstIndex.getValue() + 1));
                                         //no more jobs to try
-                                        if (firstIndex.getValue() >= jobs.getJobQueue().size())
+                                        if (firstIndex.getValue() < 0)
                                             break;
                                     }
                                 }
@@ -514,15 +508,15 @@ class MainForm extends JFrame implements Translated {
                         for (CPUUsage available : coresAvailable) {
                             //check to see if all CPUs in this block are currently unused by Manager
                             if (runningJobs.stream()
-                                    .noneMatch(x -> x.getRunningCores().and(available.getRunningCores()).bitCount() > 0)) {
+                                    .noneMatch(x -> x.getRunningCores().intersects(available.getRunningCores()))) {
                                 //we are going to use this block so add it to the used list
                                 runningJobs.add(available);
                                 //save the details to start the job once we are outside the shared memory lock
-                                toStart.add(new StartupDetails(firstIndex.getValue(), available));
+                                toStart.add(new StartupDetails(jobs.getJobQueue().get(firstIndex.getValue()), available));
                                 //try the next job
-                                firstIndex.increment();
+                                firstIndex.setValue(nextQueuedIndex(firstIndex.getValue() + 1));
                                 //no more jobs to try
-                                if (firstIndex.getValue() >= jobs.getJobQueue().size())
+                                if (firstIndex.getValue() < 0)
                                     break;
                             }
                         }
@@ -530,23 +524,43 @@ class MainForm extends JFrame implements Translated {
     			    
     			    //actually start the jobs we have found
     			    for (StartupDetails details : toStart) {
-                        Job j = jobs.getJobQueue().get(details.index);
+                        Job j = details.job;
+                        jobs.markJobRunning(j);
                         j.setCpuUsage(details.available);
                         j.addJobCompleteListener(this::jobComplete);
-                        j.startJob();
+                        //the job was stopped after it was chosen, give its block back and move it to the finished jobs
+                        if (!j.startJob()) {
+                            runningJobs.remove(details.available);
+                            jobs.completeJob(j);
+                        }
     			    }
                 }
 			});
 		}
 	}
 	
+	/**
+	 * Find the next job in the queue that is waiting to run. Jobs that were stopped
+	 * stay in the queue until they are moved to the finished jobs.
+	 * @param from The index in the job queue to start looking at.
+	 * @return The index of the job, or -1 if no more jobs are waiting to run.
+	 */
+	private int nextQueuedIndex(int from) {
+	    List<Job> queue = jobs.getJobQueue();
+	    for (int i = Math.max(0, from); i < queue.size(); i++) {
+	        if (queue.get(i).getStatus() == JobStage.Queued)
+	            return i;
+	    }
+	    return -1;
+	}
+	
 	private static class StartupDetails {
-	    public final int index;
+	    public final Job job;
 	    
 	    public final CPUUsage available;
 	    
-	    public StartupDetails(int index, CPUUsage available) {
-	        this.index = index;
+	    public StartupDetails(Job job, CPUUsage available) {
+	        this.job = job;
 	        this.available = available;
 	    }
 	}
@@ -566,6 +580,7 @@ class MainForm extends JFrame implements Translated {
                     Job j = queue.get(0);
                     j.addJobCompleteListener(this::validationJobComplete);
                     validationJobRunning.set(true);
+                    jobs.markValidationRunning(j);
                     if (!j.validate()) {
                         validationJobRunning.set(false);
                         jobs.completeValidationJob(j);
@@ -585,7 +600,8 @@ class MainForm extends JFrame implements Translated {
 	private void repopulateLists() {
 		synchronized(locker) {
 		    jobListPopulated.set(false);
-			jobs = new JobLists(Paths.get(Settings.getJobDirectory()));
+			//list changes are batched and passed to the table models on the event thread
+			jobs = new JobLists(Paths.get(Settings.getJobDirectory()), new ListChangeDispatcher(SwingUtilities::invokeLater));
 			finishedJobs.setModel(new FinishedJobsTableModel(jobs));
 			queuedJobs.setModel(new QueuedJobsTableModel(jobs));
 			messageTable.setJobs(jobs);
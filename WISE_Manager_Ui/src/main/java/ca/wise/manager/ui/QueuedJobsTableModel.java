@@ -2,17 +2,14 @@ package ca.wise.manager.ui;
 
 import java.util.List;
 
-import javax.swing.table.AbstractTableModel;
-
 import ca.hss.tr.Resources;
 import ca.hss.tr.Translations;
 import ca.wise.lib.Job;
 import ca.wise.lib.JobLists;
-import ca.wise.lib.Job.IPropertyChangedListener;
+import ca.wise.lib.UsageHistory;
 import ca.wise.lib.Job.JobStage;
-import ca.wise.lib.JobLists.IListChangedListener;
 
-public class QueuedJobsTableModel extends AbstractTableModel implements IListChangedListener, IPropertyChangedListener {
+public class QueuedJobsTableModel extends JobListTableModel {
 	private static final long serialVersionUID = 1L;
 	
 	private JobLists jobs;
@@ -123,7 +120,7 @@ public class QueuedJobsTableModel extends AbstractTableModel implements IListCha
 
 	@Override
 	public int getColumnCount() {
-		return 5;
+		return 6;
 	}
 
 	@Override
@@ -147,6 +144,12 @@ public class QueuedJobsTableModel extends AbstractTableModel implements IListCha
 					return data.get(row).getRequestedCores();
 				case 4:
 					return String.format("%.2f", data.get(row).getUsage());
+				case 5:
+				    UsageHistory history = data.get(row).getUsageHistory();
+				    UsageHistory.Sample sample = history == null ? null : history.latest();
+				    if (sample != null && data.get(row).getStatus() == JobStage.Running)
+				        return String.format("%.1f", sample.rss / (1024.0 * 1024.0));
+				    break;
 				}
 			}
 		}
@@ -174,22 +177,12 @@ public class QueuedJobsTableModel extends AbstractTableModel implements IListCha
 			return resources.getString("job.cores");
 		case 4:
 			return resources.getString("job.usage");
+		case 5:
+			return resources.getString("job.memory");
 		}
 		return "";
 	}
 
-	@Override
-	public void itemAdded(Job job, int index) {
-		job.addPropertyChangedEventListener(this);
-		fireTableRowsInserted(index, index);
-	}
-
-	@Override
-	public void itemRemoved(Job job, int index) {
-		job.removePropertyChangedEventListener(this);
-		fireTableRowsDeleted(index, index);
-	}
-
 	@Override
 	public void onPropertyChanged(Job job, String name, Object value) {
 		int index = jobs.getJobQueue().indexOf(job);